@@ -1,5 +1,7 @@
 package org.team100.lib.controller;
 
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.team100.lib.math.Arena;
 import org.team100.lib.math.RandomVector;
 import org.team100.lib.math.Variance;
 import org.team100.lib.system.NonlinearPlant;
@@ -42,4 +44,17 @@ public class FeedbackControl<States extends Num, Inputs extends Num, Outputs ext
         if (debug) System.out.println("residual: " + residual);
         return m_K.times(residual);
     }
+
+    /**
+     * Same as calculate(x, r), with temporaries, and the output, in the arena, so
+     * it allocates nothing.
+     */
+    public Matrix<Inputs, N1> calculate(RandomVector<States> x, Matrix<States, N1> r, Arena arena) {
+        int n = x.x.getNumRows();
+        RandomVector<States> rv = arena.randomVector(x, r, arena.variance(n));
+        Matrix<States, N1> residual = rv.xminus(x.x, arena);
+        Matrix<Inputs, N1> u = arena.matrix(m_K.getNumRows(), 1);
+        CommonOps_DDRM.mult(m_K.getStorage().getDDRM(), residual.getStorage().getDDRM(), u.getStorage().getDDRM());
+        return u;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,229 @@
+package org.team100.lib.controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ejml.simple.SimpleMatrix;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.util.sendable.Sendable;
+import edu.wpi.first.util.sendable.SendableBuilder;
+import edu.wpi.first.wpilibj.Filesystem;
+
+/**
+ * Saves LQR gains on disk, so robotInit doesn't have to solve the DARE every
+ * time.
+ *
+ * Each gain is a small file named by a hash of everything that goes into it: A,
+ * B, Q, R and dt. A hit reads K from the file; a miss solves for K, as
+ * GainCalculator does, and writes the file for next time. If the files were
+ * made in simulation and deployed, the robot never solves anything.
+ *
+ * Files that can't be read are misses, and files that can't be written are
+ * counted and otherwise ignored, so the cache never makes startup fail.
+ *
+ * Threadsafe.
+ */
+public class GainCache implements Sendable {
+    private static final int kMagic = 0x4b434348; // "KCCH"
+    private static final int kVersion = 1;
+    private static final String kSuffix = ".dare";
+
+    private final Path m_dir;
+    private final LongAdder m_hits = new LongAdder();
+    private final LongAdder m_misses = new LongAdder();
+    private final LongAdder m_writeFailures = new LongAdder();
+    private final DoubleAdder m_savedSec = new DoubleAdder();
+    private final DoubleAdder m_solveSec = new DoubleAdder();
+
+    /** @param dir holds the cache files, created if necessary. */
+    public GainCache(Path dir) {
+        m_dir = dir;
+    }
+
+    /** Cache in the "gains" directory under deploy, i.e. src/main/deploy/gains. */
+    public static GainCache deploy() {
+        return new GainCache(Filesystem.getDeployDirectory().toPath().resolve("gains"));
+    }
+
+    /**
+     * LQR gain for the continuous system (A, B), from the cache if possible.
+     *
+     * @throws IllegalArgumentException if it needs solving and isn't
+     *                                  stabilizable.
+     */
+    public <States extends Num, Inputs extends Num> Matrix<Inputs, States> gain(
+            Matrix<States, States> A,
+            Matrix<States, Inputs> B,
+            Matrix<States, States> Q,
+            Matrix<Inputs, Inputs> R,
+            double dtSeconds) {
+        long start = System.nanoTime();
+        byte[] key = key(A, B, Q, R, dtSeconds);
+        Path path = m_dir.resolve(hex(key) + kSuffix);
+        Matrix<Inputs, States> K = new Matrix<>(new SimpleMatrix(B.getNumCols(), A.getNumRows()));
+        long solveNanos = read(path, key, K);
+        if (solveNanos >= 0) {
+            m_hits.increment();
+            m_savedSec.add((solveNanos - (System.nanoTime() - start)) / 1e9);
+            return K;
+        }
+        m_misses.increment();
+        long solveStart = System.nanoTime();
+        K = GainCalculator.solve(A, B, Q, R, dtSeconds);
+        solveNanos = System.nanoTime() - solveStart;
+        m_solveSec.add(solveNanos / 1e9);
+        write(path, key, solveNanos, K);
+        return K;
+    }
+
+    public long getHits() {
+        return m_hits.sum();
+    }
+
+    public long getMisses() {
+        return m_misses.sum();
+    }
+
+    public long getWriteFailures() {
+        return m_writeFailures.sum();
+    }
+
+    /** Solve time recorded with each hit, less the time to read it. */
+    public double getSavedSec() {
+        return m_savedSec.sum();
+    }
+
+    /** Time spent solving misses. */
+    public double getSolveSec() {
+        return m_solveSec.sum();
+    }
+
+    @Override
+    public void initSendable(SendableBuilder builder) {
+        builder.addDoubleProperty("hits", this::getHits, null);
+        builder.addDoubleProperty("misses", this::getMisses, null);
+        builder.addDoubleProperty("write failures", this::getWriteFailures, null);
+        builder.addDoubleProperty("saved sec", this::getSavedSec, null);
+        builder.addDoubleProperty("solve sec", this::getSolveSec, null);
+    }
+
+    /**
+     * Fill K from the file.
+     *
+     * @return the recorded solve time, or -1 if the file is missing or doesn't
+     *         match.
+     */
+    private static long read(Path path, byte[] key, Matrix<?, ?> K) {
+        if (!Files.isRegularFile(path))
+            return -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != kMagic || in.readInt() != kVersion)
+                return -1;
+            byte[] fileKey = new byte[key.length];
+            in.readFully(fileKey);
+            if (!Arrays.equals(key, fileKey))
+                return -1;
+            if (in.readInt() != K.getNumRows() || in.readInt() != K.getNumCols())
+                return -1;
+            long solveNanos = in.readLong();
+            for (int i = 0; i < K.getNumRows(); ++i) {
+                for (int j = 0; j < K.getNumCols(); ++j) {
+                    K.set(i, j, in.readDouble());
+                }
+            }
+            return Math.max(0, solveNanos);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Write to a temporary file and move it, so readers never see half a file.
+     * If either step fails, the temporary file is removed.
+     */
+    private void write(Path path, byte[] key, long solveNanos, Matrix<?, ?> K) {
+        Path tmp = null;
+        boolean moved = false;
+        try {
+            Files.createDirectories(m_dir);
+            tmp = Files.createTempFile(m_dir, "gain", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(kMagic);
+                out.writeInt(kVersion);
+                out.write(key);
+                out.writeInt(K.getNumRows());
+                out.writeInt(K.getNumCols());
+                out.writeLong(solveNanos);
+                for (int i = 0; i < K.getNumRows(); ++i) {
+                    for (int j = 0; j < K.getNumCols(); ++j) {
+                        out.writeDouble(K.get(i, j));
+                    }
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } catch (IOException e) {
+            m_writeFailures.increment();
+        } finally {
+            if (tmp != null && !moved)
+                deleteQuietly(tmp);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // nothing more to do
+        }
+    }
+
+    /** SHA-256 of the dimensions and values of everything that determines K. */
+    static byte[] key(Matrix<?, ?> A, Matrix<?, ?> B, Matrix<?, ?> Q, Matrix<?, ?> R, double dtSeconds) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buf = ByteBuffer.allocate(8);
+            for (Matrix<?, ?> m : Arrays.asList(A, B, Q, R)) {
+                buf.clear();
+                buf.putInt(m.getNumRows()).putInt(m.getNumCols());
+                digest.update(buf.array());
+                for (int i = 0; i < m.getNumRows(); ++i) {
+                    for (int j = 0; j < m.getNumCols(); ++j) {
+                        buf.clear();
+                        buf.putDouble(m.get(i, j));
+                        digest.update(buf.array());
+                    }
+                }
+            }
+            buf.clear();
+            buf.putDouble(dtSeconds);
+            digest.update(buf.array());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
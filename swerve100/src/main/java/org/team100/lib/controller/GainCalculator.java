@@ -22,7 +22,8 @@ public class GainCalculator<States extends Num, Inputs extends Num, Outputs exte
 
     /**
      * Calculate LQR gain linearized around zero. I don't think it's worth the
-     * trouble to make K sensitive to x, since all our systems are well behaved.
+     * trouble to make K sensitive to x, since all our systems are well behaved;
+     * if one isn't, see GainSchedule.
      * 
      * This is all cribbed from WPI code, I don't really understand what it's doing.
      * 
@@ -34,16 +35,63 @@ public class GainCalculator<States extends Num, Inputs extends Num, Outputs exte
             Vector<States> qelms,
             Vector<Inputs> relms,
             double dtSeconds) {
+        this(plant, qelms, relms, dtSeconds, null);
+    }
+
+    /**
+     * Calculate LQR gain linearized around zero, using the cache if it has it.
+     * 
+     * @param cache may be null
+     */
+    public GainCalculator(
+            NonlinearPlant<States, Inputs, Outputs> plant,
+            Vector<States> qelms,
+            Vector<Inputs> relms,
+            double dtSeconds,
+            GainCache cache) {
         Matrix<Inputs, N1> kUZero = new Matrix<>(plant.inputs(), Nat.N1());
         Matrix<States, States> m_Q = StateSpaceUtil.makeCostMatrix(qelms);
         Matrix<Inputs, Inputs> m_R = StateSpaceUtil.makeCostMatrix(relms);
         RandomVector<States> x = new RandomVector<>(new Matrix<>(plant.states(), Nat.N1()),
                 Variance.zero(plant.states()));
-        Matrix<States, States> A = Jacobian.numericalJacobianX(plant.states(), plant.states(), plant::f,
-                x, kUZero);
-        Matrix<States, Inputs> B = Jacobian.numericalJacobianU(plant.states(), plant.inputs(), plant::f,
-                x, kUZero);
+        if (cache == null) {
+            m_K = calculate(plant, x, kUZero, m_Q, m_R, dtSeconds);
+        } else {
+            m_K = cache.gain(
+                    Jacobian.jacobianX(plant, x, kUZero),
+                    Jacobian.jacobianU(plant, x, kUZero),
+                    m_Q, m_R, dtSeconds);
+        }
+    }
 
+    /**
+     * Calculate LQR gain linearized around (x, u).
+     * 
+     * @throws IllegalArgumentException if the linearized system isn't stabilizable.
+     */
+    public static <States extends Num, Inputs extends Num, Outputs extends Num> Matrix<Inputs, States> calculate(
+            NonlinearPlant<States, Inputs, Outputs> plant,
+            RandomVector<States> x,
+            Matrix<Inputs, N1> u,
+            Matrix<States, States> Q,
+            Matrix<Inputs, Inputs> R,
+            double dtSeconds) {
+        Matrix<States, States> A = Jacobian.jacobianX(plant, x, u);
+        Matrix<States, Inputs> B = Jacobian.jacobianU(plant, x, u);
+        return solve(A, B, Q, R, dtSeconds);
+    }
+
+    /**
+     * Calculate LQR gain for the continuous system (A, B).
+     * 
+     * @throws IllegalArgumentException if it isn't stabilizable.
+     */
+    public static <States extends Num, Inputs extends Num> Matrix<Inputs, States> solve(
+            Matrix<States, States> A,
+            Matrix<States, Inputs> B,
+            Matrix<States, States> Q,
+            Matrix<Inputs, Inputs> R,
+            double dtSeconds) {
         var discABPair = Discretization.discretizeAB(A, B, dtSeconds);
         var discA = discABPair.getFirst();
         var discB = discABPair.getSecond();
@@ -57,14 +105,14 @@ public class GainCalculator<States extends Num, Inputs extends Num, Outputs exte
             throw new IllegalArgumentException(builder.toString());
         }
 
-        var S = Drake.discreteAlgebraicRiccatiEquation(discA, discB, m_Q, m_R);
+        var S = Drake.discreteAlgebraicRiccatiEquation(discA, discB, Q, R);
 
         // K = (BᵀSB + R)⁻¹BᵀSA
-        m_K = discB
+        return discB
                 .transpose()
                 .times(S)
                 .times(discB)
-                .plus(m_R)
+                .plus(R)
                 .solve(discB.transpose().times(S).times(discA));
     }
 
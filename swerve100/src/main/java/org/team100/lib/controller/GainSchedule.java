@@ -0,0 +1,279 @@
+package org.team100.lib.controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.system.NonlinearPlant;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.StateSpaceUtil;
+import edu.wpi.first.math.Vector;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.wpilibj.Filesystem;
+
+/**
+ * LQR gains over a grid of operating points, for plants like the pendulum,
+ * where the linearization depends on the state.
+ *
+ * The grid spans some of the states, the axes; the other states are zero at
+ * every point, and each point is linearized with zero input, like
+ * GainCalculator.
+ *
+ * Solving all those DAREs is slow, so do it offline, e.g. in a test: compute()
+ * spreads the points over a fork-join pool, and write() saves the table. Put
+ * the file in src/main/deploy and load it on the robot with fromDeploy().
+ *
+ * Lookup interpolates between the surrounding points, so it's constant time
+ * for a given number of axes. States outside the grid use the gain at the edge.
+ */
+public class GainSchedule<States extends Num, Inputs extends Num> {
+    /** One scheduled state, sampled at evenly spaced points from min to max. */
+    public static class Axis {
+        public final int state;
+        public final double min;
+        public final double max;
+        public final int points;
+
+        public Axis(int state, double min, double max, int points) {
+            if (points < 2)
+                throw new IllegalArgumentException("Need at least two points: " + points);
+            if (!(max > min))
+                throw new IllegalArgumentException("Bad range: " + min + " " + max);
+            this.state = state;
+            this.min = min;
+            this.max = max;
+            this.points = points;
+        }
+
+        double step() {
+            return (max - min) / (points - 1);
+        }
+    }
+
+    private static final int kMagic = 0x47534348; // "GSCH"
+    private static final int kVersion = 1;
+    // tasks with fewer points than this don't split.
+    private static final int kGrain = 4;
+
+    private final Nat<States> m_states;
+    private final Nat<Inputs> m_inputs;
+    private final Axis[] m_axes;
+    private final int[] m_stride;
+    private final int m_kSize;
+    // one K per point, row-major, the first axis varying fastest.
+    private final double[] m_gains;
+
+    private GainSchedule(Nat<States> states, Nat<Inputs> inputs, Axis[] axes, double[] gains) {
+        m_states = states;
+        m_inputs = inputs;
+        m_axes = axes.clone();
+        m_stride = new int[axes.length];
+        int size = 1;
+        for (int a = 0; a < axes.length; ++a) {
+            if (axes[a].state < 0 || axes[a].state >= states.getNum())
+                throw new IllegalArgumentException("Bad axis state: " + axes[a].state);
+            m_stride[a] = size;
+            size *= axes[a].points;
+        }
+        m_kSize = inputs.getNum() * states.getNum();
+        if (gains.length != size * m_kSize)
+            throw new IllegalArgumentException("Wrong number of gains: " + gains.length);
+        m_gains = gains;
+    }
+
+    /** Compute the table using the common pool. */
+    public static <States extends Num, Inputs extends Num, Outputs extends Num> GainSchedule<States, Inputs> compute(
+            NonlinearPlant<States, Inputs, Outputs> plant,
+            Vector<States> qelms,
+            Vector<Inputs> relms,
+            double dtSeconds,
+            Axis... axes) {
+        return compute(ForkJoinPool.commonPool(), plant, qelms, relms, dtSeconds, axes);
+    }
+
+    /**
+     * Compute the table, one LQR gain per point.
+     *
+     * @param pool      runs the DAREs. the plant is shared by all its threads.
+     * @param dtSeconds time step for discretization, see GainCalculator.
+     * @throws IllegalArgumentException if any point isn't stabilizable.
+     */
+    public static <States extends Num, Inputs extends Num, Outputs extends Num> GainSchedule<States, Inputs> compute(
+            ForkJoinPool pool,
+            NonlinearPlant<States, Inputs, Outputs> plant,
+            Vector<States> qelms,
+            Vector<Inputs> relms,
+            double dtSeconds,
+            Axis... axes) {
+        Nat<States> states = plant.states();
+        Nat<Inputs> inputs = plant.inputs();
+        int n = states.getNum();
+        int m = inputs.getNum();
+        int size = 1;
+        for (Axis axis : axes) {
+            size *= axis.points;
+        }
+        Matrix<States, States> Q = StateSpaceUtil.makeCostMatrix(qelms);
+        Matrix<Inputs, Inputs> R = StateSpaceUtil.makeCostMatrix(relms);
+        Matrix<Inputs, N1> u = new Matrix<>(inputs, Nat.N1());
+        double[] gains = new double[size * n * m];
+        pool.invoke(new Sweep(0, size, i -> {
+            Matrix<States, N1> xmat = new Matrix<>(states, Nat.N1());
+            int rest = i;
+            for (Axis axis : axes) {
+                xmat.set(axis.state, 0, axis.min + (rest % axis.points) * axis.step());
+                rest /= axis.points;
+            }
+            RandomVector<States> x = new RandomVector<>(xmat, Variance.zero(states));
+            Matrix<Inputs, States> K = GainCalculator.calculate(plant, x, u, Q, R, dtSeconds);
+            System.arraycopy(K.getData(), 0, gains, i * n * m, n * m);
+        }));
+        return new GainSchedule<>(states, inputs, axes, gains);
+    }
+
+    /** Interpolated gain at x. */
+    public Matrix<Inputs, States> getK(Matrix<States, N1> x) {
+        double[] k = new double[m_kSize];
+        getK(x.getData(), k);
+        Matrix<Inputs, States> K = new Matrix<>(m_inputs, m_states);
+        int n = m_states.getNum();
+        for (int i = 0; i < m_kSize; ++i) {
+            K.set(i / n, i % n, k[i]);
+        }
+        return K;
+    }
+
+    /**
+     * Interpolated gain at x, row-major, into kOut. Allocates nothing, and is
+     * threadsafe.
+     */
+    public void getK(double[] x, double[] kOut) {
+        Arrays.fill(kOut, 0, m_kSize, 0);
+        int d = m_axes.length;
+        // each corner of the surrounding cell, weighted by its opposite volume.
+        for (int corner = 0; corner < (1 << d); ++corner) {
+            double weight = 1;
+            int point = 0;
+            for (int a = 0; a < d; ++a) {
+                Axis axis = m_axes[a];
+                double t = (x[axis.state] - axis.min) / axis.step();
+                int lo;
+                double s;
+                if (!(t > 0)) {
+                    lo = 0;
+                    s = 0;
+                } else if (t >= axis.points - 1) {
+                    lo = axis.points - 2;
+                    s = 1;
+                } else {
+                    lo = (int) t;
+                    s = t - lo;
+                }
+                if ((corner & (1 << a)) == 0) {
+                    weight *= 1 - s;
+                    point += lo * m_stride[a];
+                } else {
+                    weight *= s;
+                    point += (lo + 1) * m_stride[a];
+                }
+            }
+            if (weight == 0)
+                continue;
+            int offset = point * m_kSize;
+            for (int k = 0; k < m_kSize; ++k) {
+                kOut[k] += weight * m_gains[offset + k];
+            }
+        }
+    }
+
+    /** Save the table, see read(). */
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(kMagic);
+            out.writeInt(kVersion);
+            out.writeInt(m_states.getNum());
+            out.writeInt(m_inputs.getNum());
+            out.writeInt(m_axes.length);
+            for (Axis axis : m_axes) {
+                out.writeInt(axis.state);
+                out.writeDouble(axis.min);
+                out.writeDouble(axis.max);
+                out.writeInt(axis.points);
+            }
+            for (double g : m_gains) {
+                out.writeDouble(g);
+            }
+        }
+    }
+
+    /** Load a table from the deploy directory, i.e. src/main/deploy. */
+    public static <States extends Num, Inputs extends Num> GainSchedule<States, Inputs> fromDeploy(
+            String name, Nat<States> states, Nat<Inputs> inputs) throws IOException {
+        return read(Filesystem.getDeployDirectory().toPath().resolve(name), states, inputs);
+    }
+
+    /** Load a table written by write(), checking its dimensions. */
+    public static <States extends Num, Inputs extends Num> GainSchedule<States, Inputs> read(
+            Path path, Nat<States> states, Nat<Inputs> inputs) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != kMagic)
+                throw new IOException("Not a gain schedule: " + path);
+            int version = in.readInt();
+            if (version != kVersion)
+                throw new IOException("Unknown gain schedule version: " + version);
+            int n = in.readInt();
+            int m = in.readInt();
+            if (n != states.getNum() || m != inputs.getNum())
+                throw new IOException("Wrong dimensions: " + n + " states, " + m + " inputs");
+            Axis[] axes = new Axis[in.readInt()];
+            int size = 1;
+            for (int a = 0; a < axes.length; ++a) {
+                axes[a] = new Axis(in.readInt(), in.readDouble(), in.readDouble(), in.readInt());
+                size *= axes[a].points;
+            }
+            double[] gains = new double[size * n * m];
+            for (int i = 0; i < gains.length; ++i) {
+                gains[i] = in.readDouble();
+            }
+            return new GainSchedule<>(states, inputs, axes, gains);
+        }
+    }
+
+    /** Splits the points in half until they're small enough to do directly. */
+    private static class Sweep extends RecursiveAction {
+        private final int m_lo;
+        private final int m_hi;
+        private final IntConsumer m_work;
+
+        Sweep(int lo, int hi, IntConsumer work) {
+            m_lo = lo;
+            m_hi = hi;
+            m_work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (m_hi - m_lo <= kGrain) {
+                for (int i = m_lo; i < m_hi; ++i) {
+                    m_work.accept(i);
+                }
+                return;
+            }
+            int mid = (m_lo + m_hi) >>> 1;
+            invokeAll(new Sweep(m_lo, mid, m_work), new Sweep(mid, m_hi, m_work));
+        }
+    }
+}
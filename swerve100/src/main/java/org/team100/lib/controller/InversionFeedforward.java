@@ -1,5 +1,6 @@
 package org.team100.lib.controller;
 
+import org.team100.lib.math.Arena;
 import org.team100.lib.math.RandomVector;
 import org.team100.lib.math.Variance;
 import org.team100.lib.system.NonlinearPlant;
@@ -39,4 +40,15 @@ public class InversionFeedforward<States extends Num, Inputs extends Num, Output
         RandomVector<States> rdotv = new RandomVector<>(rDot, Variance.zero(m_plant.states()));
         return m_plant.finvWrtU(rv, rdotv);
     }
+
+    /**
+     * Same as calculateWithRAndRDot(r, rDot), with the arguments to finv in the
+     * arena. What finv itself allocates is up to the plant.
+     */
+    public Matrix<Inputs, N1> calculateWithRAndRDot(Matrix<States, N1> r, Matrix<States, N1> rDot, Arena arena) {
+        int n = r.getNumRows();
+        RandomVector<States> rv = arena.randomVector(r, arena.variance(n));
+        RandomVector<States> rdotv = arena.randomVector(rDot, arena.variance(n));
+        return m_plant.finvWrtU(rv, rdotv);
+    }
 }
@@ -0,0 +1,192 @@
+package org.team100.lib.estimator;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.team100.lib.system.PlantKernel;
+
+/**
+ * Adaptive-step Dormand-Prince 5(4) integration of the mean, xdot = f(x,u).
+ *
+ * Each step is fifth order, with an embedded fourth-order solution for error
+ * control: a step is accepted if the error is within the plant's tolerances,
+ * and the next step grows or shrinks to match. The first attempt covers the
+ * whole span, so smooth dynamics take one step. The last stage of each step is
+ * the first stage of the next, so an accepted step costs six evaluations of f.
+ *
+ * Works on the PlantKernel, with scratch arrays owned by this object, so it
+ * allocates nothing, and isn't threadsafe. The statistics can be shared.
+ *
+ * https://en.wikipedia.org/wiki/Dormand%E2%80%93Prince_method
+ * Hairer, Norsett, Wanner, "Solving Ordinary Differential Equations I," II.4.
+ */
+public class DormandPrince {
+    /** Step counts, safe to share between threads. */
+    public static class Statistics {
+        private final LongAdder m_integrations = new LongAdder();
+        private final LongAdder m_steps = new LongAdder();
+        private final LongAdder m_rejected = new LongAdder();
+        private final LongAccumulator m_maxSteps = new LongAccumulator(Math::max, 0);
+
+        /** Number of calls to integrate. */
+        public long getIntegrations() {
+            return m_integrations.sum();
+        }
+
+        /** Accepted steps, over all integrations. */
+        public long getSteps() {
+            return m_steps.sum();
+        }
+
+        /** Steps that were too big and had to be retried. */
+        public long getRejected() {
+            return m_rejected.sum();
+        }
+
+        /** The most accepted steps in one integration. */
+        public long getMaxSteps() {
+            return m_maxSteps.get();
+        }
+
+        void record(int steps, int rejected) {
+            m_integrations.increment();
+            m_steps.add(steps);
+            m_rejected.add(rejected);
+            m_maxSteps.accumulate(steps);
+        }
+    }
+
+    // after this many attempts, take the rest of the span in one step.
+    private static final int kMaxAttempts = 1000;
+    // step size control, see Hairer II.4.
+    private static final double kSafety = 0.9;
+    private static final double kMinFactor = 0.2;
+    private static final double kMaxFactor = 5.0;
+
+    // Butcher tableau
+    private static final double[][] A = {
+            {},
+            { 1.0 / 5 },
+            { 3.0 / 40, 9.0 / 40 },
+            { 44.0 / 45, -56.0 / 15, 32.0 / 9 },
+            { 19372.0 / 6561, -25360.0 / 2187, 64448.0 / 6561, -212.0 / 729 },
+            { 9017.0 / 3168, -355.0 / 33, 46732.0 / 5247, 49.0 / 176, -5103.0 / 18656 },
+            // the fifth-order weights; this stage is f at the new state.
+            { 35.0 / 384, 0, 500.0 / 1113, 125.0 / 192, -2187.0 / 6784, 11.0 / 84 } };
+    // fifth-order weights minus fourth-order weights
+    private static final double[] E = {
+            35.0 / 384 - 5179.0 / 57600,
+            0,
+            500.0 / 1113 - 7571.0 / 16695,
+            125.0 / 192 - 393.0 / 640,
+            -2187.0 / 6784 + 92097.0 / 339200,
+            11.0 / 84 - 187.0 / 2100,
+            -1.0 / 40 };
+
+    private final PlantKernel m_kernel;
+    private final Statistics m_stats;
+    private final int m_n;
+    private final double[][] m_k;
+    private final double[] m_x;
+    private final double[] m_xnew;
+    private final double[] m_xt;
+
+    public DormandPrince(PlantKernel kernel, Statistics stats) {
+        m_kernel = kernel;
+        m_stats = stats;
+        m_n = kernel.stateDim();
+        m_k = new double[7][m_n];
+        m_x = new double[m_n];
+        m_xnew = new double[m_n];
+        m_xt = new double[m_n];
+    }
+
+    /**
+     * Integrate the mean over dtS, which may be negative. The output may be the
+     * same array as the input.
+     *
+     * @return the number of accepted steps
+     */
+    public int integrate(double[] x, double[] u, double dtS, double[] xOut) {
+        if (!Double.isFinite(dtS))
+            throw new IllegalArgumentException("Bad time step: " + dtS);
+        System.arraycopy(x, 0, m_x, 0, m_n);
+        double remaining = dtS;
+        double h = dtS;
+        int steps = 0;
+        int rejected = 0;
+        boolean haveK1 = false;
+        while (remaining != 0) {
+            boolean force = steps + rejected >= kMaxAttempts;
+            if (force || Math.abs(h) > Math.abs(remaining))
+                h = remaining;
+            if (!haveK1) {
+                m_kernel.f(m_x, u, m_k[0]);
+                haveK1 = true;
+            }
+            double err = attempt(h, u);
+            if (err <= 1 || force) {
+                System.arraycopy(m_xnew, 0, m_x, 0, m_n);
+                m_kernel.normalize(m_x);
+                remaining -= h;
+                ++steps;
+                // first same as last
+                double[] k1 = m_k[0];
+                m_k[0] = m_k[6];
+                m_k[6] = k1;
+            } else {
+                ++rejected;
+            }
+            h *= factor(err);
+        }
+        System.arraycopy(m_x, 0, xOut, 0, m_n);
+        m_stats.record(steps, rejected);
+        return steps;
+    }
+
+    /**
+     * Try a step of h from m_x, given m_k[0]. Leaves the result in m_xnew and
+     * the last stage in m_k[6].
+     *
+     * @return the RMS error relative to the tolerance; less than one is good.
+     */
+    private double attempt(double h, double[] u) {
+        for (int s = 1; s < 7; ++s) {
+            double[] a = A[s];
+            double[] next = s == 6 ? m_xnew : m_xt;
+            for (int i = 0; i < m_n; ++i) {
+                double sum = 0;
+                for (int j = 0; j < s; ++j) {
+                    sum += a[j] * m_k[j][i];
+                }
+                next[i] = m_x[i] + h * sum;
+            }
+            if (s == 6) {
+                // keep m_xnew as is, for the error scale.
+                System.arraycopy(m_xnew, 0, m_xt, 0, m_n);
+            }
+            m_kernel.normalize(m_xt);
+            m_kernel.f(m_xt, u, m_k[s]);
+        }
+        double atol = m_kernel.absoluteTolerance();
+        double rtol = m_kernel.relativeTolerance();
+        double sumSq = 0;
+        for (int i = 0; i < m_n; ++i) {
+            double e = 0;
+            for (int j = 0; j < 7; ++j) {
+                e += E[j] * m_k[j][i];
+            }
+            e *= h;
+            double scale = atol + rtol * Math.max(Math.abs(m_x[i]), Math.abs(m_xnew[i]));
+            sumSq += (e / scale) * (e / scale);
+        }
+        return Math.sqrt(sumSq / m_n);
+    }
+
+    /** Next step size relative to this one. */
+    private static double factor(double err) {
+        if (err == 0)
+            return kMaxFactor;
+        return Math.max(kMinFactor, Math.min(kMaxFactor, kSafety * Math.pow(err, -0.2)));
+    }
+}
@@ -2,20 +2,122 @@ package org.team100.lib.estimator;
 
 import org.team100.lib.math.RandomVector;
 import org.team100.lib.math.Variance;
+import org.team100.lib.estimator.TransitionCache.Transition;
+import org.team100.lib.system.LinearPlant;
 import org.team100.lib.system.NonlinearPlant;
+import org.team100.lib.system.NonlinearPlantKernel;
+import org.team100.lib.system.PlantKernel;
 
 import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
 import edu.wpi.first.math.Num;
 import edu.wpi.first.math.numbers.N1;
 
 /**
  * Extrapolates previous state to estimate future state using system dynamics.
+ * 
+ * There are two versions of each method: one using RandomVector, and one using
+ * primitive arrays and the PlantKernel, which writes into the caller's arrays
+ * and allocates nothing after the first call. The array version uses scratch
+ * space in this object, so it's not threadsafe. If the plant implements
+ * PlantKernel itself, the RandomVector version uses the arrays internally too.
+ * 
+ * The mean is integrated either by a single RK4 step over the whole interval,
+ * or by adaptive Dormand-Prince steps with the plant's tolerances, which is
+ * better for long intervals, e.g. replay over a gap in the measurements. The
+ * covariance always uses the single RK4 step: the belief grows with the square
+ * of the interval (see WhiteNoiseVector), so dividing the interval into steps
+ * would understate it.
+ * 
+ * A LinearPlant can use its exact discrete transition instead, which is one
+ * matrix-vector product for the mean and one congruence for the covariance,
+ * with the noise integrated exactly too. Note this covariance is the usual
+ * F P Fᵀ + Q, which includes the cross terms that the RK4 version omits, so it's
+ * not the same as the other integrators.
+ * 
+ * UNSCENTED integrates sigma points by RK4 and gets the covariance from their
+ * spread (see UnscentedEstimator), so it uses only the plant's f, not its
+ * hand-written covariance rules; it works for any plant.
  */
 public class ExtrapolatingEstimator<States extends Num, Inputs extends Num, Outputs extends Num> {
+    public enum Integrator {
+        /** One RK4 step, four evaluations of f. */
+        RK4,
+        /** Adaptive RK45, as many steps as the dynamics need. */
+        DORMAND_PRINCE,
+        /** Discrete transition, only for LinearPlant. */
+        EXACT,
+        /** Unscented transform, 2n+1 RK4 steps. */
+        UNSCENTED
+    }
+
+    // the robot loop period, and some fractions of it.
+    private static final double[] kCommonDtS = { 0.02, 0.01, 0.005 };
+
     private final NonlinearPlant<States, Inputs, Outputs> m_plant;
+    private final DormandPrince.Statistics m_stats;
+    private volatile Integrator m_integrator;
+    // set up on first use
+    private volatile PlantKernel m_kernel;
+    private int m_n;
+    // for the array version
+    private Scratch m_scratch;
+    private DormandPrince m_dormandPrince;
+    private double[] m_xdp;
+    // set up on first use of EXACT
+    private volatile TransitionCache<States, Inputs> m_transitions;
+    // set up on first use of UNSCENTED
+    private volatile UnscentedEstimator<States, Inputs, Outputs> m_unscented;
 
     public ExtrapolatingEstimator(NonlinearPlant<States, Inputs, Outputs> plant) {
         m_plant = plant;
+        m_stats = new DormandPrince.Statistics();
+        m_integrator = Integrator.RK4;
+    }
+
+    /** @throws IllegalArgumentException for EXACT if the plant isn't linear. */
+    public void setIntegrator(Integrator integrator) {
+        if (integrator == Integrator.EXACT && !isLinear())
+            throw new IllegalArgumentException("Not a LinearPlant: " + m_plant.getClass().getSimpleName());
+        m_integrator = integrator;
+    }
+
+    public Integrator getIntegrator() {
+        return m_integrator;
+    }
+
+    /** True if the plant says it's linear, so EXACT can be used. */
+    public boolean isLinear() {
+        return m_plant instanceof LinearPlant;
+    }
+
+    /** Discrete transitions for EXACT. */
+    @SuppressWarnings("unchecked")
+    public TransitionCache<States, Inputs> getTransitions() {
+        TransitionCache<States, Inputs> transitions = m_transitions;
+        if (transitions == null) {
+            if (!isLinear())
+                throw new IllegalStateException("Not a LinearPlant: " + m_plant.getClass().getSimpleName());
+            LinearPlant<States, Inputs, Outputs> plant = (LinearPlant<States, Inputs, Outputs>) m_plant;
+            transitions = new TransitionCache<>(plant.A(), plant.B(), m_plant.w().P.getValue(), kCommonDtS);
+            m_transitions = transitions;
+        }
+        return transitions;
+    }
+
+    /** Sigma-point propagation for UNSCENTED. */
+    public UnscentedEstimator<States, Inputs, Outputs> getUnscented() {
+        UnscentedEstimator<States, Inputs, Outputs> unscented = m_unscented;
+        if (unscented == null) {
+            unscented = new UnscentedEstimator<>(m_plant);
+            m_unscented = unscented;
+        }
+        return unscented;
+    }
+
+    /** Step counts for DORMAND_PRINCE. */
+    public DormandPrince.Statistics getIntegratorStatistics() {
+        return m_stats;
     }
 
     /**
@@ -29,13 +131,80 @@ public class ExtrapolatingEstimator<States extends Num, Inputs extends Num, Outp
             RandomVector<States> x,
             Matrix<Inputs, N1> u,
             double dtS) {
+        if (m_integrator == Integrator.EXACT)
+            return exact(x, u, dtS, true);
         return addNoise(predict(x, u, dtS), dtS);
     }
 
+    RandomVector<States> predict(
+            RandomVector<States> x,
+            Matrix<Inputs, N1> u,
+            double dtS) {
+        if (m_integrator == Integrator.EXACT)
+            return exact(x, u, dtS, false);
+        if (m_integrator == Integrator.UNSCENTED)
+            return getUnscented().predict(x, u, dtS);
+        if (m_plant instanceof PlantKernel)
+            return predictWithKernel(x, u, dtS);
+        RandomVector<States> rk4 = rk4(x, u, dtS);
+        if (m_integrator == Integrator.RK4)
+            return rk4;
+        // this path may be used by several threads, so it has its own scratch.
+        PlantKernel kernel = kernel();
+        double[] xx = x.x.getData().clone();
+        new DormandPrince(kernel, m_stats).integrate(xx, u.getData(), dtS, xx);
+        Matrix<States, N1> mean = new Matrix<>(m_plant.states(), Nat.N1());
+        for (int i = 0; i < xx.length; ++i) {
+            mean.set(i, 0, xx[i]);
+        }
+        return x.make(mean, rk4.Kxx);
+    }
+
+    /**
+     * For plants that implement PlantKernel themselves, do the arithmetic on
+     * arrays, and make a RandomVector only at the end, instead of making
+     * Matrices for each intermediate step. This path may be used by several
+     * threads, so it has its own scratch; for small plants that's cheap.
+     */
+    private RandomVector<States> predictWithKernel(
+            RandomVector<States> x,
+            Matrix<Inputs, N1> u,
+            double dtS) {
+        PlantKernel kernel = kernel();
+        int n = kernel.stateDim();
+        double[] xx = x.x.getData().clone();
+        double[] uu = u.getData();
+        double[] xOut = new double[n];
+        double[] POut = new double[n * n];
+        rk4(kernel, new Scratch(n), xx, x.Kxx.getData(), uu, dtS, xOut, POut);
+        if (m_integrator == Integrator.DORMAND_PRINCE)
+            new DormandPrince(kernel, m_stats).integrate(xx, uu, dtS, xOut);
+        Matrix<States, N1> mean = new Matrix<>(m_plant.states(), Nat.N1());
+        for (int i = 0; i < n; ++i) {
+            mean.set(i, 0, xOut[i]);
+        }
+        return x.make(mean, Variance.fromData(m_plant.states(), POut));
+    }
+
+    /** x' = F x + G u, P' = F P Fᵀ, plus Q with noise. */
+    private RandomVector<States> exact(
+            RandomVector<States> x,
+            Matrix<Inputs, N1> u,
+            double dtS,
+            boolean noise) {
+        Transition<States, Inputs> t = getTransitions().get(dtS, noise);
+        Matrix<States, N1> mean = t.F.times(x.x).plus(t.G.times(u));
+        Variance<States> P = x.Kxx.congruence(t.F);
+        if (noise)
+            P = P.plus(t.noise);
+        // xplus applies the geometry, e.g. angle wrapping.
+        return x.make(x.xplus(mean.minus(x.x)), P);
+    }
+
     /**
      * RK4 integration
      */
-    RandomVector<States> predict(
+    RandomVector<States> rk4(
             RandomVector<States> x,
             Matrix<Inputs, N1> u,
             double dtS) {
@@ -51,9 +220,211 @@ public class ExtrapolatingEstimator<States extends Num, Inputs extends Num, Outp
 
     /** Noise integration produces variance of t */
     RandomVector<States> addNoise(RandomVector<States> x, double dtSeconds) {
-        Variance<States> noiseVariance = m_plant.w().P.copy();
-        noiseVariance = noiseVariance.times(dtSeconds);
-        return x.make(x.x, x.Kxx.plus(noiseVariance));
+        return x.make(x.x, x.Kxx.plus(m_plant.w().P, dtSeconds));
     }
 
+    /**
+     * Array version of predictWithNoise. The output arrays may be the same as
+     * the input ones.
+     * 
+     * @param x     initial state mean
+     * @param P     initial state covariance, row-major
+     * @param u     total control output
+     * @param dtS   time quantum (sec)
+     * @param xOut  predicted mean
+     * @param POut  predicted covariance, row-major
+     */
+    public void predictWithNoise(
+            double[] x,
+            double[] P,
+            double[] u,
+            double dtS,
+            double[] xOut,
+            double[] POut) {
+        if (m_integrator == Integrator.EXACT) {
+            exact(x, P, u, dtS, xOut, POut, true);
+            return;
+        }
+        predict(x, P, u, dtS, xOut, POut);
+        Variance<States> w = m_plant.w().P;
+        for (int i = 0; i < m_n; ++i) {
+            for (int j = 0; j < m_n; ++j) {
+                POut[i * m_n + j] += w.get(i, j) * dtS;
+            }
+        }
+    }
+
+    void predict(
+            double[] x,
+            double[] P,
+            double[] u,
+            double dtS,
+            double[] xOut,
+            double[] POut) {
+        init();
+        if (m_integrator == Integrator.EXACT) {
+            exact(x, P, u, dtS, xOut, POut, false);
+            return;
+        }
+        if (m_integrator == Integrator.UNSCENTED) {
+            getUnscented().predict(x, P, u, dtS, xOut, POut);
+            return;
+        }
+        if (m_integrator == Integrator.RK4) {
+            rk4(m_kernel, m_scratch, x, P, u, dtS, xOut, POut);
+            return;
+        }
+        // x and xOut may be the same, so keep the mean aside.
+        m_dormandPrince.integrate(x, u, dtS, m_xdp);
+        rk4(m_kernel, m_scratch, x, P, u, dtS, xOut, POut);
+        System.arraycopy(m_xdp, 0, xOut, 0, m_n);
+    }
+
+    /** Array version of exact. */
+    private void exact(
+            double[] x,
+            double[] P,
+            double[] u,
+            double dtS,
+            double[] xOut,
+            double[] POut,
+            boolean noise) {
+        init();
+        Transition<States, Inputs> t = getTransitions().get(dtS, noise);
+        final int n = m_n;
+        final double[] xt = m_scratch.xt;
+        final double[] Pt = m_scratch.Pt;
+        final int m = u.length;
+        // x and xOut may be the same, so use scratch.
+        for (int i = 0; i < n; ++i) {
+            double sum = 0;
+            for (int j = 0; j < n; ++j) {
+                sum += t.f[i * n + j] * x[j];
+            }
+            for (int k = 0; k < m; ++k) {
+                sum += t.g[i * m + k] * u[k];
+            }
+            xt[i] = sum;
+        }
+        // F P
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                double sum = 0;
+                for (int k = 0; k < n; ++k) {
+                    sum += t.f[i * n + k] * P[k * n + j];
+                }
+                Pt[i * n + j] = sum;
+            }
+        }
+        // (F P) Fᵀ
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                double sum = noise ? t.q[i * n + j] : 0;
+                for (int k = 0; k < n; ++k) {
+                    sum += Pt[i * n + k] * t.f[j * n + k];
+                }
+                POut[i * n + j] = sum;
+            }
+        }
+        System.arraycopy(xt, 0, xOut, 0, n);
+        m_kernel.normalize(xOut);
+    }
+
+    /**
+     * RK4 integration, the same arithmetic as the RandomVector version:
+     * covariances add, and scale by the square of the step.
+     */
+    private static void rk4(
+            PlantKernel kernel,
+            Scratch s,
+            double[] x,
+            double[] P,
+            double[] u,
+            double dtS,
+            double[] xOut,
+            double[] POut) {
+        final double h = dtS;
+        final int n = s.n;
+
+        kernel.f(x, u, s.k1);
+        kernel.propagate(x, P, u, s.P1);
+        step(kernel, s, x, P, s.k1, s.P1, h * 0.5);
+        kernel.f(s.xt, u, s.k2);
+        kernel.propagate(s.xt, s.Pt, u, s.P2);
+        step(kernel, s, x, P, s.k2, s.P2, h * 0.5);
+        kernel.f(s.xt, u, s.k3);
+        kernel.propagate(s.xt, s.Pt, u, s.P3);
+        step(kernel, s, x, P, s.k3, s.P3, h);
+        kernel.f(s.xt, u, s.k4);
+        kernel.propagate(s.xt, s.Pt, u, s.P4);
+
+        final double c = h / 6.0;
+        for (int i = 0; i < n; ++i) {
+            xOut[i] = x[i] + (s.k1[i] + 2.0 * s.k2[i] + 2.0 * s.k3[i] + s.k4[i]) * c;
+        }
+        kernel.normalize(xOut);
+        for (int i = 0; i < n * n; ++i) {
+            POut[i] = P[i] + (s.P1[i] + 4.0 * s.P2[i] + 4.0 * s.P3[i] + s.P4[i]) * c * c;
+        }
+    }
+
+    private PlantKernel kernel() {
+        PlantKernel kernel = m_kernel;
+        if (kernel == null) {
+            kernel = NonlinearPlantKernel.of(m_plant);
+            m_kernel = kernel;
+        }
+        return kernel;
+    }
+
+    /** Scratch for the array version. */
+    private void init() {
+        if (m_scratch != null)
+            return;
+        m_n = kernel().stateDim();
+        m_dormandPrince = new DormandPrince(kernel(), m_stats);
+        m_xdp = new double[m_n];
+        m_scratch = new Scratch(m_n);
+    }
+
+    /** Intermediate RK4 state, x + k * s, into the scratch arrays. */
+    private static void step(PlantKernel kernel, Scratch s, double[] x, double[] P, double[] k, double[] Pk,
+            double h) {
+        for (int i = 0; i < s.n; ++i) {
+            s.xt[i] = x[i] + k[i] * h;
+        }
+        kernel.normalize(s.xt);
+        for (int i = 0; i < s.n * s.n; ++i) {
+            s.Pt[i] = P[i] + Pk[i] * h * h;
+        }
+    }
+
+    /** Arrays for the RK4 stages. */
+    private static class Scratch {
+        final int n;
+        final double[] k1;
+        final double[] k2;
+        final double[] k3;
+        final double[] k4;
+        final double[] P1;
+        final double[] P2;
+        final double[] P3;
+        final double[] P4;
+        final double[] xt;
+        final double[] Pt;
+
+        Scratch(int n) {
+            this.n = n;
+            k1 = new double[n];
+            k2 = new double[n];
+            k3 = new double[n];
+            k4 = new double[n];
+            P1 = new double[n * n];
+            P2 = new double[n * n];
+            P3 = new double[n * n];
+            P4 = new double[n * n];
+            xt = new double[n];
+            Pt = new double[n * n];
+        }
+    }
 }
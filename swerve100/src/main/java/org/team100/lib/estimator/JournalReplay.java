@@ -0,0 +1,89 @@
+package org.team100.lib.estimator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.BiFunction;
+
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.storage.Journal;
+import org.team100.lib.system.NonlinearPlant;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * Reruns an estimator from a journal, as fast as it can go, so the behavior
+ * from a match can be reproduced and debugged offline.
+ * 
+ * Measurements and controls are fed to the controller in the order they were
+ * journaled, and replay is called wherever the original called it, with the
+ * original system time. Don't start background replay on the controller.
+ */
+public class JournalReplay<States extends Num, Inputs extends Num, Outputs extends Num> {
+    private final NonlinearPlant<States, Inputs, Outputs> m_plant;
+    private final BiFunction<Matrix<Outputs, N1>, Variance<Outputs>, RandomVector<Outputs>> m_measurement;
+
+    /**
+     * @param plant       for dimensions
+     * @param measurement makes measurements of the original class, e.g.
+     *                    AngularRandomVector::new
+     */
+    public JournalReplay(
+            NonlinearPlant<States, Inputs, Outputs> plant,
+            BiFunction<Matrix<Outputs, N1>, Variance<Outputs>, RandomVector<Outputs>> measurement) {
+        m_plant = plant;
+        m_measurement = measurement;
+    }
+
+    /** @return the number of replays */
+    public int run(Path path, NewBitemporalEstimatorController<States, Inputs, Outputs> controller)
+            throws IOException {
+        int[] replays = new int[1];
+        Journal.read(path, (kind, recordTime, validTime, rows, mean, covariance) -> {
+            switch (kind) {
+                case Journal.kMeasurement:
+                    controller.acceptMeasurement(recordTime, validTime, measurement(rows, mean, covariance));
+                    break;
+                case Journal.kControl:
+                    controller.record(validTime, control(rows, mean));
+                    break;
+                case Journal.kReplay:
+                    controller.replay(recordTime);
+                    replays[0] += 1;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown record kind: " + kind);
+            }
+        });
+        return replays[0];
+    }
+
+    private RandomVector<Outputs> measurement(int rows, double[] mean, double[] covariance) {
+        Nat<Outputs> outputs = m_plant.outputs();
+        if (rows != outputs.getNum())
+            throw new IllegalArgumentException("Wrong measurement size: " + rows);
+        Matrix<Outputs, N1> x = new Matrix<>(outputs, Nat.N1());
+        Matrix<Outputs, Outputs> P = new Matrix<>(outputs, outputs);
+        for (int i = 0; i < rows; ++i) {
+            x.set(i, 0, mean[i]);
+            for (int j = 0; j < rows; ++j) {
+                P.set(i, j, covariance[i * rows + j]);
+            }
+        }
+        return m_measurement.apply(x, new Variance<>(P));
+    }
+
+    private Matrix<Inputs, N1> control(int rows, double[] mean) {
+        Nat<Inputs> inputs = m_plant.inputs();
+        if (rows != inputs.getNum())
+            throw new IllegalArgumentException("Wrong control size: " + rows);
+        Matrix<Inputs, N1> u = new Matrix<>(inputs, Nat.N1());
+        for (int i = 0; i < rows; ++i) {
+            u.set(i, 0, mean[i]);
+        }
+        return u;
+    }
+}
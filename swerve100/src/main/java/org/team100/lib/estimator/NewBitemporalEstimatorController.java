@@ -1,18 +1,30 @@
 package org.team100.lib.estimator;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 
 import org.team100.lib.controller.FeedbackControl;
 import org.team100.lib.controller.InversionFeedforward;
+import org.team100.lib.fusion.Gate;
+import org.team100.lib.fusion.InformationVectorPooling;
 import org.team100.lib.fusion.LinearPooling;
+import org.team100.lib.fusion.Pooling;
 import org.team100.lib.fusion.VarianceWeightedLinearPooling;
 import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.RandomVectorInterpolator;
 import org.team100.lib.reference.Reference;
 import org.team100.lib.storage.BitemporalBuffer;
 import org.team100.lib.storage.EditableHistory;
 import org.team100.lib.storage.History;
+import org.team100.lib.storage.Journal;
+import org.team100.lib.storage.StagingQueue;
+import org.team100.lib.storage.StagingQueue.OverflowPolicy;
 import org.team100.lib.system.NonlinearPlant;
 
 import edu.wpi.first.math.Matrix;
@@ -27,6 +39,27 @@ import edu.wpi.first.math.numbers.N1;
  * measurements can be accepted at any time in any threads:
  * 
  * acceptMeasurement(systemTime, validTime, measurement)
+ * 
+ * they wait in a lock-free queue until the next replay, so the producers never
+ * block each other or the control loop.
+ * 
+ * late measurements are normally handled by replaying everything since then.
+ * with a retrodiction horizon, measurements that are only a little late are
+ * fused straight into the latest estimate instead, see RetrodictingEstimator.
+ * 
+ * replay can also run on its own thread, see startBackgroundReplay. then the
+ * control loop doesn't call replay, and predictNow uses the latest snapshot
+ * that replay published.
+ * 
+ * with a journal, every measurement, control, and replay is logged, so the
+ * estimator can be rerun offline, see JournalReplay.
+ * 
+ * with a gate, measurements too far from the prediction are dropped instead of
+ * fused, see Gate.
+ * 
+ * for plants without careful covariance rules in f, the predictor can use the
+ * unscented transform instead, predictor.setIntegrator(Integrator.UNSCENTED),
+ * see UnscentedEstimator.
  *
  * for control, use this sequence:
  * 
@@ -54,25 +87,71 @@ import edu.wpi.first.math.numbers.N1;
  */
 public class NewBitemporalEstimatorController<States extends Num, Inputs extends Num, Outputs extends Num> {
     private static final boolean debug = false;
+    private static final int kStagingCapacity = 256;
+    // by default, always replay.
+    private static final double kRetrodictionHorizonSec = 0;
+    // by default, replay everything.
+    private static final long kReplayBudgetUs = Long.MAX_VALUE;
+    // by default, don't coalesce.
+    private static final double kCoalesceEpsilonSec = 0;
 
     public final RandomVector<States> initialState;
     public final Matrix<Inputs, N1> initialControl;
     public final Reference<States> m_reference;
     // measurements are bitemporal so we can notice late-arriving ones
     public final BitemporalBuffer<RandomVector<Outputs>> m_measurements;
+    // new measurements wait here until replay
+    public final StagingQueue<RandomVector<Outputs>> m_staging;
     // we rewrite recent state history as needed.
     public final EditableHistory<RandomVector<States>> m_estimates;
     // control history is immutable.
     public final History<Matrix<Inputs, N1>> m_control_history;
     public final ExtrapolatingEstimator<States, Inputs, Outputs> predictor;
+    public final RetrodictingEstimator<States, Inputs, Outputs> retrodictor;
     public final PointEstimator<States, Inputs, Outputs> pointEstimator;
     public final TrendEstimator<States, Inputs, Outputs> trendEstimator;
     public final LinearPooling<States> pooling;
+    // for queries between estimates
+    public final RandomVectorInterpolator<States> interpolator;
     public final InversionFeedforward<States, Inputs, Outputs> feedforward;
     public final FeedbackControl<States, Inputs, Outputs> feedback;
 
     // the last recordTime we've seen from the buffer
     private long recordTime;
+    // late measurements within this lag are fused into the latest estimate
+    // instead of replayed.
+    private final double m_retrodictionHorizonSec;
+    // measurements drained in this replay, in valid-time order
+    private final EditableHistory<RandomVector<Outputs>> m_pending;
+    private final StagingQueue.Sink<RandomVector<Outputs>> m_sink;
+    // estimates after this time are missing a retrodicted measurement.
+    private double m_staleSinceSec = Double.MAX_VALUE;
+    private int m_retrodictions;
+    // replay stops when it runs out of budget
+    private final long m_replayBudgetNanos;
+    // measurements closer than this are fused before the state is propagated
+    private final double m_coalesceEpsilonSec;
+    // estimates after this time are missing measurements that replay deferred.
+    private double m_deferredSinceSec = Double.MAX_VALUE;
+    private int m_coalesced;
+    private int m_deferred;
+    // controls wait here for the replay thread, in background mode
+    private final StagingQueue<Matrix<Inputs, N1>> m_controlStaging;
+    private final StagingQueue.Sink<Matrix<Inputs, N1>> m_controlSink;
+    // the latest estimate, published at the end of each replay
+    private final AtomicReference<Snapshot<States, Inputs>> m_snapshot;
+    // non-null in background mode
+    private volatile Thread m_replayThread;
+    private volatile long m_replayNanos;
+    private volatile long m_maxReplayNanos;
+    // null means don't journal
+    private volatile Journal m_journal;
+    // predictNow interpolates between estimates closer than this.
+    private volatile double m_interpolationGapSec;
+    // for measurements at the same time
+    private volatile Pooling<States> m_prefusion;
+    // null means accept everything
+    private volatile Gate<States> m_gate;
 
     /**
      * @param system plant dynamics
@@ -87,33 +166,244 @@ public class NewBitemporalEstimatorController<States extends Num, Inputs extends
             Matrix<Inputs, N1> initialControl,
             Reference<States> reference,
             Matrix<Inputs, States> K) {
+        this(system, initialState, initialControl, reference, K, kStagingCapacity, OverflowPolicy.DROP_OLDEST,
+                kRetrodictionHorizonSec, kReplayBudgetUs, kCoalesceEpsilonSec);
+    }
+
+    /**
+     * @param system plant dynamics
+     * @param initialState used by the predictor
+     * @param initialControl used by the predictor
+     * @param reference produces trajectory
+     * @param K feedback gain
+     * @param stagingCapacity measurements that can wait between replays
+     * @param overflowPolicy which measurement to lose if too many are waiting
+     * @param retrodictionHorizonSec late measurements within this lag of the
+     *                               latest estimate are fused into it directly,
+     *                               older ones are replayed. zero means always
+     *                               replay.
+     * @param replayBudgetUs time allowed for each replay; the rest waits for
+     *                       the next one. it's checked between measurements,
+     *                       so a replay can overrun it by one predict and fuse,
+     *                       with all its coalesced measurements.
+     * @param coalesceEpsilonSec measurements this close together are treated
+     *                           as simultaneous. zero means never.
+     */
+    public NewBitemporalEstimatorController(
+            NonlinearPlant<States, Inputs, Outputs> system,
+            RandomVector<States> initialState,
+            Matrix<Inputs, N1> initialControl,
+            Reference<States> reference,
+            Matrix<Inputs, States> K,
+            int stagingCapacity,
+            OverflowPolicy overflowPolicy,
+            double retrodictionHorizonSec,
+            long replayBudgetUs,
+            double coalesceEpsilonSec) {
         this.initialState = initialState;
         this.initialControl = initialControl;
         m_reference = reference;
         m_measurements = new BitemporalBuffer<>(1000);
+        m_staging = new StagingQueue<>(stagingCapacity, overflowPolicy);
+        m_pending = new EditableHistory<>(m_staging.capacity());
+        m_sink = (recordTimeUs, validTimeSec, measurement) -> {
+            m_measurements.put(recordTimeUs, validTimeSec, measurement);
+            m_pending.put(validTimeSec, measurement);
+        };
+        m_retrodictionHorizonSec = retrodictionHorizonSec;
+        m_replayBudgetNanos = replayBudgetUs > Long.MAX_VALUE / 1000 ? Long.MAX_VALUE : replayBudgetUs * 1000;
+        m_coalesceEpsilonSec = coalesceEpsilonSec;
         m_estimates = new EditableHistory<>(1000);
         m_control_history = new History<>(1000);
+        m_controlStaging = new StagingQueue<>(kStagingCapacity, OverflowPolicy.DROP_OLDEST);
+        m_controlSink = (recordTimeUs, validTimeSec, u) -> m_control_history.put(validTimeSec, u);
+        m_snapshot = new AtomicReference<>();
         predictor = new ExtrapolatingEstimator<>(system);
+        retrodictor = new RetrodictingEstimator<>(system);
         pointEstimator = new PointEstimator<>(system);
         trendEstimator = new TrendEstimator<>(system);
         pooling = new VarianceWeightedLinearPooling<>();
+        m_prefusion = new InformationVectorPooling<>();
+        interpolator = new RandomVectorInterpolator<>();
         feedforward = new InversionFeedforward<>(system);
         feedback = new FeedbackControl<>(system, K);
     }
 
     /**
      * Accept a measurement about some time in the past. These are collected later
-     * by replay.  Threadsafe.
+     * by replay.  Threadsafe, never blocks.
      */
     public void acceptMeasurement(long recordTimeUs, double validTimeSec, RandomVector<Outputs> measurement) {
-        m_measurements.put(recordTimeUs, validTimeSec, measurement);
+        Journal journal = m_journal;
+        if (journal != null)
+            journal.writeMeasurement(recordTimeUs, validTimeSec, measurement);
+        m_staging.offer(recordTimeUs, validTimeSec, measurement);
     }
 
-    /** Update the state history with any measurements that are pending. */
+    /**
+     * Update the state history with any measurements that are pending, and
+     * publish the latest estimate.
+     * 
+     * @throws IllegalStateException if the background replay is running, since
+     *                               it owns the history.
+     */
     public int replay(long currentSystemTimeMicrosec) {
-        double earliestMeasurementSec = m_measurements.earliestValidTimeForRecordsAfter(recordTime);
+        if (m_replayThread != null)
+            throw new IllegalStateException("Background replay is running");
+        return replayOnce(currentSystemTimeMicrosec);
+    }
+
+    private int replayOnce(long currentSystemTimeMicrosec) {
+        long startNanos = System.nanoTime();
+        Journal journal = m_journal;
+        if (journal != null)
+            journal.writeReplay(currentSystemTimeMicrosec);
+        int replayCount = replayPending(currentSystemTimeMicrosec);
+        publish();
+        long durationNanos = System.nanoTime() - startNanos;
+        m_replayNanos = durationNanos;
+        if (durationNanos > m_maxReplayNanos)
+            m_maxReplayNanos = durationNanos;
+        return replayCount;
+    }
+
+    /**
+     * Run replay on its own thread, every periodMs, instead of in the control
+     * loop. While it's running, predictNow uses the latest published snapshot,
+     * and record queues the control for the replay thread.
+     * 
+     * @param clockMicrosec system time, e.g. RobotController::getFPGATime
+     * @param periodMs      pause between replays
+     */
+    public synchronized void startBackgroundReplay(LongSupplier clockMicrosec, long periodMs) {
+        if (m_replayThread != null)
+            return;
+        Thread thread = new Thread(() -> replayLoop(clockMicrosec, periodMs), "replay");
+        thread.setDaemon(true);
+        m_replayThread = thread;
+        thread.start();
+    }
+
+    /** Stop the replay thread and go back to calling replay directly. */
+    public synchronized void stopBackgroundReplay() {
+        Thread thread = m_replayThread;
+        if (thread == null)
+            return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        m_replayThread = null;
+        // the history belongs to this thread again
+        m_controlStaging.drainTo(m_controlSink);
+    }
+
+    /**
+     * Log every measurement, control, and replay from now on, or stop if null.
+     * The caller owns the journal.
+     */
+    public void setJournal(Journal journal) {
+        m_journal = journal;
+    }
+
+    /**
+     * Make predictNow interpolate between estimates no more than maxGapSec
+     * apart, instead of integrating forward from the earlier one. This only
+     * matters for times before the latest estimate. Zero means never.
+     */
+    public void setInterpolationGap(double maxGapSec) {
+        m_interpolationGapSec = maxGapSec;
+    }
+
+    /**
+     * Fuse coalesced measurements with this instead of InformationVectorPooling.
+     * It should be a product of the inputs, since they're independent
+     * measurements, and it should keep rows that none of them know as "don't
+     * know", which InformationPooling doesn't: it inverts the 1e9 variances,
+     * so two of them come out as 5e8.
+     */
+    public void setPrefusion(Pooling<States> prefusion) {
+        m_prefusion = prefusion;
+    }
+
+    /**
+     * Drop measurements that fail the gate against the prediction, instead of
+     * fusing them. Null, the default, means accept everything. The gate counts
+     * what it drops, so give each controller its own.
+     */
+    public void setGate(Gate<States> gate) {
+        m_gate = gate;
+    }
+
+    /** The latest published estimate, or null if there isn't one yet. */
+    public Snapshot<States, Inputs> getSnapshot() {
+        return m_snapshot.get();
+    }
+
+    /** Seconds since the latest snapshot was published, or infinity if none. */
+    public double getSnapshotAgeSec() {
+        Snapshot<States, Inputs> snapshot = m_snapshot.get();
+        if (snapshot == null)
+            return Double.POSITIVE_INFINITY;
+        return (System.nanoTime() - snapshot.publishedNanos) / 1e9;
+    }
+
+    /** Duration of the most recent replay. */
+    public double getReplayDurationSec() {
+        return m_replayNanos / 1e9;
+    }
+
+    /** Duration of the slowest replay so far. */
+    public double getMaxReplayDurationSec() {
+        return m_maxReplayNanos / 1e9;
+    }
+
+    private void replayLoop(LongSupplier clockMicrosec, long periodMs) {
+        while (!Thread.currentThread().isInterrupted()) {
+            replayOnce(clockMicrosec.getAsLong());
+            try {
+                Thread.sleep(periodMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /** Make the latest estimate available to other threads. */
+    private void publish() {
+        Entry<Double, RandomVector<States>> latest = m_estimates.validFloorEntry(Double.MAX_VALUE);
+        if (latest == null)
+            return;
+        Entry<Double, Matrix<Inputs, N1>> uEntry = m_control_history.validFloorEntry(latest.getKey());
+        Matrix<Inputs, N1> u = uEntry == null ? initialControl : uEntry.getValue();
+        m_snapshot.set(new Snapshot<>(latest.getKey(), latest.getValue(), u, System.nanoTime()));
+    }
+
+    private int replayPending(long currentSystemTimeMicrosec) {
+        long startNanos = System.nanoTime();
+        // move the waiting measurements into the buffer. the drained ones count
+        // as unseen even if their record time is before the last replay.
+        m_pending.trim(Double.NEGATIVE_INFINITY);
+        double earliestMeasurementSec = Math.min(
+                m_staging.drainTo(m_sink),
+                m_measurements.earliestValidTimeForRecordsAfter(recordTime));
+        // drain controls after measurements, so we have the controls that
+        // preceded them.
+        m_controlStaging.drainTo(m_controlSink);
         recordTime = currentSystemTimeMicrosec;
 
+        if (canRetrodict(earliestMeasurementSec))
+            return retrodict();
+
+        // also redo anything retrodiction skipped over, and pick up where the
+        // last replay ran out of time.
+        earliestMeasurementSec = Math.min(earliestMeasurementSec, m_staleSinceSec);
+        earliestMeasurementSec = Math.min(earliestMeasurementSec, m_deferredSinceSec);
+        m_staleSinceSec = Double.MAX_VALUE;
+        m_deferredSinceSec = Double.MAX_VALUE;
+
         // we need to replay all the measurements since then
         NavigableMap<Double, Entry<Long, RandomVector<Outputs>>> todo = m_measurements
                 .validTailMap(earliestMeasurementSec);
@@ -125,84 +415,226 @@ public class NewBitemporalEstimatorController<States extends Num, Inputs extends
         int replayCount = 0;
         if (debug)
             System.out.println("replay " + todo.size());
-        for (Entry<Double, Entry<Long, RandomVector<Outputs>>> measurementEntry : todo.entrySet()) {
-            replayCount += 1;
-            // find the time of the measurement
+        Iterator<Entry<Double, Entry<Long, RandomVector<Outputs>>>> it = todo.entrySet().iterator();
+        Entry<Double, Entry<Long, RandomVector<Outputs>>> measurementEntry = it.hasNext() ? it.next() : null;
+        while (measurementEntry != null) {
+            // always make some progress, even if the budget is tiny. this is
+            // the only check, so the worst case is one predict and fuse past it.
+            if (replayCount > 0 && System.nanoTime() - startNanos > m_replayBudgetNanos) {
+                m_deferredSinceSec = measurementEntry.getKey();
+                m_deferred += todo.size() - replayCount;
+                break;
+            }
             double measurementTime = measurementEntry.getKey();
-            // find the most-recent state earlier than the measurement
-            Entry<Double, RandomVector<States>> entry = m_estimates.floor(measurementTime);
-            if (entry == null) {
-                entry = Map.entry(0.0, initialState);
+            RandomVector<States> measurementState = pointEstimator
+                    .stateForMeasurementWithZeroU(measurementEntry.getValue().getValue());
+            replayCount += 1;
+            measurementEntry = it.hasNext() ? it.next() : null;
+            // fuse any measurements close enough to count as simultaneous, so we
+            // only propagate the state once. they're fused all at once.
+            List<RandomVector<States>> simultaneous = null;
+            while (measurementEntry != null && m_coalesceEpsilonSec > 0
+                    && measurementEntry.getKey() - measurementTime <= m_coalesceEpsilonSec) {
+                if (simultaneous == null) {
+                    simultaneous = new ArrayList<>();
+                    simultaneous.add(measurementState);
+                }
+                simultaneous.add(pointEstimator.stateForMeasurementWithZeroU(measurementEntry.getValue().getValue()));
+                replayCount += 1;
+                m_coalesced += 1;
+                measurementEntry = it.hasNext() ? it.next() : null;
             }
-            double stateTimeS = entry.getKey();
-            RandomVector<States> priorState = entry.getValue();
-            if (debug)
-                System.out.println("found position " + priorState.x.get(0, 0));
+            if (simultaneous != null)
+                measurementState = m_prefusion.fuse(simultaneous);
+            estimate(measurementTime, measurementState);
+        }
+        return replayCount;
+    }
 
-            // this is the control in use at the time of the prior state
-            Entry<Double, Matrix<Inputs, N1>> historicalUEntry = m_control_history.floor(stateTimeS);
-            if (historicalUEntry == null)
-                historicalUEntry = Map.entry(0.0, initialControl);
-            Matrix<Inputs, N1> historical_u = historicalUEntry.getValue();
-            if (debug)
-                System.out.println("found u " + historical_u);
-
-            // there could be multiple controls between the state and the measurement.
-            // so make a new state for each control
-            NavigableMap<Double, Matrix<Inputs, N1>> uEntries = m_control_history.validSubMap(stateTimeS,
-                    measurementTime);
-            for (Entry<Double, Matrix<Inputs, N1>> uEntry : uEntries.entrySet()) {
-                // integrate the prior state and the prior u up to the new u
-                double endS = uEntry.getKey();
-                double integrationSpanS = endS - stateTimeS;
-                if (debug)
-                    System.out
-                            .println("tween integrating from " + stateTimeS + " to " + endS + " u " + historical_u);
-                if (debug)
-                    System.out.println("tween prior state " + priorState.x.get(0, 0));
-                priorState = predictor.predictWithNoise(
-                        priorState,
-                        historical_u,
-                        integrationSpanS);
-                if (debug)
-                    System.out.println("tween estimate position " + priorState.x.get(0, 0));
-
-                historical_u = uEntry.getValue();
-                stateTimeS = endS;
+    /** Number of measurements fused into a simultaneous one before replay. */
+    public int getCoalescedCount() {
+        return m_coalesced;
+    }
+
+    /**
+     * Number of measurements left for a later replay because of the budget,
+     * counted again each time they're deferred.
+     */
+    public int getDeferredCount() {
+        return m_deferred;
+    }
+
+    /** Number of late measurements fused without replay. */
+    public int getRetrodictionCount() {
+        return m_retrodictions;
+    }
+
+    /** True if the measurements since the last replay are all within the horizon. */
+    private boolean canRetrodict(double earliestMeasurementSec) {
+        if (m_retrodictionHorizonSec <= 0)
+            return false;
+        // the latest estimate is missing something, so replay.
+        if (m_deferredSinceSec < Double.MAX_VALUE)
+            return false;
+        Entry<Double, RandomVector<States>> latest = m_estimates.validFloorEntry(Double.MAX_VALUE);
+        if (latest == null)
+            return false;
+        return latest.getKey() - earliestMeasurementSec <= m_retrodictionHorizonSec;
+    }
+
+    /**
+     * Apply the pending measurements without replay: in-sequence ones are
+     * estimated as usual, late ones are fused into the latest estimate.
+     * 
+     * This relies on measurements arriving through acceptMeasurement.
+     */
+    private int retrodict() {
+        int count = 0;
+        for (Entry<Double, RandomVector<Outputs>> pendingEntry : m_pending.validTailMap(Double.NEGATIVE_INFINITY)
+                .entrySet()) {
+            count += 1;
+            double measurementTime = pendingEntry.getKey();
+            Entry<Double, RandomVector<States>> latest = m_estimates.validFloorEntry(Double.MAX_VALUE);
+            if (measurementTime >= latest.getKey()) {
+                estimate(measurementTime, pointEstimator.stateForMeasurementWithZeroU(pendingEntry.getValue()));
+                continue;
             }
-            // now the prior state and state time are up to the most-recent change in u
-            // and the historical u is also the latest u
-            // so integrate the last little bit
+            double latestTime = latest.getKey();
+            Matrix<States, N1> retrodicted = retrodictMean(latest.getValue(), latestTime, measurementTime);
+            Entry<Double, Matrix<Inputs, N1>> uEntry = m_control_history.validFloorEntry(measurementTime);
+            Matrix<Inputs, N1> u = uEntry == null ? initialControl : uEntry.getValue();
+            RandomVector<States> measurementState = pointEstimator
+                    .stateForMeasurementWithZeroU(pendingEntry.getValue());
+            // the latest covariance stands in for the one at the measurement time.
+            Gate<States> gate = m_gate;
+            if (gate != null && !gate.test(latest.getValue().make(retrodicted, latest.getValue().Kxx),
+                    measurementState))
+                continue;
+            RandomVector<States> fused = retrodictor.update(
+                    latest.getValue(),
+                    retrodicted,
+                    u,
+                    latestTime - measurementTime,
+                    measurementState);
             if (debug)
-                System.out.println(
-                        "replay integrating from " + stateTimeS + " to " + measurementTime + " u " + historical_u);
+                System.out.println("retrodict " + measurementTime + " into " + latestTime + " " + fused.x.get(0, 0));
+            // replace the latest estimate; the ones in between are now stale.
+            m_estimates.trim(latestTime);
+            m_estimates.put(latestTime, fused);
+            m_staleSinceSec = Math.min(m_staleSinceSec, measurementTime);
+            m_retrodictions += 1;
+        }
+        return count;
+    }
+
+    /**
+     * Integrate backwards from the state at fromSec to toSec, using the controls
+     * in effect along the way. Only the mean is used, so no noise.
+     */
+    private Matrix<States, N1> retrodictMean(RandomVector<States> x, double fromSec, double toSec) {
+        double stateTimeS = fromSec;
+        Entry<Double, Matrix<Inputs, N1>> uEntry = m_control_history.validFloorEntry(stateTimeS);
+        while (uEntry != null && uEntry.getKey() > toSec) {
+            // this control was in use from its time up to the state time
+            x = predictor.predict(x, uEntry.getValue(), uEntry.getKey() - stateTimeS);
+            stateTimeS = uEntry.getKey();
+            uEntry = m_control_history.validFloorEntry(Math.nextDown(stateTimeS));
+        }
+        Matrix<Inputs, N1> u = uEntry == null ? initialControl : uEntry.getValue();
+        return predictor.predict(x, u, toSec - stateTimeS).x;
+    }
+
+    /**
+     * Fuse the measurement with the prior estimate extrapolated to the measurement
+     * time, and record the result.
+     */
+    private void estimate(double measurementTime, RandomVector<States> measurementState) {
+        // find the most-recent state earlier than the measurement
+        Entry<Double, RandomVector<States>> entry = m_estimates.floor(measurementTime);
+        if (entry == null) {
+            entry = Map.entry(0.0, initialState);
+        }
+        double stateTimeS = entry.getKey();
+        RandomVector<States> priorState = entry.getValue();
+        if (debug)
+            System.out.println("found position " + priorState.x.get(0, 0));
+
+        // this is the control in use at the time of the prior state
+        Entry<Double, Matrix<Inputs, N1>> historicalUEntry = m_control_history.floor(stateTimeS);
+        if (historicalUEntry == null)
+            historicalUEntry = Map.entry(0.0, initialControl);
+        Matrix<Inputs, N1> historical_u = historicalUEntry.getValue();
+        if (debug)
+            System.out.println("found u " + historical_u);
+
+        // there could be multiple controls between the state and the measurement.
+        // so make a new state for each control
+        NavigableMap<Double, Matrix<Inputs, N1>> uEntries = m_control_history.validSubMap(stateTimeS,
+                measurementTime);
+        for (Entry<Double, Matrix<Inputs, N1>> uEntry : uEntries.entrySet()) {
+            // integrate the prior state and the prior u up to the new u
+            double endS = uEntry.getKey();
+            double integrationSpanS = endS - stateTimeS;
             if (debug)
-                System.out.println("replay prior state " + priorState.x.get(0, 0));
-            double stateToMeasurementS = measurementTime - stateTimeS;
-            RandomVector<States> predictedState = predictor.predictWithNoise(
+                System.out
+                        .println("tween integrating from " + stateTimeS + " to " + endS + " u " + historical_u);
+            if (debug)
+                System.out.println("tween prior state " + priorState.x.get(0, 0));
+            priorState = predictor.predictWithNoise(
                     priorState,
                     historical_u,
-                    stateToMeasurementS);
+                    integrationSpanS);
             if (debug)
-                System.out.println("replay estimate " + predictedState.x.get(0, 0));
+                System.out.println("tween estimate position " + priorState.x.get(0, 0));
 
-            // this is the measurement state
-            RandomVector<States> measurementState = pointEstimator
-                    .stateForMeasurementWithZeroU(measurementEntry.getValue().getValue());
-            if (debug)
-                System.out.println("replay measurement " + measurementState.x.get(0, 0));
-            // pool the measurement and the extrapolation
-            RandomVector<States> fused = pooling.fuse(predictedState, measurementState);
-            // record the new estimate
-            if (debug)
-                System.out.println("replay fused " + fused.x.get(0, 0));
-            m_estimates.put(measurementTime, fused);
+            historical_u = uEntry.getValue();
+            stateTimeS = endS;
         }
-        return replayCount;
+        // now the prior state and state time are up to the most-recent change in u
+        // and the historical u is also the latest u
+        // so integrate the last little bit
+        if (debug)
+            System.out.println(
+                    "replay integrating from " + stateTimeS + " to " + measurementTime + " u " + historical_u);
+        if (debug)
+            System.out.println("replay prior state " + priorState.x.get(0, 0));
+        double stateToMeasurementS = measurementTime - stateTimeS;
+        RandomVector<States> predictedState = predictor.predictWithNoise(
+                priorState,
+                historical_u,
+                stateToMeasurementS);
+        if (debug)
+            System.out.println("replay estimate " + predictedState.x.get(0, 0));
+
+        if (debug)
+            System.out.println("replay measurement " + measurementState.x.get(0, 0));
+        // an outlier isn't worth fusing, or recording.
+        Gate<States> gate = m_gate;
+        if (gate != null && !gate.test(predictedState, measurementState))
+            return;
+        // pool the measurement and the extrapolation
+        RandomVector<States> fused = pooling.fuse(predictedState, measurementState);
+        // record the new estimate
+        if (debug)
+            System.out.println("replay fused " + fused.x.get(0, 0));
+        m_estimates.put(measurementTime, fused);
     }
 
     /** Predict the state for the current instant. */
     public RandomVector<States> predictNow(double currentTimeSec) {
+        if (m_replayThread != null) {
+            Snapshot<States, Inputs> snapshot = m_snapshot.get();
+            if (snapshot == null)
+                return predictor.predictWithNoise(initialState, initialControl, currentTimeSec);
+            return predictor.predictWithNoise(snapshot.state, snapshot.control,
+                    currentTimeSec - snapshot.stateTimeSec);
+        }
+        double maxGapSec = m_interpolationGapSec;
+        if (maxGapSec > 0) {
+            RandomVector<States> interpolated = m_estimates.interpolate(currentTimeSec, maxGapSec, interpolator);
+            if (interpolated != null)
+                return interpolated;
+        }
         Entry<Double, RandomVector<States>> entry = m_estimates.floor(currentTimeSec);
         if (entry == null)
             entry = Map.entry(0.0, initialState);
@@ -243,7 +675,30 @@ public class NewBitemporalEstimatorController<States extends Num, Inputs extends
 
     /** Record the actual u applied to the actuators. */
     public void record(double timeSec, Matrix<Inputs, N1> u) {
+        Journal journal = m_journal;
+        if (journal != null)
+            journal.writeControl(timeSec, u);
+        if (m_replayThread != null) {
+            m_controlStaging.offer(0, timeSec, u);
+            return;
+        }
         m_control_history.put(timeSec, u);
 
     }
+
+    /** The latest estimate and the control in effect at the time. Immutable. */
+    public static class Snapshot<States extends Num, Inputs extends Num> {
+        public final double stateTimeSec;
+        public final RandomVector<States> state;
+        public final Matrix<Inputs, N1> control;
+        // System.nanoTime() when replay published it
+        public final long publishedNanos;
+
+        Snapshot(double stateTimeSec, RandomVector<States> state, Matrix<Inputs, N1> control, long publishedNanos) {
+            this.stateTimeSec = stateTimeSec;
+            this.state = state;
+            this.control = control;
+            this.publishedNanos = publishedNanos;
+        }
+    }
 }
@@ -0,0 +1,490 @@
+package org.team100.lib.estimator;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.team100.lib.math.Cholesky;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.system.NonlinearPlant;
+import org.team100.lib.system.NonlinearPlantKernel;
+import org.team100.lib.system.PlantKernel;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * Particle filter, for beliefs a RandomVector can't hold, e.g. two candidate
+ * poses from an ambiguous tag, or a robot that may or may not have been pushed.
+ * Gaussian fusion averages the modes into one, somewhere neither of them is;
+ * the particles keep them apart until the measurements decide.
+ *
+ * The particles are stored by state row, one array per row, so each pass reads
+ * memory in order. Prediction integrates each particle with one RK4 step of the
+ * plant's mean dynamics, and adds a sample of the process noise. Measurements
+ * are in state space, like the rest of the pipeline (see hinv), and reweight
+ * the particles by their Gaussian likelihood, ignoring dontknow rows. Both
+ * passes are split over a fork-join pool; the plant is shared by all its
+ * threads. Each chunk gets its own random stream, seeded by its position, so
+ * the result doesn't depend on the pool.
+ *
+ * When the effective sample size falls below half the particles, they're
+ * resampled, systematically: one random offset, then evenly spaced, which is
+ * O(n) and adds less noise than drawing each one independently.
+ *
+ * getEstimate() summarizes the particles as a RandomVector, for the
+ * controllers, which of course loses any multimodality.
+ *
+ * Not threadsafe; the pool is only used inside each call.
+ *
+ * https://en.wikipedia.org/wiki/Particle_filter
+ */
+public class ParticleFilter<States extends Num, Inputs extends Num, Outputs extends Num> {
+    /** Resample when the effective sample size falls below this fraction. */
+    private static final double kResampleThreshold = 0.5;
+    // chunks with fewer particles than this don't split.
+    private static final int kGrain = 1024;
+    // spreads the chunk seeds out
+    private static final long kGolden = 0x9E3779B97F4A7C15L;
+
+    /** Work on particles lo (inclusive) to hi (exclusive). */
+    private interface Range {
+        void run(int lo, int hi);
+    }
+
+    private final ForkJoinPool m_pool;
+    private final NonlinearPlant<States, Inputs, Outputs> m_plant;
+    private final PlantKernel m_kernel;
+    private final int m_n;
+    private final int m_size;
+    private final SplittableRandom m_random;
+    // one array per state row
+    private double[][] m_x;
+    // for resampling, swapped with m_x
+    private double[][] m_spare;
+    // relative to the largest, which is zero.
+    private final double[] m_logWeight;
+    // cumulative weights, for resampling
+    private final double[] m_cumulative;
+    private int m_resampleCount;
+
+    /** Uses the common pool. */
+    public ParticleFilter(NonlinearPlant<States, Inputs, Outputs> plant, int particles, long seed) {
+        this(ForkJoinPool.commonPool(), plant, particles, seed);
+    }
+
+    /**
+     * @param pool      propagates and weighs the particles.
+     * @param particles how many
+     * @param seed      for the random streams, so runs can be repeated
+     */
+    public ParticleFilter(ForkJoinPool pool, NonlinearPlant<States, Inputs, Outputs> plant, int particles,
+            long seed) {
+        if (particles < 1)
+            throw new IllegalArgumentException("Need at least one particle: " + particles);
+        m_pool = pool;
+        m_plant = plant;
+        m_kernel = NonlinearPlantKernel.of(plant);
+        m_n = m_kernel.stateDim();
+        m_size = particles;
+        m_random = new SplittableRandom(seed);
+        m_x = new double[m_n][particles];
+        m_spare = new double[m_n][particles];
+        m_logWeight = new double[particles];
+        m_cumulative = new double[particles];
+    }
+
+    /**
+     * Draw the particles from x, with equal weights. Rows x doesn't know are
+     * drawn with that huge variance, which is right for angles, since they
+     * wrap, but probably not for anything else.
+     */
+    public void initialize(RandomVector<States> x) {
+        double[] mean = x.x.getData();
+        double[] L = new double[m_n * m_n];
+        if (Cholesky.factor(m_n, x.Kxx.getData(), L) < 0)
+            throw new IllegalArgumentException("Covariance isn't positive semidefinite");
+        long base = m_random.nextLong();
+        run((lo, hi) -> {
+            SplittableRandom random = random(base, lo);
+            double[] p = new double[m_n];
+            double[] z = new double[m_n];
+            for (int i = lo; i < hi; ++i) {
+                System.arraycopy(mean, 0, p, 0, m_n);
+                addNoise(random, L, z, p);
+                scatter(p, i);
+                m_logWeight[i] = 0;
+            }
+        });
+    }
+
+    /**
+     * Move each particle under control u for dtS, with process noise, see
+     * NonlinearPlant.w().
+     */
+    public void predict(Matrix<Inputs, N1> u, double dtS) {
+        double[] uu = u.getData();
+        double[] Q = m_plant.w().P.getData();
+        for (int i = 0; i < Q.length; ++i) {
+            Q[i] *= Math.abs(dtS);
+        }
+        double[] L = new double[m_n * m_n];
+        if (Cholesky.factor(m_n, Q, L) < 0)
+            throw new IllegalArgumentException("Process noise isn't positive semidefinite");
+        long base = m_random.nextLong();
+        run((lo, hi) -> {
+            SplittableRandom random = random(base, lo);
+            Scratch s = new Scratch(m_n);
+            for (int i = lo; i < hi; ++i) {
+                gather(i, s.x);
+                rk4(s, uu, dtS);
+                addNoise(random, L, s.z, s.x);
+                scatter(s.x, i);
+            }
+        });
+    }
+
+    /** Reweight by the likelihood of the measurement, and maybe resample. */
+    public void update(RandomVector<States> measurement) {
+        update(List.of(measurement));
+    }
+
+    /**
+     * Reweight by the likelihood of any of the hypotheses, equally likely, e.g.
+     * both solutions of an ambiguous tag. Then maybe resample.
+     */
+    public void update(List<RandomVector<States>> hypotheses) {
+        if (hypotheses.isEmpty())
+            throw new IllegalArgumentException("No hypotheses");
+        int k = hypotheses.size();
+        double[][] z = new double[k][];
+        double[][] inverse = new double[k][];
+        double[] logNorm = new double[k];
+        for (int h = 0; h < k; ++h) {
+            z[h] = hypotheses.get(h).x.getData();
+            inverse[h] = new double[m_n * m_n];
+            logNorm[h] = -0.5 * Math.log(inverse(hypotheses.get(h).Kxx, inverse[h]));
+        }
+        run((lo, hi) -> {
+            double[] p = new double[m_n];
+            double[] d = new double[m_n];
+            double[] logLikelihood = new double[k];
+            for (int i = lo; i < hi; ++i) {
+                gather(i, p);
+                double max = Double.NEGATIVE_INFINITY;
+                for (int h = 0; h < k; ++h) {
+                    for (int j = 0; j < m_n; ++j) {
+                        d[j] = p[j] - z[h][j];
+                    }
+                    m_kernel.normalize(d);
+                    logLikelihood[h] = logNorm[h] - 0.5 * quadratic(inverse[h], d);
+                    max = Math.max(max, logLikelihood[h]);
+                }
+                // log-sum-exp, to keep far particles from underflowing to zero.
+                double sum = 0;
+                for (int h = 0; h < k; ++h) {
+                    sum += Math.exp(logLikelihood[h] - max);
+                }
+                m_logWeight[i] += max + Math.log(sum);
+            }
+        });
+        normalizeWeights();
+        if (getEffectiveSampleSize() < kResampleThreshold * m_size)
+            resample();
+    }
+
+    /** (Σw)² / Σw², from 1 (one particle has all the weight) to size(). */
+    public double getEffectiveSampleSize() {
+        double sum = 0;
+        double sumSq = 0;
+        for (int i = 0; i < m_size; ++i) {
+            double w = Math.exp(m_logWeight[i]);
+            sum += w;
+            sumSq += w * w;
+        }
+        return sum * sum / sumSq;
+    }
+
+    /** Weighted mean and covariance, wrapped by the plant's geometry. */
+    public RandomVector<States> getEstimate() {
+        // differences are taken from the heaviest particle, so that angles
+        // wrap the short way.
+        int heaviest = 0;
+        for (int i = 1; i < m_size; ++i) {
+            if (m_logWeight[i] > m_logWeight[heaviest])
+                heaviest = i;
+        }
+        double[] ref = new double[m_n];
+        gather(heaviest, ref);
+        double[] p = new double[m_n];
+        double[] d = new double[m_n];
+        double[] mean = new double[m_n];
+        double total = 0;
+        for (int i = 0; i < m_size; ++i) {
+            double w = Math.exp(m_logWeight[i]);
+            gather(i, p);
+            difference(p, ref, d);
+            for (int j = 0; j < m_n; ++j) {
+                mean[j] += w * d[j];
+            }
+            total += w;
+        }
+        for (int j = 0; j < m_n; ++j) {
+            mean[j] = ref[j] + mean[j] / total;
+        }
+        m_kernel.normalize(mean);
+        double[] P = new double[m_n * m_n];
+        for (int i = 0; i < m_size; ++i) {
+            double w = Math.exp(m_logWeight[i]) / total;
+            gather(i, p);
+            difference(p, mean, d);
+            for (int r = 0; r < m_n; ++r) {
+                for (int c = 0; c < m_n; ++c) {
+                    P[r * m_n + c] += w * d[r] * d[c];
+                }
+            }
+        }
+        Matrix<States, N1> x = new Matrix<>(m_plant.states(), Nat.N1());
+        for (int j = 0; j < m_n; ++j) {
+            x.set(j, 0, mean[j]);
+        }
+        return m_plant.make(x, Variance.fromData(m_plant.states(), P));
+    }
+
+    /** State row of particle i. */
+    public double get(int row, int i) {
+        return m_x[row][i];
+    }
+
+    /** Weight of particle i, relative to the heaviest. */
+    public double getWeight(int i) {
+        return Math.exp(m_logWeight[i]);
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public int getResampleCount() {
+        return m_resampleCount;
+    }
+
+    /**
+     * Systematic resampling: particle i is copied once for each of the evenly
+     * spaced points, offset by one random draw, that land in its share of the
+     * total weight.
+     */
+    private void resample() {
+        double sum = 0;
+        for (int i = 0; i < m_size; ++i) {
+            sum += Math.exp(m_logWeight[i]);
+            m_cumulative[i] = sum;
+        }
+        double step = sum / m_size;
+        double point = m_random.nextDouble() * step;
+        int source = 0;
+        for (int i = 0; i < m_size; ++i) {
+            while (source < m_size - 1 && m_cumulative[source] <= point) {
+                source += 1;
+            }
+            for (int j = 0; j < m_n; ++j) {
+                m_spare[j][i] = m_x[j][source];
+            }
+            point += step;
+        }
+        double[][] x = m_x;
+        m_x = m_spare;
+        m_spare = x;
+        for (int i = 0; i < m_size; ++i) {
+            m_logWeight[i] = 0;
+        }
+        m_resampleCount += 1;
+    }
+
+    /** Shift the log weights so the largest is zero. */
+    private void normalizeWeights() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < m_size; ++i) {
+            max = Math.max(max, m_logWeight[i]);
+        }
+        if (Double.isInfinite(max) || Double.isNaN(max)) {
+            // nothing is likely at all, so no particle is better than another.
+            for (int i = 0; i < m_size; ++i) {
+                m_logWeight[i] = 0;
+            }
+            return;
+        }
+        for (int i = 0; i < m_size; ++i) {
+            m_logWeight[i] -= max;
+        }
+    }
+
+    /**
+     * Inverse of the rows both sides know; the dontknow rows become unit rows,
+     * which, with zero residual, add nothing.
+     *
+     * @return the determinant of the known rows
+     */
+    private double inverse(Variance<States> R, double[] out) {
+        double[] P = R.getData();
+        for (int i = 0; i < m_n; ++i) {
+            if (!R.isDontKnow(i))
+                continue;
+            for (int j = 0; j < m_n; ++j) {
+                P[i * m_n + j] = 0;
+                P[j * m_n + i] = 0;
+            }
+            P[i * m_n + i] = 1;
+        }
+        Cholesky<States> factor = new Cholesky<>(Variance.fromData(m_plant.states(), P));
+        if (!factor.isPositiveDefinite())
+            throw new IllegalArgumentException("Measurement covariance isn't positive definite");
+        double[] inverse = factor.inverse().getData();
+        System.arraycopy(inverse, 0, out, 0, m_n * m_n);
+        // the dontknow residuals need to be zero, which the zero rows do.
+        for (int i = 0; i < m_n; ++i) {
+            if (!R.isDontKnow(i))
+                continue;
+            for (int j = 0; j < m_n; ++j) {
+                out[i * m_n + j] = 0;
+                out[j * m_n + i] = 0;
+            }
+        }
+        return factor.det();
+    }
+
+    /** dᵀ A d */
+    private double quadratic(double[] A, double[] d) {
+        double sum = 0;
+        for (int r = 0; r < m_n; ++r) {
+            for (int c = 0; c < m_n; ++c) {
+                sum += d[r] * A[r * m_n + c] * d[c];
+            }
+        }
+        return sum;
+    }
+
+    /** x += L z, z standard normal, then normalize. */
+    private void addNoise(SplittableRandom random, double[] L, double[] z, double[] x) {
+        for (int j = 0; j < m_n; ++j) {
+            z[j] = gaussian(random);
+        }
+        for (int r = 0; r < m_n; ++r) {
+            double sum = 0;
+            for (int c = 0; c <= r; ++c) {
+                sum += L[r * m_n + c] * z[c];
+            }
+            x[r] += sum;
+        }
+        m_kernel.normalize(x);
+    }
+
+    /** One RK4 step of s.x, in place. */
+    private void rk4(Scratch s, double[] u, double dtS) {
+        final double h = dtS;
+        m_kernel.f(s.x, u, s.k1);
+        step(s.x, s.k1, h * 0.5, s.xt);
+        m_kernel.f(s.xt, u, s.k2);
+        step(s.x, s.k2, h * 0.5, s.xt);
+        m_kernel.f(s.xt, u, s.k3);
+        step(s.x, s.k3, h, s.xt);
+        m_kernel.f(s.xt, u, s.k4);
+        final double c = h / 6.0;
+        for (int j = 0; j < m_n; ++j) {
+            s.x[j] += (s.k1[j] + 2.0 * s.k2[j] + 2.0 * s.k3[j] + s.k4[j]) * c;
+        }
+        m_kernel.normalize(s.x);
+    }
+
+    /** Intermediate RK4 state, x + k * h. */
+    private void step(double[] x, double[] k, double h, double[] xOut) {
+        for (int j = 0; j < m_n; ++j) {
+            xOut[j] = x[j] + k[j] * h;
+        }
+        m_kernel.normalize(xOut);
+    }
+
+    /** a - b, normalized, e.g. the short way around. */
+    private void difference(double[] a, double[] b, double[] out) {
+        for (int j = 0; j < m_n; ++j) {
+            out[j] = a[j] - b[j];
+        }
+        m_kernel.normalize(out);
+    }
+
+    private void gather(int i, double[] out) {
+        for (int j = 0; j < m_n; ++j) {
+            out[j] = m_x[j][i];
+        }
+    }
+
+    private void scatter(double[] p, int i) {
+        for (int j = 0; j < m_n; ++j) {
+            m_x[j][i] = p[j];
+        }
+    }
+
+    private void run(Range work) {
+        m_pool.invoke(new Sweep(0, m_size, work));
+    }
+
+    /** Depends only on the chunk, not on which thread runs it. */
+    private static SplittableRandom random(long base, int lo) {
+        return new SplittableRandom(base + lo * kGolden);
+    }
+
+    /** Box-Muller; SplittableRandom has no nextGaussian. */
+    private static double gaussian(SplittableRandom random) {
+        double u1 = 1.0 - random.nextDouble();
+        double u2 = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u1)) * Math.cos(2.0 * Math.PI * u2);
+    }
+
+    /** Splits the particles in half until they're small enough to do directly. */
+    private static class Sweep extends RecursiveAction {
+        private final int m_lo;
+        private final int m_hi;
+        private final Range m_work;
+
+        Sweep(int lo, int hi, Range work) {
+            m_lo = lo;
+            m_hi = hi;
+            m_work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (m_hi - m_lo <= kGrain) {
+                m_work.run(m_lo, m_hi);
+                return;
+            }
+            int mid = (m_lo + m_hi) >>> 1;
+            invokeAll(new Sweep(m_lo, mid, m_work), new Sweep(mid, m_hi, m_work));
+        }
+    }
+
+    /** Arrays for one chunk's RK4 stages. */
+    private static class Scratch {
+        final double[] x;
+        final double[] k1;
+        final double[] k2;
+        final double[] k3;
+        final double[] k4;
+        final double[] xt;
+        final double[] z;
+
+        Scratch(int n) {
+            x = new double[n];
+            k1 = new double[n];
+            k2 = new double[n];
+            k3 = new double[n];
+            k4 = new double[n];
+            xt = new double[n];
+            z = new double[n];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.team100.lib.estimator;
+
+import org.team100.lib.math.Jacobian;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.system.NonlinearPlant;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * Fuses an out-of-sequence measurement directly into the current estimate,
+ * instead of replaying everything since the measurement.
+ *
+ * This is the one-step OOSM update from Bar-Shalom [1], linearized around the
+ * retrodicted state. With the transition F from the measurement time to now,
+ * the process noise Q accumulated over the lag, current estimate x with
+ * covariance P, and the retrodicted state xr:
+ *
+ * Pr = F⁻¹ (P + Q) F⁻ᵀ          retrodicted covariance
+ * Pxr = P F⁻ᵀ                   current-retrodicted cross-covariance
+ * S = Pr + R                    innovation covariance
+ * W = Pxr S⁻¹
+ * x' = x + W (z - xr)
+ * P' = P - W Pxrᵀ
+ *
+ * Measurements are in state space (see PointEstimator), so H is identity.
+ *
+ * The cross-covariance neglects the correlation between the process noise
+ * over the lag and the current estimate error, which is what makes this one
+ * step instead of a smoother. That's only reasonable for short lags, so the
+ * caller should fall back to replay beyond some horizon.
+ *
+ * [1] Bar-Shalom, "Update with out-of-sequence measurements in tracking: exact
+ * solution," IEEE Trans. AES 38(3), 2002.
+ */
+public class RetrodictingEstimator<States extends Num, Inputs extends Num, Outputs extends Num> {
+    private final NonlinearPlant<States, Inputs, Outputs> m_plant;
+
+    public RetrodictingEstimator(NonlinearPlant<States, Inputs, Outputs> plant) {
+        m_plant = plant;
+    }
+
+    /**
+     * @param current     the most recent estimate
+     * @param retrodicted mean of the current estimate, integrated back to the
+     *                    measurement time
+     * @param u           control in effect at the measurement time
+     * @param lagSec      time from the measurement to the current estimate
+     * @param measurement measurement state, from PointEstimator
+     * @return the current estimate updated with the measurement
+     */
+    public RandomVector<States> update(
+            RandomVector<States> current,
+            Matrix<States, N1> retrodicted,
+            Matrix<Inputs, N1> u,
+            double lagSec,
+            RandomVector<States> measurement) {
+        Matrix<States, States> Finv = transition(retrodicted, u, lagSec).inv();
+        Matrix<States, States> P = current.Kxx.getValue();
+
+        Matrix<States, States> Pr = current.Kxx.plus(m_plant.w().P, lagSec).congruence(Finv).getValue();
+        Matrix<States, States> Pxr = P.times(Finv.transpose());
+        Matrix<States, States> S = Pr.plus(measurement.Kxx.getValue());
+        Matrix<States, States> W = Pxr.times(S.inv());
+
+        // the measurement knows about geometry, e.g. angle wrapping.
+        Matrix<States, N1> innovation = measurement.xminus(retrodicted);
+        Matrix<States, N1> x = current.xplus(W.times(innovation));
+        Matrix<States, States> updated = P.minus(W.times(Pxr.transpose()));
+        // keep it symmetric, the pooling checks for that.
+        updated = updated.plus(updated.transpose()).times(0.5);
+        return current.make(x, new Variance<>(updated));
+    }
+
+    /** F = exp(A dt), linearized at x. */
+    Matrix<States, States> transition(Matrix<States, N1> x, Matrix<Inputs, N1> u, double dtSec) {
+        RandomVector<States> xr = m_plant.make(x.copy(), Variance.zero(m_plant.states()));
+        Matrix<States, States> A = Jacobian.jacobianX(m_plant, xr, u);
+        return A.times(dtSec).exp();
+    }
+}
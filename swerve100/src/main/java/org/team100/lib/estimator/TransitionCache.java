@@ -0,0 +1,144 @@
+package org.team100.lib.estimator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.team100.lib.math.Variance;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.Pair;
+import edu.wpi.first.math.system.Discretization;
+
+/**
+ * Discrete transitions of a linear plant, xdot = Ax + Bu + w, so that
+ * prediction over dt is
+ * 
+ * x' = F x + G u
+ * P' = F P Fᵀ + Q
+ * 
+ * where F = exp(A dt), G is the zero-order-hold input matrix, and Q is the
+ * process noise integrated over dt (Van Loan).
+ * 
+ * The matrix exponentials are the expensive part, so transitions for the
+ * common time steps, e.g. the robot loop period, are computed up front, and
+ * others are computed on demand. The most recent on-demand one is kept, since
+ * the same odd step tends to repeat. Threadsafe.
+ * 
+ * Time steps are usually differences of timestamps, which are never exactly
+ * the common step, e.g. 0.2 - 0.18 = 0.020000000000000018, so steps are
+ * rounded to whole microseconds, which is the resolution of the FPGA clock
+ * anyway. The transition is for the rounded step.
+ * 
+ * Q is a second matrix exponential, twice the size, so it's computed only if
+ * asked for. Retrodiction, for example, only needs the mean, and steps
+ * backwards, so the negative common steps are kept too, without Q.
+ */
+public class TransitionCache<States extends Num, Inputs extends Num> {
+    /**
+     * Discrete transition for one time step. The arrays are row-major. Q, q,
+     * and noise are null if the transition was computed without noise.
+     */
+    public static class Transition<States extends Num, Inputs extends Num> {
+        public final double dtS;
+        public final Matrix<States, States> F;
+        public final Matrix<States, Inputs> G;
+        public final Matrix<States, States> Q;
+        final long us;
+        final double[] f;
+        final double[] g;
+        final double[] q;
+        final Variance<States> noise;
+
+        Transition(long us, Matrix<States, States> F, Matrix<States, Inputs> G, Matrix<States, States> Q) {
+            this.us = us;
+            this.dtS = us / 1e6;
+            this.F = F;
+            this.G = G;
+            this.Q = Q;
+            f = F.getData().clone();
+            g = G.getData().clone();
+            q = Q == null ? null : Q.getData().clone();
+            noise = Q == null ? null : new Variance<>(Q);
+        }
+
+        boolean matches(long us, boolean withNoise) {
+            return this.us == us && (Q != null || !withNoise);
+        }
+    }
+
+    private final Matrix<States, States> m_A;
+    private final Matrix<States, Inputs> m_B;
+    private final Matrix<States, States> m_Q;
+    // never changes after construction
+    private final List<Transition<States, Inputs>> m_common;
+    private volatile Transition<States, Inputs> m_last;
+    private final LongAdder m_computed;
+
+    /**
+     * @param A        continuous system matrix
+     * @param B        continuous input matrix
+     * @param Q        continuous process noise, e.g. w().P
+     * @param commonDtS time steps to compute up front, with noise forwards and
+     *                  without noise backwards
+     */
+    public TransitionCache(
+            Matrix<States, States> A,
+            Matrix<States, Inputs> B,
+            Matrix<States, States> Q,
+            double... commonDtS) {
+        m_A = A;
+        m_B = B;
+        m_Q = Q;
+        m_computed = new LongAdder();
+        List<Transition<States, Inputs>> common = new ArrayList<>(2 * commonDtS.length);
+        for (double dtS : commonDtS) {
+            common.add(compute(micros(dtS), true));
+            common.add(compute(micros(-dtS), false));
+        }
+        m_common = common;
+    }
+
+    /** Transition including Q. */
+    public Transition<States, Inputs> get(double dtS) {
+        return get(dtS, true);
+    }
+
+    /**
+     * @param withNoise if false, Q may be null.
+     */
+    public Transition<States, Inputs> get(double dtS, boolean withNoise) {
+        long us = micros(dtS);
+        for (int i = 0; i < m_common.size(); ++i) {
+            Transition<States, Inputs> t = m_common.get(i);
+            if (t.matches(us, withNoise))
+                return t;
+        }
+        Transition<States, Inputs> t = m_last;
+        if (t != null && t.matches(us, withNoise))
+            return t;
+        t = compute(us, withNoise);
+        m_last = t;
+        m_computed.increment();
+        return t;
+    }
+
+    /** Number of transitions computed on demand, i.e. cache misses. */
+    public long getComputed() {
+        return m_computed.sum();
+    }
+
+    static long micros(double dtS) {
+        return Math.round(dtS * 1e6);
+    }
+
+    private Transition<States, Inputs> compute(long us, boolean withNoise) {
+        double dtS = us / 1e6;
+        Pair<Matrix<States, States>, Matrix<States, Inputs>> FG = Discretization.discretizeAB(m_A, m_B, dtS);
+        Matrix<States, States> Q = null;
+        if (withNoise)
+            Q = Discretization.discretizeAQ(m_A, m_Q, dtS).getSecond();
+        return new Transition<>(us, FG.getFirst(), FG.getSecond(), Q);
+    }
+}
@@ -0,0 +1,314 @@
+package org.team100.lib.estimator;
+
+import org.team100.lib.math.Cholesky;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.system.NonlinearPlant;
+import org.team100.lib.system.NonlinearPlantKernel;
+import org.team100.lib.system.PlantKernel;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * Propagates state using the unscented transform, so the covariance comes from
+ * the dynamics themselves, f and h, instead of from hand-written propagation
+ * rules like PlantKernel.propagate().
+ *
+ * The 2n+1 sigma points are x, and x plus and minus each column of the
+ * Cholesky factor of the covariance, scaled. Each one is integrated by RK4,
+ * all together, so each RK4 stage is one batched call to the kernel. The mean
+ * and covariance are weighted sums of the results, with differences taken
+ * through the kernel's normalize(), so angles wrap correctly.
+ *
+ * Rows marked dontknow (see Variance.dontknow()) would throw the sigma points
+ * far outside anything meaningful, so those columns use unit spread instead,
+ * and their contribution to the covariance is scaled back up, i.e. they're
+ * linearized. They don't move the mean, and they stay dontknow.
+ *
+ * Weights are the scaled set with alpha = 1, beta = 2 (Gaussian) and kappa =
+ * 3 - n (zero above three states).
+ *
+ * Like ExtrapolatingEstimator, the RandomVector version has its own buffers
+ * for each call, so several threads can use it, and the array version reuses
+ * buffers in this object, so it isn't threadsafe.
+ *
+ * https://en.wikipedia.org/wiki/Kalman_filter#Unscented_Kalman_filter
+ * https://www.seas.harvard.edu/courses/cs281/papers/unscented.pdf
+ */
+public class UnscentedEstimator<States extends Num, Inputs extends Num, Outputs extends Num> {
+    private static final double kAlpha = 1;
+    private static final double kBeta = 2;
+
+    private final NonlinearPlant<States, Inputs, Outputs> m_plant;
+    private final PlantKernel m_kernel;
+    private final int m_n;
+    private final double m_spread;
+    private final double[] m_wm;
+    private final double[] m_wc;
+    // for the array version, set up on first use
+    private Scratch m_scratch;
+
+    public UnscentedEstimator(NonlinearPlant<States, Inputs, Outputs> plant) {
+        m_plant = plant;
+        m_kernel = NonlinearPlantKernel.of(plant);
+        m_n = m_kernel.stateDim();
+        double kappa = Math.max(0, 3 - m_n);
+        double lambda = kAlpha * kAlpha * (m_n + kappa) - m_n;
+        m_spread = Math.sqrt(m_n + lambda);
+        m_wm = new double[2 * m_n + 1];
+        m_wc = new double[2 * m_n + 1];
+        m_wm[0] = lambda / (m_n + lambda);
+        m_wc[0] = m_wm[0] + 1 - kAlpha * kAlpha + kBeta;
+        for (int i = 1; i < 2 * m_n + 1; ++i) {
+            m_wm[i] = 1 / (2 * (m_n + lambda));
+            m_wc[i] = m_wm[i];
+        }
+    }
+
+    /**
+     * Predict state under output u for dtS in the future, without noise.
+     *
+     * @param x   initial state
+     * @param u   total control output
+     * @param dtS time quantum (sec)
+     */
+    public RandomVector<States> predict(
+            RandomVector<States> x,
+            Matrix<Inputs, N1> u,
+            double dtS) {
+        double[] xOut = new double[m_n];
+        double[] POut = new double[m_n * m_n];
+        predict(new Scratch(m_n), x.x.getData(), x.Kxx.getData(), u.getData(), dtS, xOut, POut);
+        Matrix<States, N1> mean = new Matrix<>(m_plant.states(), Nat.N1());
+        for (int i = 0; i < m_n; ++i) {
+            mean.set(i, 0, xOut[i]);
+        }
+        return x.make(mean, Variance.fromData(m_plant.states(), POut));
+    }
+
+    /**
+     * Array version of predict. The output arrays may be the same as the input
+     * ones.
+     *
+     * @param x    initial state mean
+     * @param P    initial state covariance, row-major
+     * @param u    total control output
+     * @param dtS  time quantum (sec)
+     * @param xOut predicted mean
+     * @param POut predicted covariance, row-major
+     */
+    public void predict(
+            double[] x,
+            double[] P,
+            double[] u,
+            double dtS,
+            double[] xOut,
+            double[] POut) {
+        if (m_scratch == null)
+            m_scratch = new Scratch(m_n);
+        predict(m_scratch, x, P, u, dtS, xOut, POut);
+    }
+
+    /**
+     * Measurement implied by the state, through h. Each sigma point goes
+     * through h with zero covariance, so what h reports for the center is its
+     * own uncertainty, which is added to the spread.
+     */
+    public RandomVector<Outputs> output(RandomVector<States> x, Matrix<Inputs, N1> u) {
+        Scratch s = new Scratch(m_n);
+        sigmaPoints(s, x.x.getData(), x.Kxx.getData());
+        Variance<States> zero = new Variance<>(new Matrix<>(m_plant.states(), m_plant.states()));
+        @SuppressWarnings("unchecked")
+        RandomVector<Outputs>[] y = new RandomVector[2 * m_n + 1];
+        for (int i = 0; i < y.length; ++i) {
+            Matrix<States, N1> sigma = new Matrix<>(m_plant.states(), Nat.N1());
+            for (int j = 0; j < m_n; ++j) {
+                sigma.set(j, 0, s.sigma[i][j]);
+            }
+            y[i] = m_plant.h(m_plant.make(sigma, zero), u);
+        }
+        // mean relative to the center, for wrapping.
+        Matrix<Outputs, N1> offset = new Matrix<>(m_plant.outputs(), Nat.N1());
+        for (int i = 1; i < y.length; ++i) {
+            if (s.known[i])
+                offset = offset.plus(y[i].xminus(y[0].x).times(m_wm[i]));
+        }
+        Matrix<Outputs, N1> mean = y[0].xplus(offset);
+        int m = m_plant.outputs().getNum();
+        double[] PData = new double[m * m];
+        for (int i = 0; i < y.length; ++i) {
+            Matrix<Outputs, N1> d = y[i].xminus(mean);
+            double w = m_wc[i] * s.scale[i];
+            for (int r = 0; r < m; ++r) {
+                for (int c = 0; c < m; ++c) {
+                    PData[r * m + c] += w * d.get(r, 0) * d.get(c, 0);
+                }
+            }
+        }
+        Variance<Outputs> P = Variance.fromData(m_plant.outputs(), PData).plus(y[0].Kxx);
+        return y[0].make(mean, P);
+    }
+
+    private void predict(
+            Scratch s,
+            double[] x,
+            double[] P,
+            double[] u,
+            double dtS,
+            double[] xOut,
+            double[] POut) {
+        final int n = m_n;
+        sigmaPoints(s, x, P);
+        rk4(s, u, dtS);
+        // mean relative to the center, for wrapping.
+        final double[] d = s.d;
+        final double[][] sigma = s.sigma;
+        for (int j = 0; j < n; ++j) {
+            s.mean[j] = 0;
+        }
+        for (int i = 1; i < sigma.length; ++i) {
+            if (!s.known[i])
+                continue;
+            difference(sigma[i], sigma[0], d);
+            for (int j = 0; j < n; ++j) {
+                s.mean[j] += m_wm[i] * d[j];
+            }
+        }
+        for (int j = 0; j < n; ++j) {
+            s.mean[j] += sigma[0][j];
+        }
+        m_kernel.normalize(s.mean);
+        // x and P may be xOut and POut, so write them only at the end.
+        for (int i = 0; i < n * n; ++i) {
+            s.P[i] = 0;
+        }
+        for (int i = 0; i < sigma.length; ++i) {
+            difference(sigma[i], s.mean, d);
+            double w = m_wc[i] * s.scale[i];
+            for (int r = 0; r < n; ++r) {
+                for (int c = 0; c < n; ++c) {
+                    s.P[r * n + c] += w * d[r] * d[c];
+                }
+            }
+        }
+        // unknown stays unknown, whatever the roundoff.
+        for (int r = 0; r < n; ++r) {
+            if (P[r * n + r] >= Variance.kDontKnow)
+                s.P[r * n + r] = Math.max(s.P[r * n + r], P[r * n + r]);
+        }
+        System.arraycopy(s.mean, 0, xOut, 0, n);
+        System.arraycopy(s.P, 0, POut, 0, n * n);
+    }
+
+    /** Fills s.sigma, s.scale and s.known. */
+    private void sigmaPoints(Scratch s, double[] x, double[] P) {
+        final int n = m_n;
+        // dontknow rows get unit variance, and no correlation.
+        for (int r = 0; r < n; ++r) {
+            boolean rowKnown = P[r * n + r] < Variance.kDontKnow;
+            for (int c = 0; c < n; ++c) {
+                boolean colKnown = P[c * n + c] < Variance.kDontKnow;
+                if (rowKnown && colKnown)
+                    s.P[r * n + c] = P[r * n + c];
+                else
+                    s.P[r * n + c] = r == c ? 1 : 0;
+            }
+        }
+        if (Cholesky.factor(n, s.P, s.L) < 0)
+            throw new IllegalArgumentException("Covariance isn't positive semidefinite");
+        System.arraycopy(x, 0, s.sigma[0], 0, n);
+        s.scale[0] = 1;
+        s.known[0] = true;
+        for (int c = 0; c < n; ++c) {
+            boolean known = P[c * n + c] < Variance.kDontKnow;
+            double scale = known ? 1 : P[c * n + c];
+            double[] plus = s.sigma[1 + c];
+            double[] minus = s.sigma[1 + n + c];
+            for (int r = 0; r < n; ++r) {
+                double delta = m_spread * s.L[r * n + c];
+                plus[r] = x[r] + delta;
+                minus[r] = x[r] - delta;
+            }
+            m_kernel.normalize(plus);
+            m_kernel.normalize(minus);
+            s.scale[1 + c] = scale;
+            s.scale[1 + n + c] = scale;
+            s.known[1 + c] = known;
+            s.known[1 + n + c] = known;
+        }
+    }
+
+    /** RK4 on all the sigma points at once, in place. */
+    private void rk4(Scratch s, double[] u, double dtS) {
+        final double h = dtS;
+        m_kernel.f(s.sigma, u, s.k1);
+        step(s.sigma, s.k1, h * 0.5, s.xt);
+        m_kernel.f(s.xt, u, s.k2);
+        step(s.sigma, s.k2, h * 0.5, s.xt);
+        m_kernel.f(s.xt, u, s.k3);
+        step(s.sigma, s.k3, h, s.xt);
+        m_kernel.f(s.xt, u, s.k4);
+        final double c = h / 6.0;
+        for (int i = 0; i < s.sigma.length; ++i) {
+            double[] x = s.sigma[i];
+            for (int j = 0; j < m_n; ++j) {
+                x[j] += (s.k1[i][j] + 2.0 * s.k2[i][j] + 2.0 * s.k3[i][j] + s.k4[i][j]) * c;
+            }
+            m_kernel.normalize(x);
+        }
+    }
+
+    /** Intermediate RK4 state, x + k * h. */
+    private void step(double[][] x, double[][] k, double h, double[][] xOut) {
+        for (int i = 0; i < x.length; ++i) {
+            for (int j = 0; j < m_n; ++j) {
+                xOut[i][j] = x[i][j] + k[i][j] * h;
+            }
+            m_kernel.normalize(xOut[i]);
+        }
+    }
+
+    /** a - b, normalized, e.g. the short way around. */
+    private void difference(double[] a, double[] b, double[] out) {
+        for (int j = 0; j < m_n; ++j) {
+            out[j] = a[j] - b[j];
+        }
+        m_kernel.normalize(out);
+    }
+
+    /** Buffers for the sigma points and the RK4 stages. */
+    private static class Scratch {
+        final double[][] sigma;
+        // covariance multiplier for each sigma point, for dontknow rows
+        final double[] scale;
+        // false for the sigma points of dontknow rows, which skip the mean
+        final boolean[] known;
+        final double[][] k1;
+        final double[][] k2;
+        final double[][] k3;
+        final double[][] k4;
+        final double[][] xt;
+        final double[] L;
+        final double[] P;
+        final double[] mean;
+        final double[] d;
+
+        Scratch(int n) {
+            sigma = new double[2 * n + 1][n];
+            scale = new double[2 * n + 1];
+            known = new boolean[2 * n + 1];
+            k1 = new double[2 * n + 1][n];
+            k2 = new double[2 * n + 1][n];
+            k3 = new double[2 * n + 1][n];
+            k4 = new double[2 * n + 1][n];
+            xt = new double[2 * n + 1][n];
+            L = new double[n * n];
+            P = new double[n * n];
+            mean = new double[n];
+            d = new double[n];
+        }
+    }
+}
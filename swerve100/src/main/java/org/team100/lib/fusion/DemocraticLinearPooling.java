@@ -1,7 +1,11 @@
 package org.team100.lib.fusion;
 
+import java.util.List;
+
+import org.team100.lib.math.Arena;
 import org.team100.lib.math.RandomVector;
 
+import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.Num;
 
 /**
@@ -11,4 +15,22 @@ public class DemocraticLinearPooling<States extends Num> extends LinearPooling<S
     public RandomVector<States> fuse(RandomVector<States> a, RandomVector<States> b) {
         return fuse(a, 0.5, b, 0.5);
     }
+
+    /** Equal weights, 1/N each; not the same as fusing pairwise. */
+    @Override
+    public RandomVector<States> fuse(List<RandomVector<States>> inputs) {
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("Nothing to fuse");
+        return fuse(inputs, equalWeights(inputs));
+    }
+
+    @Override
+    public RandomVector<States> fuse(RandomVector<States> a, RandomVector<States> b, Arena arena) {
+        int n = a.x.getNumRows();
+        Matrix<States, States> half = arena.matrix(n, n);
+        for (int i = 0; i < n; ++i) {
+            half.set(i, i, 0.5);
+        }
+        return fuse(a, half, b, half, arena);
+    }
 }
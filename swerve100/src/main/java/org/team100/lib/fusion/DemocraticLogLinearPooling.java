@@ -1,5 +1,8 @@
 package org.team100.lib.fusion;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.team100.lib.math.RandomVector;
 
 import edu.wpi.first.math.Num;
@@ -11,4 +14,14 @@ public class DemocraticLogLinearPooling<States extends Num> extends LogLinearPoo
     public RandomVector<States> fuse(RandomVector<States> a, RandomVector<States> b) {
         return fuse(a, 0.5, b, 0.5);
     }
+
+    /** Equal weights, 1/N each; not the same as fusing pairwise. */
+    @Override
+    public RandomVector<States> fuse(List<RandomVector<States>> inputs) {
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("Nothing to fuse");
+        double[] weights = new double[inputs.size()];
+        Arrays.fill(weights, 1.0 / inputs.size());
+        return fuse(inputs, weights);
+    }
 }
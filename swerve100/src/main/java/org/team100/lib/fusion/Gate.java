@@ -0,0 +1,163 @@
+package org.team100.lib.fusion;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.team100.lib.math.Cholesky;
+import org.team100.lib.math.RandomVector;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.util.sendable.Sendable;
+import edu.wpi.first.util.sendable.SendableBuilder;
+
+/**
+ * Innovation gate: rejects a candidate that's too far from the prediction to
+ * believe, before spending anything on fusing it.
+ *
+ * The distance is Mahalanobis, i.e. scaled by the combined covariance:
+ *
+ * d² = (z - x)ᵀ (P + R)⁻¹ (z - x)
+ *
+ * If the candidate agrees with the prediction, d² is chi-square distributed,
+ * with one degree of freedom per row, so the threshold is a chi-square
+ * quantile: at 0.99 confidence, 99% of good candidates pass.
+ *
+ * Rows that either side doesn't know (see Variance.dontknow()) don't count. If
+ * the rest of the covariance is singular, i.e. both sides are certain, there's
+ * nothing to judge, so the candidate passes.
+ *
+ * Use one gate per sensor, so the counters say which sensor is misbehaving;
+ * publish them with e.g. SmartDashboard.putData("camera gate", gate).
+ *
+ * Threadsafe.
+ *
+ * https://en.wikipedia.org/wiki/Mahalanobis_distance
+ * https://en.wikipedia.org/wiki/Chi-squared_distribution
+ */
+public class Gate<States extends Num> implements Sendable {
+    private static final double[] kConfidence = { 0.95, 0.99, 0.999 };
+    // by degrees of freedom, 1 to 10, and confidence.
+    private static final double[][] kChiSquare = {
+            { 3.841, 6.635, 10.828 },
+            { 5.991, 9.210, 13.816 },
+            { 7.815, 11.345, 16.266 },
+            { 9.488, 13.277, 18.467 },
+            { 11.070, 15.086, 20.515 },
+            { 12.592, 16.812, 22.458 },
+            { 14.067, 18.475, 24.322 },
+            { 15.507, 20.090, 26.124 },
+            { 16.919, 21.666, 27.877 },
+            { 18.307, 23.209, 29.588 } };
+
+    private final int m_confidence;
+    private final LongAdder m_accepted = new LongAdder();
+    private final LongAdder m_rejected = new LongAdder();
+    private volatile double m_lastDistanceSquared;
+
+    /**
+     * @param confidence fraction of good candidates that should pass: 0.95, 0.99
+     *                   or 0.999.
+     */
+    public Gate(double confidence) {
+        m_confidence = column(confidence);
+    }
+
+    /**
+     * Chi-square quantile, i.e. the d² that a fraction confidence of good
+     * candidates are within.
+     *
+     * @param degreesOfFreedom 1 to 10
+     * @param confidence       0.95, 0.99 or 0.999
+     */
+    public static double chiSquare(int degreesOfFreedom, double confidence) {
+        return threshold(degreesOfFreedom, column(confidence));
+    }
+
+    /**
+     * @param predicted the prior, e.g. the state extrapolated to the
+     *                  measurement time
+     * @param candidate e.g. the state implied by a measurement
+     * @return true if the candidate is worth fusing
+     */
+    public boolean test(RandomVector<States> predicted, RandomVector<States> candidate) {
+        int dof = 0;
+        for (int i = 0; i < predicted.x.getNumRows(); ++i) {
+            if (known(predicted, candidate, i))
+                dof += 1;
+        }
+        double d2 = distanceSquared(predicted, candidate);
+        m_lastDistanceSquared = d2;
+        if (dof == 0 || Double.isNaN(d2) || d2 <= threshold(dof, m_confidence)) {
+            m_accepted.increment();
+            return true;
+        }
+        m_rejected.increment();
+        return false;
+    }
+
+    /**
+     * Squared Mahalanobis distance over the rows both sides know, or NaN if the
+     * covariance of those rows is singular.
+     */
+    public static <S extends Num> double distanceSquared(RandomVector<S> predicted, RandomVector<S> candidate) {
+        // this handles wrapping
+        Matrix<S, N1> d = candidate.xminus(predicted.x);
+        Matrix<S, S> P = predicted.Kxx.plus(candidate.Kxx).getValue();
+        int n = d.getNumRows();
+        // unknown rows become independent unit rows with zero residual, so they
+        // add nothing.
+        for (int i = 0; i < n; ++i) {
+            if (known(predicted, candidate, i))
+                continue;
+            for (int j = 0; j < n; ++j) {
+                P.set(i, j, 0);
+                P.set(j, i, 0);
+            }
+            P.set(i, i, 1);
+            d.set(i, 0, 0);
+        }
+        Cholesky<S> factor = new Cholesky<>(P);
+        if (!factor.isPositiveDefinite())
+            return Double.NaN;
+        return d.transpose().times(factor.inverse()).times(d).get(0, 0);
+    }
+
+    public long getAccepted() {
+        return m_accepted.sum();
+    }
+
+    public long getRejected() {
+        return m_rejected.sum();
+    }
+
+    /** The distance of the last candidate tested, accepted or not. */
+    public double getLastDistanceSquared() {
+        return m_lastDistanceSquared;
+    }
+
+    @Override
+    public void initSendable(SendableBuilder builder) {
+        builder.addDoubleProperty("accepted", this::getAccepted, null);
+        builder.addDoubleProperty("rejected", this::getRejected, null);
+        builder.addDoubleProperty("last distance squared", this::getLastDistanceSquared, null);
+    }
+
+    private static boolean known(RandomVector<?> predicted, RandomVector<?> candidate, int i) {
+        return !predicted.Kxx.isDontKnow(i) && !candidate.Kxx.isDontKnow(i);
+    }
+
+    private static double threshold(int degreesOfFreedom, int column) {
+        if (degreesOfFreedom < 1 || degreesOfFreedom > kChiSquare.length)
+            throw new IllegalArgumentException("Degrees of freedom must be 1 to 10: " + degreesOfFreedom);
+        return kChiSquare[degreesOfFreedom - 1][column];
+    }
+
+    private static int column(double confidence) {
+        for (int i = 0; i < kConfidence.length; ++i) {
+            if (kConfidence[i] == confidence)
+                return i;
+        }
+        throw new IllegalArgumentException("Confidence must be 0.95, 0.99 or 0.999: " + confidence);
+    }
+}
@@ -0,0 +1,58 @@
+package org.team100.lib.fusion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.team100.lib.math.RandomVector;
+
+import edu.wpi.first.math.Num;
+
+/**
+ * Gates candidates before pooling them, so an outlier costs a Mahalanobis
+ * distance instead of a fuse, and doesn't drag the result away.
+ *
+ * Unlike the other poolings, the order matters: the first input is the
+ * prediction, and it's always kept. Rejected candidates are left out, so if
+ * none pass, the result is the prediction itself.
+ */
+public class GatedPooling<States extends Num> implements Pooling<States> {
+    private final Pooling<States> m_pooling;
+    private final Gate<States> m_gate;
+
+    public GatedPooling(Pooling<States> pooling, Gate<States> gate) {
+        m_pooling = pooling;
+        m_gate = gate;
+    }
+
+    /**
+     * @param a the prediction
+     * @param b the candidate
+     */
+    @Override
+    public RandomVector<States> fuse(RandomVector<States> a, RandomVector<States> b) {
+        if (!m_gate.test(a, b))
+            return a;
+        return m_pooling.fuse(a, b);
+    }
+
+    /** The first input is the prediction, the rest are candidates. */
+    @Override
+    public RandomVector<States> fuse(List<RandomVector<States>> inputs) {
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("Nothing to fuse");
+        RandomVector<States> predicted = inputs.get(0);
+        List<RandomVector<States>> passed = new ArrayList<>(inputs.size());
+        passed.add(predicted);
+        for (int i = 1; i < inputs.size(); ++i) {
+            if (m_gate.test(predicted, inputs.get(i)))
+                passed.add(inputs.get(i));
+        }
+        if (passed.size() == 1)
+            return predicted;
+        return m_pooling.fuse(passed);
+    }
+
+    public Gate<States> getGate() {
+        return m_gate;
+    }
+}
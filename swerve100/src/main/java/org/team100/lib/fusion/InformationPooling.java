@@ -0,0 +1,63 @@
+package org.team100.lib.fusion;
+
+import java.util.List;
+
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * The product of gaussians, i.e. Bayesian fusion of independent estimates of
+ * the same thing. This is log-linear pooling without the weights, done in
+ * information (inverse variance) form:
+ * 
+ * C⁻¹ = A⁻¹ + B⁻¹
+ * c = C(A⁻¹a + B⁻¹b) = a + CB⁻¹(b - a)
+ * 
+ * Unlike the other poolings, the variance shrinks with each input, so this is
+ * the right way to combine several measurements taken at the same time, but
+ * the wrong way to combine estimates that share information.
+ * 
+ * The second form of the mean lets the class of a handle geometry, e.g. angle
+ * wrapping.
+ * 
+ * This is associative, so fusing N inputs at once is the same as fusing them
+ * pairwise, but it takes N+1 inversions instead of 3(N-1):
+ * 
+ * C⁻¹ = sum(P_i⁻¹)
+ * c = a + C sum(P_i⁻¹(x_i - a))
+ * 
+ * This pooling method cannot handle zero variances.
+ */
+public class InformationPooling<States extends Num> implements Pooling<States> {
+    public RandomVector<States> fuse(RandomVector<States> a, RandomVector<States> b) {
+        Matrix<States, States> aPI = a.Kxx.getValue().inv();
+        Matrix<States, States> bPI = b.Kxx.getValue().inv();
+        Matrix<States, States> cP = aPI.plus(bPI).inv();
+        Matrix<States, N1> cx = a.xplus(cP.times(bPI).times(b.xminus(a.x)));
+        return a.make(cx, new Variance<>(cP));
+    }
+
+    @Override
+    public RandomVector<States> fuse(List<RandomVector<States>> inputs) {
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("Nothing to fuse");
+        RandomVector<States> a = inputs.get(0);
+        Matrix<States, States> PIsum = a.Kxx.getValue().inv();
+        Matrix<States, N1> dxsum = null;
+        for (int i = 1; i < inputs.size(); ++i) {
+            RandomVector<States> v = inputs.get(i);
+            Matrix<States, States> PI = v.Kxx.getValue().inv();
+            Matrix<States, N1> dx = PI.times(v.xminus(a.x));
+            PIsum = PIsum.plus(PI);
+            dxsum = dxsum == null ? dx : dxsum.plus(dx);
+        }
+        if (dxsum == null)
+            return a;
+        Matrix<States, States> cP = PIsum.inv();
+        return a.make(a.xplus(cP.times(dxsum)), new Variance<>(cP));
+    }
+}
@@ -0,0 +1,50 @@
+package org.team100.lib.fusion;
+
+import java.util.List;
+
+import org.team100.lib.math.InformationVector;
+import org.team100.lib.math.RandomVector;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * The same product of gaussians as InformationPooling, done by converting to
+ * InformationVector and adding.
+ *
+ * Each input is inverted once, and the sum once, instead of inverting the sum
+ * and multiplying it back out. "Don't know" rows carry no information at all,
+ * instead of a tiny amount from the 1e9 variance, and the result has "don't
+ * know" rows where neither input knew anything.
+ *
+ * The mean of b is expressed relative to a before adding, so wrapping works
+ * the same as in InformationPooling.
+ *
+ * For N inputs, the information is summed and inverted once, and a row is
+ * "don't know" only if every input doesn't know it.
+ *
+ * This pooling method cannot handle zero variances.
+ */
+public class InformationVectorPooling<States extends Num> implements Pooling<States> {
+    public RandomVector<States> fuse(RandomVector<States> a, RandomVector<States> b) {
+        Matrix<States, N1> bx = a.x.plus(b.xminus(a.x));
+        InformationVector<States> c = InformationVector.from(a).plus(InformationVector.from(bx, b.Kxx));
+        return c.toRandomVector(a);
+    }
+
+    @Override
+    public RandomVector<States> fuse(List<RandomVector<States>> inputs) {
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("Nothing to fuse");
+        RandomVector<States> a = inputs.get(0);
+        if (inputs.size() == 1)
+            return a;
+        InformationVector<States> c = InformationVector.from(a);
+        for (int i = 1; i < inputs.size(); ++i) {
+            RandomVector<States> v = inputs.get(i);
+            c = c.plus(InformationVector.from(a.x.plus(v.xminus(a.x)), v.Kxx));
+        }
+        return c.toRandomVector(a);
+    }
+}
@@ -1,6 +1,13 @@
 package org.team100.lib.fusion;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.ejml.dense.row.MatrixFeatures_DDRM;
+import org.team100.lib.math.Arena;
+import org.team100.lib.math.Cholesky;
 import org.team100.lib.math.RandomVector;
 import org.team100.lib.math.Variance;
 
@@ -45,11 +52,33 @@ import edu.wpi.first.math.numbers.N1;
  * If you're doing non-Euclidean geometry, you'd better handle that in your
  * variable class.
  * 
+ * For more than two inputs, with weights p_i adding to one [1]:
+ * 
+ * c = sum(p_i x_i)
+ * C = sum(p_i P_i p_iT) + sum over pairs i < j of p_i p_j (x_i - x_j)^2
+ * 
+ * which is the two-input version for two inputs. It is *not* the same as
+ * fusing pairwise, which gives the later inputs more weight.
+ * 
+ * The inputs are checked on every call, which isn't free; in competition mode,
+ * only a sample of calls is checked, and bad inputs get an equal-weight
+ * average instead of an exception.
+ * 
+ * The overloads taking an Arena keep their temporaries, and the result, in the
+ * arena; only the checks allocate, so in competition mode, most calls don't.
+ * 
  * [1] https://arxiv.org/pdf/2202.11633.pdf
  * [2]
  * https://stats.stackexchange.com/questions/16608/what-is-the-variance-of-the-weighted-mixture-of-two-gaussians
  */
 public abstract class LinearPooling<States extends Num> implements Pooling<States> {
+    private final AtomicLong m_calls = new AtomicLong();
+    private final LongAdder m_failures = new LongAdder();
+    // check one in this many calls
+    private volatile int m_checkEvery = 1;
+    // fall back instead of throwing
+    private volatile boolean m_competition;
+
     /**
      * Weights should add to one.
      * 
@@ -68,33 +97,171 @@ public abstract class LinearPooling<States extends Num> implements Pooling<State
             Matrix<States, States> pa,
             RandomVector<States> b,
             Matrix<States, States> pb) {
-        // TODO: in "comp mode" make these checks substitute some acceptable behavior
-        // like some simpler average
+        if (shouldCheck()) {
+            try {
+                checkWeights(pa, pb);
+                checkCovariance("aP", a, new Cholesky<>(a.Kxx));
+                checkCovariance("bP", b, new Cholesky<>(b.Kxx));
+            } catch (IllegalArgumentException e) {
+                return fallback(e, a, b);
+            }
+        }
+        return combine(a, pa, b, pb);
+    }
+
+    /**
+     * N-way version of fuse(a, pa, b, pb); weights should add to one.
+     * 
+     * @param inputs  at least one
+     * @param weights one for each input
+     */
+    RandomVector<States> fuse(List<RandomVector<States>> inputs, List<Matrix<States, States>> weights) {
+        if (shouldCheck()) {
+            try {
+                checkWeights(weights);
+                for (RandomVector<States> v : inputs) {
+                    checkCovariance("P", v, new Cholesky<>(v.Kxx));
+                }
+            } catch (IllegalArgumentException e) {
+                return fallback(e, inputs);
+            }
+        }
+        return combine(inputs, weights);
+    }
+
+    RandomVector<States> fuse(
+            RandomVector<States> a,
+            Matrix<States, States> pa,
+            RandomVector<States> b,
+            Matrix<States, States> pb,
+            Arena arena) {
+        if (shouldCheck()) {
+            try {
+                checkWeights(pa, pb);
+                checkCovariance("aP", a, new Cholesky<>(a.Kxx));
+                checkCovariance("bP", b, new Cholesky<>(b.Kxx));
+            } catch (IllegalArgumentException e) {
+                return fallback(e, a, b, arena);
+            }
+        }
+        return combine(a, pa, b, pb, arena);
+    }
+
+    /**
+     * Competition mode: check only one in every checkEvery calls, and if a check
+     * fails, count it and fall back to the equal-weight average, instead of
+     * throwing.
+     */
+    public void setCompetitionMode(int checkEvery) {
+        if (checkEvery < 1)
+            throw new IllegalArgumentException("checkEvery must be positive: " + checkEvery);
+        m_checkEvery = checkEvery;
+        m_competition = true;
+    }
 
+    /** Development mode, the default: check every call, and throw. */
+    public void setDevelopmentMode() {
+        m_checkEvery = 1;
+        m_competition = false;
+    }
+
+    /** Number of checks that failed in competition mode. */
+    public long getFailures() {
+        return m_failures.sum();
+    }
+
+    boolean shouldCheck() {
+        int checkEvery = m_checkEvery;
+        return checkEvery == 1 || m_calls.getAndIncrement() % checkEvery == 0;
+    }
+
+    /**
+     * In competition mode, the equal-weight average; otherwise throw.
+     */
+    RandomVector<States> fallback(IllegalArgumentException e, RandomVector<States> a, RandomVector<States> b) {
+        if (!m_competition)
+            throw e;
+        m_failures.increment();
+        Matrix<States, States> half = a.Kxx.getValue();
+        half.fill(0);
+        for (int i = 0; i < half.getNumCols(); ++i) {
+            half.set(i, i, 0.5);
+        }
+        return combine(a, half, b, half);
+    }
+
+    RandomVector<States> fallback(IllegalArgumentException e, List<RandomVector<States>> inputs) {
+        if (!m_competition)
+            throw e;
+        m_failures.increment();
+        return combine(inputs, equalWeights(inputs));
+    }
+
+    /** I/N for each of N inputs. */
+    List<Matrix<States, States>> equalWeights(List<RandomVector<States>> inputs) {
+        Matrix<States, States> w = inputs.get(0).Kxx.getValue();
+        w.fill(0);
+        for (int i = 0; i < w.getNumCols(); ++i) {
+            w.set(i, i, 1.0 / inputs.size());
+        }
+        return Collections.nCopies(inputs.size(), w);
+    }
+
+    RandomVector<States> fallback(
+            IllegalArgumentException e,
+            RandomVector<States> a,
+            RandomVector<States> b,
+            Arena arena) {
+        if (!m_competition)
+            throw e;
+        m_failures.increment();
+        int n = a.x.getNumRows();
+        Matrix<States, States> half = arena.matrix(n, n);
+        for (int i = 0; i < n; ++i) {
+            half.set(i, i, 0.5);
+        }
+        return combine(a, half, b, half, arena);
+    }
+
+    void checkWeights(Matrix<States, States> pa, Matrix<States, States> pb) {
         Matrix<States, States> sumOfWeight = pa.plus(pb);
         if (!MatrixFeatures_DDRM.isIdentity(sumOfWeight.getStorage().getDDRM(), 0.001)) {
             throw new IllegalArgumentException("weights do not sum to one.\npa:\n "
                     + pa.toString() + "\npb:\n " + pb.toString());
         }
-        if (!MatrixFeatures_DDRM.isSymmetric(a.Kxx.getValue().getStorage().getDDRM())) {
-            throw new IllegalArgumentException("aP is not symmetric.\n" + a.Kxx.toString());
+    }
+
+    void checkWeights(List<Matrix<States, States>> weights) {
+        Matrix<States, States> sumOfWeight = weights.get(0);
+        for (int i = 1; i < weights.size(); ++i) {
+            sumOfWeight = sumOfWeight.plus(weights.get(i));
         }
-        if (!MatrixFeatures_DDRM.isPositiveSemidefinite(a.Kxx.getValue().getStorage().getDDRM())) {
-            throw new IllegalArgumentException("aP is not positive semidefinite.\n" + a.Kxx.toString());
+        if (!MatrixFeatures_DDRM.isIdentity(sumOfWeight.getStorage().getDDRM(), 0.001)) {
+            throw new IllegalArgumentException("weights do not sum to one.\nsum:\n " + sumOfWeight.toString());
         }
-        if (!MatrixFeatures_DDRM.isSymmetric(b.Kxx.getValue().getStorage().getDDRM())) {
-            throw new IllegalArgumentException("bP is not symmetric.\n" + b.Kxx.toString());
+    }
+
+    /** Symmetric, and positive semidefinite according to the factorization. */
+    void checkCovariance(String name, RandomVector<States> v, Cholesky<States> factor) {
+        if (!v.Kxx.isSymmetric()) {
+            throw new IllegalArgumentException(name + " is not symmetric.\n" + v.Kxx.toString());
         }
-        if (!MatrixFeatures_DDRM.isPositiveSemidefinite(b.Kxx.getValue().getStorage().getDDRM())) {
-            throw new IllegalArgumentException("bP is not positive semidefinite.\n" + b.Kxx.toString());
+        if (!factor.isPositiveSemidefinite()) {
+            throw new IllegalArgumentException(name + " is not positive semidefinite.\n" + v.Kxx.toString());
         }
+    }
 
+    /** The pooling itself, without checks. */
+    RandomVector<States> combine(
+            RandomVector<States> a,
+            Matrix<States, States> pa,
+            RandomVector<States> b,
+            Matrix<States, States> pb) {
 //        Matrix<States, N1> cx = pa.times(a.x).plus(pb.times(b.x));
 // this handles wrapping
         Matrix<States, N1> cx = a.combine(pb,b).x;
 
-        Matrix<States, States> cK = pa.times(a.Kxx.getValue()).times(pa.transpose()).plus(
-                pb.times(b.Kxx.getValue()).times(pb.transpose()));
+        Variance<States> cK = a.Kxx.congruence(pa).plus(b.Kxx.congruence(pb));
 
         // xplus(weight.times(other.xminus(this.x)));
 
@@ -105,11 +272,47 @@ public abstract class LinearPooling<States extends Num> implements Pooling<State
 
         // RandomVector<States> cc = a.combine(pb, b);
         // System.out.println("cc " + cc);
-        return a.make(cx, new Variance<>(cK).plus(dispersionTerm));
+        return a.make(cx, cK.plus(dispersionTerm));
        // return a.make(cx, new Variance<>(cK));
 
     }
 
+    /**
+     * N-way pooling, without checks. The means are taken relative to the first
+     * one, so its class can handle geometry, as in the two-input version.
+     */
+    RandomVector<States> combine(List<RandomVector<States>> inputs, List<Matrix<States, States>> weights) {
+        RandomVector<States> a = inputs.get(0);
+        Matrix<States, N1> dx = null;
+        Variance<States> cK = null;
+        for (int i = 0; i < inputs.size(); ++i) {
+            RandomVector<States> v = inputs.get(i);
+            Matrix<States, States> p = weights.get(i);
+            Matrix<States, N1> term = p.times(v.xminus(a.x));
+            dx = dx == null ? term : dx.plus(term);
+            Variance<States> k = v.Kxx.congruence(p);
+            cK = cK == null ? k : cK.plus(k);
+        }
+        for (int i = 0; i < inputs.size(); ++i) {
+            for (int j = i + 1; j < inputs.size(); ++j) {
+                cK = cK.plus(dispersionCovariance(inputs.get(i), weights.get(i), inputs.get(j), weights.get(j)));
+            }
+        }
+        return a.make(a.xplus(dx), cK);
+    }
+
+    RandomVector<States> combine(
+            RandomVector<States> a,
+            Matrix<States, States> pa,
+            RandomVector<States> b,
+            Matrix<States, States> pb,
+            Arena arena) {
+        Matrix<States, N1> cx = a.combine(pb, b, arena).x;
+        Variance<States> cK = a.Kxx.congruence(pa, arena).plus(b.Kxx.congruence(pb, arena), arena);
+        Variance<States> dispersionTerm = dispersionCovariance(a, pa, b, pb, arena);
+        return arena.randomVector(a, cx, cK.plus(dispersionTerm, arena));
+    }
+
     /**
      * Covariance of the mixture due to dispersion in the means.
      * 
@@ -131,7 +334,31 @@ public abstract class LinearPooling<States extends Num> implements Pooling<State
         Matrix<States, States> d2 = ddiag.times(ddiag);
         Matrix<States, States> papb = pa.times(pb);
         Matrix<States, States> dispersionTerm = papb.times(d2);//.times(2.0);
-        return new Variance<>(dispersionTerm);
+        // with correlated inputs, the weights aren't diagonal, so this isn't
+        // symmetric. Variance keeps only the symmetric part anyway, but it
+        // would flag the result, and the next fuse would reject it.
+        return new Variance<>(dispersionTerm.plus(dispersionTerm.transpose()).times(0.5));
+    }
+
+    Variance<States> dispersionCovariance(
+            RandomVector<States> a,
+            Matrix<States, States> pa,
+            RandomVector<States> b,
+            Matrix<States, States> pb,
+            Arena arena) {
+        Matrix<States, N1> d = a.xminus(b.x, arena);
+        Matrix<States, States> papb = arena.times(pa, pb);
+        // the symmetric part of papb times the diagonal of d^2, see above.
+        int n = d.getNumRows();
+        Matrix<States, States> dispersionTerm = arena.matrix(n, n);
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                double dj2 = d.get(j, 0) * d.get(j, 0);
+                double di2 = d.get(i, 0) * d.get(i, 0);
+                dispersionTerm.set(i, j, (papb.get(i, j) * dj2 + papb.get(j, i) * di2) / 2);
+            }
+        }
+        return arena.variance(dispersionTerm);
     }
 
     /**
@@ -139,8 +366,8 @@ public abstract class LinearPooling<States extends Num> implements Pooling<State
      * matrices.
      */
     RandomVector<States> fuse(RandomVector<States> a, double pa, RandomVector<States> b, double pb) {
-        Matrix<States, States> pamat = a.Kxx.copy().getValue();
-        Matrix<States, States> pbmat = b.Kxx.copy().getValue();
+        Matrix<States, States> pamat = a.Kxx.getValue();
+        Matrix<States, States> pbmat = b.Kxx.getValue();
         pamat.fill(0);
         pbmat.fill(0);
         for (int i = 0; i < pamat.getNumCols(); ++i) {
@@ -1,5 +1,7 @@
 package org.team100.lib.fusion;
 
+import java.util.List;
+
 import org.team100.lib.math.RandomVector;
 import org.team100.lib.math.Variance;
 
@@ -28,6 +30,13 @@ import edu.wpi.first.math.numbers.N1;
  * 
  * Bayesian inference and inverse variance weighting are the same idea, without
  * the 'w' factor.
+ * 
+ * For more than two inputs, with weights w_i adding to one:
+ * 
+ * C = 1/sum(w_i/P_i)
+ * c = C*sum(w_i x_i/P_i)
+ * 
+ * The sums take one pass, with one inversion per input, and one at the end.
  */
 public abstract class LogLinearPooling<States extends Num> implements Pooling<States> {
 
@@ -54,4 +63,24 @@ public abstract class LogLinearPooling<States extends Num> implements Pooling<St
 
         return a.make(cx, new Variance<>(cP));
     }
+
+    /**
+     * N-way version of fuse(a, pa, b, pb); weights should add to one.
+     * 
+     * @param inputs  at least one
+     * @param weights one for each input
+     */
+    RandomVector<States> fuse(List<RandomVector<States>> inputs, double[] weights) {
+        Matrix<States, States> PIsum = null;
+        Matrix<States, N1> xsum = null;
+        for (int i = 0; i < inputs.size(); ++i) {
+            RandomVector<States> v = inputs.get(i);
+            Matrix<States, States> PI = v.Kxx.getValue().inv().times(weights[i]);
+            Matrix<States, N1> x = PI.times(v.x);
+            PIsum = PIsum == null ? PI : PIsum.plus(PI);
+            xsum = xsum == null ? x : xsum.plus(x);
+        }
+        Matrix<States, States> cP = PIsum.inv();
+        return inputs.get(0).make(cP.times(xsum), new Variance<>(cP));
+    }
 }
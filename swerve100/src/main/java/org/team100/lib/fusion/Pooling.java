@@ -1,5 +1,9 @@
 package org.team100.lib.fusion;
 
+import java.util.Arrays;
+import java.util.List;
+
+import org.team100.lib.math.Arena;
 import org.team100.lib.math.RandomVector;
 
 import edu.wpi.first.math.Num;
@@ -10,4 +14,33 @@ import edu.wpi.first.math.Num;
  */
 public interface Pooling<States extends Num> {
     RandomVector<States> fuse(RandomVector<States> a, RandomVector<States> b);
+
+    /**
+     * Fuse any number of estimates. Poolings with an N-way form override this to
+     * pool them all at once; otherwise it's fuse(a, b), left to right.
+     * 
+     * @throws IllegalArgumentException if there aren't any
+     */
+    default RandomVector<States> fuse(List<RandomVector<States>> inputs) {
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("Nothing to fuse");
+        RandomVector<States> result = inputs.get(0);
+        for (int i = 1; i < inputs.size(); ++i) {
+            result = fuse(result, inputs.get(i));
+        }
+        return result;
+    }
+
+    /** Same as fuse(List). */
+    default RandomVector<States> fuse(RandomVector<States>[] inputs) {
+        return fuse(Arrays.asList(inputs));
+    }
+
+    /**
+     * Same as fuse(a, b), with temporaries, and the result, in the arena.
+     * Poolings that don't support an arena ignore it.
+     */
+    default RandomVector<States> fuse(RandomVector<States> a, RandomVector<States> b, Arena arena) {
+        return fuse(a, b);
+    }
 }
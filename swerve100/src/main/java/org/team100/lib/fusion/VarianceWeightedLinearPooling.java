@@ -1,6 +1,12 @@
 package org.team100.lib.fusion;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.team100.lib.math.Arena;
+import org.team100.lib.math.Cholesky;
 import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
 
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.Num;
@@ -26,10 +32,25 @@ import edu.wpi.first.math.Pair;
  * 
  * pa = (1/A)/(1/A + 1/B)
  * pb = (1/B)/(1/A + 1/B)
- * 
+ *
+ * For matrices, the summed inverse goes on the left, pa = (A⁻¹ + B⁻¹)⁻¹ A⁻¹,
+ * which is the Kalman weight. The other order is the transpose, which is the
+ * same only if the covariances are diagonal.
+ *
  * If you are representing non-Euclidean geometry you'd better be using the
  * right RandomVector class, because this class doesn't know about geometry.
  * 
+ * For more than two inputs, the weights are
+ * 
+ * p_i = (1/P_i)/sum(1/P_j)
+ * 
+ * so the inverses are summed in one pass, and there's only one more inversion,
+ * instead of three for each pair.
+ * 
+ * Each covariance is factored once (see Cholesky) and the factors are used for
+ * the checks, the determinants and the inverses. Up to 3x3, the determinants
+ * and inverses use the closed forms in Variance instead.
+ * 
  * Visualization of this pooling method is available here:
  * 
  * https://colab.research.google.com/drive/1W0YVYi4eXLpfdkSNpOy4otiW2Poliems#scrollTo=ps1ulO5dYUL4
@@ -38,39 +59,136 @@ public class VarianceWeightedLinearPooling<States extends Num> extends LinearPoo
     private static final double kThreshold = 1e-15;
 
     public RandomVector<States> fuse(RandomVector<States> a, RandomVector<States> b) {
-        // TODO: turn off these checks somehow for matches, use some sort of backoff
-        // strategy
+        try {
+            checkTypes(a, b);
+            Cholesky<States> aFactor = null;
+            Cholesky<States> bFactor = null;
+            if (shouldCheck()) {
+                aFactor = new Cholesky<>(a.Kxx);
+                bFactor = new Cholesky<>(b.Kxx);
+                checkCovariance("aP", a, aFactor);
+                checkCovariance("bP", b, bFactor);
+            }
+            Pair<Matrix<States, States>, Matrix<States, States>> weights = weights(a, aFactor, b, bFactor);
+            // these add to one by construction, so there's nothing else to check.
+            return combine(a, weights.getFirst(), b, weights.getSecond());
+        } catch (IllegalArgumentException e) {
+            return fallback(e, a, b);
+        }
+    }
+
+    /** Variance weighted N-way pooling; not the same as fusing pairwise. */
+    @Override
+    public RandomVector<States> fuse(List<RandomVector<States>> inputs) {
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("Nothing to fuse");
+        try {
+            boolean check = shouldCheck();
+            List<Variance<States>> information = new ArrayList<>(inputs.size());
+            Variance<States> PIsum = null;
+            for (RandomVector<States> v : inputs) {
+                checkTypes(inputs.get(0), v);
+                Cholesky<States> factor = null;
+                if (check) {
+                    factor = new Cholesky<>(v.Kxx);
+                    checkCovariance("P", v, factor);
+                }
+                Variance<States> PI = inverse("P", v.Kxx, factor);
+                information.add(PI);
+                PIsum = PIsum == null ? PI : PIsum.plus(PI);
+            }
+            Variance<States> pIsumI = inverse("PIsum", PIsum, null);
+            List<Matrix<States, States>> weights = new ArrayList<>(inputs.size());
+            for (Variance<States> PI : information) {
+                weights.add(pIsumI.times(PI));
+            }
+            // these add to one by construction, so there's nothing else to check.
+            return combine(inputs, weights);
+        } catch (IllegalArgumentException e) {
+            return fallback(e, inputs);
+        }
+    }
+
+    /** Allocates nothing up to 3x3, except for the checks. */
+    @Override
+    public RandomVector<States> fuse(RandomVector<States> a, RandomVector<States> b, Arena arena) {
+        try {
+            checkTypes(a, b);
+            Cholesky<States> aFactor = null;
+            Cholesky<States> bFactor = null;
+            if (shouldCheck()) {
+                aFactor = new Cholesky<>(a.Kxx);
+                bFactor = new Cholesky<>(b.Kxx);
+                checkCovariance("aP", a, aFactor);
+                checkCovariance("bP", b, bFactor);
+            }
+            Variance<States> aPI = inverse("aP", a.Kxx, aFactor, arena);
+            Variance<States> bPI = inverse("bP", b.Kxx, bFactor, arena);
+            Variance<States> pIsumI = inverse("PIsum", aPI.plus(bPI, arena), null, arena);
+            return combine(a, pIsumI.times(aPI, arena), b, pIsumI.times(bPI, arena), arena);
+        } catch (IllegalArgumentException e) {
+            return fallback(e, a, b, arena);
+        }
+    }
+
+    private void checkTypes(RandomVector<States> a, RandomVector<States> b) {
         if (a.getClass() != b.getClass()) {
             throw new IllegalArgumentException("a and b must be same type\n" + a.getClass() + " " + b.getClass());
         }
-        Pair<Matrix<States,States>,Matrix<States,States>> weights = weights(a,b);
-        Matrix<States, States> pa = weights.getFirst();
-        Matrix<States, States> pb = weights.getSecond();
-      // System.out.println("pa " + pa);
-      //  System.out.println("pb " + pb);
-        return fuse(a, pa, b, pb);
     }
 
-    /** TODO make a weight type */
     Pair<Matrix<States, States>, Matrix<States, States>> weights(RandomVector<States> a, RandomVector<States> b) {
-        Matrix<States, States> aP = a.Kxx.getValue();
-        Matrix<States, States> bP = b.Kxx.getValue();
-        if (aP.det() < kThreshold) {
-            throw new IllegalArgumentException("aP is singular.\n" + aP.toString());
+        return weights(a, null, b, null);
+    }
+
+    /**
+     * TODO make a weight type
+     * 
+     * @param aFactor factor of a, or null to make one if needed
+     * @param bFactor factor of b, or null to make one if needed
+     */
+    Pair<Matrix<States, States>, Matrix<States, States>> weights(
+            RandomVector<States> a,
+            Cholesky<States> aFactor,
+            RandomVector<States> b,
+            Cholesky<States> bFactor) {
+        Variance<States> aPI = inverse("aP", a.Kxx, aFactor);
+        Variance<States> bPI = inverse("bP", b.Kxx, bFactor);
+        Variance<States> PIsum = aPI.plus(bPI);
+        Variance<States> pIsumI = inverse("PIsum", PIsum, null);
+        Matrix<States, States> pa = pIsumI.times(aPI);
+        Matrix<States, States> pb = pIsumI.times(bPI);
+        return Pair.of(pa, pb);
+    }
+
+    /**
+     * Closed form for small matrices, otherwise from the factor.
+     * 
+     * @throws IllegalArgumentException if singular
+     */
+    private Variance<States> inverse(String name, Variance<States> P, Cholesky<States> factor) {
+        if (P.rows() <= 3) {
+            if (!(P.det() >= kThreshold)) {
+                throw new IllegalArgumentException(name + " is singular.\n" + P.toString());
+            }
+            return P.inverse();
         }
-        if (bP.det() < kThreshold) {
-            throw new IllegalArgumentException("bP is singular.\n" + bP.toString());
+        if (factor == null)
+            factor = new Cholesky<>(P);
+        if (!(factor.det() >= kThreshold) || !factor.isPositiveDefinite()) {
+            throw new IllegalArgumentException(name + " is singular.\n" + P.toString());
         }
-        Matrix<States, States> aPI = aP.inv();
-        Matrix<States, States> bPI = bP.inv();
-        Matrix<States, States> PIsum = aPI.plus(bPI);
-        if (PIsum.det() < kThreshold) {
-            throw new IllegalArgumentException("PIsum is singular.\n" + PIsum.toString());
+        return new Variance<>(factor.inverse());
+    }
+
+    private Variance<States> inverse(String name, Variance<States> P, Cholesky<States> factor, Arena arena) {
+        if (P.rows() <= 3) {
+            if (!(P.det() >= kThreshold)) {
+                throw new IllegalArgumentException(name + " is singular.\n" + P.toString());
+            }
+            return P.inverse(arena);
         }
-        Matrix<States, States> pIsumI = PIsum.inv();
-        Matrix<States, States> pa = aPI.times(pIsumI);
-        Matrix<States, States> pb = bPI.times(pIsumI);
-        return Pair.of(pa,pb);
+        return arena.variance(inverse(name, P, factor).getValue());
     }
 
 }
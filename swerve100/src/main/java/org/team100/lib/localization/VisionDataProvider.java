@@ -2,25 +2,31 @@ package org.team100.lib.localization;
 
 import java.io.IOException;
 import java.util.EnumSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 import org.team100.frc2023.config.Cameras2023;
+import org.team100.lib.fusion.Gate;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import edu.wpi.first.cscore.CameraServerCvJNI;
+import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Rotation3d;
-import edu.wpi.first.math.geometry.Transform2d;
 import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.numbers.N2;
 import edu.wpi.first.networktables.DoublePublisher;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTable.TableEventListener;
@@ -53,7 +59,14 @@ public class VisionDataProvider extends SubsystemBase implements TableEventListe
     private final ObjectMapper objectMapper;
     private final SwerveDrivePoseEstimator poseEstimator;
     /** Discard results further than this from the previous one. */
-    private final double kVisionChangeToleranceMeters = 0.1;
+    private static final double kVisionChangeToleranceMeters = 0.1;
+    private static final double kGateConfidence = 0.99;
+    /**
+     * Blip-to-blip noise, for the gates, chosen so that a jump of
+     * kVisionChangeToleranceMeters is right at the threshold.
+     */
+    private static final double kBlipStdDevMeters = kVisionChangeToleranceMeters
+            / Math.sqrt(2 * Gate.chiSquare(2, kGateConfidence));
     private final AprilTagFieldLayoutWithCorrectOrientation layout;
     // for Sendable observation
     private Rotation3d tagRotation;
@@ -61,6 +74,8 @@ public class VisionDataProvider extends SubsystemBase implements TableEventListe
     private Pose2d currentRobotinFieldCoords;
     // for blip filtering
     private Pose2d lastRobotInFieldCoords;
+    // one per camera, so each camera's rejections are counted separately.
+    private final Map<String, Gate<N2>> gates = new ConcurrentHashMap<>();
 
     public VisionDataProvider(
             AprilTagFieldLayoutWithCorrectOrientation layout,
@@ -143,11 +158,7 @@ public class VisionDataProvider extends SubsystemBase implements TableEventListe
 
             tagRotation = PoseEstimationHelper.blipToRotation(blip);
             if (lastRobotInFieldCoords != null) {
-                Transform2d translationSinceLast = currentRobotinFieldCoords.minus(lastRobotInFieldCoords);
-                double xComponent = translationSinceLast.getX();
-                double yComponent = translationSinceLast.getY();
-                if (xComponent * xComponent + yComponent * yComponent <= kVisionChangeToleranceMeters
-                        * kVisionChangeToleranceMeters) {
+                if (gate(key).test(translation(lastRobotInFieldCoords), translation(currentRobotinFieldCoords))) {
                     estimateConsumer.accept(currentRobotinFieldCoords, Timer.getFPGATimestamp() - .075);
                 }
             }
@@ -155,6 +166,20 @@ public class VisionDataProvider extends SubsystemBase implements TableEventListe
         }
     }
 
+    /** The gate for this camera, published as "Vision Gate <key>". */
+    Gate<N2> gate(String key) {
+        return gates.computeIfAbsent(key, k -> {
+            Gate<N2> gate = new Gate<>(kGateConfidence);
+            SmartDashboard.putData("Vision Gate " + k, gate);
+            return gate;
+        });
+    }
+
+    private static RandomVector<N2> translation(Pose2d pose) {
+        return new RandomVector<>(VecBuilder.fill(pose.getX(), pose.getY()),
+                Variance.from2StdDev(kBlipStdDevMeters, kBlipStdDevMeters));
+    }
+
     @Override
     public void initSendable(SendableBuilder builder) {
         super.initSendable(builder);
@@ -44,6 +44,25 @@ public class AngularRandomVector<States extends Num> extends RandomVector<States
         x.set(0, 0, MathUtil.angleModulus(x.get(0, 0)));
         return x;
     }
+    @Override
+    public Matrix<States, N1> xplus(Matrix<States, N1> otherx, Arena arena) {
+        Matrix<States, N1> x = super.xplus(otherx, arena);
+        normalize(x);
+        return x;
+    }
+
+    @Override
+    public Matrix<States, N1> xminus(Matrix<States, N1> other, Arena arena) {
+        Matrix<States, N1> x = super.xminus(other, arena);
+        normalize(x);
+        return x;
+    }
+
+    @Override
+    protected void normalize(Matrix<States, N1> x) {
+        x.set(0, 0, MathUtil.angleModulus(x.get(0, 0)));
+    }
+
     @Override
     public String toString() {
         return "AngularRandomVector [x=" + x + ", P=" + Kxx + "]";
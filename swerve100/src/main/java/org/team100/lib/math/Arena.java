@@ -0,0 +1,212 @@
+package org.team100.lib.math;
+
+import java.util.Arrays;
+
+import org.ejml.dense.row.CommonOps_DDRM;
+import org.ejml.simple.SimpleMatrix;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * Temporaries for one robot cycle, so the arena-aware overloads in math,
+ * fusion and controller don't allocate.
+ *
+ * Each temporary comes from a pool for its dimensions and stays valid until
+ * reset(), which makes all of them available again. Call reset() once per
+ * cycle, when nothing from the last cycle is still in use, and copy anything
+ * you want to keep.
+ *
+ * The pools grow when a cycle needs more than any cycle before, so the first
+ * cycle or two allocate, and after that nothing does; getAllocations() counts
+ * the growth.
+ *
+ * Not threadsafe; use one per thread.
+ */
+public class Arena {
+    /** Largest number of rows or columns. */
+    public static final int kMaxDim = 8;
+
+    private static class Pool {
+        Object[] items = new Object[4];
+        int size;
+        int used;
+
+        Object next() {
+            return used < size ? items[used++] : null;
+        }
+
+        Object add(Object item) {
+            if (size == items.length)
+                items = Arrays.copyOf(items, 2 * size);
+            items[size++] = item;
+            used = size;
+            return item;
+        }
+    }
+
+    private static class VectorPool extends Pool {
+        final Class<?> type;
+        final int n;
+
+        VectorPool(Class<?> type, int n) {
+            this.type = type;
+            this.n = n;
+        }
+    }
+
+    // matrices by rows and columns
+    private final Pool[] m_matrices = new Pool[(kMaxDim + 1) * (kMaxDim + 1)];
+    // arrays by length
+    private final Pool[] m_arrays = new Pool[kMaxDim * kMaxDim + 1];
+    // variances by dimension
+    private final Pool[] m_variances = new Pool[kMaxDim + 1];
+    // random vectors by class and dimension, searched in order.
+    private VectorPool[] m_vectors = new VectorPool[4];
+    private int m_vectorPools;
+    private int m_allocations;
+
+    /** Make every temporary available again. */
+    public void reset() {
+        reset(m_matrices);
+        reset(m_arrays);
+        reset(m_variances);
+        for (int i = 0; i < m_vectorPools; ++i) {
+            m_vectors[i].used = 0;
+        }
+    }
+
+    /** Number of temporaries allocated so far; constant in steady state. */
+    public int getAllocations() {
+        return m_allocations;
+    }
+
+    /** A zero matrix. */
+    @SuppressWarnings("unchecked")
+    public <R extends Num, C extends Num> Matrix<R, C> matrix(int rows, int cols) {
+        check(rows);
+        check(cols);
+        Pool pool = pool(m_matrices, rows * (kMaxDim + 1) + cols);
+        Matrix<R, C> m = (Matrix<R, C>) pool.next();
+        if (m == null) {
+            m_allocations++;
+            return (Matrix<R, C>) pool.add(new Matrix<R, C>(new SimpleMatrix(rows, cols)));
+        }
+        m.fill(0);
+        return m;
+    }
+
+    /** A zero array. */
+    public double[] array(int length) {
+        if (length < 0 || length >= m_arrays.length)
+            throw new IllegalArgumentException("Too long for the arena: " + length);
+        Pool pool = pool(m_arrays, length);
+        double[] a = (double[]) pool.next();
+        if (a == null) {
+            m_allocations++;
+            return (double[]) pool.add(new double[length]);
+        }
+        Arrays.fill(a, 0);
+        return a;
+    }
+
+    /** A zero variance. */
+    @SuppressWarnings("unchecked")
+    public <D extends Num> Variance<D> variance(int n) {
+        check(n);
+        Pool pool = pool(m_variances, n);
+        Variance<D> v = (Variance<D>) pool.next();
+        if (v == null) {
+            m_allocations++;
+            return (Variance<D>) pool.add(new Variance<D>(n, new double[n * (n + 1) / 2], true));
+        }
+        v.setZero();
+        return v;
+    }
+
+    /** Arena version of new Variance(value). */
+    public <D extends Num> Variance<D> variance(Matrix<D, D> value) {
+        Variance<D> v = variance(value.getNumRows());
+        v.set(value);
+        return v;
+    }
+
+    /**
+     * Arena version of like.make(x, P): the same class as like, with copies of x
+     * and P, so they can be temporaries too.
+     */
+    public <S extends Num> RandomVector<S> randomVector(RandomVector<S> like, Matrix<S, N1> x, Variance<S> P) {
+        return randomVector(like.getClass(), like, x, P);
+    }
+
+    /** Arena version of new RandomVector<>(x, P). */
+    public <S extends Num> RandomVector<S> randomVector(Matrix<S, N1> x, Variance<S> P) {
+        return randomVector(RandomVector.class, null, x, P);
+    }
+
+    /** @param like makes new ones, or null for the plain class */
+    @SuppressWarnings("unchecked")
+    private <S extends Num> RandomVector<S> randomVector(
+            Class<?> type, RandomVector<S> like, Matrix<S, N1> x, Variance<S> P) {
+        int n = x.getNumRows();
+        check(n);
+        VectorPool pool = vectorPool(type, n);
+        RandomVector<S> v = (RandomVector<S>) pool.next();
+        if (v == null) {
+            m_allocations++;
+            Matrix<S, N1> vx = new Matrix<>(new SimpleMatrix(n, 1));
+            Variance<S> vP = new Variance<>(n, new double[n * (n + 1) / 2], true);
+            v = (RandomVector<S>) pool.add(like == null ? new RandomVector<>(vx, vP) : like.make(vx, vP));
+        }
+        for (int i = 0; i < n; ++i) {
+            v.x.set(i, 0, x.get(i, 0));
+        }
+        v.normalize(v.x);
+        v.Kxx.set(P);
+        return v;
+    }
+
+    /** Arena version of a.times(b). */
+    public <R extends Num, K extends Num, C extends Num> Matrix<R, C> times(Matrix<R, K> a, Matrix<K, C> b) {
+        Matrix<R, C> result = matrix(a.getNumRows(), b.getNumCols());
+        CommonOps_DDRM.mult(a.getStorage().getDDRM(), b.getStorage().getDDRM(), result.getStorage().getDDRM());
+        return result;
+    }
+
+    private static void check(int dim) {
+        if (dim < 1 || dim > kMaxDim)
+            throw new IllegalArgumentException("Too big for the arena: " + dim);
+    }
+
+    private static void reset(Pool[] pools) {
+        for (Pool pool : pools) {
+            if (pool != null)
+                pool.used = 0;
+        }
+    }
+
+    private Pool pool(Pool[] pools, int index) {
+        Pool pool = pools[index];
+        if (pool == null) {
+            m_allocations++;
+            pool = new Pool();
+            pools[index] = pool;
+        }
+        return pool;
+    }
+
+    private VectorPool vectorPool(Class<?> type, int n) {
+        for (int i = 0; i < m_vectorPools; ++i) {
+            VectorPool pool = m_vectors[i];
+            if (pool.type == type && pool.n == n)
+                return pool;
+        }
+        m_allocations++;
+        if (m_vectorPools == m_vectors.length)
+            m_vectors = Arrays.copyOf(m_vectors, 2 * m_vectorPools);
+        VectorPool pool = new VectorPool(type, n);
+        m_vectors[m_vectorPools++] = pool;
+        return pool;
+    }
+}
@@ -0,0 +1,155 @@
+package org.team100.lib.math;
+
+import java.util.Arrays;
+
+import org.ejml.simple.SimpleMatrix;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+
+/**
+ * Cholesky factorization, P = LLᵀ, of a covariance, so checking it, finding
+ * its determinant, and inverting it all share one O(n³/6) factorization
+ * instead of an eigendecomposition, a determinant, and an inversion.
+ *
+ * This reads only the lower triangle; check symmetry separately.
+ *
+ * Zero pivots are allowed, as long as the rest of their column is zero too, so
+ * semidefinite matrices (e.g. zero variance) factor fine, they just can't be
+ * inverted. A negative pivot means the matrix isn't positive semidefinite.
+ *
+ * https://en.wikipedia.org/wiki/Cholesky_decomposition
+ */
+public class Cholesky<Dim extends Num> {
+    private interface Entries {
+        double get(int i, int j);
+    }
+
+    // relative to the diagonal, for roundoff.
+    private static final double kTolerance = 1e-9;
+
+    private final int m_n;
+    // lower triangle, row-major
+    private final double[] m_L;
+    private final boolean m_psd;
+    private final int m_rank;
+
+    public Cholesky(Matrix<Dim, Dim> P) {
+        this(P.getNumRows(), P::get);
+    }
+
+    /** Reads the packed storage directly, no full matrix. */
+    public Cholesky(Variance<Dim> P) {
+        this(P.rows(), P::get);
+    }
+
+    private Cholesky(int n, Entries P) {
+        m_n = n;
+        m_L = new double[m_n * m_n];
+        int rank = factor(n, P, m_L);
+        m_psd = rank >= 0;
+        m_rank = rank;
+    }
+
+    /**
+     * Factors row-major P into L, for callers that keep their own buffers.
+     *
+     * @param L room for n², row-major, lower triangle filled, the rest zeroed
+     * @return the rank, or -1 if P isn't positive semidefinite.
+     */
+    public static int factor(int n, double[] P, double[] L) {
+        return factor(n, (i, j) -> P[i * n + j], L);
+    }
+
+    private static int factor(int n, Entries P, double[] L) {
+        Arrays.fill(L, 0, n * n, 0);
+        int rank = 0;
+        for (int j = 0; j < n; ++j) {
+            double pjj = P.get(j, j);
+            double d = pjj;
+            for (int k = 0; k < j; ++k) {
+                d -= L[j * n + k] * L[j * n + k];
+            }
+            double tol = kTolerance * Math.abs(pjj);
+            if (d < -tol || Double.isNaN(d)) {
+                return -1;
+            } else if (d <= tol) {
+                // zero pivot: the rest of the column has to be zero too.
+                for (int i = j + 1; i < n; ++i) {
+                    double s = P.get(i, j);
+                    for (int k = 0; k < j; ++k) {
+                        s -= L[i * n + k] * L[j * n + k];
+                    }
+                    if (Math.abs(s) > kTolerance * (1 + Math.abs(P.get(i, i))))
+                        return -1;
+                }
+            } else {
+                double ljj = Math.sqrt(d);
+                L[j * n + j] = ljj;
+                for (int i = j + 1; i < n; ++i) {
+                    double s = P.get(i, j);
+                    for (int k = 0; k < j; ++k) {
+                        s -= L[i * n + k] * L[j * n + k];
+                    }
+                    L[i * n + j] = s / ljj;
+                }
+                rank += 1;
+            }
+        }
+        return rank;
+    }
+
+    public boolean isPositiveSemidefinite() {
+        return m_psd;
+    }
+
+    /** Positive definite matrices are the invertible ones. */
+    public boolean isPositiveDefinite() {
+        return m_psd && m_rank == m_n;
+    }
+
+    /** @return the determinant, or NaN if not positive semidefinite. */
+    public double det() {
+        if (!m_psd)
+            return Double.NaN;
+        double det = 1;
+        for (int i = 0; i < m_n; ++i) {
+            det *= m_L[i * m_n + i];
+        }
+        return det * det;
+    }
+
+    /**
+     * P⁻¹, by solving LLᵀX = I.
+     *
+     * @throws IllegalStateException if not positive definite.
+     */
+    public Matrix<Dim, Dim> inverse() {
+        if (!isPositiveDefinite())
+            throw new IllegalStateException("Not positive definite");
+        Matrix<Dim, Dim> inverse = new Matrix<>(new SimpleMatrix(m_n, m_n));
+        double[] col = new double[m_n];
+        for (int c = 0; c < m_n; ++c) {
+            // forward, Lz = e_c
+            for (int i = 0; i < m_n; ++i) {
+                double s = i == c ? 1 : 0;
+                for (int k = 0; k < i; ++k) {
+                    s -= m_L[i * m_n + k] * col[k];
+                }
+                col[i] = s / m_L[i * m_n + i];
+            }
+            // backward, Lᵀx = z
+            for (int i = m_n - 1; i >= 0; --i) {
+                double s = col[i];
+                for (int k = i + 1; k < m_n; ++k) {
+                    s -= m_L[k * m_n + i] * col[k];
+                }
+                col[i] = s / m_L[i * m_n + i];
+            }
+            for (int i = 0; i < m_n; ++i) {
+                inverse.set(i, c, col[i]);
+            }
+        }
+        return inverse;
+    }
+}
@@ -0,0 +1,99 @@
+package org.team100.lib.math;
+
+/**
+ * Dual number, a + bε with ε² = 0, for forward-mode automatic differentiation.
+ * 
+ * Carry the derivative with respect to one variable along with the value: seed
+ * that variable with derivative one and everything else with zero, evaluate,
+ * and the derivative parts of the result are exact partial derivatives, with
+ * no step size to choose. See Jacobian and DualPlant.
+ * 
+ * https://en.wikipedia.org/wiki/Automatic_differentiation#Forward_accumulation
+ */
+public final class Dual {
+    public final double value;
+    public final double derivative;
+
+    public Dual(double value, double derivative) {
+        this.value = value;
+        this.derivative = derivative;
+    }
+
+    /** Doesn't depend on the variable. */
+    public static Dual constant(double value) {
+        return new Dual(value, 0);
+    }
+
+    /** Is the variable. */
+    public static Dual variable(double value) {
+        return new Dual(value, 1);
+    }
+
+    public Dual plus(Dual b) {
+        return new Dual(value + b.value, derivative + b.derivative);
+    }
+
+    public Dual plus(double b) {
+        return new Dual(value + b, derivative);
+    }
+
+    public Dual minus(Dual b) {
+        return new Dual(value - b.value, derivative - b.derivative);
+    }
+
+    public Dual minus(double b) {
+        return new Dual(value - b, derivative);
+    }
+
+    public Dual times(Dual b) {
+        return new Dual(value * b.value, derivative * b.value + value * b.derivative);
+    }
+
+    public Dual times(double b) {
+        return new Dual(value * b, derivative * b);
+    }
+
+    public Dual div(Dual b) {
+        return new Dual(value / b.value, (derivative * b.value - value * b.derivative) / (b.value * b.value));
+    }
+
+    public Dual div(double b) {
+        return new Dual(value / b, derivative / b);
+    }
+
+    public Dual negate() {
+        return new Dual(-value, -derivative);
+    }
+
+    public Dual sin() {
+        return new Dual(Math.sin(value), derivative * Math.cos(value));
+    }
+
+    public Dual cos() {
+        return new Dual(Math.cos(value), -derivative * Math.sin(value));
+    }
+
+    public Dual exp() {
+        double e = Math.exp(value);
+        return new Dual(e, derivative * e);
+    }
+
+    public Dual sqrt() {
+        double s = Math.sqrt(value);
+        return new Dual(s, derivative / (2 * s));
+    }
+
+    public Dual pow(double p) {
+        return new Dual(Math.pow(value, p), derivative * p * Math.pow(value, p - 1));
+    }
+
+    /** The derivative at zero is taken to be zero. */
+    public Dual signum() {
+        return constant(Math.signum(value));
+    }
+
+    @Override
+    public String toString() {
+        return "Dual [value=" + value + ", derivative=" + derivative + "]";
+    }
+}
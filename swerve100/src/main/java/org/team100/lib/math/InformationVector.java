@@ -0,0 +1,125 @@
+package org.team100.lib.math;
+
+import org.ejml.simple.SimpleMatrix;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * A random vector in information form: instead of mean x and covariance P,
+ * this keeps the information matrix Y = P⁻¹ and the information vector
+ * y = P⁻¹x.
+ *
+ * In this form, fusing independent estimates of the same thing is just
+ * addition, with no inversions at all; the inversions happen once, converting
+ * to and from RandomVector.
+ *
+ * A "don't know" row (see Variance.dontknow()) has no information, so it's
+ * exactly zero here, rather than an ill-conditioned 1e9 on the diagonal.
+ * Conversion back to RandomVector turns zero rows back into "don't know" rows
+ * with zero mean; everything else round-trips exactly, up to roundoff.
+ *
+ * This class doesn't know about geometry: the mean is only meaningful near
+ * wherever it came from, so do wrapping in the caller, like InformationPooling
+ * does.
+ */
+public class InformationVector<States extends Num> {
+    /** Information vector, y = P⁻¹x. */
+    public final Matrix<States, N1> y;
+    /** Information matrix, Y = P⁻¹. */
+    public final Matrix<States, States> Y;
+
+    public InformationVector(Matrix<States, N1> y, Matrix<States, States> Y) {
+        this.y = y;
+        this.Y = Y;
+    }
+
+    /** Convert from mean and covariance. */
+    public static <States extends Num> InformationVector<States> from(RandomVector<States> v) {
+        return from(v.x, v.Kxx);
+    }
+
+    /**
+     * Convert from mean and covariance.
+     *
+     * @throws org.ejml.data.SingularMatrixException if the known part of P is
+     *                                               singular, e.g. a zero
+     *                                               variance.
+     */
+    public static <States extends Num> InformationVector<States> from(Matrix<States, N1> x, Variance<States> P) {
+        int n = x.getNumRows();
+        int[] known = new int[n];
+        int k = 0;
+        for (int i = 0; i < n; ++i) {
+            if (!P.isDontKnow(i))
+                known[k++] = i;
+        }
+        SimpleMatrix sub = new SimpleMatrix(k, k);
+        for (int i = 0; i < k; ++i) {
+            for (int j = 0; j < k; ++j) {
+                sub.set(i, j, P.get(known[i], known[j]));
+            }
+        }
+        SimpleMatrix subInv = k == 0 ? sub : sub.invert();
+        Matrix<States, States> Y = new Matrix<>(new SimpleMatrix(n, n));
+        Matrix<States, N1> y = new Matrix<>(new SimpleMatrix(n, 1));
+        for (int i = 0; i < k; ++i) {
+            double yi = 0;
+            for (int j = 0; j < k; ++j) {
+                Y.set(known[i], known[j], subInv.get(i, j));
+                yi += subInv.get(i, j) * x.get(known[j], 0);
+            }
+            y.set(known[i], 0, yi);
+        }
+        return new InformationVector<>(y, Y);
+    }
+
+    /**
+     * Convert to mean and covariance.
+     *
+     * @param like supplies the class of the result, e.g. AngularRandomVector.
+     */
+    public RandomVector<States> toRandomVector(RandomVector<States> like) {
+        int n = y.getNumRows();
+        int[] known = new int[n];
+        int k = 0;
+        for (int i = 0; i < n; ++i) {
+            if (Y.get(i, i) != 0)
+                known[k++] = i;
+        }
+        SimpleMatrix sub = new SimpleMatrix(k, k);
+        for (int i = 0; i < k; ++i) {
+            for (int j = 0; j < k; ++j) {
+                sub.set(i, j, Y.get(known[i], known[j]));
+            }
+        }
+        SimpleMatrix subInv = k == 0 ? sub : sub.invert();
+        Matrix<States, States> P = new Matrix<>(new SimpleMatrix(n, n));
+        Matrix<States, N1> x = new Matrix<>(new SimpleMatrix(n, 1));
+        for (int i = 0; i < k; ++i) {
+            double xi = 0;
+            for (int j = 0; j < k; ++j) {
+                P.set(known[i], known[j], subInv.get(i, j));
+                xi += subInv.get(i, j) * y.get(known[j], 0);
+            }
+            x.set(known[i], 0, xi);
+        }
+        Variance<States> variance = new Variance<>(P);
+        for (int i = 0; i < n; ++i) {
+            if (Y.get(i, i) == 0)
+                variance.dontknow(i);
+        }
+        return like.make(x, variance);
+    }
+
+    /** Fuse with an independent estimate of the same thing. */
+    public InformationVector<States> plus(InformationVector<States> other) {
+        return new InformationVector<>(y.plus(other.y), Y.plus(other.Y));
+    }
+
+    @Override
+    public String toString() {
+        return "InformationVector [y=" + y + ", Y=" + Y + "]";
+    }
+}
@@ -2,6 +2,9 @@ package org.team100.lib.math;
 
 import java.util.function.BiFunction;
 
+import org.team100.lib.system.DualPlant;
+import org.team100.lib.system.NonlinearPlant;
+
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.Nat;
 import edu.wpi.first.math.Num;
@@ -9,10 +12,74 @@ import edu.wpi.first.math.numbers.N1;
 
 /**
  * Copy of the WPI version but for random variables.
+ * 
+ * For plants that implement DualPlant, jacobianX and jacobianU are exact, using
+ * forward-mode automatic differentiation, one evaluation of f per column.
+ * Otherwise they use the numerical versions, which take two evaluations per
+ * column, and are only as good as the epsilon.
  */
 public class Jacobian {
     private static final double kEpsilon = 1e-5;
 
+    /** df/dx at (x, u). */
+    public static <States extends Num, Inputs extends Num, Outputs extends Num> Matrix<States, States> jacobianX(
+            NonlinearPlant<States, Inputs, Outputs> plant,
+            RandomVector<States> x,
+            Matrix<Inputs, N1> u) {
+        if (!(plant instanceof DualPlant))
+            return numericalJacobianX(plant.states(), plant.states(), plant::f, x, u);
+        DualPlant dualPlant = (DualPlant) plant;
+        int n = plant.states().getNum();
+        Dual[] xd = new Dual[n];
+        Dual[] ud = constants(u);
+        Dual[] xdot = new Dual[n];
+        Matrix<States, States> result = new Matrix<>(plant.states(), plant.states());
+        for (int j = 0; j < n; ++j) {
+            for (int i = 0; i < n; ++i) {
+                xd[i] = new Dual(x.x.get(i, 0), i == j ? 1 : 0);
+            }
+            dualPlant.f(xd, ud, xdot);
+            for (int i = 0; i < n; ++i) {
+                result.set(i, j, xdot[i].derivative);
+            }
+        }
+        return result;
+    }
+
+    /** df/du at (x, u). */
+    public static <States extends Num, Inputs extends Num, Outputs extends Num> Matrix<States, Inputs> jacobianU(
+            NonlinearPlant<States, Inputs, Outputs> plant,
+            RandomVector<States> x,
+            Matrix<Inputs, N1> u) {
+        if (!(plant instanceof DualPlant))
+            return numericalJacobianU(plant.states(), plant.inputs(), plant::f, x, u);
+        DualPlant dualPlant = (DualPlant) plant;
+        int n = plant.states().getNum();
+        int m = plant.inputs().getNum();
+        Dual[] xd = constants(x.x);
+        Dual[] ud = new Dual[m];
+        Dual[] xdot = new Dual[n];
+        Matrix<States, Inputs> result = new Matrix<>(plant.states(), plant.inputs());
+        for (int j = 0; j < m; ++j) {
+            for (int i = 0; i < m; ++i) {
+                ud[i] = new Dual(u.get(i, 0), i == j ? 1 : 0);
+            }
+            dualPlant.f(xd, ud, xdot);
+            for (int i = 0; i < n; ++i) {
+                result.set(i, j, xdot[i].derivative);
+            }
+        }
+        return result;
+    }
+
+    private static Dual[] constants(Matrix<?, N1> v) {
+        Dual[] result = new Dual[v.getNumRows()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = Dual.constant(v.get(i, 0));
+        }
+        return result;
+    }
+
     // note this is used for both f and h
     // TODO make a separate version for h
     public static <Rows extends Num, States extends Num, Inputs extends Num, Outputs extends Num> Matrix<Rows, States> numericalJacobianX(
@@ -1,5 +1,7 @@
 package org.team100.lib.math;
 
+import org.ejml.dense.row.CommonOps_DDRM;
+
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.Num;
 import edu.wpi.first.math.numbers.N1;
@@ -10,6 +12,9 @@ import edu.wpi.first.math.numbers.N1;
  * 
  * https://en.wikipedia.org/wiki/Multivariate_random_variable
  * 
+ * The overloads taking an Arena put their result in the arena, and are
+ * otherwise the same.
+ * 
  * TODO: make distinct classes for state vs measurement
  */
 public class RandomVector<States extends Num> {
@@ -59,6 +64,12 @@ public class RandomVector<States extends Num> {
         return this.x.plus(otherx);
     }
 
+    public Matrix<States, N1> xplus(Matrix<States, N1> otherx, Arena arena) {
+        Matrix<States, N1> result = arena.matrix(x.getNumRows(), 1);
+        CommonOps_DDRM.add(x.getStorage().getDDRM(), otherx.getStorage().getDDRM(), result.getStorage().getDDRM());
+        return result;
+    }
+
     /**
      * Euclidean version, makes the expressions a little cleaner to have both plus
      * and minus.
@@ -67,6 +78,19 @@ public class RandomVector<States extends Num> {
         return this.x.minus(otherx);
     }
 
+    public Matrix<States, N1> xminus(Matrix<States, N1> otherx, Arena arena) {
+        Matrix<States, N1> result = arena.matrix(x.getNumRows(), 1);
+        CommonOps_DDRM.subtract(x.getStorage().getDDRM(), otherx.getStorage().getDDRM(), result.getStorage().getDDRM());
+        return result;
+    }
+
+    /**
+     * Put a mean back in its domain, as make() does; the arena uses this when it
+     * reuses a variable. Euclidean, so nothing to do.
+     */
+    protected void normalize(Matrix<States, N1> x) {
+    }
+
     /**
      * Weighted average with another variable.
      * 
@@ -97,6 +121,23 @@ public class RandomVector<States extends Num> {
         return make(xx, new Variance<>(PP));
     }
 
+    public RandomVector<States> combine(Matrix<States, States> weight, RandomVector<States> other, Arena arena) {
+        Matrix<States, N1> xx = xplus(arena.times(weight, other.xminus(this.x, arena)), arena);
+        // P + weight * (other P - P)
+        int n = x.getNumRows();
+        Matrix<States, States> PP = arena.matrix(n, n);
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                double s = 0;
+                for (int k = 0; k < n; ++k) {
+                    s += weight.get(i, k) * (other.Kxx.get(k, j) - Kxx.get(k, j));
+                }
+                PP.set(i, j, Kxx.get(i, j) + s);
+            }
+        }
+        return arena.randomVector(this, xx, arena.variance(PP));
+    }
+
     /**
      * Scalar multiplication. Remember that the scalar is *squared* before applying
      * to the covariance.
@@ -0,0 +1,25 @@
+package org.team100.lib.math;
+
+import org.team100.lib.storage.Interpolator;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * Linear interpolation of the mean, and linear blending of the covariance.
+ * 
+ * The mean uses the geometry of the RandomVector class, so a plain RandomVector
+ * gets Euclidean lerp and an AngularRandomVector goes the short way around.
+ * 
+ * The blended covariance is a convex combination of two covariances, so it's
+ * still symmetric and positive semidefinite.
+ */
+public class RandomVectorInterpolator<States extends Num> implements Interpolator<RandomVector<States>> {
+    @Override
+    public RandomVector<States> interpolate(RandomVector<States> a, RandomVector<States> b, double s) {
+        Matrix<States, N1> x = a.xplus(b.xminus(a.x).times(s));
+        Variance<States> P = a.Kxx.times(1 - s).plus(b.Kxx.times(s));
+        return a.make(x, P);
+    }
+}
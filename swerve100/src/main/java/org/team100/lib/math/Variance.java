@@ -1,5 +1,9 @@
 package org.team100.lib.math;
 
+import java.util.Arrays;
+
+import org.ejml.simple.SimpleMatrix;
+
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.Nat;
 import edu.wpi.first.math.Num;
@@ -9,44 +13,117 @@ import edu.wpi.first.math.numbers.N2;
 /**
  * Variance, aka Covariance Matrix, represents the n-dimensional variance of a
  * random variable.
- * 
+ *
+ * Covariance is symmetric, so this keeps only the upper triangle, packed
+ * row-major, n(n+1)/2 doubles, and the arithmetic here touches only those.
+ * getValue() makes the full matrix, for everything else.
+ *
+ * A matrix that isn't symmetric is stored as its symmetric part, (A + Aᵀ)/2,
+ * and remembered as not symmetric, so the poolings can still reject it.
+ *
+ * The overloads taking an Arena put their result in the arena, and are
+ * otherwise the same.
+ *
  * https://en.wikipedia.org/wiki/Covariance_matrix
+ * https://www.netlib.org/lapack/lug/node123.html
  */
 public class Variance<Dim extends Num> {
     /** Very high variance represents unknown variable. */
-    private static final double kDontKnow = 1e9;
+    public static final double kDontKnow = 1e9;
+    // same as EJML's MatrixFeatures_DDRM.isSymmetric()
+    private static final double kSymmetryTolerance = 1e-8;
 
-    private final Matrix<Dim, Dim> value;
+    private final int n;
+    // upper triangle, row-major
+    private final double[] packed;
+    // not final only for the arena, see set().
+    private boolean symmetric;
 
     public Variance(Matrix<Dim, Dim> value) {
-        this.value = value;
+        n = value.getNumRows();
+        packed = new double[n * (n + 1) / 2];
+        set(value);
+    }
+
+    Variance(int n, double[] packed, boolean symmetric) {
+        this.n = n;
+        this.packed = packed;
+        this.symmetric = symmetric;
+    }
+
+    /** For the arena, which reuses variances; everyone else sees them as constant. */
+    void set(Matrix<Dim, Dim> value) {
+        double max = 0;
+        double maxDiff = 0;
+        int k = 0;
+        for (int i = 0; i < n; ++i) {
+            for (int j = i; j < n; ++j) {
+                double a = value.get(i, j);
+                double b = value.get(j, i);
+                packed[k++] = (a + b) / 2;
+                max = Math.max(max, Math.max(Math.abs(a), Math.abs(b)));
+                maxDiff = Math.max(maxDiff, Math.abs(a - b));
+            }
+        }
+        symmetric = max == 0 || maxDiff / max <= kSymmetryTolerance;
+    }
+
+    /** For the arena. */
+    void set(Variance<Dim> other) {
+        System.arraycopy(other.packed, 0, packed, 0, packed.length);
+        symmetric = other.symmetric;
+    }
+
+    /** For the arena. */
+    void setZero() {
+        Arrays.fill(packed, 0);
+        symmetric = true;
     }
 
     /** Set row i to very high variance. */
     public void dontknow(int i) {
-        value.set(i, i, kDontKnow);
+        packed[index(i, i)] = kDontKnow;
+    }
+
+    /** True if row i was set by dontknow(), or is even less certain. */
+    public boolean isDontKnow(int i) {
+        return packed[index(i, i)] >= kDontKnow;
+    }
+
+    /** Number of rows, and of columns. */
+    public int rows() {
+        return n;
+    }
+
+    /** False if this was made from a matrix that isn't symmetric. */
+    public boolean isSymmetric() {
+        return symmetric;
     }
 
     /** Make a diagonal covarince matrix from a vector of standard deviations. */
     public static <D extends Num> Variance<D> fromStdDev(Nat<D> dim, Matrix<D, N1> stdDev) {
-        Matrix<D, D> kxx = new Matrix<>(dim, dim);
-        for (int i = 0; i < dim.getNum(); ++i) {
-            kxx.set(i, i, Math.pow(stdDev.get(i, 0), 2));
+        int n = dim.getNum();
+        double[] packed = new double[n * (n + 1) / 2];
+        for (int i = 0; i < n; ++i) {
+            packed[index(n, i, i)] = Math.pow(stdDev.get(i, 0), 2);
         }
-        return new Variance<>(kxx);
+        return new Variance<>(n, packed, true);
     }
 
     /** Specialization for the common case of two std dev's */
     public static Variance<N2> from2StdDev(double sigma1, double sigma2) {
-        Matrix<N2, N2> kxx = new Matrix<>(Nat.N2(), Nat.N2());
-        kxx.set(0, 0, Math.pow(sigma1, 2));
-        kxx.set(1, 1, Math.pow(sigma2, 2));
-        return new Variance<>(kxx);
+        return new Variance<>(2, new double[] { Math.pow(sigma1, 2), 0, Math.pow(sigma2, 2) }, true);
+    }
+
+    /** From a full row-major array, e.g. the array version of a plant. */
+    public static <D extends Num> Variance<D> fromData(Nat<D> dim, double[] data) {
+        int n = dim.getNum();
+        return new Variance<>(new Matrix<D, D>(new SimpleMatrix(n, n, true, data)));
     }
 
     public static <D extends Num> Variance<D> zero(Nat<D> dim) {
-        Matrix<D, D> kxx = new Matrix<>(dim, dim);
-        return new Variance<>(kxx);
+        int n = dim.getNum();
+        return new Variance<>(n, new double[n * (n + 1) / 2], true);
     }
 
     /** Specialization for the common case of 2d zero */
@@ -55,40 +132,220 @@ public class Variance<Dim extends Num> {
     }
 
     public Variance<Dim> copy() {
-        return new Variance<>(value.copy());
+        return new Variance<>(n, packed.clone(), symmetric);
     }
 
     public Variance<Dim> plus(Variance<Dim> other) {
-        return new Variance<>(value.plus(other.value));
+        double[] result = new double[packed.length];
+        for (int k = 0; k < packed.length; ++k) {
+            result[k] = packed[k] + other.packed[k];
+        }
+        return new Variance<>(n, result, symmetric && other.symmetric);
+    }
+
+    public Variance<Dim> plus(Variance<Dim> other, Arena arena) {
+        Variance<Dim> result = arena.variance(n);
+        for (int k = 0; k < packed.length; ++k) {
+            result.packed[k] = packed[k] + other.packed[k];
+        }
+        result.symmetric = symmetric && other.symmetric;
+        return result;
+    }
+
+    /** this + a * other, in one pass, e.g. for adding noise over time. */
+    public Variance<Dim> plus(Variance<Dim> other, double a) {
+        double[] result = new double[packed.length];
+        for (int k = 0; k < packed.length; ++k) {
+            result[k] = packed[k] + a * other.packed[k];
+        }
+        return new Variance<>(n, result, symmetric && other.symmetric);
     }
 
     public Variance<Dim> minus(Variance<Dim> other) {
-        return new Variance<>(value.minus(other.value));
+        return plus(other, -1);
     }
 
     public Variance<Dim> times(double a) {
-        return new Variance<>(value.times(a));
+        double[] result = new double[packed.length];
+        for (int k = 0; k < packed.length; ++k) {
+            result[k] = a * packed[k];
+        }
+        return new Variance<>(n, result, symmetric);
+    }
+
+    /**
+     * Matrix product. The product of symmetric matrices usually isn't symmetric,
+     * so the result is a full matrix, not a Variance.
+     */
+    public Matrix<Dim, Dim> times(Variance<Dim> other) {
+        return times(other, new Matrix<>(new SimpleMatrix(n, n)));
+    }
+
+    public Matrix<Dim, Dim> times(Variance<Dim> other, Arena arena) {
+        return times(other, arena.<Dim, Dim>matrix(n, n));
+    }
+
+    private Matrix<Dim, Dim> times(Variance<Dim> other, Matrix<Dim, Dim> result) {
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                double s = 0;
+                for (int k = 0; k < n; ++k) {
+                    s += get(i, k) * other.get(k, j);
+                }
+                result.set(i, j, s);
+            }
+        }
+        return result;
+    }
+
+    /** Determinant, in closed form up to 3x3. */
+    public double det() {
+        switch (n) {
+            case 1:
+                return packed[0];
+            case 2:
+                return packed[0] * packed[2] - packed[1] * packed[1];
+            case 3: {
+                // a b c
+                // . d e
+                // . . f
+                double a = packed[0], b = packed[1], c = packed[2];
+                double d = packed[3], e = packed[4], f = packed[5];
+                return a * (d * f - e * e) - b * (b * f - c * e) + c * (b * e - c * d);
+            }
+            default:
+                return new Cholesky<>(this).det();
+        }
+    }
+
+    /**
+     * Inverse, which is symmetric too, in closed form (the adjugate over the
+     * determinant) up to 3x3.
+     *
+     * @throws IllegalArgumentException if singular.
+     */
+    public Variance<Dim> inverse() {
+        if (n > 3) {
+            Cholesky<Dim> factor = new Cholesky<>(this);
+            if (!factor.isPositiveDefinite())
+                throw new IllegalArgumentException("singular.\n" + toString());
+            return new Variance<>(factor.inverse());
+        }
+        return inverse(new Variance<>(n, new double[packed.length], symmetric));
+    }
+
+    /**
+     * Allocates nothing up to 3x3; bigger ones use a Cholesky factor, which
+     * does.
+     */
+    public Variance<Dim> inverse(Arena arena) {
+        if (n > 3)
+            return arena.variance(inverse().getValue());
+        return inverse(arena.variance(n));
     }
 
-    public Variance<Dim> times(Variance<Dim> other) {
-        return new Variance<>(value.times(other.value));
+    /** Closed form into result, up to 3x3. */
+    private Variance<Dim> inverse(Variance<Dim> result) {
+        double det = det();
+        if (det == 0 || !Double.isFinite(det))
+            throw new IllegalArgumentException("singular.\n" + toString());
+        double[] r = result.packed;
+        switch (n) {
+            case 1:
+                r[0] = 1 / det;
+                break;
+            case 2:
+                r[0] = packed[2] / det;
+                r[1] = -packed[1] / det;
+                r[2] = packed[0] / det;
+                break;
+            default: {
+                double a = packed[0], b = packed[1], c = packed[2];
+                double d = packed[3], e = packed[4], f = packed[5];
+                r[0] = (d * f - e * e) / det;
+                r[1] = (c * e - b * f) / det;
+                r[2] = (b * e - c * d) / det;
+                r[3] = (a * f - c * c) / det;
+                r[4] = (b * c - a * e) / det;
+                r[5] = (a * d - b * b) / det;
+            }
+        }
+        result.symmetric = symmetric;
+        return result;
+    }
+
+    /**
+     * Congruence, F P Fᵀ, e.g. for propagating covariance through a linear map.
+     * The result is symmetric, so only its upper triangle is computed.
+     */
+    public <Rows extends Num> Variance<Rows> congruence(Matrix<Rows, Dim> F) {
+        int m = F.getNumRows();
+        return congruence(F, new double[n * m], new Variance<>(m, new double[m * (m + 1) / 2], symmetric));
+    }
+
+    public <Rows extends Num> Variance<Rows> congruence(Matrix<Rows, Dim> F, Arena arena) {
+        int m = F.getNumRows();
+        return congruence(F, arena.array(n * m), arena.variance(m));
+    }
+
+    /** @param T scratch for P Fᵀ */
+    private <Rows extends Num> Variance<Rows> congruence(Matrix<Rows, Dim> F, double[] T, Variance<Rows> result) {
+        int m = F.getNumRows();
+        // T = P Fᵀ, n x m
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < m; ++j) {
+                double s = 0;
+                for (int k = 0; k < n; ++k) {
+                    s += get(i, k) * F.get(j, k);
+                }
+                T[i * m + j] = s;
+            }
+        }
+        int r = 0;
+        for (int i = 0; i < m; ++i) {
+            for (int j = i; j < m; ++j) {
+                double s = 0;
+                for (int k = 0; k < n; ++k) {
+                    s += F.get(i, k) * T[k * m + j];
+                }
+                result.packed[r++] = s;
+            }
+        }
+        result.symmetric = symmetric;
+        return result;
     }
 
     // for testing
     public double[] getData() {
-        return value.getData();
+        double[] data = new double[n * n];
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                data[i * n + j] = get(i, j);
+            }
+        }
+        return data;
     }
 
     public double get(int i, int j) {
-        return value.get(i,j);
+        return packed[i <= j ? index(i, j) : index(j, i)];
     }
 
+    /** A new full matrix; changing it doesn't change this. */
     public Matrix<Dim, Dim> getValue() {
-        return value;
+        return new Matrix<>(new SimpleMatrix(n, n, true, getData()));
     }
 
     @Override
     public String toString() {
-        return "Variance [value=" + value + "]";
+        return "Variance [value=" + getValue() + "]";
+    }
+
+    private int index(int i, int j) {
+        return index(n, i, j);
+    }
+
+    /** Index of (i, j) in the packed upper triangle, for i <= j. */
+    private static int index(int n, int i, int j) {
+        return i * n - i * (i - 1) / 2 + j - i;
     }
 }
@@ -1,55 +1,113 @@
 package org.team100.lib.storage;
 
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Bitemporal Buffer
- * 
+ *
  * Implements the Temporal Database concepts of "valid time" and "record
  * time" for point-in-time measurements. Valid time represents the real-world
  * instant that an item refers to. Record time represents the instant that
  * a data record was added to the buffer. Consumers are expected to use
  * record time to fetch new data, which might refer to valid times
  * arbitrarily long ago.
- * 
+ *
  * For example, this buffer could be used to store measurements with various
  * latencies. A position measurement might be available almost instantly,
  * whereas a velocity measurement might involve some averaging over time.
- * 
+ *
  * An observer might make periodic state updates by consuming measurements, and
  * when out-of-sequence measurements are discovered, the observer would "roll
  * back" to a state earlier than the newly-arriving but older-representing
  * measurement, and then reapply all the updates since then.
- * 
+ *
  * Since the rio measures system time as a long and WPILib measures real time as
  * a double, that's what we use here.
- * 
+ *
+ * The storage is columnar. Records live in a log sorted by record time, which
+ * is expected to be monotonic (FPGA time), so a record is usually just
+ * appended. A separate index keeps valid times sorted, and points into the
+ * log. Eviction takes the earliest valid time from the front of the index and
+ * leaves a dead entry in the log; dead entries are squeezed out when the log
+ * fills up. A min-tree over the log answers "earliest valid time among
+ * records after t" in O(log n), which is the low watermark for replay.
+ *
+ * The tail map views are read-only and bounded by key, like the views of a
+ * TreeMap, so they see later writes, and they work on the columns directly, so
+ * they don't copy anything. Their iterators fail fast if there's a write. For
+ * readers on other threads, snapshot() makes an immutable copy of the
+ * valid-time index without locking, see History.
+ *
  * https://en.wikipedia.org/wiki/Temporal_database
  * https://www.mathworks.com/help/fusion/ug/handle-out-of-sequence-measurements-with-filter-retrodiction.html
- * 
+ * https://en.wikipedia.org/wiki/Segment_tree
  *
  */
 public class BitemporalBuffer<Value> {
     private static final boolean debug = false;
     private final int capacity;
-    private final NavigableMap<Long, Entry<Double, Value>> record;
-    private final NavigableMap<Double, Entry<Long, Value>> valid;
+    // log length, room for the live entries and as many dead ones.
+    private final int logCapacity;
+
+    // the record log, sorted by record time.
+    private final long[] recordTimes;
+    private final double[] recordValidTimes;
+    private final Object[] recordValues;
+    private final boolean[] live;
+    private int logStart;
+    private int logEnd;
+
+    // the valid-time index, sorted by valid time, pointing into the log.
+    private final double[] validTimes;
+    private final int[] validRecords;
+    private int validStart;
+    private int validEnd;
+
+    // min of recordValidTimes over log ranges; dead entries are infinite.
+    private final double[] minTree;
+    // scratch for compaction
+    private final int[] remap;
     private int size;
+    // writers hold the write lock, readers only validate against it.
+    private final StampedLock seq;
+    // incremented by every write
+    private long epoch;
+    // the most recent snapshot anyone asked for
+    private volatile HistorySnapshot<Entry<Long, Value>> published;
 
     public BitemporalBuffer(int capacity) {
         this.capacity = capacity;
+        logCapacity = 2 * capacity + 2;
+        recordTimes = new long[logCapacity];
+        recordValidTimes = new double[logCapacity];
+        recordValues = new Object[logCapacity];
+        live = new boolean[logCapacity];
+        validTimes = new double[logCapacity];
+        validRecords = new int[logCapacity];
+        minTree = new double[2 * logCapacity];
+        remap = new int[logCapacity];
         size = 0;
-        record = new ConcurrentSkipListMap<Long, Entry<Double, Value>>();
-        valid = new ConcurrentSkipListMap<Double, Entry<Long, Value>>();
+        rebuildTree();
+        seq = new StampedLock();
+        epoch = 0;
+        published = HistorySnapshot.empty();
     }
 
     /**
      * Store a measurement. Threadsafe.
-     * 
+     *
      * @param recordTime represents the system time the value was written, expected
      *                   to be FPGATime.
      * @param validTime  represents the real-world time the value describes, in
@@ -58,25 +116,72 @@ public class BitemporalBuffer<Value> {
      * @param value      value to store
      */
     public synchronized void put(long recordTime, double validTime, Value value) {
+        long stamp = seq.writeLock();
+        try {
+            insert(recordTime, validTime, value);
+            ++epoch;
+        } finally {
+            seq.unlockWrite(stamp);
+        }
+    }
+
+    private void insert(long recordTime, double validTime, Value value) {
+        if (logEnd == logCapacity || validEnd == logCapacity)
+            compact();
         // fix the keys to avoid overwriting anything.
         // these are tiny increments, won't affect the consumer.
         // synchronized so these increments are applied consistently.
-        while (record.containsKey(recordTime)) {
+        int r = recordLowerBound(recordTime);
+        while (r < logEnd && recordTimes[r] == recordTime) {
             recordTime++; // add one microsecond
+            ++r;
         }
-        while (valid.containsKey(validTime)) {
+        int v = validLowerBound(validTime);
+        while (v < validEnd && validTimes[v] == validTime) {
             validTime = Math.nextUp(validTime); // add smallest possible double
+            ++v;
         }
         if (debug)
             System.out.println("put measurement " + validTime + " " + value);
-        record.put(recordTime, new AbstractMap.SimpleImmutableEntry<>(validTime, value));
-        valid.put(validTime, new AbstractMap.SimpleImmutableEntry<>(recordTime, value));
-        if (++size > capacity) {
-            Entry<Double, Entry<Long, Value>> validEntry = valid.pollFirstEntry();
-            Long key = validEntry.getValue().getKey();
-            if (record.remove(key) == null) {
-                throw new IllegalStateException("This should never happen: missing record: " + key);
+
+        if (r == logEnd) {
+            // the usual case: append.
+            writeRecord(r, recordTime, validTime, value);
+            ++logEnd;
+            setLeaf(r, validTime);
+        } else {
+            // record time went backwards, so make room in the log.
+            for (int i = logEnd; i > r; --i) {
+                recordTimes[i] = recordTimes[i - 1];
+                recordValidTimes[i] = recordValidTimes[i - 1];
+                recordValues[i] = recordValues[i - 1];
+                live[i] = live[i - 1];
             }
+            for (int i = validStart; i < validEnd; ++i) {
+                if (validRecords[i] >= r)
+                    validRecords[i]++;
+            }
+            writeRecord(r, recordTime, validTime, value);
+            ++logEnd;
+            rebuildTree();
+        }
+
+        for (int i = validEnd; i > v; --i) {
+            validTimes[i] = validTimes[i - 1];
+            validRecords[i] = validRecords[i - 1];
+        }
+        validTimes[v] = validTime;
+        validRecords[v] = r;
+        ++validEnd;
+
+        if (++size > capacity) {
+            // evict the earliest valid time; the log entry just goes dead.
+            int dead = validRecords[validStart++];
+            live[dead] = false;
+            recordValues[dead] = null;
+            setLeaf(dead, Double.POSITIVE_INFINITY);
+            while (logStart < logEnd && !live[logStart])
+                ++logStart;
             --size;
         }
     }
@@ -99,34 +204,602 @@ public class BitemporalBuffer<Value> {
 
     /**
      * To consume out-of-sequence measurements, we just need to know the valid time
-     * of the earliest unseen record.
+     * of the earliest unseen record, i.e. the low watermark of the records at or
+     * after the given record time. O(log n).
+     *
+     * @return earliest valid time, or Double.MAX_VALUE if there are no such
+     *         records.
      */
-    public double earliestValidTimeForRecordsAfter(long recordTime) {
-        // find the earliest measurement
-        NavigableMap<Long, Entry<Double, Value>> unseen = recordTailMap(recordTime);
-        double earliestMeasurementSec = Double.MAX_VALUE;
-        for (Entry<Double, Value> u : unseen.values()) {
-            double measurementTimeSec = u.getKey();
-            if (measurementTimeSec < earliestMeasurementSec)
-                earliestMeasurementSec = measurementTimeSec;
-        }
+    public synchronized double earliestValidTimeForRecordsAfter(long recordTime) {
+        double earliestMeasurementSec = minOver(recordLowerBound(recordTime), logEnd);
+        if (earliestMeasurementSec == Double.POSITIVE_INFINITY)
+            return Double.MAX_VALUE;
         return earliestMeasurementSec;
     }
 
+    /**
+     * Read-only view of the records at or after tt, in record-time order. The
+     * view follows later writes.
+     */
     public NavigableMap<Long, Entry<Double, Value>> recordTailMap(long tt) {
-        return Collections.unmodifiableNavigableMap(record.tailMap(tt, true));
+        return new RecordView(tt);
     }
 
+    /**
+     * Read-only view of the records at or after vt, in valid-time order. The
+     * view follows later writes.
+     */
     public NavigableMap<Double, Entry<Long, Value>> validTailMap(double vt) {
-        return Collections.unmodifiableNavigableMap(valid.tailMap(vt, true));
+        return new ValidView(vt);
     }
 
     /** Find the entry for the greatest key less than vt. */
-    public Entry<Double, Entry<Long, Value>> validFloorEntry(double vt) {
-        return valid.floorEntry(vt);
+    public synchronized Entry<Double, Entry<Long, Value>> validFloorEntry(double vt) {
+        int i = validUpperBound(vt) - 1;
+        if (i < validStart)
+            return null;
+        return new AbstractMap.SimpleImmutableEntry<>(validTimes[i], recordEntry(validRecords[i]));
     }
 
     public int size() {
         return size;
     }
+
+    /**
+     * An immutable copy of the valid-time index, with record times. Lock-free,
+     * never blocks a writer, and allocates only if there's been a write since
+     * the last call.
+     */
+    public HistorySnapshot<Entry<Long, Value>> snapshot() {
+        while (true) {
+            long stamp = seq.tryOptimisticRead();
+            if (stamp != 0) {
+                // these reads may race with a writer, validate() says if they did.
+                long e = epoch;
+                HistorySnapshot<Entry<Long, Value>> cached = published;
+                if (cached.getEpoch() == e && seq.validate(stamp))
+                    return cached;
+                int start = validStart;
+                int n = Math.max(0, validEnd - start);
+                double[] k = new double[n];
+                long[] t = new long[n];
+                Object[] v = new Object[n];
+                for (int i = 0; i < n; ++i) {
+                    int r = validRecords[start + i];
+                    k[i] = validTimes[start + i];
+                    t[i] = recordTimes[r];
+                    v[i] = recordValues[r];
+                }
+                if (seq.validate(stamp)) {
+                    // entries are made only for a consistent copy.
+                    Object[] entries = new Object[n];
+                    for (int i = 0; i < n; ++i) {
+                        entries[i] = new AbstractMap.SimpleImmutableEntry<>(t[i], v[i]);
+                    }
+                    HistorySnapshot<Entry<Long, Value>> result = new HistorySnapshot<>(e, k, entries);
+                    published = result;
+                    return result;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////
+
+    private void writeRecord(int i, long recordTime, double validTime, Value value) {
+        recordTimes[i] = recordTime;
+        recordValidTimes[i] = validTime;
+        recordValues[i] = value;
+        live[i] = true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Value value(int i) {
+        return (Value) recordValues[i];
+    }
+
+    private Entry<Long, Value> recordEntry(int i) {
+        return new AbstractMap.SimpleImmutableEntry<>(recordTimes[i], value(i));
+    }
+
+    /** Move the live records to the front of the log, and the index to the front of its array. */
+    private void compact() {
+        int j = 0;
+        for (int i = logStart; i < logEnd; ++i) {
+            if (!live[i])
+                continue;
+            remap[i] = j;
+            recordTimes[j] = recordTimes[i];
+            recordValidTimes[j] = recordValidTimes[i];
+            recordValues[j] = recordValues[i];
+            live[j] = true;
+            ++j;
+        }
+        for (int i = j; i < logEnd; ++i) {
+            recordValues[i] = null;
+            live[i] = false;
+        }
+        logStart = 0;
+        logEnd = j;
+        int k = 0;
+        for (int i = validStart; i < validEnd; ++i) {
+            validTimes[k] = validTimes[i];
+            validRecords[k] = remap[validRecords[i]];
+            ++k;
+        }
+        validStart = 0;
+        validEnd = k;
+        rebuildTree();
+    }
+
+    /** @return the index of the first record at or after t */
+    private int recordLowerBound(long t) {
+        int lo = logStart;
+        int hi = logEnd;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (recordTimes[mid] < t)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the index of the first record strictly after t */
+    private int recordUpperBound(long t) {
+        int lo = logStart;
+        int hi = logEnd;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (recordTimes[mid] <= t)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the index of the first valid time at or after vt */
+    private int validLowerBound(double vt) {
+        int lo = validStart;
+        int hi = validEnd;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (validTimes[mid] < vt)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the index of the first valid time strictly after vt */
+    private int validUpperBound(double vt) {
+        int lo = validStart;
+        int hi = validEnd;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (validTimes[mid] <= vt)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private void setLeaf(int i, double validTime) {
+        int node = i + logCapacity;
+        minTree[node] = validTime;
+        for (node >>= 1; node >= 1; node >>= 1) {
+            minTree[node] = Math.min(minTree[2 * node], minTree[2 * node + 1]);
+        }
+    }
+
+    private void rebuildTree() {
+        for (int i = 0; i < logCapacity; ++i) {
+            minTree[i + logCapacity] = live[i] ? recordValidTimes[i] : Double.POSITIVE_INFINITY;
+        }
+        for (int node = logCapacity - 1; node >= 1; --node) {
+            minTree[node] = Math.min(minTree[2 * node], minTree[2 * node + 1]);
+        }
+    }
+
+    /** @return the minimum valid time of the log entries in [from, to) */
+    private double minOver(int from, int to) {
+        double result = Double.POSITIVE_INFINITY;
+        for (int lo = from + logCapacity, hi = to + logCapacity; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1)
+                result = Math.min(result, minTree[lo++]);
+            if ((hi & 1) == 1)
+                result = Math.min(result, minTree[--hi]);
+        }
+        return result;
+    }
+
+    /**
+     * Read-only view of one column from a key on. The index range is
+     * recomputed for each operation, with the buffer locked, so the view
+     * follows the underlying buffer, even across compaction. Navigation and
+     * iteration read the columns; the other views are copies.
+     */
+    private abstract class TailView<K extends Comparable<? super K>, V>
+            extends AbstractMap<K, V> implements NavigableMap<K, V> {
+        final K from;
+
+        TailView(K from) {
+            this.from = from;
+        }
+
+        /** @return index after the last entry in the column */
+        abstract int end();
+
+        /** @return index of the first key greater than or equal to k */
+        abstract int lowerBound(K k);
+
+        /** @return index of the first key strictly greater than k */
+        abstract int upperBound(K k);
+
+        abstract boolean live(int i);
+
+        abstract K key(int i);
+
+        abstract V value(int i);
+
+        /** @return a view of the same column, from a later key */
+        abstract TailView<K, V> tail(K k);
+
+        /** @return index of the first entry in the view */
+        private int start() {
+            return lowerBound(from);
+        }
+
+        /** @return index of the first live entry at or after i, or -1 */
+        private int ceilingIndex(int i) {
+            int end = end();
+            for (i = Math.max(i, start()); i < end; ++i) {
+                if (live(i))
+                    return i;
+            }
+            return -1;
+        }
+
+        /** @return index of the last live entry at or before i, or -1 */
+        private int floorIndex(int i) {
+            int start = start();
+            for (i = Math.min(i, end() - 1); i >= start; --i) {
+                if (live(i))
+                    return i;
+            }
+            return -1;
+        }
+
+        private Entry<K, V> entry(int i) {
+            if (i < 0)
+                return null;
+            return new AbstractMap.SimpleImmutableEntry<>(key(i), value(i));
+        }
+
+        private K keyOf(Entry<K, V> e) {
+            return e == null ? null : e.getKey();
+        }
+
+        private Entry<K, V> nonNull(Entry<K, V> e) {
+            if (e == null)
+                throw new NoSuchElementException();
+            return e;
+        }
+
+        /** Read-only copy of the entries in the view right now. */
+        private NavigableMap<K, V> copy() {
+            synchronized (BitemporalBuffer.this) {
+                return Collections.unmodifiableNavigableMap(new TreeMap<>(this));
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (BitemporalBuffer.this) {
+                int n = 0;
+                for (int i = start(), end = end(); i < end; ++i) {
+                    if (live(i))
+                        ++n;
+                }
+                return n;
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            synchronized (BitemporalBuffer.this) {
+                return ceilingIndex(start()) < 0;
+            }
+        }
+
+        @Override
+        public V get(Object key) {
+            synchronized (BitemporalBuffer.this) {
+                int i = indexOf(key);
+                return i < 0 ? null : value(i);
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            synchronized (BitemporalBuffer.this) {
+                return indexOf(key) >= 0;
+            }
+        }
+
+        /** @return index of the live entry with exactly this key, or -1 */
+        private int indexOf(Object key) {
+            @SuppressWarnings("unchecked")
+            K k = (K) key;
+            if (k.compareTo(from) < 0)
+                return -1;
+            int i = lowerBound(k);
+            if (i < end() && live(i) && key(i).compareTo(k) == 0)
+                return i;
+            return -1;
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    synchronized (BitemporalBuffer.this) {
+                        final long expectedEpoch = epoch;
+                        final int first = ceilingIndex(start());
+                        return new Iterator<Entry<K, V>>() {
+                            private int i = first;
+
+                            @Override
+                            public boolean hasNext() {
+                                return i >= 0;
+                            }
+
+                            @Override
+                            public Entry<K, V> next() {
+                                synchronized (BitemporalBuffer.this) {
+                                    if (epoch != expectedEpoch)
+                                        throw new ConcurrentModificationException();
+                                    if (i < 0)
+                                        throw new NoSuchElementException();
+                                    Entry<K, V> result = entry(i);
+                                    i = ceilingIndex(i + 1);
+                                    return result;
+                                }
+                            }
+                        };
+                    }
+                }
+
+                @Override
+                public int size() {
+                    return TailView.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return null;
+        }
+
+        @Override
+        public Entry<K, V> firstEntry() {
+            synchronized (BitemporalBuffer.this) {
+                return entry(ceilingIndex(start()));
+            }
+        }
+
+        @Override
+        public Entry<K, V> lastEntry() {
+            synchronized (BitemporalBuffer.this) {
+                return entry(floorIndex(end() - 1));
+            }
+        }
+
+        @Override
+        public K firstKey() {
+            return nonNull(firstEntry()).getKey();
+        }
+
+        @Override
+        public K lastKey() {
+            return nonNull(lastEntry()).getKey();
+        }
+
+        @Override
+        public Entry<K, V> lowerEntry(K key) {
+            synchronized (BitemporalBuffer.this) {
+                return entry(floorIndex(lowerBound(key) - 1));
+            }
+        }
+
+        @Override
+        public Entry<K, V> floorEntry(K key) {
+            synchronized (BitemporalBuffer.this) {
+                return entry(floorIndex(upperBound(key) - 1));
+            }
+        }
+
+        @Override
+        public Entry<K, V> ceilingEntry(K key) {
+            synchronized (BitemporalBuffer.this) {
+                return entry(ceilingIndex(lowerBound(key)));
+            }
+        }
+
+        @Override
+        public Entry<K, V> higherEntry(K key) {
+            synchronized (BitemporalBuffer.this) {
+                return entry(ceilingIndex(upperBound(key)));
+            }
+        }
+
+        @Override
+        public K lowerKey(K key) {
+            return keyOf(lowerEntry(key));
+        }
+
+        @Override
+        public K floorKey(K key) {
+            return keyOf(floorEntry(key));
+        }
+
+        @Override
+        public K ceilingKey(K key) {
+            return keyOf(ceilingEntry(key));
+        }
+
+        @Override
+        public K higherKey(K key) {
+            return keyOf(higherEntry(key));
+        }
+
+        @Override
+        public NavigableMap<K, V> tailMap(K fromKey) {
+            // narrow, never widen.
+            return fromKey.compareTo(from) > 0 ? tail(fromKey) : this;
+        }
+
+        @Override
+        public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+            if (inclusive)
+                return tailMap(fromKey);
+            return copy().tailMap(fromKey, false);
+        }
+
+        @Override
+        public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            return copy().subMap(fromKey, fromInclusive, toKey, toInclusive);
+        }
+
+        @Override
+        public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+            return copy().headMap(toKey, inclusive);
+        }
+
+        @Override
+        public NavigableMap<K, V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        @Override
+        public NavigableMap<K, V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+
+        @Override
+        public Entry<K, V> pollFirstEntry() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Entry<K, V> pollLastEntry() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public NavigableMap<K, V> descendingMap() {
+            return copy().descendingMap();
+        }
+
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            return copy().navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return copy().descendingKeySet();
+        }
+    }
+
+    /** The record log, which has dead entries. */
+    private class RecordView extends TailView<Long, Entry<Double, Value>> {
+        RecordView(long from) {
+            super(from);
+        }
+
+        @Override
+        int end() {
+            return logEnd;
+        }
+
+        @Override
+        int lowerBound(Long k) {
+            return recordLowerBound(k);
+        }
+
+        @Override
+        int upperBound(Long k) {
+            return recordUpperBound(k);
+        }
+
+        @Override
+        boolean live(int i) {
+            return live[i];
+        }
+
+        @Override
+        Long key(int i) {
+            return recordTimes[i];
+        }
+
+        @Override
+        Entry<Double, Value> value(int i) {
+            return new AbstractMap.SimpleImmutableEntry<>(recordValidTimes[i], BitemporalBuffer.this.value(i));
+        }
+
+        @Override
+        TailView<Long, Entry<Double, Value>> tail(Long k) {
+            return new RecordView(k);
+        }
+    }
+
+    /** The valid-time index, which is all live. */
+    private class ValidView extends TailView<Double, Entry<Long, Value>> {
+        ValidView(double from) {
+            super(from);
+        }
+
+        @Override
+        int end() {
+            return validEnd;
+        }
+
+        @Override
+        int lowerBound(Double k) {
+            return validLowerBound(k);
+        }
+
+        @Override
+        int upperBound(Double k) {
+            return validUpperBound(k);
+        }
+
+        @Override
+        boolean live(int i) {
+            return true;
+        }
+
+        @Override
+        Double key(int i) {
+            return validTimes[i];
+        }
+
+        @Override
+        Entry<Long, Value> value(int i) {
+            return recordEntry(validRecords[i]);
+        }
+
+        @Override
+        TailView<Double, Entry<Long, Value>> tail(Double k) {
+            return new ValidView(k);
+        }
+    }
 }
@@ -13,14 +13,14 @@ public class EditableHistory<Value> extends History<Value> {
 
     /** remove history starting from vt */
     public void trim(double vt) {
-        NavigableMap<Double, Value> tailMap = mutableValidTailMap(vt);
         if (debug) {
+            NavigableMap<Double, Value> tailMap = validTailMap(vt);
             System.out.println("trim " + vt);
             System.out.println("tailmap size " + tailMap.size());
             for (Entry<Double, Value> e : tailMap.entrySet()) {
                 System.out.println("trimming " + e.getKey() + " " + e.getValue());
             }
         }
-        tailMap.clear();
+        truncate(vt);
     }
 }
@@ -1,21 +1,103 @@
 package org.team100.lib.storage;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.StampedLock;
 
-/** Keeps N past states, for when bitemporality is not required. */
+/**
+ * Keeps N past states, for when bitemporality is not required.
+ *
+ * Storage is a preallocated ring buffer: a double[] of valid times, kept
+ * sorted, and a parallel Object[] of values. Lookups are binary searches, and
+ * in the usual case (appending the newest entry) put allocates nothing and
+ * copies nothing. Out-of-order entries are inserted by shifting the newer
+ * entries by one slot.
+ *
+ * The map views returned by validSubMap and validTailMap are read-only and
+ * are bounded by key, like the views of a TreeMap, so they see later writes.
+ * Don't iterate them while another thread is writing; use snapshot() instead.
+ *
+ * snapshot() is for readers on other threads. It returns an immutable copy,
+ * made without locking: writes bump an epoch inside a seqlock, and the reader
+ * copies optimistically and retries if a write happened meanwhile, so writers
+ * never wait for readers. The copy is cached until the next write, so repeated
+ * reads of an unchanged history return the same snapshot and don't allocate.
+ *
+ * Retention can also be defined by time: entries older than the retention
+ * window (relative to the newest entry) are evicted, and tiers thin out older
+ * entries so that each one is at least an interval after the one before it.
+ * For example, full rate for the last second, then 10 Hz for the last five,
+ * then 1 Hz for the last thirty. The thinning happens in place as entries age,
+ * so floor and the map views work the same across tiers, they just see fewer
+ * old entries. The capacity still bounds the storage.
+ */
 public class History<Value> {
+    /** Entries older than ageSec are thinned to one per intervalSec. */
+    public static class Tier {
+        public final double ageSec;
+        public final double intervalSec;
+
+        public Tier(double ageSec, double intervalSec) {
+            this.ageSec = ageSec;
+            this.intervalSec = intervalSec;
+        }
+    }
+
     private static final boolean debug = false;
     private final int capacity;
-    private final NavigableMap<Double, Value> valid;
+    private final double retentionSec;
+    private final Tier[] tiers;
+    // for each tier, entries before this time are already thinned
+    private final double[] thinnedBefore;
+    private final double[] validTimes;
+    private final Object[] values;
+    // physical index of the oldest entry
+    private int head;
     private int size;
+    // writers hold the write lock, readers only validate against it.
+    private final StampedLock seq;
+    // incremented by every write
+    private long epoch;
+    // the most recent snapshot anyone asked for
+    private volatile HistorySnapshot<Value> published;
 
     public History(int capacity) {
+        this(capacity, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param capacity     maximum number of entries
+     * @param retentionSec entries this much older than the newest are evicted
+     * @param tiers        thinning for older entries
+     */
+    public History(int capacity, double retentionSec, Tier... tiers) {
+        for (Tier tier : tiers) {
+            if (tier.ageSec < 0 || tier.intervalSec <= 0)
+                throw new IllegalArgumentException(
+                        "Bad tier: age " + tier.ageSec + " interval " + tier.intervalSec);
+        }
         this.capacity = capacity;
+        this.retentionSec = retentionSec;
+        this.tiers = tiers.clone();
+        thinnedBefore = new double[tiers.length];
+        Arrays.fill(thinnedBefore, Double.NEGATIVE_INFINITY);
+        validTimes = new double[capacity];
+        values = new Object[capacity];
+        head = 0;
         size = 0;
-        valid = new ConcurrentSkipListMap<Double, Value>();
+        seq = new StampedLock();
+        epoch = 0;
+        published = HistorySnapshot.empty();
     }
 
     /**
@@ -25,20 +107,52 @@ public class History<Value> {
      * @param value      value to store
      */
     public synchronized void put(double validTime, Value value) {
+        long stamp = seq.writeLock();
+        try {
+            insert(validTime, value);
+            ++epoch;
+        } finally {
+            seq.unlockWrite(stamp);
+        }
+    }
+
+    private void insert(double validTime, Value value) {
+        int i = lowerBound(validTime);
         // fix the key to avoid overwriting anything.
-        while (valid.containsKey(validTime)) {
+        while (i < size && key(i) == validTime) {
             validTime = Math.nextUp(validTime); // add smallest possible double
+            ++i;
         }
-        if(debug)System.out.println("put " + validTime + " " + value);
-        valid.put(validTime, value);
-        if (++size > capacity) {
-            valid.pollFirstEntry();
+        if (debug)
+            System.out.println("put " + validTime + " " + value);
+        if (size == capacity) {
+            // the new entry would be the oldest one, so it would be evicted right away.
+            if (i == 0)
+                return;
+            // evict the oldest entry; its slot becomes the free one at the end.
+            head = physical(1);
             --size;
+            --i;
+        }
+        // make room by shifting the newer entries; usually there aren't any.
+        for (int j = size; j > i; --j) {
+            int to = physical(j);
+            int from = physical(j - 1);
+            validTimes[to] = validTimes[from];
+            values[to] = values[from];
         }
+        int p = physical(i);
+        validTimes[p] = validTime;
+        values[p] = value;
+        ++size;
+        retain();
     }
 
-    public Value get(double validTime) {
-        return valid.get(validTime);
+    public synchronized Value get(double validTime) {
+        int i = lowerBound(validTime);
+        if (i < size && key(i) == validTime)
+            return value(i);
+        return null;
     }
 
     /**
@@ -58,24 +172,440 @@ public class History<Value> {
     }
 
     public NavigableMap<Double, Value> validSubMap(double fromTime, double toTime) {
-        return Collections.unmodifiableNavigableMap(valid.subMap(fromTime, true, toTime, true));
+        return new View(fromTime, true, toTime, true);
     }
 
     public NavigableMap<Double, Value> validTailMap(double vt) {
-        return Collections.unmodifiableNavigableMap(mutableValidTailMap(vt));
+        return new View(vt, true, Double.POSITIVE_INFINITY, true);
     }
 
     /** Find the entry for the greatest key less than or equal to vt. */
-    public Entry<Double, Value> validFloorEntry(double vt) {
-        return valid.floorEntry(vt);
+    public synchronized Entry<Double, Value> validFloorEntry(double vt) {
+        return entry(upperBound(vt) - 1);
+    }
+
+    /** Find the entry for the least key greater than or equal to vt. */
+    public synchronized Entry<Double, Value> validCeilingEntry(double vt) {
+        return entry(lowerBound(vt));
+    }
+
+    /**
+     * Interpolate between the entries either side of the valid time.
+     * 
+     * @return the value at validTime, or null if it's not between two entries.
+     */
+    public Value interpolate(double validTime, Interpolator<Value> interpolator) {
+        return interpolate(validTime, Double.POSITIVE_INFINITY, interpolator);
+    }
+
+    /**
+     * Interpolate between the entries either side of the valid time, if they're
+     * close enough together.
+     * 
+     * @return the value at validTime, or null if it's not between two entries
+     *         at most maxGapSec apart.
+     */
+    public synchronized Value interpolate(double validTime, double maxGapSec, Interpolator<Value> interpolator) {
+        int hi = lowerBound(validTime);
+        if (hi >= size)
+            return null;
+        double hiKey = key(hi);
+        if (hiKey == validTime)
+            return value(hi);
+        if (hi == 0)
+            return null;
+        double loKey = key(hi - 1);
+        if (hiKey - loKey > maxGapSec)
+            return null;
+        double s = (validTime - loKey) / (hiKey - loKey);
+        return interpolator.interpolate(value(hi - 1), value(hi), s);
     }
 
     public int size() {
         return size;
     }
 
-    NavigableMap<Double, Value> mutableValidTailMap(double vt) {
-        return valid.tailMap(vt, true);
+    /**
+     * Remove entries at or after vt. The removed slots keep their references
+     * until they're overwritten, which keeps this O(log n).
+     */
+    synchronized void truncate(double vt) {
+        long stamp = seq.writeLock();
+        try {
+            size = lowerBound(vt);
+            ++epoch;
+        } finally {
+            seq.unlockWrite(stamp);
+        }
     }
 
+    /**
+     * An immutable copy of the current contents. Lock-free, never blocks a
+     * writer, and allocates only if there's been a write since the last call.
+     */
+    public HistorySnapshot<Value> snapshot() {
+        while (true) {
+            long stamp = seq.tryOptimisticRead();
+            if (stamp != 0) {
+                // these reads may race with a writer, validate() says if they did.
+                long e = epoch;
+                HistorySnapshot<Value> cached = published;
+                if (cached.getEpoch() == e && seq.validate(stamp))
+                    return cached;
+                int h = head;
+                int n = size;
+                double[] k = new double[n];
+                Object[] v = new Object[n];
+                for (int i = 0; i < n; ++i) {
+                    int p = h + i;
+                    if (p >= capacity)
+                        p -= capacity;
+                    k[i] = validTimes[p];
+                    v[i] = values[p];
+                }
+                if (seq.validate(stamp)) {
+                    HistorySnapshot<Value> result = new HistorySnapshot<>(e, k, v);
+                    published = result;
+                    return result;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /** Apply the time-based retention and thinning. */
+    private void retain() {
+        if (size == 0)
+            return;
+        double newest = key(size - 1);
+        while (size > 1 && key(0) < newest - retentionSec) {
+            removeAt(0);
+        }
+        for (int k = 0; k < tiers.length; ++k) {
+            double boundary = newest - tiers[k].ageSec;
+            if (boundary <= thinnedBefore[k])
+                continue;
+            // usually just the one entry that crossed the boundary.
+            int i = Math.max(1, lowerBound(thinnedBefore[k]));
+            while (i < size && key(i) < boundary) {
+                if (key(i) - key(i - 1) < tiers[k].intervalSec) {
+                    // the next one takes its index.
+                    removeAt(i);
+                } else {
+                    ++i;
+                }
+            }
+            thinnedBefore[k] = boundary;
+        }
+    }
+
+    /**
+     * Remove the entry at logical index i by moving the older ones up. Thinning
+     * happens near the old end, so there aren't many to move.
+     */
+    private void removeAt(int i) {
+        for (int j = i; j > 0; --j) {
+            int to = physical(j);
+            int from = physical(j - 1);
+            validTimes[to] = validTimes[from];
+            values[to] = values[from];
+        }
+        values[head] = null;
+        head = physical(1);
+        --size;
+    }
+
+    ///////////////////////////////////////////////////////////
+    //
+    // logical indices run from 0 (oldest) to size-1 (newest).
+
+    private int physical(int i) {
+        int p = head + i;
+        return p >= capacity ? p - capacity : p;
+    }
+
+    private double key(int i) {
+        return validTimes[physical(i)];
+    }
+
+    @SuppressWarnings("unchecked")
+    private Value value(int i) {
+        return (Value) values[physical(i)];
+    }
+
+    /** @return the entry at logical index i, or null if out of range. */
+    private Entry<Double, Value> entry(int i) {
+        if (i < 0 || i >= size)
+            return null;
+        return new AbstractMap.SimpleImmutableEntry<>(key(i), value(i));
+    }
+
+    /** @return the index of the first key greater than or equal to vt */
+    private int lowerBound(double vt) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < vt)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the index of the first key strictly greater than vt */
+    private int upperBound(double vt) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) <= vt)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Read-only view of the entries between two keys. The index range is
+     * recomputed for each operation, so the view follows the underlying buffer.
+     *
+     * Nothing on the hot path walks history backwards, so the descending and
+     * key-set views are copies, and don't follow later writes.
+     */
+    private class View extends AbstractMap<Double, Value> implements NavigableMap<Double, Value> {
+        private final double lo;
+        private final boolean loInclusive;
+        private final double hi;
+        private final boolean hiInclusive;
+
+        View(double lo, boolean loInclusive, double hi, boolean hiInclusive) {
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+        }
+
+        /** @return index of the first entry in the view */
+        private int start() {
+            return loInclusive ? lowerBound(lo) : upperBound(lo);
+        }
+
+        /** @return index after the last entry in the view */
+        private int end() {
+            return Math.min(size, hiInclusive ? upperBound(hi) : lowerBound(hi));
+        }
+
+        private boolean inRange(double k) {
+            return (loInclusive ? k >= lo : k > lo) && (hiInclusive ? k <= hi : k < hi);
+        }
+
+        /** @return the entry at i if it is in range, otherwise null */
+        private Entry<Double, Value> bounded(int i) {
+            if (i < 0 || i >= size || !inRange(key(i)))
+                return null;
+            return entry(i);
+        }
+
+        private Double keyOf(Entry<Double, Value> e) {
+            return e == null ? null : e.getKey();
+        }
+
+        private Entry<Double, Value> nonNull(Entry<Double, Value> e) {
+            if (e == null)
+                throw new NoSuchElementException();
+            return e;
+        }
+
+        @Override
+        public int size() {
+            return Math.max(0, end() - start());
+        }
+
+        @Override
+        public Value get(Object key) {
+            if (!(key instanceof Double))
+                return null;
+            double k = (Double) key;
+            if (!inRange(k))
+                return null;
+            return History.this.get(k);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<Double, Value>> entrySet() {
+            return new AbstractSet<Entry<Double, Value>>() {
+                @Override
+                public Iterator<Entry<Double, Value>> iterator() {
+                    final int end = end();
+                    return new Iterator<Entry<Double, Value>>() {
+                        private int i = start();
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < end;
+                        }
+
+                        @Override
+                        public Entry<Double, Value> next() {
+                            if (i >= end)
+                                throw new NoSuchElementException();
+                            return entry(i++);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return View.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Comparator<? super Double> comparator() {
+            return null;
+        }
+
+        @Override
+        public Entry<Double, Value> firstEntry() {
+            return bounded(start());
+        }
+
+        @Override
+        public Entry<Double, Value> lastEntry() {
+            return bounded(end() - 1);
+        }
+
+        @Override
+        public Double firstKey() {
+            return nonNull(firstEntry()).getKey();
+        }
+
+        @Override
+        public Double lastKey() {
+            return nonNull(lastEntry()).getKey();
+        }
+
+        @Override
+        public Entry<Double, Value> lowerEntry(Double key) {
+            return bounded(Math.min(lowerBound(key), end()) - 1);
+        }
+
+        @Override
+        public Entry<Double, Value> floorEntry(Double key) {
+            return bounded(Math.min(upperBound(key), end()) - 1);
+        }
+
+        @Override
+        public Entry<Double, Value> ceilingEntry(Double key) {
+            return bounded(Math.max(lowerBound(key), start()));
+        }
+
+        @Override
+        public Entry<Double, Value> higherEntry(Double key) {
+            return bounded(Math.max(upperBound(key), start()));
+        }
+
+        @Override
+        public Double lowerKey(Double key) {
+            return keyOf(lowerEntry(key));
+        }
+
+        @Override
+        public Double floorKey(Double key) {
+            return keyOf(floorEntry(key));
+        }
+
+        @Override
+        public Double ceilingKey(Double key) {
+            return keyOf(ceilingEntry(key));
+        }
+
+        @Override
+        public Double higherKey(Double key) {
+            return keyOf(higherEntry(key));
+        }
+
+        @Override
+        public NavigableMap<Double, Value> subMap(
+                Double fromKey, boolean fromInclusive, Double toKey, boolean toInclusive) {
+            // narrow, never widen, the existing bounds.
+            double newLo = lo;
+            boolean newLoInclusive = loInclusive;
+            if (fromKey > lo || (fromKey == lo && !fromInclusive)) {
+                newLo = fromKey;
+                newLoInclusive = fromInclusive;
+            }
+            double newHi = hi;
+            boolean newHiInclusive = hiInclusive;
+            if (toKey < hi || (toKey == hi && !toInclusive)) {
+                newHi = toKey;
+                newHiInclusive = toInclusive;
+            }
+            return new View(newLo, newLoInclusive, newHi, newHiInclusive);
+        }
+
+        @Override
+        public NavigableMap<Double, Value> headMap(Double toKey, boolean inclusive) {
+            return subMap(Double.NEGATIVE_INFINITY, true, toKey, inclusive);
+        }
+
+        @Override
+        public NavigableMap<Double, Value> tailMap(Double fromKey, boolean inclusive) {
+            return subMap(fromKey, inclusive, Double.POSITIVE_INFINITY, true);
+        }
+
+        @Override
+        public NavigableMap<Double, Value> subMap(Double fromKey, Double toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        @Override
+        public NavigableMap<Double, Value> headMap(Double toKey) {
+            return headMap(toKey, false);
+        }
+
+        @Override
+        public NavigableMap<Double, Value> tailMap(Double fromKey) {
+            return tailMap(fromKey, true);
+        }
+
+        @Override
+        public Entry<Double, Value> pollFirstEntry() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Entry<Double, Value> pollLastEntry() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public NavigableMap<Double, Value> descendingMap() {
+            return copy().descendingMap();
+        }
+
+        @Override
+        public NavigableSet<Double> navigableKeySet() {
+            return copy().navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<Double> descendingKeySet() {
+            return copy().descendingKeySet();
+        }
+
+        /** Read-only copy of the entries in the view right now. */
+        private NavigableMap<Double, Value> copy() {
+            return Collections.unmodifiableNavigableMap(new TreeMap<>(this));
+        }
+    }
 }
@@ -0,0 +1,103 @@
+package org.team100.lib.storage;
+
+import java.util.AbstractMap;
+import java.util.Map.Entry;
+
+/**
+ * Immutable copy of a history, sorted by valid time, for readers on other
+ * threads, e.g. dashboards.
+ *
+ * Snapshots are made lazily and shared: the owner makes a new one only when a
+ * reader asks after a write, so most reads return the same instance and
+ * allocate nothing. The index accessors don't allocate either; the entry
+ * accessors do, like the ones on History.
+ */
+public class HistorySnapshot<Value> {
+    private final long epoch;
+    private final double[] validTimes;
+    private final Object[] values;
+
+    HistorySnapshot(long epoch, double[] validTimes, Object[] values) {
+        this.epoch = epoch;
+        this.validTimes = validTimes;
+        this.values = values;
+    }
+
+    static <Value> HistorySnapshot<Value> empty() {
+        return new HistorySnapshot<>(-1, new double[0], new Object[0]);
+    }
+
+    /** Increases with every write to the source, so equal epochs mean equal contents. */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int size() {
+        return validTimes.length;
+    }
+
+    /** Index 0 is the oldest. */
+    public double validTime(int i) {
+        return validTimes[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    public Value value(int i) {
+        return (Value) values[i];
+    }
+
+    /** @return index of the greatest key less than or equal to vt, or -1 */
+    public int floorIndex(double vt) {
+        int lo = 0;
+        int hi = validTimes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (validTimes[mid] <= vt)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo - 1;
+    }
+
+    /** @return index of the least key greater than or equal to vt, or size() */
+    public int ceilingIndex(double vt) {
+        int lo = 0;
+        int hi = validTimes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (validTimes[mid] < vt)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    public Value get(double validTime) {
+        int i = ceilingIndex(validTime);
+        if (i < validTimes.length && validTimes[i] == validTime)
+            return value(i);
+        return null;
+    }
+
+    /** @return the value at or before vt, or null if there isn't one. */
+    public Value floorValue(double vt) {
+        int i = floorIndex(vt);
+        return i < 0 ? null : value(i);
+    }
+
+    public Entry<Double, Value> validFloorEntry(double vt) {
+        return entry(floorIndex(vt));
+    }
+
+    public Entry<Double, Value> validCeilingEntry(double vt) {
+        return entry(ceilingIndex(vt));
+    }
+
+    private Entry<Double, Value> entry(int i) {
+        if (i < 0 || i >= validTimes.length)
+            return null;
+        return new AbstractMap.SimpleImmutableEntry<>(validTimes[i], value(i));
+    }
+}
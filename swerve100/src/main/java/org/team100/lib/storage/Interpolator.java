@@ -0,0 +1,9 @@
+package org.team100.lib.storage;
+
+/** Blends two values, for History.interpolate. */
+public interface Interpolator<Value> {
+    /**
+     * @param s fraction of the way from a to b, between zero and one.
+     */
+    Value interpolate(Value a, Value b, double s);
+}
@@ -0,0 +1,227 @@
+package org.team100.lib.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.team100.lib.math.RandomVector;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * Append-only binary log of estimator inputs, so a match can be replayed
+ * offline.
+ *
+ * The file is memory-mapped and preallocated, and records are fixed-width:
+ *
+ * int kind, int rows, long record time, double valid time, double[maxDim] mean,
+ * double[maxDim * maxDim] covariance (row-major)
+ *
+ * Writers reserve a slot with an atomic counter and write directly into the
+ * mapping, so writing never allocates, never copies through an intermediate
+ * buffer, and never blocks. Any number of threads can write at once. The kind
+ * is written last, so a reader stops at the first incomplete record. When the
+ * file is full, records are dropped and counted.
+ *
+ * The pages are touched up front, so the first write to each one doesn't take a
+ * page fault in the control loop.
+ */
+public class Journal implements AutoCloseable {
+    public static final int kMeasurement = 1;
+    public static final int kControl = 2;
+    public static final int kReplay = 3;
+
+    /**
+     * Receives records from read(). The mean has rows entries, the covariance is
+     * rows x rows, row-major. The arrays are reused.
+     */
+    public interface Visitor {
+        void accept(int kind, long recordTime, double validTime, int rows, double[] mean, double[] covariance);
+    }
+
+    private static final int kMagic = 0x4a524e4c; // "JRNL"
+    private static final int kVersion = 1;
+    // magic, version, maxDim, record bytes
+    private static final int kHeaderBytes = 16;
+    private static final int kPageBytes = 4096;
+
+    private final FileChannel m_channel;
+    private final MappedByteBuffer m_buffer;
+    private final int m_maxDim;
+    private final int m_recordBytes;
+    private final long m_capacity;
+    private final AtomicLong m_next;
+    private final AtomicLong m_dropped;
+
+    /**
+     * Create or truncate the journal file.
+     *
+     * @param path     the file
+     * @param maxDim   largest vector that will be written
+     * @param capacity number of records
+     */
+    public Journal(Path path, int maxDim, int capacity) throws IOException {
+        if (maxDim < 1)
+            throw new IllegalArgumentException("maxDim must be positive: " + maxDim);
+        m_maxDim = maxDim;
+        m_recordBytes = recordBytes(maxDim);
+        m_capacity = capacity;
+        long size = kHeaderBytes + (long) capacity * m_recordBytes;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Journal too big: " + size);
+        m_channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        m_buffer = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        for (int i = 0; i < size; i += kPageBytes) {
+            m_buffer.put(i, (byte) 0);
+        }
+        m_buffer.putInt(0, kMagic);
+        m_buffer.putInt(4, kVersion);
+        m_buffer.putInt(8, maxDim);
+        m_buffer.putInt(12, m_recordBytes);
+        m_next = new AtomicLong();
+        m_dropped = new AtomicLong();
+    }
+
+    /** @return false if the journal is full. */
+    public boolean writeMeasurement(long recordTime, double validTime, RandomVector<?> measurement) {
+        int rows = checkRows(measurement.x.getNumRows());
+        int offset = reserve();
+        if (offset < 0)
+            return false;
+        writeMean(offset, rows, measurement.x);
+        int cov = covarianceOffset(offset);
+        for (int i = 0; i < rows; ++i) {
+            for (int j = 0; j < rows; ++j) {
+                m_buffer.putDouble(cov + 8 * (i * m_maxDim + j), measurement.Kxx.get(i, j));
+            }
+        }
+        finish(offset, kMeasurement, rows, recordTime, validTime);
+        return true;
+    }
+
+    /** @return false if the journal is full. */
+    public boolean writeControl(double validTime, Matrix<?, N1> u) {
+        int rows = checkRows(u.getNumRows());
+        int offset = reserve();
+        if (offset < 0)
+            return false;
+        writeMean(offset, rows, u);
+        finish(offset, kControl, rows, 0, validTime);
+        return true;
+    }
+
+    /** @return false if the journal is full. */
+    public boolean writeReplay(long recordTime) {
+        int offset = reserve();
+        if (offset < 0)
+            return false;
+        finish(offset, kReplay, 0, recordTime, 0);
+        return true;
+    }
+
+    /** Number of records written, or being written. */
+    public long size() {
+        return Math.min(m_next.get(), m_capacity);
+    }
+
+    /** Number of records lost because the journal was full. */
+    public long getDropped() {
+        return m_dropped.get();
+    }
+
+    /** Flush to disk and close. Don't write after this. */
+    @Override
+    public void close() throws IOException {
+        m_buffer.force();
+        m_channel.close();
+    }
+
+    /**
+     * Read every complete record, in the order they were reserved.
+     *
+     * @return the number of records read
+     */
+    public static int read(Path path, Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != kMagic)
+                throw new IOException("Not a journal: " + path);
+            if (buffer.getInt(4) != kVersion)
+                throw new IOException("Unknown journal version: " + buffer.getInt(4));
+            int maxDim = buffer.getInt(8);
+            int recordBytes = buffer.getInt(12);
+            if (recordBytes != recordBytes(maxDim))
+                throw new IOException("Bad record size: " + recordBytes);
+            double[] mean = new double[maxDim];
+            double[] covariance = new double[maxDim * maxDim];
+            int count = 0;
+            for (int offset = kHeaderBytes; offset + recordBytes <= buffer.limit(); offset += recordBytes) {
+                int kind = buffer.getInt(offset);
+                if (kind == 0)
+                    break;
+                int rows = buffer.getInt(offset + 4);
+                long recordTime = buffer.getLong(offset + 8);
+                double validTime = buffer.getDouble(offset + 16);
+                int meanOffset = offset + 24;
+                int covOffset = meanOffset + 8 * maxDim;
+                for (int i = 0; i < rows; ++i) {
+                    mean[i] = buffer.getDouble(meanOffset + 8 * i);
+                    for (int j = 0; j < rows; ++j) {
+                        covariance[i * rows + j] = buffer.getDouble(covOffset + 8 * (i * maxDim + j));
+                    }
+                }
+                visitor.accept(kind, recordTime, validTime, rows, mean, covariance);
+                count += 1;
+            }
+            return count;
+        }
+    }
+
+    private static int recordBytes(int maxDim) {
+        return 24 + 8 * (maxDim + maxDim * maxDim);
+    }
+
+    /** @return offset of the reserved record, or -1 if full. */
+    private int reserve() {
+        long index = m_next.getAndIncrement();
+        if (index >= m_capacity) {
+            m_dropped.incrementAndGet();
+            return -1;
+        }
+        return kHeaderBytes + (int) index * m_recordBytes;
+    }
+
+    private int covarianceOffset(int offset) {
+        return offset + 24 + 8 * m_maxDim;
+    }
+
+    /** Check before reserving, so a bad write doesn't leave a hole. */
+    private int checkRows(int rows) {
+        if (rows > m_maxDim)
+            throw new IllegalArgumentException("Too many rows: " + rows);
+        return rows;
+    }
+
+    private void writeMean(int offset, int rows, Matrix<?, N1> x) {
+        for (int i = 0; i < rows; ++i) {
+            m_buffer.putDouble(offset + 24 + 8 * i, x.get(i, 0));
+        }
+    }
+
+    /** Write the header fields, kind last. */
+    private void finish(int offset, int kind, int rows, long recordTime, double validTime) {
+        m_buffer.putInt(offset + 4, rows);
+        m_buffer.putLong(offset + 8, recordTime);
+        m_buffer.putDouble(offset + 16, validTime);
+        m_buffer.putInt(offset, kind);
+    }
+}
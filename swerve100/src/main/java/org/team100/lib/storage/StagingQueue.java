@@ -0,0 +1,189 @@
+package org.team100.lib.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free bounded queue for measurements on their way into a
+ * BitemporalBuffer.
+ *
+ * Any number of threads (e.g. the NetworkTables listeners for each camera) can
+ * offer measurements without ever blocking, and the control loop drains them
+ * into the buffer once per cycle, so the producers don't contend with each
+ * other or with the consumer on the buffer's monitor.
+ *
+ * Storage is preallocated parallel arrays, so offer and drain allocate
+ * nothing. When the queue is full, the overflow policy decides which
+ * measurement to lose.
+ *
+ * This is Dmitry Vyukov's bounded queue: each slot has a sequence number that
+ * says whose turn it is, so producers and consumers only CAS on their own
+ * position counter.
+ *
+ * https://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+ */
+public class StagingQueue<Value> {
+    public enum OverflowPolicy {
+        /** Reject the incoming measurement. */
+        DROP_NEWEST,
+        /** Discard the oldest queued measurement to make room. */
+        DROP_OLDEST
+    }
+
+    /** Receives drained measurements, e.g. BitemporalBuffer::put. */
+    public interface Sink<Value> {
+        void put(long recordTime, double validTime, Value value);
+    }
+
+    private final OverflowPolicy policy;
+    private final int mask;
+    private final AtomicLongArray sequence;
+    private final long[] recordTimes;
+    private final double[] validTimes;
+    private final Object[] values;
+    // next position to write
+    private final AtomicLong tail;
+    // next position to read
+    private final AtomicLong head;
+    private final AtomicLong enqueued;
+    private final AtomicLong drained;
+    private final AtomicLong dropped;
+
+    /**
+     * @param capacity rounded up to a power of two.
+     * @param policy   what to do when the queue is full.
+     */
+    public StagingQueue(int capacity, OverflowPolicy policy) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.policy = policy;
+        mask = size - 1;
+        sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            sequence.set(i, i);
+        }
+        recordTimes = new long[size];
+        validTimes = new double[size];
+        values = new Object[size];
+        tail = new AtomicLong();
+        head = new AtomicLong();
+        enqueued = new AtomicLong();
+        drained = new AtomicLong();
+        dropped = new AtomicLong();
+    }
+
+    /**
+     * Enqueue a measurement. Threadsafe, never blocks.
+     *
+     * @return false if the measurement was dropped.
+     */
+    public boolean offer(long recordTime, double validTime, Value value) {
+        while (true) {
+            long pos = tail.get();
+            int slot = (int) pos & mask;
+            long dif = sequence.get(slot) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    recordTimes[slot] = recordTime;
+                    validTimes[slot] = validTime;
+                    values[slot] = value;
+                    // publish
+                    sequence.set(slot, pos + 1);
+                    enqueued.incrementAndGet();
+                    return true;
+                }
+            } else if (dif < 0) {
+                // full
+                if (policy == OverflowPolicy.DROP_NEWEST) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                if (discardOldest())
+                    dropped.incrementAndGet();
+            }
+            // otherwise another thread moved the tail, try again.
+        }
+    }
+
+    /**
+     * Move everything queued into the buffer. Call this from the consumer
+     * thread. Takes at most one queue-full of measurements, so a flood of
+     * producers can't keep the consumer here forever.
+     *
+     * @return the earliest valid time drained, or Double.MAX_VALUE if there
+     *         was nothing to drain.
+     */
+    public double drainTo(BitemporalBuffer<Value> buffer) {
+        return drainTo(buffer::put);
+    }
+
+    /**
+     * Like drainTo(buffer), for consumers that want to see each measurement.
+     */
+    public double drainTo(Sink<Value> sink) {
+        double earliest = Double.MAX_VALUE;
+        for (int i = 0; i <= mask; ++i) {
+            long pos = head.get();
+            int slot = (int) pos & mask;
+            long dif = sequence.get(slot) - (pos + 1);
+            if (dif < 0)
+                break; // empty
+            if (dif > 0 || !head.compareAndSet(pos, pos + 1)) {
+                // a producer discarded this one.
+                continue;
+            }
+            long recordTime = recordTimes[slot];
+            double validTime = validTimes[slot];
+            @SuppressWarnings("unchecked")
+            Value value = (Value) values[slot];
+            values[slot] = null;
+            // release the slot for the next lap
+            sequence.set(slot, pos + mask + 1);
+            sink.put(recordTime, validTime, value);
+            drained.incrementAndGet();
+            if (validTime < earliest)
+                earliest = validTime;
+        }
+        return earliest;
+    }
+
+    /** Number of measurements accepted by offer. */
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    /** Number of measurements moved into the buffer. */
+    public long getDrained() {
+        return drained.get();
+    }
+
+    /** Number of measurements lost to overflow. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Actual capacity, after rounding up. */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Approximate, since producers may be active. */
+    public int size() {
+        return (int) Math.max(0, Math.min(mask + 1, tail.get() - head.get()));
+    }
+
+    /** @return true if this thread discarded the head item. */
+    private boolean discardOldest() {
+        long pos = head.get();
+        int slot = (int) pos & mask;
+        long dif = sequence.get(slot) - (pos + 1);
+        if (dif != 0 || !head.compareAndSet(pos, pos + 1))
+            return false;
+        values[slot] = null;
+        sequence.set(slot, pos + mask + 1);
+        return true;
+    }
+}
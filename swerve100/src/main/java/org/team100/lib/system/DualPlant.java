@@ -0,0 +1,16 @@
+package org.team100.lib.system;
+
+import org.team100.lib.math.Dual;
+
+/**
+ * Plant dynamics written on dual numbers, so Jacobians are exact, see
+ * Jacobian.jacobianX. Plants can implement this alongside NonlinearPlant;
+ * for plants that don't, Jacobian falls back to finite differences.
+ */
+public interface DualPlant {
+    /**
+     * State evolution, mean only, xdot = f(x,u). Write the same expression as
+     * NonlinearPlant.f, using Dual arithmetic.
+     */
+    void f(Dual[] x, Dual[] u, Dual[] xdotOut);
+}
@@ -0,0 +1,19 @@
+package org.team100.lib.system;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Num;
+
+/**
+ * A plant whose dynamics are linear and time-invariant:
+ * 
+ * xdot = Ax + Bu + w
+ * 
+ * f must agree with A and B. Declaring this lets the estimator use the exact
+ * discrete transition instead of integrating f, see TransitionCache.
+ */
+public interface LinearPlant<States extends Num, Inputs extends Num, Outputs extends Num>
+        extends NonlinearPlant<States, Inputs, Outputs> {
+    Matrix<States, States> A();
+
+    Matrix<States, Inputs> B();
+}
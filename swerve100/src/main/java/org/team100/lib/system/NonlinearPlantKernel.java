@@ -0,0 +1,95 @@
+package org.team100.lib.system;
+
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.Num;
+import edu.wpi.first.math.numbers.N1;
+
+/**
+ * Adapts any NonlinearPlant to PlantKernel by copying to and from Matrix. This
+ * allocates just as much as the plant does; it's for plants that don't
+ * implement PlantKernel themselves.
+ */
+public class NonlinearPlantKernel<States extends Num, Inputs extends Num, Outputs extends Num>
+        implements PlantKernel {
+    private final NonlinearPlant<States, Inputs, Outputs> m_plant;
+    private final int m_states;
+    private final int m_inputs;
+
+    public NonlinearPlantKernel(NonlinearPlant<States, Inputs, Outputs> plant) {
+        m_plant = plant;
+        m_states = plant.states().getNum();
+        m_inputs = plant.inputs().getNum();
+    }
+
+    /** Use the plant's own kernel if it has one. */
+    public static <S extends Num, I extends Num, O extends Num> PlantKernel of(NonlinearPlant<S, I, O> plant) {
+        if (plant instanceof PlantKernel)
+            return (PlantKernel) plant;
+        return new NonlinearPlantKernel<>(plant);
+    }
+
+    @Override
+    public int stateDim() {
+        return m_states;
+    }
+
+    @Override
+    public int inputDim() {
+        return m_inputs;
+    }
+
+    @Override
+    public void f(double[] x, double[] u, double[] xdotOut) {
+        RandomVector<States> xdot = m_plant.f(state(x, new double[m_states * m_states]), input(u));
+        copy(xdot.x, xdotOut);
+    }
+
+    @Override
+    public void propagate(double[] x, double[] P, double[] u, double[] PdotOut) {
+        RandomVector<States> xdot = m_plant.f(state(x, P), input(u));
+        double[] Pdot = xdot.Kxx.getData();
+        System.arraycopy(Pdot, 0, PdotOut, 0, Pdot.length);
+    }
+
+    @Override
+    public void normalize(double[] x) {
+        // plus() applies whatever geometry the plant's state type has.
+        RandomVector<States> zero = state(new double[m_states], new double[m_states * m_states]);
+        copy(state(x, new double[m_states * m_states]).plus(zero).x, x);
+    }
+
+    private RandomVector<States> state(double[] x, double[] P) {
+        Matrix<States, N1> xx = new Matrix<>(m_plant.states(), Nat.N1());
+        for (int i = 0; i < m_states; ++i) {
+            xx.set(i, 0, x[i]);
+        }
+        Matrix<States, States> PP = new Matrix<>(m_plant.states(), m_plant.states());
+        for (int i = 0; i < m_states; ++i) {
+            for (int j = 0; j < m_states; ++j) {
+                PP.set(i, j, P[i * m_states + j]);
+            }
+        }
+        return m_plant.make(xx, new Variance<>(PP));
+    }
+
+    private Matrix<Inputs, N1> input(double[] u) {
+        Matrix<Inputs, N1> uu = new Matrix<>(m_plant.inputs(), Nat.N1());
+        for (int i = 0; i < m_inputs; ++i) {
+            uu.set(i, 0, u[i]);
+        }
+        return uu;
+    }
+
+    private static void copy(Matrix<?, ?> m, double[] out) {
+        int cols = m.getNumCols();
+        for (int i = 0; i < m.getNumRows(); ++i) {
+            for (int j = 0; j < cols; ++j) {
+                out[i * cols + j] = m.get(i, j);
+            }
+        }
+    }
+}
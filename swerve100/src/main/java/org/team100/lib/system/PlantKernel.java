@@ -0,0 +1,58 @@
+package org.team100.lib.system;
+
+/**
+ * Plant dynamics on primitive arrays, for hot loops like RK4, where the
+ * Matrix-based NonlinearPlant allocates several objects per call.
+ * 
+ * xdot = f(x,u)
+ * 
+ * Vectors are double[] of length stateDim() or inputDim(), covariances are
+ * row-major double[] of length stateDim() squared. Implementations write into
+ * the output arrays and must not allocate or keep references to the arguments.
+ * 
+ * Plants can implement this alongside NonlinearPlant, so both paths describe
+ * the same dynamics; see the 1d examples. For other plants, use
+ * NonlinearPlantKernel.
+ */
+public interface PlantKernel {
+    int stateDim();
+
+    int inputDim();
+
+    /** State evolution, mean only. */
+    void f(double[] x, double[] u, double[] xdotOut);
+
+    /**
+     * State evolution for a batch of states, e.g. sigma points, each into the
+     * matching row of xdotOut. Override this if the plant can do several at
+     * once faster than one at a time.
+     */
+    default void f(double[][] x, double[] u, double[][] xdotOut) {
+        for (int i = 0; i < x.length; ++i) {
+            f(x[i], u, xdotOut[i]);
+        }
+    }
+
+    /**
+     * Covariance of xdot, given the covariance of x, the same as the Kxx of
+     * NonlinearPlant.f.
+     */
+    void propagate(double[] x, double[] P, double[] u, double[] PdotOut);
+
+    /**
+     * Put the state back in its domain after arithmetic, e.g. wrap angles.
+     * This is what AngularRandomVector.plus does.
+     */
+    default void normalize(double[] x) {
+    }
+
+    /** Error allowed per adaptive integration step, in state units. */
+    default double absoluteTolerance() {
+        return 1e-6;
+    }
+
+    /** Error allowed per adaptive integration step, relative to the state. */
+    default double relativeTolerance() {
+        return 1e-6;
+    }
+}
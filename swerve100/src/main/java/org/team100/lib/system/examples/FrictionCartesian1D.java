@@ -1,9 +1,11 @@
 package org.team100.lib.system.examples;
 
+import org.team100.lib.math.Dual;
 import org.team100.lib.math.MeasurementUncertainty;
 import org.team100.lib.math.RandomVector;
 import org.team100.lib.math.Variance;
 import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.system.LinearPlant;
 
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.Nat;
@@ -15,7 +17,7 @@ import edu.wpi.first.math.numbers.N2;
  * One-dimensional double-integrator with friction force proportional to
  * velocity.
  */
-public class FrictionCartesian1D extends Cartesian1D {
+public class FrictionCartesian1D extends Cartesian1D implements LinearPlant<N2, N1, N2> {
     public FrictionCartesian1D(WhiteNoiseVector<N2> w, MeasurementUncertainty<N2> v) {
         super(w, v);
     }
@@ -47,6 +49,37 @@ public class FrictionCartesian1D extends Cartesian1D {
         return new RandomVector<>(xdotx, new Variance<>(xdotP));
     }
 
+    @Override
+    public void f(double[] x, double[] u, double[] xdotOut) {
+        xdotOut[0] = x[1];
+        xdotOut[1] = u[0] - x[1];
+    }
+
+    @Override
+    public void f(Dual[] x, Dual[] u, Dual[] xdotOut) {
+        xdotOut[0] = x[1];
+        xdotOut[1] = u[0].minus(x[1]);
+    }
+
+    @Override
+    public void propagate(double[] x, double[] P, double[] u, double[] PdotOut) {
+        double vP = P[3];
+        PdotOut[0] = vP;
+        PdotOut[1] = vP * 0.9;
+        PdotOut[2] = vP * 0.9;
+        PdotOut[3] = vP;
+    }
+
+    @Override
+    public Matrix<N2, N2> A() {
+        return Matrix.mat(Nat.N2(), Nat.N2()).fill(0, 1, 0, -1);
+    }
+
+    @Override
+    public Matrix<N2, N1> B() {
+        return VecBuilder.fill(0, 1);
+    }
+
     @Override
     public Matrix<N1, N1> finvWrtU(RandomVector<N2> x, RandomVector<N2> xdot) {
         double a = xdot.x.get(1, 0);
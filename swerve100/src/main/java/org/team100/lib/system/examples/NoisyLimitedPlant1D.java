@@ -4,7 +4,9 @@ import org.team100.lib.math.MeasurementUncertainty;
 import org.team100.lib.math.RandomVector;
 import org.team100.lib.math.Variance;
 import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.system.DualPlant;
 import org.team100.lib.system.NonlinearPlant;
+import org.team100.lib.system.PlantKernel;
 
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.Nat;
@@ -12,7 +14,11 @@ import edu.wpi.first.math.StateSpaceUtil;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N2;
 
-public abstract class NoisyLimitedPlant1D implements NonlinearPlant<N2, N1, N2> {
+/**
+ * Two states (position and velocity) and one input. Subclasses implement
+ * NonlinearPlant, PlantKernel, and DualPlant, with the same dynamics.
+ */
+public abstract class NoisyLimitedPlant1D implements NonlinearPlant<N2, N1, N2>, PlantKernel, DualPlant {
     private final WhiteNoiseVector<N2> m_w;
     private final MeasurementUncertainty<N2> m_v;
 
@@ -83,4 +89,14 @@ public abstract class NoisyLimitedPlant1D implements NonlinearPlant<N2, N1, N2>
     public Nat<N2> outputs() {
         return Nat.N2();
     }
+
+    @Override
+    public int stateDim() {
+        return 2;
+    }
+
+    @Override
+    public int inputDim() {
+        return 1;
+    }
 }
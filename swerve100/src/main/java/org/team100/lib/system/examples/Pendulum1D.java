@@ -1,6 +1,7 @@
 package org.team100.lib.system.examples;
 
 import org.team100.lib.math.AngularRandomVector;
+import org.team100.lib.math.Dual;
 import org.team100.lib.math.MeasurementUncertainty;
 import org.team100.lib.math.RandomVector;
 import org.team100.lib.math.Variance;
@@ -48,6 +49,27 @@ public class Pendulum1D extends Rotary1D {
         return new RandomVector<>(xdotx, new Variance<>(xdotP));
     }
 
+    @Override
+    public void f(double[] x, double[] u, double[] xdotOut) {
+        xdotOut[0] = x[1];
+        xdotOut[1] = u[0] - Math.cos(x[0]);
+    }
+
+    @Override
+    public void f(Dual[] x, Dual[] u, Dual[] xdotOut) {
+        xdotOut[0] = x[1];
+        xdotOut[1] = u[0].minus(x[0].cos());
+    }
+
+    @Override
+    public void propagate(double[] x, double[] P, double[] u, double[] PdotOut) {
+        double sin = Math.sin(x[0]);
+        PdotOut[0] = P[3];
+        PdotOut[1] = 0;
+        PdotOut[2] = 0;
+        PdotOut[3] = sin * sin * P[0];
+    }
+
     @Override
     public Matrix<N1, N1> finvWrtU(RandomVector<N2> x, RandomVector<N2> xdot) {
         double a = xdot.x.get(1, 0);
@@ -6,6 +6,7 @@ import org.team100.lib.math.RandomVector;
 import org.team100.lib.math.Variance;
 import org.team100.lib.math.WhiteNoiseVector;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N2;
@@ -19,4 +20,9 @@ public abstract class Rotary1D extends NoisyLimitedPlant1D {
     public RandomVector<N2> make(Matrix<N2, N1> x, Variance<N2> P) {
         return new AngularRandomVector<>(x,P);
     }
+
+    @Override
+    public void normalize(double[] x) {
+        x[0] = MathUtil.angleModulus(x[0]);
+    }
 }
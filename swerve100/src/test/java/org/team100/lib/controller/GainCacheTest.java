@@ -0,0 +1,99 @@
+package org.team100.lib.controller;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.team100.lib.math.MeasurementUncertainty;
+import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.system.NonlinearPlant;
+import org.team100.lib.system.examples.FrictionRotary1D;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.Vector;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class GainCacheTest {
+    static final Vector<N2> stateTolerance = VecBuilder.fill(0.01, 0.2);
+    static final Vector<N1> controlTolerance = VecBuilder.fill(12.0);
+
+    NonlinearPlant<N2, N1, N2> plant() {
+        WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0.015, 0.17);
+        MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+        return new FrictionRotary1D(w, v);
+    }
+
+    @Test
+    public void testHitAndMiss(@TempDir Path dir) {
+        NonlinearPlant<N2, N1, N2> plant = plant();
+        GainCache cache = new GainCache(dir.resolve("gains"));
+        Matrix<N1, N2> K1 = new GainCalculator<>(plant, stateTolerance, controlTolerance, 0.02, cache).getK();
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getWriteFailures());
+        // same as without the cache, see GainCalculatorTest
+        assertArrayEquals(new double[] { 578.494, 43.763 }, K1.getData(), 0.001);
+
+        // a new cache in the same place, like the next startup
+        cache = new GainCache(dir.resolve("gains"));
+        Matrix<N1, N2> K2 = new GainCalculator<>(plant, stateTolerance, controlTolerance, 0.02, cache).getK();
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertArrayEquals(K1.getData(), K2.getData(), 0);
+
+        // anything different is a different entry
+        new GainCalculator<>(plant, stateTolerance, controlTolerance, 0.01, cache);
+        new GainCalculator<>(plant, VecBuilder.fill(0.02, 0.2), controlTolerance, 0.02, cache);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testCorrupt(@TempDir Path dir) throws IOException {
+        NonlinearPlant<N2, N1, N2> plant = plant();
+        GainCache cache = new GainCache(dir);
+        Matrix<N1, N2> K1 = new GainCalculator<>(plant, stateTolerance, controlTolerance, 0.02, cache).getK();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.write(file, new byte[] { 1, 2, 3 });
+            }
+        }
+        // unreadable files are misses, and get rewritten
+        Matrix<N1, N2> K2 = new GainCalculator<>(plant, stateTolerance, controlTolerance, 0.02, cache).getK();
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertArrayEquals(K1.getData(), K2.getData(), 0);
+        new GainCalculator<>(plant, stateTolerance, controlTolerance, 0.02, cache);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testWriteFailureLeavesNoTemporaryFile(@TempDir Path dir) throws IOException {
+        NonlinearPlant<N2, N1, N2> plant = plant();
+        GainCache cache = new GainCache(dir);
+        new GainCalculator<>(plant, stateTolerance, controlTolerance, 0.02, cache);
+        Path entry;
+        try (Stream<Path> files = Files.list(dir)) {
+            entry = files.findFirst().orElseThrow();
+        }
+        // a non-empty directory where the entry should be, so the move fails
+        Files.delete(entry);
+        Files.createDirectory(entry);
+        Files.write(entry.resolve("occupied"), new byte[] { 1 });
+        cache = new GainCache(dir);
+        new GainCalculator<>(plant, stateTolerance, controlTolerance, 0.02, cache);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getWriteFailures());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.team100.lib.controller;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.team100.lib.math.MeasurementUncertainty;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.system.NonlinearPlant;
+import org.team100.lib.system.examples.Pendulum1D;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.StateSpaceUtil;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.Vector;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class GainScheduleTest {
+    static final double kDelta = 0.001;
+    static final Vector<N2> stateTolerance = VecBuilder.fill(0.01, 0.2);
+    static final Vector<N1> controlTolerance = VecBuilder.fill(12.0);
+
+    NonlinearPlant<N2, N1, N2> plant() {
+        WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0.015, 0.17);
+        MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+        return new Pendulum1D(w, v);
+    }
+
+    Matrix<N1, N2> exact(NonlinearPlant<N2, N1, N2> plant, double p) {
+        RandomVector<N2> x = new RandomVector<>(VecBuilder.fill(p, 0), Variance.zero2());
+        return GainCalculator.calculate(plant, x, VecBuilder.fill(0),
+                StateSpaceUtil.makeCostMatrix(stateTolerance),
+                StateSpaceUtil.makeCostMatrix(controlTolerance), 0.01);
+    }
+
+    @Test
+    public void testPendulum() {
+        NonlinearPlant<N2, N1, N2> plant = plant();
+        // points every 0.5 radian
+        GainSchedule<N2, N1> schedule = GainSchedule.compute(plant, stateTolerance, controlTolerance, 0.01,
+                new GainSchedule.Axis(0, -2, 2, 9));
+        // zero is the same as the fixed gain
+        GainCalculator<N2, N1, N2> gc = new GainCalculator<>(plant, stateTolerance, controlTolerance, 0.01);
+        assertArrayEquals(gc.getK().getData(), schedule.getK(VecBuilder.fill(0, 0)).getData(), kDelta);
+        // grid points are exact, and velocity isn't scheduled
+        assertArrayEquals(exact(plant, 1).getData(), schedule.getK(VecBuilder.fill(1, 0)).getData(), kDelta);
+        assertArrayEquals(exact(plant, 1).getData(), schedule.getK(VecBuilder.fill(1, 5)).getData(), kDelta);
+        // between points is linear
+        double[] a = exact(plant, 1).getData();
+        double[] b = exact(plant, 1.5).getData();
+        assertArrayEquals(new double[] { (a[0] + b[0]) / 2, (a[1] + b[1]) / 2 },
+                schedule.getK(VecBuilder.fill(1.25, 0)).getData(), kDelta);
+        // outside the grid uses the edge
+        assertArrayEquals(exact(plant, 2).getData(), schedule.getK(VecBuilder.fill(3, 0)).getData(), kDelta);
+        assertArrayEquals(exact(plant, -2).getData(), schedule.getK(VecBuilder.fill(-3, 0)).getData(), kDelta);
+    }
+
+    @Test
+    public void testTwoAxes() {
+        NonlinearPlant<N2, N1, N2> plant = plant();
+        GainSchedule<N2, N1> schedule = GainSchedule.compute(plant, stateTolerance, controlTolerance, 0.01,
+                new GainSchedule.Axis(0, -2, 2, 5),
+                new GainSchedule.Axis(1, -1, 1, 3));
+        // the pendulum gain doesn't depend on velocity
+        assertArrayEquals(exact(plant, 1).getData(), schedule.getK(VecBuilder.fill(1, 0.3)).getData(), kDelta);
+        double[] k = new double[2];
+        schedule.getK(new double[] { 1, -0.7 }, k);
+        assertArrayEquals(exact(plant, 1).getData(), k, kDelta);
+    }
+
+    @Test
+    public void testRoundTrip(@TempDir Path dir) throws IOException {
+        NonlinearPlant<N2, N1, N2> plant = plant();
+        GainSchedule<N2, N1> schedule = GainSchedule.compute(plant, stateTolerance, controlTolerance, 0.01,
+                new GainSchedule.Axis(0, -2, 2, 9));
+        Path path = dir.resolve("pendulum.gains");
+        schedule.write(path);
+        GainSchedule<N2, N1> loaded = GainSchedule.read(path, Nat.N2(), Nat.N1());
+        for (double p = -2.5; p < 2.5; p += 0.1) {
+            Matrix<N2, N1> x = VecBuilder.fill(p, 0);
+            assertArrayEquals(schedule.getK(x).getData(), loaded.getK(x).getData(), 0);
+        }
+        assertThrows(IOException.class, () -> GainSchedule.read(path, Nat.N3(), Nat.N1()));
+    }
+}
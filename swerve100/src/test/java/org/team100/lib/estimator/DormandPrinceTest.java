@@ -0,0 +1,112 @@
+package org.team100.lib.estimator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.team100.lib.estimator.ExtrapolatingEstimator.Integrator;
+import org.team100.lib.math.AngularRandomVector;
+import org.team100.lib.math.MeasurementUncertainty;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.system.examples.DoubleIntegratorRotary1D;
+import org.team100.lib.system.examples.FrictionCartesian1D;
+import org.team100.lib.system.examples.Pendulum1D;
+
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class DormandPrinceTest {
+    WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0.015, 0.17);
+    MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+
+    @Test
+    public void testPolynomialTakesOneStep() {
+        // constant acceleration is exact for any fifth-order method.
+        DoubleIntegratorRotary1D plant = new DoubleIntegratorRotary1D(w, v);
+        DormandPrince.Statistics stats = new DormandPrince.Statistics();
+        DormandPrince dp = new DormandPrince(plant, stats);
+        double[] x = { 0, 0 };
+        assertEquals(1, dp.integrate(x, new double[] { 1 }, 0.3, x));
+        assertArrayEquals(new double[] { 0.045, 0.3 }, x, 1e-12);
+        assertEquals(1, stats.getIntegrations());
+        assertEquals(0, stats.getRejected());
+    }
+
+    @Test
+    public void testBackwards() {
+        FrictionCartesian1D plant = new FrictionCartesian1D(w, v);
+        DormandPrince dp = new DormandPrince(plant, new DormandPrince.Statistics());
+        double[] x = { 1, 2 };
+        double[] u = { 0.5 };
+        dp.integrate(x, u, 0.5, x);
+        dp.integrate(x, u, -0.5, x);
+        assertArrayEquals(new double[] { 1, 2 }, x, 1e-5);
+        assertThrows(IllegalArgumentException.class, () -> dp.integrate(x, u, Double.NaN, x));
+    }
+
+    /** Many tiny RK4 steps. */
+    private double[] reference(Pendulum1D plant, double[] x0, double u, double dtS) {
+        ExtrapolatingEstimator<N2, N1, N2> rk4 = new ExtrapolatingEstimator<>(plant);
+        double[] x = x0.clone();
+        double[] P = new double[4];
+        int n = 10000;
+        for (int i = 0; i < n; ++i) {
+            rk4.predict(x, P, new double[] { u }, dtS / n, x, P);
+        }
+        return x;
+    }
+
+    @Test
+    public void testLongSpan() {
+        // 300 ms replay gap, with the pendulum swinging through the bottom.
+        Pendulum1D plant = new Pendulum1D(w, v);
+        double[] x0 = { 1, -3 };
+        double dtS = 0.3;
+        double[] expected = reference(plant, x0, 0, dtS);
+
+        ExtrapolatingEstimator<N2, N1, N2> adaptive = new ExtrapolatingEstimator<>(plant);
+        adaptive.setIntegrator(Integrator.DORMAND_PRINCE);
+        double[] x = x0.clone();
+        double[] P = new double[4];
+        adaptive.predict(x, P, new double[] { 0 }, dtS, x, P);
+        assertArrayEquals(expected, x, 1e-6);
+
+        ExtrapolatingEstimator<N2, N1, N2> fixed = new ExtrapolatingEstimator<>(plant);
+        double[] y = x0.clone();
+        fixed.predict(y, new double[4], new double[] { 0 }, dtS, y, new double[4]);
+        // one big RK4 step is worse
+        assertTrue(Math.abs(y[0] - expected[0]) > Math.abs(x[0] - expected[0]));
+
+        DormandPrince.Statistics stats = adaptive.getIntegratorStatistics();
+        assertEquals(1, stats.getIntegrations());
+        assertTrue(stats.getSteps() > 1, "steps " + stats.getSteps());
+        assertEquals(stats.getSteps(), stats.getMaxSteps());
+    }
+
+    @Test
+    public void testRandomVectorPath() {
+        Pendulum1D plant = new Pendulum1D(w, v);
+        ExtrapolatingEstimator<N2, N1, N2> rk4 = new ExtrapolatingEstimator<>(plant);
+        ExtrapolatingEstimator<N2, N1, N2> adaptive = new ExtrapolatingEstimator<>(plant);
+        adaptive.setIntegrator(Integrator.DORMAND_PRINCE);
+        RandomVector<N2> x = new AngularRandomVector<>(VecBuilder.fill(3.1, 2), Variance.from2StdDev(0.1, 0.2));
+        RandomVector<N2> a = adaptive.predictWithNoise(x, VecBuilder.fill(0), 0.3);
+        RandomVector<N2> b = rk4.predictWithNoise(x, VecBuilder.fill(0), 0.3);
+        assertTrue(a instanceof AngularRandomVector);
+        // wrapped
+        assertTrue(a.x.get(0, 0) < 0);
+        // the covariance is the same either way
+        assertArrayEquals(b.Kxx.getData(), a.Kxx.getData(), 1e-12);
+        // the array version agrees
+        double[] xx = x.x.getData().clone();
+        double[] PP = x.Kxx.getData().clone();
+        adaptive.predictWithNoise(xx, PP, new double[] { 0 }, 0.3, xx, PP);
+        assertArrayEquals(a.x.getData(), xx, 1e-12);
+        assertArrayEquals(a.Kxx.getData(), PP, 1e-12);
+    }
+}
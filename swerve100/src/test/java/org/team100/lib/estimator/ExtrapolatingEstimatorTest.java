@@ -1,8 +1,11 @@
 package org.team100.lib.estimator;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
+import org.team100.lib.estimator.ExtrapolatingEstimator.Integrator;
 import org.team100.lib.math.AngularRandomVector;
 import org.team100.lib.math.MeasurementUncertainty;
 import org.team100.lib.math.RandomVector;
@@ -11,9 +14,12 @@ import org.team100.lib.math.WhiteNoiseVector;
 import org.team100.lib.system.MockNonlinearPlant;
 import org.team100.lib.system.NonlinearPlant;
 import org.team100.lib.system.examples.DoubleIntegratorRotary1D;
+import org.team100.lib.system.examples.FrictionCartesian1D;
+import org.team100.lib.system.examples.Pendulum1D;
 
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.Num;
 import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.Vector;
 import edu.wpi.first.math.numbers.N1;
@@ -400,4 +406,116 @@ public class ExtrapolatingEstimatorTest {
         assertArrayEquals(new double[] { 0.04, 0, 0, 0.01 }, x.Kxx.getData(), kDelta);
     }
 
+    /** The array version should match the RandomVector version exactly. */
+    private <States extends Num> void assertKernelMatches(
+            NonlinearPlant<States, N1, States> plant, RandomVector<States> x, double u, double dtS) {
+        ExtrapolatingEstimator<States, N1, States> predictor = new ExtrapolatingEstimator<>(plant);
+        RandomVector<States> expected = predictor.predictWithNoise(x, VecBuilder.fill(u), dtS);
+        // the RandomVector version uses the kernel, so check it against the
+        // Matrix arithmetic too
+        RandomVector<States> generic = predictor.addNoise(predictor.rk4(x, VecBuilder.fill(u), dtS), dtS);
+        assertTrue(expected.getClass() == generic.getClass());
+        assertArrayEquals(generic.x.getData(), expected.x.getData(), 1e-9);
+        assertArrayEquals(generic.Kxx.getData(), expected.Kxx.getData(), 1e-9);
+        double[] xx = x.x.getData().clone();
+        double[] PP = x.Kxx.getData().clone();
+        // in place
+        predictor.predictWithNoise(xx, PP, new double[] { u }, dtS, xx, PP);
+        assertArrayEquals(expected.x.getData(), xx, 1e-9);
+        assertArrayEquals(expected.Kxx.getData(), PP, 1e-9);
+    }
+
+    @Test
+    public void testKernelMatches() {
+        WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0.015, 0.17);
+        MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+        Variance<N2> P = Variance.from2StdDev(0.1, 0.2);
+        // wraps around
+        assertKernelMatches(new DoubleIntegratorRotary1D(w, v),
+                new AngularRandomVector<>(VecBuilder.fill(3.1, 1), P), 1, 0.1);
+        assertKernelMatches(new Pendulum1D(w, v),
+                new AngularRandomVector<>(VecBuilder.fill(1, -1), P), 0.5, 0.02);
+        assertKernelMatches(new FrictionCartesian1D(w, v),
+                new RandomVector<>(VecBuilder.fill(1, 2), P), -1, 0.02);
+    }
+
+    @Test
+    public void testKernelAdapter() {
+        // this plant doesn't implement PlantKernel, so it's adapted.
+        ExtrapolatingEstimator<N1, N1, N1> p = new ExtrapolatingEstimator<>(new f1xxPlant() {
+            @Override
+            public Nat<N1> states() {
+                return Nat.N1();
+            }
+
+            @Override
+            public Nat<N1> inputs() {
+                return Nat.N1();
+            }
+
+            @Override
+            public RandomVector<N1> make(Matrix<N1, N1> x, Variance<N1> P) {
+                return new RandomVector<>(x, P);
+            }
+        });
+        RandomVector<N1> expected = p.predict(v1(1, 0.5), VecBuilder.fill(0), 0.1);
+        double[] xOut = new double[1];
+        double[] POut = new double[1];
+        p.predict(new double[] { 1 }, new double[] { 0.5 }, new double[] { 0 }, 0.1, xOut, POut);
+        assertArrayEquals(expected.x.getData(), xOut, 1e-9);
+        assertArrayEquals(expected.Kxx.getData(), POut, 1e-9);
+    }
+
+    @Test
+    public void testExact() {
+        WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0, 0);
+        MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+        DoubleIntegratorRotary1D plant = new DoubleIntegratorRotary1D(w, v);
+        ExtrapolatingEstimator<N2, N1, N2> p = new ExtrapolatingEstimator<>(plant);
+        p.setIntegrator(Integrator.EXACT);
+        // P = [1 0.5; 0.5 2]
+        Matrix<N2, N2> P0 = Matrix.mat(Nat.N2(), Nat.N2()).fill(1, 0.5, 0.5, 2);
+        RandomVector<N2> x = new AngularRandomVector<>(VecBuilder.fill(3, 1), new Variance<>(P0));
+        double dt = 0.3;
+        RandomVector<N2> x1 = p.predictWithNoise(x, VecBuilder.fill(1), dt);
+        // 3 + 0.3 + 0.045 wraps
+        assertArrayEquals(new double[] { 3.345 - 2 * Math.PI, 1.3 }, x1.x.getData(), 1e-9);
+        // F P F^T, with the cross terms
+        assertArrayEquals(new double[] {
+                1 + 2 * dt * 0.5 + dt * dt * 2, 0.5 + dt * 2,
+                0.5 + dt * 2, 2 }, x1.Kxx.getData(), 1e-9);
+
+        // the array version agrees, in place
+        double[] xx = x.x.getData().clone();
+        double[] PP = x.Kxx.getData().clone();
+        p.predictWithNoise(xx, PP, new double[] { 1 }, dt, xx, PP);
+        assertArrayEquals(x1.x.getData(), xx, 1e-9);
+        assertArrayEquals(x1.Kxx.getData(), PP, 1e-9);
+    }
+
+    @Test
+    public void testExactMatchesIntegration() {
+        WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0.015, 0.17);
+        MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+        FrictionCartesian1D plant = new FrictionCartesian1D(w, v);
+        ExtrapolatingEstimator<N2, N1, N2> exact = new ExtrapolatingEstimator<>(plant);
+        exact.setIntegrator(Integrator.EXACT);
+        ExtrapolatingEstimator<N2, N1, N2> adaptive = new ExtrapolatingEstimator<>(plant);
+        adaptive.setIntegrator(Integrator.DORMAND_PRINCE);
+        RandomVector<N2> x = new RandomVector<>(VecBuilder.fill(1, 2), Variance.from2StdDev(0.1, 0.1));
+        for (double dt : new double[] { 0.02, 0.3, -0.1 }) {
+            assertArrayEquals(
+                    adaptive.predict(x, VecBuilder.fill(-1), dt).x.getData(),
+                    exact.predict(x, VecBuilder.fill(-1), dt).x.getData(),
+                    1e-6);
+        }
+    }
+
+    @Test
+    public void testExactNeedsLinearPlant() {
+        WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0.015, 0.17);
+        MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+        ExtrapolatingEstimator<N2, N1, N2> p = new ExtrapolatingEstimator<>(new Pendulum1D(w, v));
+        assertThrows(IllegalArgumentException.class, () -> p.setIntegrator(Integrator.EXACT));
+    }
 }
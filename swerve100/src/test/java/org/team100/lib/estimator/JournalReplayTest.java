@@ -0,0 +1,83 @@
+package org.team100.lib.estimator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.team100.lib.controller.GainCalculator;
+import org.team100.lib.math.AngularRandomVector;
+import org.team100.lib.math.MeasurementUncertainty;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.reference.Reference;
+import org.team100.lib.storage.Journal;
+import org.team100.lib.system.examples.DoubleIntegratorRotary1D;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class JournalReplayTest {
+    private static final double kDt = 0.02;
+
+    @TempDir
+    Path dir;
+
+    WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0, 0);
+    MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+    final DoubleIntegratorRotary1D system = new DoubleIntegratorRotary1D(w, v);
+    final Matrix<N1, N2> K = new GainCalculator<>(system, VecBuilder.fill(0.01, 0.2), VecBuilder.fill(12.0), kDt)
+            .getK();
+    final Reference<N2> reference = new Reference<>() {
+        @Override
+        public Matrix<N2, N1> getR(double tSec) {
+            return VecBuilder.fill(0, 0);
+        }
+
+        @Override
+        public Matrix<N2, N1> getRDot(double tSec) {
+            return VecBuilder.fill(0, 0);
+        }
+    };
+
+    private NewBitemporalEstimatorController<N2, N1, N2> controller() {
+        RandomVector<N2> initialState = new AngularRandomVector<>(VecBuilder.fill(0, 0),
+                Variance.from2StdDev(0.316228, 0.316228));
+        return new NewBitemporalEstimatorController<>(system, initialState, VecBuilder.fill(0), reference, K);
+    }
+
+    @Test
+    public void testReplayMatchesOriginal() throws IOException {
+        Path path = dir.resolve("match.bin");
+        NewBitemporalEstimatorController<N2, N1, N2> original = controller();
+        try (Journal journal = new Journal(path, 2, 1000)) {
+            original.setJournal(journal);
+            for (int i = 1; i < 10; ++i) {
+                double t = i * kDt;
+                original.record(t - kDt, VecBuilder.fill(i % 3));
+                // noisy and out of order
+                original.acceptMeasurement(i * 20000 - 10, t, system.position(0.001 * i * i));
+                if (i % 2 == 0 && i > 3)
+                    original.acceptMeasurement(i * 20000 - 5, t - 3 * kDt, system.position(0.001 * i));
+                original.replay(i * 20000);
+            }
+            original.setJournal(null);
+        }
+
+        NewBitemporalEstimatorController<N2, N1, N2> rerun = controller();
+        JournalReplay<N2, N1, N2> replay = new JournalReplay<>(system, AngularRandomVector<N2>::new);
+        assertEquals(9, replay.run(path, rerun));
+
+        double now = 9.5 * kDt;
+        RandomVector<N2> a = original.predictNow(now);
+        RandomVector<N2> b = rerun.predictNow(now);
+        assertEquals(a.x.get(0, 0), b.x.get(0, 0), 1e-12);
+        assertEquals(a.x.get(1, 0), b.x.get(1, 0), 1e-12);
+        assertEquals(a.Kxx.get(0, 0), b.Kxx.get(0, 0), 1e-12);
+    }
+}
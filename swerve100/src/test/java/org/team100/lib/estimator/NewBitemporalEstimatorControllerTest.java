@@ -1,5 +1,297 @@
 package org.team100.lib.estimator;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.team100.lib.controller.GainCalculator;
+import org.team100.lib.estimator.ExtrapolatingEstimator.Integrator;
+import org.team100.lib.estimator.NewBitemporalEstimatorController.Snapshot;
+import org.team100.lib.fusion.Gate;
+import org.team100.lib.math.AngularRandomVector;
+import org.team100.lib.math.MeasurementUncertainty;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.reference.Reference;
+import org.team100.lib.storage.StagingQueue.OverflowPolicy;
+import org.team100.lib.system.examples.DoubleIntegratorRotary1D;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+/**
+ * Compare retrodiction with full replay, using the plant from
+ * EstimatorAndControlTest.
+ */
 public class NewBitemporalEstimatorControllerTest {
-    
+    private static final double kDelta = 0.001;
+    private static final double kDt = 0.02;
+
+    WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0, 0);
+    MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+    final DoubleIntegratorRotary1D system = new DoubleIntegratorRotary1D(w, v);
+    final Matrix<N1, N2> K = new GainCalculator<>(system, VecBuilder.fill(0.01, 0.2), VecBuilder.fill(12.0), kDt)
+            .getK();
+    final Reference<N2> reference = new Reference<>() {
+        @Override
+        public Matrix<N2, N1> getR(double tSec) {
+            return VecBuilder.fill(0, 0);
+        }
+
+        @Override
+        public Matrix<N2, N1> getRDot(double tSec) {
+            return VecBuilder.fill(0, 0);
+        }
+    };
+    // constant acceleration from rest
+    final Matrix<N1, N1> u = VecBuilder.fill(1.0);
+
+    private NewBitemporalEstimatorController<N2, N1, N2> controller(double horizonSec) {
+        return controller(horizonSec, Long.MAX_VALUE, 0);
+    }
+
+    private NewBitemporalEstimatorController<N2, N1, N2> controller(
+            double horizonSec, long budgetUs, double epsilonSec) {
+        RandomVector<N2> initialState = new AngularRandomVector<>(VecBuilder.fill(0, 0),
+                Variance.from2StdDev(0.316228, 0.316228));
+        return new NewBitemporalEstimatorController<>(system, initialState, VecBuilder.fill(0), reference, K,
+                256, OverflowPolicy.DROP_OLDEST, horizonSec, budgetUs, epsilonSec);
+    }
+
+    private double truth(double tSec) {
+        return 0.5 * tSec * tSec;
+    }
+
+    /** Run ten in-sequence steps, then one step with a late measurement. */
+    private int run(NewBitemporalEstimatorController<N2, N1, N2> c, int lateStep, double lateOffset) {
+        for (int i = 1; i < 10; ++i) {
+            double t = i * kDt;
+            c.record(t - kDt, u);
+            c.acceptMeasurement(i * 20000, t, system.position(truth(t)));
+            c.replay(i * 20000);
+        }
+        double t = 10 * kDt;
+        c.record(t - kDt, u);
+        double lateT = lateStep * kDt;
+        c.acceptMeasurement(200000, lateT, system.position(truth(lateT) + lateOffset));
+        c.acceptMeasurement(200001, t, system.position(truth(t)));
+        return c.replay(200000);
+    }
+
+    @Test
+    public void testRetrodictionMatchesReplay() {
+        NewBitemporalEstimatorController<N2, N1, N2> replaying = controller(0);
+        NewBitemporalEstimatorController<N2, N1, N2> retrodicting = controller(0.1);
+        // 60 ms late
+        int replayed = run(replaying, 7, 0);
+        int retrodicted = run(retrodicting, 7, 0);
+        // replay redoes everything since the late measurement
+        assertEquals(5, replayed);
+        // retrodiction only touches the new ones
+        assertEquals(2, retrodicted);
+        assertEquals(0, replaying.getRetrodictionCount());
+        assertEquals(1, retrodicting.getRetrodictionCount());
+
+        double now = 10.5 * kDt;
+        RandomVector<N2> a = replaying.predictNow(now);
+        RandomVector<N2> b = retrodicting.predictNow(now);
+        assertEquals(truth(now), a.x.get(0, 0), kDelta);
+        assertEquals(truth(now), b.x.get(0, 0), kDelta);
+        assertEquals(a.x.get(0, 0), b.x.get(0, 0), kDelta);
+    }
+
+    @Test
+    public void testRetrodictionMatchesReplayWithSurprise() {
+        NewBitemporalEstimatorController<N2, N1, N2> replaying = controller(0);
+        NewBitemporalEstimatorController<N2, N1, N2> retrodicting = controller(0.1);
+        // the late measurement disagrees a little
+        run(replaying, 7, 0.001);
+        run(retrodicting, 7, 0.001);
+        double now = 10.5 * kDt;
+        assertEquals(
+                replaying.predictNow(now).x.get(0, 0),
+                retrodicting.predictNow(now).x.get(0, 0),
+                kDelta);
+    }
+
+    @Test
+    public void testFallBackBeyondHorizon() {
+        NewBitemporalEstimatorController<N2, N1, N2> c = controller(0.05);
+        // 160 ms late, beyond the horizon, so replay.
+        assertEquals(10, run(c, 2, 0));
+        assertEquals(0, c.getRetrodictionCount());
+        assertEquals(truth(10.5 * kDt), c.predictNow(10.5 * kDt).x.get(0, 0), kDelta);
+    }
+
+    @Test
+    public void testUnscented() {
+        NewBitemporalEstimatorController<N2, N1, N2> c = controller(0.1);
+        c.predictor.setIntegrator(Integrator.UNSCENTED);
+        run(c, 7, 0);
+        double now = 10.5 * kDt;
+        assertEquals(truth(now), c.predictNow(now).x.get(0, 0), kDelta);
+    }
+
+    @Test
+    public void testGate() {
+        NewBitemporalEstimatorController<N2, N1, N2> replaying = controller(0);
+        NewBitemporalEstimatorController<N2, N1, N2> retrodicting = controller(0.1);
+        Gate<N2> replayGate = new Gate<>(0.99);
+        Gate<N2> retrodictGate = new Gate<>(0.99);
+        replaying.setGate(replayGate);
+        retrodicting.setGate(retrodictGate);
+        // the late measurement is way off, so it's ignored.
+        run(replaying, 7, 1.0);
+        run(retrodicting, 7, 1.0);
+        assertTrue(replayGate.getRejected() >= 1);
+        assertEquals(1, retrodictGate.getRejected());
+        double now = 10.5 * kDt;
+        assertEquals(truth(now), replaying.predictNow(now).x.get(0, 0), kDelta);
+        assertEquals(truth(now), retrodicting.predictNow(now).x.get(0, 0), kDelta);
+    }
+
+    @Test
+    public void testBackgroundReplay() throws InterruptedException {
+        NewBitemporalEstimatorController<N2, N1, N2> c = controller(0);
+        c.startBackgroundReplay(() -> System.nanoTime() / 1000, 1);
+        try {
+            for (int i = 1; i < 10; ++i) {
+                double t = i * kDt;
+                c.record(t - kDt, u);
+                c.acceptMeasurement(i * 20000, t, system.position(truth(t)));
+            }
+            // wait for the replay thread to catch up
+            double latest = 9 * kDt;
+            long deadline = System.currentTimeMillis() + 1000;
+            Snapshot<N2, N1> snapshot = c.getSnapshot();
+            while ((snapshot == null || snapshot.stateTimeSec < latest)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+                snapshot = c.getSnapshot();
+            }
+            assertNotNull(snapshot);
+            assertEquals(latest, snapshot.stateTimeSec, 1e-9);
+            double now = 9.5 * kDt;
+            assertEquals(truth(now), c.predictNow(now).x.get(0, 0), kDelta);
+            assertTrue(c.getSnapshotAgeSec() < 1.0);
+            assertTrue(c.getMaxReplayDurationSec() > 0);
+        } finally {
+            c.stopBackgroundReplay();
+        }
+        // the synchronous api still works, and sees the same history.
+        double now = 9.5 * kDt;
+        assertEquals(truth(now), c.predictNow(now).x.get(0, 0), kDelta);
+    }
+
+    @Test
+    public void testReplayWhileBackgroundReplay() {
+        NewBitemporalEstimatorController<N2, N1, N2> c = controller(0);
+        c.startBackgroundReplay(() -> System.nanoTime() / 1000, 1);
+        try {
+            // the replay thread owns the history
+            assertThrows(IllegalStateException.class, () -> c.replay(20000));
+        } finally {
+            c.stopBackgroundReplay();
+        }
+        c.record(0, u);
+        c.acceptMeasurement(20000, kDt, system.position(truth(kDt)));
+        assertEquals(1, c.replay(20000));
+    }
+
+    @Test
+    public void testCoalesce() {
+        NewBitemporalEstimatorController<N2, N1, N2> c = controller(0, Long.MAX_VALUE, 0.005);
+        for (int i = 1; i < 10; ++i) {
+            double t = i * kDt;
+            c.record(t - kDt, u);
+            // two cameras, a millisecond apart
+            c.acceptMeasurement(i * 20000 - 10, t, system.position(truth(t)));
+            c.acceptMeasurement(i * 20000 - 9, t + 0.001, system.position(truth(t + 0.001)));
+            assertEquals(2, c.replay(i * 20000));
+        }
+        assertEquals(9, c.getCoalescedCount());
+        assertEquals(0, c.getDeferredCount());
+        double now = 9.5 * kDt;
+        assertEquals(truth(now), c.predictNow(now).x.get(0, 0), kDelta);
+    }
+
+    @Test
+    public void testCoalesceKeepsDontKnow() {
+        NewBitemporalEstimatorController<N2, N1, N2> c = controller(0, Long.MAX_VALUE, 0.005);
+        // the gate sees the coalesced measurement
+        List<RandomVector<N2>> candidates = new ArrayList<>();
+        c.setGate(new Gate<>(0.99) {
+            @Override
+            public boolean test(RandomVector<N2> predicted, RandomVector<N2> candidate) {
+                candidates.add(candidate);
+                return super.test(predicted, candidate);
+            }
+        });
+        c.record(0, u);
+        // two cameras, a millisecond apart, neither knows velocity
+        c.acceptMeasurement(19990, kDt, system.position(truth(kDt)));
+        c.acceptMeasurement(19991, kDt + 0.001, system.position(truth(kDt + 0.001)));
+        assertEquals(2, c.replay(20000));
+        assertEquals(1, c.getCoalescedCount());
+        assertEquals(1, candidates.size());
+        assertFalse(candidates.get(0).Kxx.isDontKnow(0));
+        assertTrue(candidates.get(0).Kxx.isDontKnow(1));
+    }
+
+    @Test
+    public void testBudget() {
+        // no budget at all, so each replay does just one measurement.
+        NewBitemporalEstimatorController<N2, N1, N2> c = controller(0, 0, 0);
+        NewBitemporalEstimatorController<N2, N1, N2> unbounded = controller(0);
+        for (int i = 1; i < 10; ++i) {
+            double t = i * kDt;
+            c.record(t - kDt, u);
+            c.acceptMeasurement(i * 20000 - 10, t, system.position(truth(t)));
+            unbounded.record(t - kDt, u);
+            unbounded.acceptMeasurement(i * 20000 - 10, t, system.position(truth(t)));
+        }
+        assertEquals(9, unbounded.replay(200000));
+        assertEquals(1, c.replay(200000));
+        assertEquals(8, c.getDeferredCount());
+        // the rest trickles in
+        int replayed = 1;
+        for (int i = 0; i < 8; ++i) {
+            replayed += c.replay(200000);
+        }
+        assertEquals(9, replayed);
+        double now = 9.5 * kDt;
+        assertEquals(
+                unbounded.predictNow(now).x.get(0, 0),
+                c.predictNow(now).x.get(0, 0),
+                1e-9);
+    }
+
+    @Test
+    public void testInterpolation() {
+        NewBitemporalEstimatorController<N2, N1, N2> c = controller(0);
+        for (int i = 1; i < 10; ++i) {
+            double t = i * kDt;
+            c.record(t - kDt, u);
+            c.acceptMeasurement(i * 20000, t, system.position(truth(t)));
+            c.replay(i * 20000);
+        }
+        double past = 5.5 * kDt;
+        RandomVector<N2> integrated = c.predictNow(past);
+        c.setInterpolationGap(kDt);
+        RandomVector<N2> interpolated = c.predictNow(past);
+        assertEquals(truth(past), interpolated.x.get(0, 0), kDelta);
+        assertEquals(integrated.x.get(0, 0), interpolated.x.get(0, 0), kDelta);
+        // the gap is too small, so integrate.
+        c.setInterpolationGap(kDt / 2);
+        assertEquals(integrated.x.get(0, 0), c.predictNow(past).x.get(0, 0), 1e-9);
+    }
 }
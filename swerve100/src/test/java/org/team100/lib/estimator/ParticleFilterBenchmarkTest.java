@@ -0,0 +1,76 @@
+package org.team100.lib.estimator;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.team100.lib.math.AngularRandomVector;
+import org.team100.lib.math.MeasurementUncertainty;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.system.examples.Pendulum1D;
+
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+/**
+ * Predict/update throughput for 1k, 10k and 100k particles, on one thread and
+ * on the common pool. This just prints timings, it doesn't assert anything
+ * about them. Run it with "gradlew benchmark".
+ */
+@Tag("benchmark")
+public class ParticleFilterBenchmarkTest {
+    private static final double kDt = 0.02;
+    // about the same work for each size
+    private static final long kParticleCycles = 5_000_000;
+
+    WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0.015, 0.17);
+    MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+    final Pendulum1D plant = new Pendulum1D(w, v);
+
+    private RandomVector<N2> measurement() {
+        Variance<N2> P = Variance.from2StdDev(0.1, 0.1);
+        P.dontknow(1);
+        return new AngularRandomVector<>(VecBuilder.fill(1, 0), P);
+    }
+
+    private void bench(String name, ForkJoinPool pool, int particles) {
+        ParticleFilter<N2, N1, N2> f = new ParticleFilter<>(pool, plant, particles, 0);
+        f.initialize(new AngularRandomVector<>(VecBuilder.fill(1, 0), Variance.from2StdDev(0.1, 0.1)));
+        RandomVector<N2> z = measurement();
+        int cycles = (int) (kParticleCycles / particles);
+        // warm up
+        for (int i = 0; i < cycles; ++i) {
+            f.predict(VecBuilder.fill(0), kDt);
+            f.update(z);
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < cycles; ++i) {
+            f.predict(VecBuilder.fill(0), kDt);
+            f.update(z);
+        }
+        long t1 = System.nanoTime();
+        double sec = (t1 - t0) / 1e9;
+        System.out.printf("%-7s %6d particles %8.3f ms/cycle %6.2f M particles/s (%d resamples)%n",
+                name, particles, 1000 * sec / cycles, (double) particles * cycles / sec / 1e6,
+                f.getResampleCount());
+        assertTrue(Double.isFinite(f.getEstimate().x.get(0, 0)));
+    }
+
+    @Test
+    public void testThroughput() {
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            for (int particles : new int[] { 1000, 10000, 100000 }) {
+                bench("single", single, particles);
+                bench("common", ForkJoinPool.commonPool(), particles);
+            }
+        } finally {
+            single.shutdown();
+        }
+    }
+}
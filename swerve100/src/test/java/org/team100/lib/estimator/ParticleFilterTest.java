@@ -0,0 +1,149 @@
+package org.team100.lib.estimator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.team100.lib.math.AngularRandomVector;
+import org.team100.lib.math.MeasurementUncertainty;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.system.examples.DoubleIntegratorRotary1D;
+import org.team100.lib.system.examples.FrictionCartesian1D;
+import org.team100.lib.system.examples.Pendulum1D;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class ParticleFilterTest {
+    private static final double kDt = 0.02;
+    private static final int kParticles = 20000;
+
+    WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0, 0);
+    MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+
+    static Variance<N2> m2(double P00, double P01, double P10, double P11) {
+        return new Variance<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(P00, P01, P10, P11));
+    }
+
+    /** Position only, velocity unknown. */
+    static RandomVector<N2> position(double p, double P) {
+        Variance<N2> K = m2(P, 0, 0, 1);
+        K.dontknow(1);
+        return new RandomVector<>(VecBuilder.fill(p, 0), K);
+    }
+
+    @Test
+    public void testInitialize() {
+        ParticleFilter<N2, N1, N2> f = new ParticleFilter<>(new FrictionCartesian1D(w, v), kParticles, 0);
+        f.initialize(new RandomVector<>(VecBuilder.fill(1, 2), m2(0.04, 0.01, 0.01, 0.09)));
+        RandomVector<N2> x = f.getEstimate();
+        assertArrayEquals(new double[] { 1, 2 }, x.x.getData(), 0.01);
+        assertArrayEquals(new double[] { 0.04, 0.01, 0.01, 0.09 }, x.Kxx.getData(), 0.005);
+        assertEquals(kParticles, f.getEffectiveSampleSize(), 1e-6);
+    }
+
+    @Test
+    public void testPredict() {
+        ParticleFilter<N2, N1, N2> f = new ParticleFilter<>(new DoubleIntegratorRotary1D(w, v), kParticles, 0);
+        f.initialize(new AngularRandomVector<>(VecBuilder.fill(0, 1), m2(0.01, 0, 0, 0.01)));
+        f.predict(VecBuilder.fill(0), kDt);
+        RandomVector<N2> x = f.getEstimate();
+        assertArrayEquals(new double[] { 0.02, 1 }, x.x.getData(), 0.005);
+        assertArrayEquals(new double[] { 0.01, 0, 0, 0.01 }, x.Kxx.getData(), 0.001);
+    }
+
+    @Test
+    public void testUpdate() {
+        ParticleFilter<N2, N1, N2> f = new ParticleFilter<>(new FrictionCartesian1D(w, v), kParticles, 0);
+        f.initialize(new RandomVector<>(VecBuilder.fill(0, 0), m2(1, 0, 0, 0.01)));
+        f.update(position(1, 1));
+        RandomVector<N2> x = f.getEstimate();
+        // same as the product of the gaussians
+        assertEquals(0.5, x.x.get(0, 0), 0.03);
+        assertEquals(0.5, x.Kxx.get(0, 0), 0.03);
+        // unknown velocity, so no information there
+        assertEquals(0, x.x.get(1, 0), 0.01);
+        assertEquals(0.01, x.Kxx.get(1, 1), 0.001);
+        // the weights are still pretty even
+        assertEquals(0, f.getResampleCount());
+    }
+
+    @Test
+    public void testBimodal() {
+        // an ambiguous measurement: one of these is right.
+        ParticleFilter<N2, N1, N2> f = new ParticleFilter<>(new FrictionCartesian1D(w, v), kParticles, 0);
+        f.initialize(new RandomVector<>(VecBuilder.fill(0, 0), m2(1, 0, 0, 0.01)));
+        f.update(List.of(position(-1, 0.01), position(1, 0.01)));
+        // the weights collapse onto the two spikes
+        assertEquals(1, f.getResampleCount());
+        int positive = 0;
+        int middle = 0;
+        for (int i = 0; i < f.size(); ++i) {
+            double p = f.get(0, i);
+            if (p > 0)
+                positive += 1;
+            if (Math.abs(p) < 0.5)
+                middle += 1;
+        }
+        // both modes survive, and nothing is in between, where the gaussian
+        // fusion would be.
+        assertEquals(0.5, (double) positive / f.size(), 0.03);
+        assertTrue(middle < f.size() / 100);
+        // the summary has to be one gaussian, so it spans both.
+        RandomVector<N2> x = f.getEstimate();
+        assertEquals(0, x.x.get(0, 0), 0.05);
+        assertEquals(0.99, x.Kxx.get(0, 0), 0.05);
+    }
+
+    @Test
+    public void testWrap() {
+        ParticleFilter<N2, N1, N2> f = new ParticleFilter<>(new DoubleIntegratorRotary1D(w, v), kParticles, 0);
+        f.initialize(new AngularRandomVector<>(VecBuilder.fill(Math.PI, 0), m2(0.01, 0, 0, 0.01)));
+        RandomVector<N2> x = f.getEstimate();
+        assertTrue(x instanceof AngularRandomVector);
+        // either side of pi, not the average of the two sides, zero.
+        assertEquals(Math.PI, Math.abs(x.x.get(0, 0)), 0.01);
+        assertEquals(0.01, x.Kxx.get(0, 0), 0.001);
+    }
+
+    @Test
+    public void testIndependentOfPool() {
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            WhiteNoiseVector<N2> noisy = WhiteNoiseVector.noise2(0.015, 0.17);
+            RandomVector<N2> a = cycle(new ParticleFilter<>(one, new Pendulum1D(noisy, v), kParticles, 1));
+            RandomVector<N2> b = cycle(new ParticleFilter<>(four, new Pendulum1D(noisy, v), kParticles, 1));
+            assertArrayEquals(a.x.getData(), b.x.getData(), 0);
+            assertArrayEquals(a.Kxx.getData(), b.Kxx.getData(), 0);
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    @Test
+    public void testSize() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ParticleFilter<>(new FrictionCartesian1D(w, v), 0, 0));
+    }
+
+    private static RandomVector<N2> cycle(ParticleFilter<N2, N1, N2> f) {
+        f.initialize(new AngularRandomVector<>(VecBuilder.fill(1, 0), m2(0.1, 0, 0, 0.1)));
+        for (int i = 0; i < 10; ++i) {
+            f.predict(VecBuilder.fill(1), kDt);
+            f.update(position(1, 0.01));
+        }
+        return f.getEstimate();
+    }
+}
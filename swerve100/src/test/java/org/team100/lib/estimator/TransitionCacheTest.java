@@ -0,0 +1,87 @@
+package org.team100.lib.estimator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+import org.team100.lib.estimator.TransitionCache.Transition;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class TransitionCacheTest {
+    private static final double kDelta = 1e-9;
+    // double integrator
+    final Matrix<N2, N2> A = Matrix.mat(Nat.N2(), Nat.N2()).fill(0, 1, 0, 0);
+    final Matrix<N2, N1> B = VecBuilder.fill(0, 1);
+    // noise only in acceleration
+    final Matrix<N2, N2> Q = Matrix.mat(Nat.N2(), Nat.N2()).fill(0, 0, 0, 1);
+
+    @Test
+    public void testDoubleIntegrator() {
+        TransitionCache<N2, N1> cache = new TransitionCache<>(A, B, Q, 0.02);
+        double dt = 0.3;
+        Transition<N2, N1> t = cache.get(dt);
+        assertArrayEquals(new double[] { 1, dt, 0, 1 }, t.F.getData(), kDelta);
+        assertArrayEquals(new double[] { dt * dt / 2, dt }, t.G.getData(), kDelta);
+        // integrated white acceleration noise
+        assertArrayEquals(new double[] {
+                dt * dt * dt / 3, dt * dt / 2,
+                dt * dt / 2, dt }, t.Q.getData(), kDelta);
+    }
+
+    @Test
+    public void testCaching() {
+        TransitionCache<N2, N1> cache = new TransitionCache<>(A, B, Q, 0.02, 0.01);
+        assertSame(cache.get(0.02), cache.get(0.02));
+        assertSame(cache.get(0.01), cache.get(0.01));
+        assertEquals(0, cache.getComputed());
+        // on demand, and kept while it repeats
+        Transition<N2, N1> odd = cache.get(0.037);
+        assertSame(odd, cache.get(0.037));
+        assertEquals(1, cache.getComputed());
+        cache.get(0.041);
+        assertEquals(2, cache.getComputed());
+        // the common ones are still there
+        assertSame(cache.get(0.02), cache.get(0.02));
+        assertEquals(2, cache.getComputed());
+    }
+
+    @Test
+    public void testTimestampDifferences() {
+        TransitionCache<N2, N1> cache = new TransitionCache<>(A, B, Q, 0.02);
+        for (int i = 0; i < 500; ++i) {
+            // e.g. 0.2 - 0.18 = 0.020000000000000018
+            double dt = (i + 1) * 0.02 - i * 0.02;
+            assertSame(cache.get(0.02), cache.get(dt));
+            // retrodiction goes the other way
+            assertSame(cache.get(-0.02, false), cache.get(-dt, false));
+        }
+        assertEquals(0, cache.getComputed());
+    }
+
+    @Test
+    public void testMeanOnly() {
+        TransitionCache<N2, N1> cache = new TransitionCache<>(A, B, Q, 0.02);
+        // backwards common steps have no noise
+        assertNull(cache.get(-0.02, false).Q);
+        assertEquals(0, cache.getComputed());
+        // forwards common steps do, and serve the mean too
+        assertSame(cache.get(0.02), cache.get(0.02, false));
+        Transition<N2, N1> mean = cache.get(0.037, false);
+        assertNull(mean.Q);
+        assertEquals(1, cache.getComputed());
+        // asking for noise computes it
+        assertNotNull(cache.get(0.037).Q);
+        assertEquals(2, cache.getComputed());
+        // which also serves the mean
+        assertNotNull(cache.get(0.037, false).Q);
+        assertEquals(2, cache.getComputed());
+    }
+}
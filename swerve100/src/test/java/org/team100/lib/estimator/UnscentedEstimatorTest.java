@@ -0,0 +1,160 @@
+package org.team100.lib.estimator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.team100.lib.estimator.ExtrapolatingEstimator.Integrator;
+import org.team100.lib.math.AngularRandomVector;
+import org.team100.lib.math.MeasurementUncertainty;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.system.examples.DoubleIntegratorRotary1D;
+import org.team100.lib.system.examples.FrictionCartesian1D;
+import org.team100.lib.system.examples.Pendulum1D;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class UnscentedEstimatorTest {
+    private static final double kDelta = 1e-6;
+    private static final double kDt = 0.02;
+
+    WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0.015, 0.17);
+    MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+
+    @Test
+    public void testLinearMatchesExact() {
+        // for a linear plant, the transform is exact, F P Fᵀ.
+        FrictionCartesian1D plant = new FrictionCartesian1D(w, v);
+        UnscentedEstimator<N2, N1, N2> unscented = new UnscentedEstimator<>(plant);
+        ExtrapolatingEstimator<N2, N1, N2> exact = new ExtrapolatingEstimator<>(plant);
+        exact.setIntegrator(Integrator.EXACT);
+        RandomVector<N2> x = new RandomVector<>(VecBuilder.fill(1, 2),
+                new Variance<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(0.1, 0.02, 0.02, 0.05)));
+        Matrix<N1, N1> u = VecBuilder.fill(-1);
+        RandomVector<N2> expected = exact.predict(x, u, kDt);
+        RandomVector<N2> actual = unscented.predict(x, u, kDt);
+        assertArrayEquals(expected.x.getData(), actual.x.getData(), kDelta);
+        assertArrayEquals(expected.Kxx.getData(), actual.Kxx.getData(), kDelta);
+    }
+
+    @Test
+    public void testWrap() {
+        // the same motion, near the origin and near pi, should look the same.
+        DoubleIntegratorRotary1D plant = new DoubleIntegratorRotary1D(w, v);
+        UnscentedEstimator<N2, N1, N2> p = new UnscentedEstimator<>(plant);
+        Variance<N2> P = Variance.from2StdDev(0.1, 0.1);
+        Matrix<N1, N1> u = VecBuilder.fill(0);
+        RandomVector<N2> origin = p.predict(new AngularRandomVector<>(VecBuilder.fill(0, 1), P), u, kDt);
+        RandomVector<N2> pi = p.predict(new AngularRandomVector<>(VecBuilder.fill(Math.PI - 0.01, 1), P), u, kDt);
+        assertEquals(0.02, origin.x.get(0, 0), kDelta);
+        assertEquals(-Math.PI + 0.01, pi.x.get(0, 0), kDelta);
+        assertTrue(pi instanceof AngularRandomVector);
+        assertArrayEquals(origin.Kxx.getData(), pi.Kxx.getData(), kDelta);
+    }
+
+    @Test
+    public void testNonlinearMatchesMonteCarlo() {
+        Pendulum1D plant = new Pendulum1D(w, v);
+        UnscentedEstimator<N2, N1, N2> p = new UnscentedEstimator<>(plant);
+        double dt = 0.5;
+        double[] u = { 0 };
+        double[] x = { 1.0, 0 };
+        double[] P = { 0.04, 0, 0, 0.04 };
+        double[] xOut = new double[2];
+        double[] POut = new double[4];
+        p.predict(x, P, u, dt, xOut, POut);
+
+        // sample the same map, with zero covariance so it's just the mean.
+        Random random = new Random(0);
+        int n = 20000;
+        double[] sample = new double[2];
+        double[] zero = new double[4];
+        double[] sum = new double[2];
+        double[] sumSq = new double[4];
+        for (int i = 0; i < n; ++i) {
+            sample[0] = x[0] + 0.2 * random.nextGaussian();
+            sample[1] = x[1] + 0.2 * random.nextGaussian();
+            p.predict(sample, zero, u, dt, sample, new double[4]);
+            for (int r = 0; r < 2; ++r) {
+                sum[r] += sample[r];
+                for (int c = 0; c < 2; ++c) {
+                    sumSq[r * 2 + c] += sample[r] * sample[c];
+                }
+            }
+        }
+        for (int r = 0; r < 2; ++r) {
+            assertEquals(sum[r] / n, xOut[r], 0.005);
+            for (int c = 0; c < 2; ++c) {
+                double cov = sumSq[r * 2 + c] / n - (sum[r] / n) * (sum[c] / n);
+                assertEquals(cov, POut[r * 2 + c], 0.05 * Math.sqrt(POut[r * 2 + r] * POut[c * 2 + c]));
+            }
+        }
+    }
+
+    @Test
+    public void testDontKnow() {
+        DoubleIntegratorRotary1D plant = new DoubleIntegratorRotary1D(w, v);
+        UnscentedEstimator<N2, N1, N2> p = new UnscentedEstimator<>(plant);
+        Variance<N2> P = Variance.from2StdDev(0.1, 0.1);
+        P.dontknow(1);
+        RandomVector<N2> x = p.predict(new AngularRandomVector<>(VecBuilder.fill(1, 0), P), VecBuilder.fill(0), kDt);
+        // unknown velocity doesn't move the position
+        assertEquals(1, x.x.get(0, 0), kDelta);
+        // but it does make it very uncertain
+        assertEquals(1e9 * kDt * kDt, x.Kxx.get(0, 0), 1);
+        assertTrue(x.Kxx.isDontKnow(1));
+    }
+
+    @Test
+    public void testArrayMatchesRandomVector() {
+        Pendulum1D plant = new Pendulum1D(w, v);
+        UnscentedEstimator<N2, N1, N2> p = new UnscentedEstimator<>(plant);
+        RandomVector<N2> x = new AngularRandomVector<>(VecBuilder.fill(1, 2), Variance.from2StdDev(0.1, 0.1));
+        RandomVector<N2> expected = p.predict(x, VecBuilder.fill(1), kDt);
+        double[] xx = x.x.getData().clone();
+        double[] PP = x.Kxx.getData().clone();
+        p.predict(xx, PP, new double[] { 1 }, kDt, xx, PP);
+        assertArrayEquals(expected.x.getData(), xx, 1e-9);
+        assertArrayEquals(expected.Kxx.getData(), PP, 1e-9);
+    }
+
+    @Test
+    public void testExtrapolatingEstimator() {
+        Pendulum1D plant = new Pendulum1D(w, v);
+        UnscentedEstimator<N2, N1, N2> p = new UnscentedEstimator<>(plant);
+        ExtrapolatingEstimator<N2, N1, N2> e = new ExtrapolatingEstimator<>(plant);
+        e.setIntegrator(Integrator.UNSCENTED);
+        RandomVector<N2> x = new AngularRandomVector<>(VecBuilder.fill(1, 2), Variance.from2StdDev(0.1, 0.1));
+        RandomVector<N2> expected = p.predict(x, VecBuilder.fill(1), kDt);
+        expected = expected.make(expected.x, expected.Kxx.plus(w.P, kDt));
+        RandomVector<N2> actual = e.predictWithNoise(x, VecBuilder.fill(1), kDt);
+        assertArrayEquals(expected.x.getData(), actual.x.getData(), 1e-9);
+        assertArrayEquals(expected.Kxx.getData(), actual.Kxx.getData(), 1e-9);
+        double[] xx = x.x.getData().clone();
+        double[] PP = x.Kxx.getData().clone();
+        e.predictWithNoise(xx, PP, new double[] { 1 }, kDt, xx, PP);
+        assertArrayEquals(expected.x.getData(), xx, 1e-9);
+        assertArrayEquals(expected.Kxx.getData(), PP, 1e-9);
+    }
+
+    @Test
+    public void testOutput() {
+        // h is the identity, so the output is the state.
+        DoubleIntegratorRotary1D plant = new DoubleIntegratorRotary1D(w, v);
+        UnscentedEstimator<N2, N1, N2> p = new UnscentedEstimator<>(plant);
+        RandomVector<N2> x = new AngularRandomVector<>(VecBuilder.fill(3.1, 1),
+                new Variance<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(0.1, 0.02, 0.02, 0.05)));
+        RandomVector<N2> y = p.output(x, VecBuilder.fill(0));
+        assertArrayEquals(x.x.getData(), y.x.getData(), kDelta);
+        assertArrayEquals(x.Kxx.getData(), y.Kxx.getData(), kDelta);
+    }
+}
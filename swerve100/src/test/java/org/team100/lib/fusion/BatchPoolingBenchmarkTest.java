@@ -0,0 +1,118 @@
+package org.team100.lib.fusion;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N2;
+
+/**
+ * Compares N-way fusion with the pairwise chain. This just prints timings, it
+ * doesn't assert anything about them; it does check that they agree where they
+ * should, i.e. always for information pooling, which is associative, and for
+ * two inputs otherwise. The agreement test is a unit test; the timing is tagged
+ * "benchmark", run it with "gradlew benchmark".
+ */
+public class BatchPoolingBenchmarkTest {
+    private static final int kN = 5000;
+    private static final int kRounds = 5;
+
+    private static RandomVector<N2> random(Random random) {
+        double s0 = 0.1 + random.nextDouble();
+        double s1 = 0.1 + random.nextDouble();
+        double c = (random.nextDouble() - 0.5) * s0 * s1;
+        Variance<N2> P = new Variance<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(s0 * s0, c, c, s1 * s1));
+        return new RandomVector<>(VecBuilder.fill(random.nextDouble(), random.nextDouble()), P);
+    }
+
+    private static RandomVector<N2> pairwise(Pooling<N2> p, List<RandomVector<N2>> inputs) {
+        RandomVector<N2> result = inputs.get(0);
+        for (int i = 1; i < inputs.size(); ++i) {
+            result = p.fuse(result, inputs.get(i));
+        }
+        return result;
+    }
+
+    private static void bench(String name, Pooling<N2> p, List<List<RandomVector<N2>>> sets) {
+        // warm up
+        for (List<RandomVector<N2>> inputs : sets) {
+            pairwise(p, inputs);
+            p.fuse(inputs);
+        }
+        // best of a few rounds, since one round is noisy.
+        long pairwiseNanos = Long.MAX_VALUE;
+        long batchNanos = Long.MAX_VALUE;
+        double sum = 0;
+        for (int round = 0; round < kRounds; ++round) {
+            long t0 = System.nanoTime();
+            for (List<RandomVector<N2>> inputs : sets) {
+                sum += pairwise(p, inputs).x.get(0, 0);
+            }
+            long t1 = System.nanoTime();
+            for (List<RandomVector<N2>> inputs : sets) {
+                sum += p.fuse(inputs).x.get(0, 0);
+            }
+            long t2 = System.nanoTime();
+            pairwiseNanos = Math.min(pairwiseNanos, t1 - t0);
+            batchNanos = Math.min(batchNanos, t2 - t1);
+        }
+        System.out.printf("%-12s %d inputs pairwise %6d ns/op batch %6d ns/op (%f)%n",
+                name, sets.get(0).size(), pairwiseNanos / kN, batchNanos / kN, sum);
+    }
+
+    private static List<List<RandomVector<N2>>> sets(Random random, int size) {
+        List<List<RandomVector<N2>>> sets = new ArrayList<>();
+        for (int i = 0; i < kN; ++i) {
+            List<RandomVector<N2>> inputs = new ArrayList<>();
+            for (int j = 0; j < size; ++j) {
+                inputs.add(random(random));
+            }
+            sets.add(inputs);
+        }
+        return sets;
+    }
+
+    @Test
+    public void testAgreement() {
+        Random random = new Random(0);
+        InformationPooling<N2> information = new InformationPooling<>();
+        VarianceWeightedLinearPooling<N2> weighted = new VarianceWeightedLinearPooling<>();
+        for (int size = 2; size <= 5; ++size) {
+            for (List<RandomVector<N2>> inputs : sets(random, size).subList(0, 100)) {
+                RandomVector<N2> expected = pairwise(information, inputs);
+                RandomVector<N2> actual = information.fuse(inputs);
+                assertArrayEquals(expected.x.getData(), actual.x.getData(), 1e-9);
+                assertArrayEquals(expected.Kxx.getData(), actual.Kxx.getData(), 1e-9);
+                if (size == 2) {
+                    expected = pairwise(weighted, inputs);
+                    actual = weighted.fuse(inputs);
+                    assertArrayEquals(expected.x.getData(), actual.x.getData(), 1e-9);
+                    assertArrayEquals(expected.Kxx.getData(), actual.Kxx.getData(), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void testBenchmark() {
+        Random random = new Random(0);
+        for (int size : new int[] { 2, 3, 5 }) {
+            List<List<RandomVector<N2>>> sets = sets(random, size);
+            bench("information", new InformationPooling<>(), sets);
+            bench("weighted", new VarianceWeightedLinearPooling<>(), sets);
+            bench("democratic", new DemocraticLinearPooling<>(), sets);
+            bench("loglinear", new DemocraticLogLinearPooling<>(), sets);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.team100.lib.fusion;
 
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 import org.team100.lib.math.AngularRandomVector;
 import org.team100.lib.math.RandomVector;
@@ -82,6 +84,14 @@ public class DemocraticLinearPoolingTest extends PoolingTest {
         assert1(cV, Math.PI - 0.005, 1.125);
     }
 
-
-
+    @Test
+    public void testBatch() {
+        RandomVector<N1> aV = v1(0, 1);
+        RandomVector<N1> bV = v1(1, 1);
+        RandomVector<N1> cV = v1(2, 1);
+        // two is the same as the pairwise version
+        assert1(p.fuse(List.of(aV, bV)), 0.5, 0.75);
+        // each weight is 1/3, so the variance is 3/9 plus (1+4+1)/9 dispersion
+        assert1(p.fuse(List.of(aV, bV, cV)), 1, 1);
+    }
 }
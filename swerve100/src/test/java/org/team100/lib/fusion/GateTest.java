@@ -0,0 +1,74 @@
+package org.team100.lib.fusion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.team100.lib.math.RandomVector;
+
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class GateTest extends PoolingTest {
+    private static final double kDelta = 0.001;
+
+    @Test
+    public void testChiSquare() {
+        assertEquals(3.841, Gate.chiSquare(1, 0.95), kDelta);
+        assertEquals(9.210, Gate.chiSquare(2, 0.99), kDelta);
+        assertEquals(29.588, Gate.chiSquare(10, 0.999), kDelta);
+        assertThrows(IllegalArgumentException.class, () -> Gate.chiSquare(0, 0.99));
+        assertThrows(IllegalArgumentException.class, () -> Gate.chiSquare(11, 0.99));
+        assertThrows(IllegalArgumentException.class, () -> Gate.chiSquare(1, 0.9));
+        assertThrows(IllegalArgumentException.class, () -> new Gate<N1>(0.5));
+    }
+
+    @Test
+    public void testDistance() {
+        // combined variance 2, so one unit away is d² = 0.5
+        assertEquals(0.5, Gate.distanceSquared(v1(0, 1), v1(1, 1)), kDelta);
+        // independent rows add
+        assertEquals(1.0, Gate.distanceSquared(
+                v2(0, 0, 1, 0, 0, 1),
+                v2(1, 1, 1, 0, 0, 1)), kDelta);
+        // both certain: nothing to judge
+        assertTrue(Double.isNaN(Gate.distanceSquared(v1(0, 0), v1(1, 0))));
+    }
+
+    @Test
+    public void testAcceptAndReject() {
+        Gate<N1> gate = new Gate<>(0.99);
+        // d² = 4.5, under 6.635
+        assertTrue(gate.test(v1(0, 1), v1(3, 1)));
+        // d² = 8, over
+        assertFalse(gate.test(v1(0, 1), v1(4, 1)));
+        assertEquals(8, gate.getLastDistanceSquared(), kDelta);
+        assertEquals(1, gate.getAccepted());
+        assertEquals(1, gate.getRejected());
+    }
+
+    @Test
+    public void testDontKnow() {
+        Gate<N2> gate = new Gate<>(0.99);
+        // the candidate doesn't know the second row, so the big difference
+        // there doesn't count, and there's one degree of freedom.
+        RandomVector<N2> predicted = v2(0, 0, 1, 0, 0, 1);
+        RandomVector<N2> candidate = v2(2, 100, 1, 0, 0, 1e9);
+        assertTrue(gate.test(predicted, candidate));
+        assertEquals(2, gate.getLastDistanceSquared(), kDelta);
+        // the first row alone is enough to reject
+        assertFalse(gate.test(predicted, v2(4, 0, 1, 0, 0, 1e9)));
+    }
+
+    @Test
+    public void testWrap() {
+        Gate<N1> gate = new Gate<>(0.99);
+        // just either side of pi is close
+        assertTrue(gate.test(a1(3.1, 0.01), a1(-3.1, 0.01)));
+        assertEquals(0.346, gate.getLastDistanceSquared(), kDelta);
+        // but zero isn't
+        assertFalse(gate.test(a1(3.1, 0.01), a1(0, 0.01)));
+    }
+}
@@ -0,0 +1,43 @@
+package org.team100.lib.fusion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.team100.lib.math.RandomVector;
+
+import edu.wpi.first.math.numbers.N1;
+
+public class GatedPoolingTest extends PoolingTest {
+    private final InformationPooling<N1> delegate = new InformationPooling<>();
+    private final GatedPooling<N1> p = new GatedPooling<>(delegate, new Gate<>(0.99));
+
+    @Test
+    public void testInlier() {
+        RandomVector<N1> cV = p.fuse(v1(0, 1), v1(1, 1));
+        assert1(cV, 0.5, 0.5);
+        assertEquals(1, p.getGate().getAccepted());
+    }
+
+    @Test
+    public void testOutlier() {
+        RandomVector<N1> aV = v1(0, 1);
+        // way out there, so ignored
+        assertSame(aV, p.fuse(aV, v1(10, 1)));
+        assertEquals(1, p.getGate().getRejected());
+    }
+
+    @Test
+    public void testBatch() {
+        RandomVector<N1> aV = v1(0, 1);
+        // the outlier is dropped, the rest are fused.
+        RandomVector<N1> cV = p.fuse(List.of(aV, v1(1, 1), v1(10, 1), v1(-1, 1)));
+        assert1(cV, 0, 0.333);
+        assertEquals(2, p.getGate().getAccepted());
+        assertEquals(1, p.getGate().getRejected());
+        // nothing passes, so the prediction is the answer
+        assertSame(aV, p.fuse(List.of(aV, v1(10, 1), v1(-10, 1))));
+    }
+}
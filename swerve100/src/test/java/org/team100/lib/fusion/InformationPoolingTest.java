@@ -0,0 +1,93 @@
+package org.team100.lib.fusion;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.ejml.data.SingularMatrixException;
+import org.junit.jupiter.api.Test;
+import org.team100.lib.math.RandomVector;
+
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class InformationPoolingTest extends PoolingTest {
+    private static final Pooling<N1> p = new InformationPooling<N1>();
+    private static final Pooling<N2> p2 = new InformationPooling<N2>();
+
+    @Test
+    public void testUnanimity() {
+        RandomVector<N1> aV = v1(0, 1);
+        RandomVector<N1> bV = v1(0, 1);
+        RandomVector<N1> cV = p.fuse(aV, bV);
+        // agreement makes the variance smaller
+        assert1(cV, 0, 0.5);
+    }
+
+    @Test
+    public void testDifferentMeans() {
+        RandomVector<N1> aV = v1(0, 1);
+        RandomVector<N1> bV = v1(1, 1);
+        RandomVector<N1> cV = p.fuse(aV, bV);
+        assert1(cV, 0.5, 0.5);
+    }
+
+    @Test
+    public void testDifferent() {
+        RandomVector<N1> aV = v1(0, 1);
+        RandomVector<N1> bV = v1(1, 2);
+        RandomVector<N1> cV = p.fuse(aV, bV);
+        // aggregate leans towards smaller variance
+        assert1(cV, 0.333, 0.667);
+    }
+
+    @Test
+    public void testOrderDoesNotMatter() {
+        RandomVector<N1> aV = v1(0, 1);
+        RandomVector<N1> bV = v1(1, 2);
+        RandomVector<N1> cV = p.fuse(bV, aV);
+        assert1(cV, 0.333, 0.667);
+    }
+
+    @Test
+    public void testWrapping() {
+        // either side of pi
+        RandomVector<N1> aV = a1(Math.PI - 0.1, 1);
+        RandomVector<N1> bV = a1(-Math.PI + 0.3, 1);
+        RandomVector<N1> cV = p.fuse(aV, bV);
+        // the mean is near pi, not zero
+        assert1(cV, -Math.PI + 0.1, 0.5);
+    }
+
+    @Test
+    public void testDontKnow() {
+        // one knows position, the other knows velocity
+        RandomVector<N2> aV = v2(1, 0, 0.01, 0, 0, 1e9);
+        RandomVector<N2> bV = v2(0, 2, 1e9, 0, 0, 0.01);
+        RandomVector<N2> cV = p2.fuse(aV, bV);
+        assert2(cV, 1, 2, 0.01, 0, 0, 0.01);
+    }
+
+    @Test
+    public void testZeroVariance() {
+        RandomVector<N1> aV = v1(0, 0);
+        RandomVector<N1> bV = v1(1, 1);
+        assertThrows(SingularMatrixException.class, () -> p.fuse(aV, bV));
+    }
+
+    @Test
+    public void testBatchMatchesPairwise() {
+        // either side of pi
+        RandomVector<N1> aV = a1(Math.PI - 0.1, 1);
+        RandomVector<N1> bV = a1(-Math.PI + 0.3, 2);
+        RandomVector<N1> cV = a1(Math.PI - 0.2, 0.5);
+        RandomVector<N1> pairwise = p.fuse(p.fuse(aV, bV), cV);
+        RandomVector<N1> batch = p.fuse(List.of(aV, bV, cV));
+        assert1(batch, pairwise.x.get(0, 0), pairwise.Kxx.get(0, 0));
+    }
+
+    @Test
+    public void testBatchEmpty() {
+        assertThrows(IllegalArgumentException.class, () -> p.fuse(List.of()));
+    }
+}
@@ -0,0 +1,105 @@
+package org.team100.lib.fusion;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.ejml.data.SingularMatrixException;
+import org.junit.jupiter.api.Test;
+import org.team100.lib.math.RandomVector;
+
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class InformationVectorPoolingTest extends PoolingTest {
+    private static final Pooling<N1> p = new InformationVectorPooling<N1>();
+    private static final Pooling<N2> p2 = new InformationVectorPooling<N2>();
+
+    @Test
+    public void testUnanimity() {
+        RandomVector<N1> aV = v1(0, 1);
+        RandomVector<N1> bV = v1(0, 1);
+        RandomVector<N1> cV = p.fuse(aV, bV);
+        assert1(cV, 0, 0.5);
+    }
+
+    @Test
+    public void testDifferent() {
+        RandomVector<N1> aV = v1(0, 1);
+        RandomVector<N1> bV = v1(1, 2);
+        assert1(p.fuse(aV, bV), 0.333, 0.667);
+        assert1(p.fuse(bV, aV), 0.333, 0.667);
+    }
+
+    @Test
+    public void testWrapping() {
+        RandomVector<N1> aV = a1(Math.PI - 0.1, 1);
+        RandomVector<N1> bV = a1(-Math.PI + 0.3, 1);
+        RandomVector<N1> cV = p.fuse(aV, bV);
+        assert1(cV, -Math.PI + 0.1, 0.5);
+    }
+
+    @Test
+    public void testDontKnow() {
+        // one knows position, the other knows velocity
+        RandomVector<N2> aV = v2(1, 0, 0.01, 0, 0, 1e9);
+        RandomVector<N2> bV = v2(0, 2, 1e9, 0, 0, 0.01);
+        RandomVector<N2> cV = p2.fuse(aV, bV);
+        assert2(cV, 1, 2, 0.01, 0, 0, 0.01);
+        // neither knows velocity
+        RandomVector<N2> dV = v2(3, 0, 0.01, 0, 0, 1e9);
+        RandomVector<N2> eV = p2.fuse(aV, dV);
+        assert2(eV, 2, 0, 0.005, 0, 0, 1e9);
+        assertTrue(eV.Kxx.isDontKnow(1));
+    }
+
+    @Test
+    public void testSameAsInformationPooling() {
+        RandomVector<N2> aV = v2(1, 2, 2, 0.5, 0.5, 1);
+        RandomVector<N2> bV = v2(0, 1, 1, -0.2, -0.2, 3);
+        RandomVector<N2> expected = new InformationPooling<N2>().fuse(aV, bV);
+        RandomVector<N2> cV = p2.fuse(aV, bV);
+        assert2(cV, expected.x.get(0, 0), expected.x.get(1, 0),
+                expected.Kxx.get(0, 0), expected.Kxx.get(0, 1),
+                expected.Kxx.get(1, 0), expected.Kxx.get(1, 1));
+    }
+
+    @Test
+    public void testBatchMatchesPairwise() {
+        // either side of pi
+        RandomVector<N1> aV = a1(Math.PI - 0.1, 1);
+        RandomVector<N1> bV = a1(-Math.PI + 0.3, 2);
+        RandomVector<N1> cV = a1(Math.PI - 0.2, 0.5);
+        RandomVector<N1> pairwise = p.fuse(p.fuse(aV, bV), cV);
+        RandomVector<N1> batch = p.fuse(List.of(aV, bV, cV));
+        assert1(batch, pairwise.x.get(0, 0), pairwise.Kxx.get(0, 0));
+    }
+
+    @Test
+    public void testBatchDontKnow() {
+        // three position measurements, none knows velocity
+        RandomVector<N2> aV = v2(1, 0, 0.01, 0, 0, 1e9);
+        RandomVector<N2> bV = v2(2, 0, 0.01, 0, 0, 1e9);
+        RandomVector<N2> cV = v2(3, 0, 0.01, 0, 0, 1e9);
+        RandomVector<N2> dV = p2.fuse(List.of(aV, bV, cV));
+        assert2(dV, 2, 0, 0.00333, 0, 0, 1e9);
+        assertTrue(dV.Kxx.isDontKnow(1));
+        // one that does know it fills it in
+        RandomVector<N2> eV = v2(0, 4, 1e9, 0, 0, 0.01);
+        RandomVector<N2> fV = p2.fuse(List.of(aV, bV, eV));
+        assert2(fV, 1.5, 4, 0.005, 0, 0, 0.01);
+    }
+
+    @Test
+    public void testBatchEmpty() {
+        assertThrows(IllegalArgumentException.class, () -> p.fuse(List.of()));
+    }
+
+    @Test
+    public void testZeroVariance() {
+        RandomVector<N1> aV = v1(0, 0);
+        RandomVector<N1> bV = v1(1, 1);
+        assertThrows(SingularMatrixException.class, () -> p.fuse(aV, bV));
+    }
+}
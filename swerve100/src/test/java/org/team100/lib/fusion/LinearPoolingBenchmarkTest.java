@@ -0,0 +1,101 @@
+package org.team100.lib.fusion;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import org.ejml.dense.row.MatrixFeatures_DDRM;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N2;
+
+/**
+ * Compares variance-weighted fusion with the Cholesky checks, in both modes,
+ * against the original eigendecomposition checks and separate det() and inv()
+ * calls. This just prints timings, it doesn't assert anything about them; it
+ * does check that they all agree. Run it with "gradlew benchmark".
+ */
+@Tag("benchmark")
+public class LinearPoolingBenchmarkTest {
+    private static final int kN = 20000;
+
+    /** The way fuse used to work. */
+    private static RandomVector<N2> original(
+            VarianceWeightedLinearPooling<N2> p, RandomVector<N2> a, RandomVector<N2> b) {
+        Matrix<N2, N2> aP = a.Kxx.getValue();
+        Matrix<N2, N2> bP = b.Kxx.getValue();
+        if (aP.det() < 1e-15 || bP.det() < 1e-15)
+            throw new IllegalArgumentException();
+        Matrix<N2, N2> aPI = aP.inv();
+        Matrix<N2, N2> bPI = bP.inv();
+        Matrix<N2, N2> PIsum = aPI.plus(bPI);
+        if (PIsum.det() < 1e-15)
+            throw new IllegalArgumentException();
+        Matrix<N2, N2> pIsumI = PIsum.inv();
+        Matrix<N2, N2> pa = pIsumI.times(aPI);
+        Matrix<N2, N2> pb = pIsumI.times(bPI);
+        if (!MatrixFeatures_DDRM.isIdentity(pa.plus(pb).getStorage().getDDRM(), 0.001))
+            throw new IllegalArgumentException();
+        for (Matrix<N2, N2> P : List.of(aP, bP)) {
+            if (!MatrixFeatures_DDRM.isSymmetric(P.getStorage().getDDRM()))
+                throw new IllegalArgumentException();
+            if (!MatrixFeatures_DDRM.isPositiveSemidefinite(P.getStorage().getDDRM()))
+                throw new IllegalArgumentException();
+        }
+        return p.combine(a, pa, b, pb);
+    }
+
+    private static RandomVector<N2> random(Random random) {
+        double s0 = 0.1 + random.nextDouble();
+        double s1 = 0.1 + random.nextDouble();
+        double c = (random.nextDouble() - 0.5) * s0 * s1;
+        Variance<N2> P = new Variance<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(s0 * s0, c, c, s1 * s1));
+        return new RandomVector<>(VecBuilder.fill(random.nextDouble(), random.nextDouble()), P);
+    }
+
+    @Test
+    public void testBenchmark() {
+        Random random = new Random(0);
+        @SuppressWarnings("unchecked")
+        RandomVector<N2>[] inputs = new RandomVector[kN + 1];
+        for (int i = 0; i < inputs.length; ++i) {
+            inputs[i] = random(random);
+        }
+        VarianceWeightedLinearPooling<N2> checked = new VarianceWeightedLinearPooling<>();
+        VarianceWeightedLinearPooling<N2> sampled = new VarianceWeightedLinearPooling<>();
+        sampled.setCompetitionMode(100);
+
+        // warm up, and check they agree
+        for (int i = 0; i < kN; ++i) {
+            RandomVector<N2> expected = original(checked, inputs[i], inputs[i + 1]);
+            RandomVector<N2> actual = checked.fuse(inputs[i], inputs[i + 1]);
+            assertArrayEquals(expected.x.getData(), actual.x.getData(), 1e-9);
+            assertArrayEquals(expected.Kxx.getData(), actual.Kxx.getData(), 1e-9);
+            sampled.fuse(inputs[i], inputs[i + 1]);
+        }
+
+        long t0 = System.nanoTime();
+        double sum = 0;
+        for (int i = 0; i < kN; ++i) {
+            sum += original(checked, inputs[i], inputs[i + 1]).x.get(0, 0);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < kN; ++i) {
+            sum += checked.fuse(inputs[i], inputs[i + 1]).x.get(0, 0);
+        }
+        long t2 = System.nanoTime();
+        for (int i = 0; i < kN; ++i) {
+            sum += sampled.fuse(inputs[i], inputs[i + 1]).x.get(0, 0);
+        }
+        long t3 = System.nanoTime();
+        System.out.printf("fuse original %6d ns/op cholesky %6d ns/op competition %6d ns/op (%f)%n",
+                (t1 - t0) / kN, (t2 - t1) / kN, (t3 - t2) / kN, sum);
+    }
+}
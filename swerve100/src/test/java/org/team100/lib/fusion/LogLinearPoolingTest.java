@@ -3,6 +3,8 @@ package org.team100.lib.fusion;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.ejml.data.SingularMatrixException;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 import org.team100.lib.math.RandomVector;
 
@@ -63,4 +65,14 @@ public class LogLinearPoolingTest extends PoolingTest {
         assert1(cV, 0, 0);
     }
 
+    @Test
+    public void testBatch() {
+        RandomVector<N1> aV = v1(0, 1);
+        RandomVector<N1> bV = v1(1, 2);
+        RandomVector<N1> cV = v1(2, 4);
+        RandomVector<N1> pair = p.fuse(aV, bV);
+        assert1(p.fuse(List.of(aV, bV)), pair.x.get(0, 0), pair.Kxx.get(0, 0));
+        // C = 1/((1 + 1/2 + 1/4)/3), c = C(0 + 1/2 + 1/2)/3
+        assert1(p.fuse(List.of(aV, bV, cV)), 0.571, 1.714);
+    }
 }
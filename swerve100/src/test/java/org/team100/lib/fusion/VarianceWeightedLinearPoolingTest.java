@@ -3,7 +3,9 @@ package org.team100.lib.fusion;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.List;
 import java.util.Random;
 
 import org.junit.jupiter.api.Test;
@@ -107,8 +109,19 @@ public class VarianceWeightedLinearPoolingTest extends PoolingTest {
         RandomVector<N2> bV = v2(1, 1, 2, 0.5, 0.5, 1);
         RandomVector<N2> cV = p2.fuse(aV, bV);
         // mean leans towards the tighter variance
-        // off-diagonals make this effect stronger
-        assert2(cV, 0.25, 0.75, 0.922, 0.203, 0.203, 0.922);
+        // (A⁻¹ + B⁻¹)⁻¹ (A⁻¹ a + B⁻¹ b) = (3/8, 5/8)
+        assert2(cV, 0.375, 0.625, 0.875, 0.219, 0.219, 0.875);
+    }
+
+    @Test
+    public void testCorrelatedResultIsSymmetric() {
+        // correlated inputs make matrix weights, and the dispersion term
+        // isn't symmetric by itself; the result should still be fusable.
+        RandomVector<N2> aV = v2(0, 0, 1, 0.5, 0.5, 2);
+        RandomVector<N2> bV = v2(1, 2, 2, -0.7, -0.7, 1);
+        RandomVector<N2> cV = p2.fuse(aV, bV);
+        assertTrue(cV.Kxx.isSymmetric());
+        assertTrue(p2.fuse(cV, aV).Kxx.isSymmetric());
     }
 
     @Test
@@ -129,6 +142,34 @@ public class VarianceWeightedLinearPoolingTest extends PoolingTest {
         assertThrows(IllegalArgumentException.class, () -> p1.fuse(aV, bV));
     }
 
+    @Test
+    public void testCompetitionMode() {
+        VarianceWeightedLinearPooling<N1> p = new VarianceWeightedLinearPooling<>();
+        p.setCompetitionMode(1);
+        // zero variance can't be weighted, so it gets the plain average
+        RandomVector<N1> cV = p.fuse(v1(0, 0), v1(1, 1));
+        assertEquals(1, p.getFailures());
+        assert1(cV, 0.5, 0.5);
+        // good inputs are fine
+        p.fuse(v1(0, 1), v1(1, 1));
+        assertEquals(1, p.getFailures());
+        p.setDevelopmentMode();
+        assertThrows(IllegalArgumentException.class, () -> p.fuse(v1(0, 0), v1(1, 1)));
+    }
+
+    @Test
+    public void testCompetitionModeSampling() {
+        VarianceWeightedLinearPooling<N2> p = new VarianceWeightedLinearPooling<>();
+        p.setCompetitionMode(10);
+        // not symmetric, which only the checks notice
+        RandomVector<N2> aV = v2(0, 0, 1, 0, 0.5, 1);
+        RandomVector<N2> bV = v2(1, 1, 2, 1, 1, 2);
+        for (int i = 0; i < 100; ++i) {
+            p.fuse(aV, bV);
+        }
+        assertEquals(10, p.getFailures());
+    }
+
     @Test
     public void testOKWeights() {
         // means differ by 1
@@ -211,6 +252,21 @@ public class VarianceWeightedLinearPoolingTest extends PoolingTest {
         assert2(cV, 0, 1, 1, 0, 0, 1);
     }
 
+    @Test
+    public void testCorrelatedDontKnow() {
+        // a correlated estimate, e.g. from retrodiction, and a position-only
+        // measurement: the position innovation should move the velocity a
+        // little, through the correlation, and the unknown measurement
+        // velocity shouldn't leak into anything.
+        RandomVector<N2> aV = v2(0, 0.2, 3e-5, 4e-4, 4e-4, 4.5e-2);
+        RandomVector<N2> bV = v2(0.001, 0, 1e-4, 0, 0, 1e9);
+        RandomVector<N2> cV = p2.fuse(aV, bV);
+        assertEquals(3e-5 / 1.3e-4 * 0.001, cV.x.get(0, 0), 1e-6);
+        assertEquals(0.2 + 4e-4 / 1.3e-4 * 0.001, cV.x.get(1, 0), 1e-6);
+        assertEquals(0, cV.Kxx.get(0, 0), 1e-4);
+        assertEquals(4.5e-2, cV.Kxx.get(1, 1), 0.01);
+    }
+
     @Test
     public void testDontKnowWeights() {
         RandomVector<N2> aV = v2(0, 0, 1, 0, 0, 1e9);
@@ -327,4 +383,34 @@ public class VarianceWeightedLinearPoolingTest extends PoolingTest {
             aV.Kxx.getValue().get(0,0));
         }
     }
+
+    @Test
+    public void testBatchOfTwo() {
+        RandomVector<N2> aV = v2(0, 1, 1, 0.2, 0.2, 2);
+        RandomVector<N2> bV = v2(1, 0, 3, -0.5, -0.5, 1);
+        RandomVector<N2> pair = p2.fuse(aV, bV);
+        RandomVector<N2> batch = p2.fuse(List.of(aV, bV));
+        assertArrayEquals(pair.x.getData(), batch.x.getData(), 1e-12);
+        assertArrayEquals(pair.Kxx.getData(), batch.Kxx.getData(), 1e-12);
+    }
+
+    @Test
+    public void testBatch() {
+        RandomVector<N1> aV = v1(0, 1);
+        RandomVector<N1> bV = v1(1, 1);
+        RandomVector<N1> cV = v1(2, 2);
+        // weights 2/5, 2/5, 1/5, so the variance is (4 + 4 + 2)/25 plus
+        // (4 + 8 + 2)/25 dispersion
+        assert1(p1.fuse(List.of(aV, bV, cV)), 0.8, 0.96);
+    }
+
+    @Test
+    public void testBatchCompetitionMode() {
+        VarianceWeightedLinearPooling<N1> p = new VarianceWeightedLinearPooling<>();
+        p.setCompetitionMode(1);
+        // zero variance can't be inverted, so this gets equal weights
+        RandomVector<N1> cV = p.fuse(List.of(v1(0, 1), v1(1, 0), v1(2, 1)));
+        assertEquals(1, p.getFailures());
+        assert1(cV, 1, 0.889);
+    }
 }
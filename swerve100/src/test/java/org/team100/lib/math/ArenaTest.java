@@ -0,0 +1,95 @@
+package org.team100.lib.math;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+public class ArenaTest {
+    private static final double kDelta = 1e-12;
+
+    @Test
+    public void testReuse() {
+        Arena arena = new Arena();
+        Matrix<N2, N2> m1 = arena.matrix(2, 2);
+        m1.set(0, 0, 1);
+        Matrix<N2, N2> m2 = arena.matrix(2, 2);
+        assertNotSame(m1, m2);
+        int allocations = arena.getAllocations();
+
+        arena.reset();
+        Matrix<N2, N2> m3 = arena.matrix(2, 2);
+        assertSame(m1, m3);
+        // zeroed
+        assertEquals(0, m3.get(0, 0));
+        assertSame(m2, arena.matrix(2, 2));
+        assertEquals(allocations, arena.getAllocations());
+
+        // a third one grows the pool
+        arena.matrix(2, 2);
+        assertEquals(allocations + 1, arena.getAllocations());
+    }
+
+    @Test
+    public void testTooBig() {
+        Arena arena = new Arena();
+        assertThrows(IllegalArgumentException.class, () -> arena.matrix(Arena.kMaxDim + 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> arena.variance(0));
+    }
+
+    @Test
+    public void testRandomVectorKeepsClass() {
+        Arena arena = new Arena();
+        AngularRandomVector<N2> like = new AngularRandomVector<>(VecBuilder.fill(0, 0), Variance.zero2());
+        Matrix<N2, N1> x = VecBuilder.fill(4, 1);
+        RandomVector<N2> v = arena.randomVector(like, x, Variance.from2StdDev(1, 2));
+        assertTrue(v instanceof AngularRandomVector);
+        // wrapped, like make() does
+        assertEquals(4 - 2 * Math.PI, v.x.get(0, 0), kDelta);
+        assertEquals(1, v.x.get(1, 0), kDelta);
+        assertEquals(4, v.Kxx.get(1, 1), kDelta);
+        // the argument isn't changed
+        assertEquals(4, x.get(0, 0), kDelta);
+
+        RandomVector<N2> plain = arena.randomVector(x, Variance.zero2());
+        assertEquals(RandomVector.class, plain.getClass());
+        assertEquals(4, plain.x.get(0, 0), kDelta);
+    }
+
+    @Test
+    public void testVarianceMatchesAllocating() {
+        Arena arena = new Arena();
+        Variance<N2> a = new Variance<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(2, 0.5, 0.5, 1));
+        Variance<N2> b = Variance.from2StdDev(1, 3);
+        Matrix<N2, N2> F = Matrix.mat(Nat.N2(), Nat.N2()).fill(1, 0.02, 0, 1);
+        assertArrayEquals(a.plus(b).getData(), a.plus(b, arena).getData(), kDelta);
+        assertArrayEquals(a.inverse().getData(), a.inverse(arena).getData(), kDelta);
+        assertArrayEquals(a.congruence(F).getData(), a.congruence(F, arena).getData(), kDelta);
+        assertArrayEquals(a.times(b).getData(), a.times(b, arena).getData(), kDelta);
+    }
+
+    @Test
+    public void testCombineMatchesAllocating() {
+        Arena arena = new Arena();
+        AngularRandomVector<N2> a = new AngularRandomVector<>(VecBuilder.fill(3, 0), Variance.from2StdDev(1, 1));
+        AngularRandomVector<N2> b = new AngularRandomVector<>(VecBuilder.fill(-3, 1), Variance.from2StdDev(2, 1));
+        Matrix<N2, N2> weight = Matrix.mat(Nat.N2(), Nat.N2()).fill(0.2, 0, 0, 0.5);
+        RandomVector<N2> expected = a.combine(weight, b);
+        RandomVector<N2> actual = a.combine(weight, b, arena);
+        assertTrue(actual instanceof AngularRandomVector);
+        assertArrayEquals(expected.x.getData(), actual.x.getData(), kDelta);
+        assertArrayEquals(expected.Kxx.getData(), actual.Kxx.getData(), kDelta);
+        assertArrayEquals(a.xminus(b.x).getData(), a.xminus(b.x, arena).getData(), kDelta);
+        assertArrayEquals(a.xplus(b.x).getData(), a.xplus(b.x, arena).getData(), kDelta);
+    }
+}
@@ -0,0 +1,67 @@
+package org.team100.lib.math;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.numbers.N2;
+import edu.wpi.first.math.numbers.N3;
+
+public class CholeskyTest {
+    private static final double kDelta = 1e-9;
+
+    @Test
+    public void testPositiveDefinite() {
+        Matrix<N3, N3> P = Matrix.mat(Nat.N3(), Nat.N3()).fill(
+                4, 2, 0.4,
+                2, 2, 0.5,
+                0.4, 0.5, 3);
+        Cholesky<N3> c = new Cholesky<>(P);
+        assertTrue(c.isPositiveSemidefinite());
+        assertTrue(c.isPositiveDefinite());
+        assertEquals(P.det(), c.det(), kDelta);
+        assertArrayEquals(P.inv().getData(), c.inverse().getData(), kDelta);
+    }
+
+    @Test
+    public void testSemidefinite() {
+        // zero variance in one row
+        Matrix<N2, N2> P = Matrix.mat(Nat.N2(), Nat.N2()).fill(0, 0, 0, 1);
+        Cholesky<N2> c = new Cholesky<>(P);
+        assertTrue(c.isPositiveSemidefinite());
+        assertFalse(c.isPositiveDefinite());
+        assertEquals(0, c.det(), kDelta);
+        assertThrows(IllegalStateException.class, () -> c.inverse());
+        // perfectly correlated
+        Cholesky<N2> d = new Cholesky<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(1, 1, 1, 1));
+        assertTrue(d.isPositiveSemidefinite());
+        assertFalse(d.isPositiveDefinite());
+    }
+
+    @Test
+    public void testIndefinite() {
+        Cholesky<N2> c = new Cholesky<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(1, 2, 2, 1));
+        assertFalse(c.isPositiveSemidefinite());
+        assertTrue(Double.isNaN(c.det()));
+        // zero pivot with something below it
+        Cholesky<N2> d = new Cholesky<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(0, 1, 1, 1));
+        assertFalse(d.isPositiveSemidefinite());
+    }
+
+    @Test
+    public void testFactor() {
+        double[] L = new double[4];
+        assertEquals(2, Cholesky.factor(2, new double[] { 4, 2, 2, 2 }, L));
+        assertArrayEquals(new double[] { 2, 0, 1, 1 }, L, kDelta);
+        // the buffer is reused, and the zero pivot leaves zeros.
+        assertEquals(1, Cholesky.factor(2, new double[] { 0, 0, 0, 1 }, L));
+        assertArrayEquals(new double[] { 0, 0, 0, 1 }, L, kDelta);
+        assertEquals(-1, Cholesky.factor(2, new double[] { 1, 2, 2, 1 }, L));
+    }
+}
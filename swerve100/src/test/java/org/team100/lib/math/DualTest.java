@@ -0,0 +1,46 @@
+package org.team100.lib.math;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class DualTest {
+    private static final double kDelta = 1e-12;
+
+    @Test
+    public void testArithmetic() {
+        Dual x = Dual.variable(3);
+        // d/dx (2x + 1) = 2
+        Dual a = x.times(2).plus(1);
+        assertEquals(7, a.value, kDelta);
+        assertEquals(2, a.derivative, kDelta);
+        // d/dx x^2 = 2x
+        Dual b = x.times(x);
+        assertEquals(9, b.value, kDelta);
+        assertEquals(6, b.derivative, kDelta);
+        // d/dx 1/x = -1/x^2
+        Dual c = Dual.constant(1).div(x);
+        assertEquals(1.0 / 3, c.value, kDelta);
+        assertEquals(-1.0 / 9, c.derivative, kDelta);
+        // constants have no derivative
+        Dual d = Dual.constant(5).minus(Dual.constant(2)).negate();
+        assertEquals(-3, d.value, kDelta);
+        assertEquals(0, d.derivative, kDelta);
+    }
+
+    @Test
+    public void testChainRule() {
+        Dual x = Dual.variable(0.5);
+        // d/dx sin(x^2) = 2x cos(x^2)
+        Dual a = x.times(x).sin();
+        assertEquals(Math.sin(0.25), a.value, kDelta);
+        assertEquals(Math.cos(0.25), a.derivative, kDelta);
+        // d/dx exp(cos(x)) = -sin(x) exp(cos(x))
+        Dual b = x.cos().exp();
+        assertEquals(-Math.sin(0.5) * Math.exp(Math.cos(0.5)), b.derivative, kDelta);
+        // d/dx sqrt(x) = 1/(2 sqrt(x))
+        assertEquals(1 / (2 * Math.sqrt(0.5)), x.sqrt().derivative, kDelta);
+        // d/dx x^3 = 3x^2
+        assertEquals(0.75, x.pow(3).derivative, kDelta);
+    }
+}
@@ -0,0 +1,64 @@
+package org.team100.lib.math;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N2;
+
+public class InformationVectorTest {
+    private static final double kDelta = 1e-9;
+
+    static Variance<N2> p2(double p00, double p01, double p10, double p11) {
+        return new Variance<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(p00, p01, p10, p11));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        RandomVector<N2> v = new RandomVector<>(VecBuilder.fill(1, 2), p2(2, 0.5, 0.5, 1));
+        InformationVector<N2> i = InformationVector.from(v);
+        // Y = P⁻¹, determinant is 1.75
+        assertArrayEquals(new double[] { 1 / 1.75, -0.5 / 1.75, -0.5 / 1.75, 2 / 1.75 }, i.Y.getData(), kDelta);
+        assertArrayEquals(new double[] { 0, 3.5 / 1.75 }, i.y.getData(), kDelta);
+        RandomVector<N2> w = i.toRandomVector(v);
+        assertArrayEquals(v.x.getData(), w.x.getData(), kDelta);
+        assertArrayEquals(v.Kxx.getData(), w.Kxx.getData(), kDelta);
+    }
+
+    @Test
+    public void testDontKnow() {
+        Variance<N2> p = p2(0.01, 0, 0, 0);
+        p.dontknow(1);
+        RandomVector<N2> v = new RandomVector<>(VecBuilder.fill(1, 2), p);
+        InformationVector<N2> i = InformationVector.from(v);
+        // no information at all in row 1
+        assertArrayEquals(new double[] { 100, 0, 0, 0 }, i.Y.getData(), 0);
+        assertArrayEquals(new double[] { 100, 0 }, i.y.getData(), kDelta);
+        RandomVector<N2> w = i.toRandomVector(v);
+        assertEquals(1, w.x.get(0, 0), kDelta);
+        assertEquals(0.01, w.Kxx.get(0, 0), kDelta);
+        assertTrue(w.Kxx.isDontKnow(1));
+    }
+
+    @Test
+    public void testPlus() {
+        RandomVector<N2> a = new RandomVector<>(VecBuilder.fill(0, 0), p2(1, 0, 0, 1));
+        RandomVector<N2> b = new RandomVector<>(VecBuilder.fill(1, 2), p2(1, 0, 0, 3));
+        RandomVector<N2> c = InformationVector.from(a).plus(InformationVector.from(b)).toRandomVector(a);
+        assertArrayEquals(new double[] { 0.5, 0.5 }, c.x.getData(), kDelta);
+        assertArrayEquals(new double[] { 0.5, 0, 0, 0.75 }, c.Kxx.getData(), kDelta);
+    }
+
+    @Test
+    public void testAngular() {
+        RandomVector<N2> v = new AngularRandomVector<>(VecBuilder.fill(3, 0), p2(1, 0, 0, 1));
+        RandomVector<N2> w = InformationVector.from(v).toRandomVector(v);
+        assertTrue(w instanceof AngularRandomVector);
+        assertArrayEquals(v.x.getData(), w.x.getData(), kDelta);
+    }
+}
@@ -3,6 +3,7 @@ package org.team100.lib.math;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 
 import org.junit.jupiter.api.Test;
+import org.team100.lib.system.MockNonlinearPlant;
 import org.team100.lib.system.NonlinearPlant;
 import org.team100.lib.system.examples.DoubleIntegratorRotary1D;
 import org.team100.lib.system.examples.Pendulum1D;
@@ -209,4 +210,49 @@ public class JacobianTest {
         }
     }
 
+    @Test
+    public void testExactPendulum() {
+        WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0.015, 0.17);
+        MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+        NonlinearPlant<N2, N1, N2> plant = new Pendulum1D(w, v);
+        for (double p : new double[] { 0, 0.5, Math.PI / 2, 3 }) {
+            RandomVector<N2> x = new RandomVector<>(VecBuilder.fill(p, 1), Variance.zero2());
+            Matrix<N1, N1> u = VecBuilder.fill(0.5);
+            // vdot = u - cos(p), so dvdot/dp = sin(p)
+            Matrix<N2, N2> A = Jacobian.jacobianX(plant, x, u);
+            assertArrayEquals(new double[] { 0, 1, Math.sin(p), 0 }, A.getData(), 1e-15);
+            // agrees with the numerical version
+            assertArrayEquals(
+                    Jacobian.numericalJacobianX(Nat.N2(), Nat.N2(), plant::f, x, u).getData(),
+                    A.getData(), 1e-6);
+            Matrix<N2, N1> B = Jacobian.jacobianU(plant, x, u);
+            assertArrayEquals(new double[] { 0, 1 }, B.getData(), 1e-15);
+        }
+    }
+
+    /** Plants without DualPlant use finite differences. */
+    @Test
+    public void testFallback() {
+        NonlinearPlant<N2, N1, N2> plant = new MockNonlinearPlant<>() {
+            @Override
+            public RandomVector<N2> f(RandomVector<N2> x, Matrix<N1, N1> u) {
+                double p = x.x.get(0, 0);
+                return new RandomVector<>(VecBuilder.fill(p * p, u.get(0, 0)), Variance.zero2());
+            }
+
+            @Override
+            public Nat<N2> states() {
+                return Nat.N2();
+            }
+
+            @Override
+            public Nat<N1> inputs() {
+                return Nat.N1();
+            }
+        };
+        RandomVector<N2> x = new RandomVector<>(VecBuilder.fill(2, 0), Variance.zero2());
+        Matrix<N1, N1> u = VecBuilder.fill(0);
+        assertArrayEquals(new double[] { 4, 0, 0, 0 }, Jacobian.jacobianX(plant, x, u).getData(), kDelta);
+        assertArrayEquals(new double[] { 0, 1 }, Jacobian.jacobianU(plant, x, u).getData(), kDelta);
+    }
 }
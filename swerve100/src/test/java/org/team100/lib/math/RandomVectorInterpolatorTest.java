@@ -0,0 +1,46 @@
+package org.team100.lib.math;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N2;
+
+public class RandomVectorInterpolatorTest {
+    private static final double kDelta = 0.001;
+    private final RandomVectorInterpolator<N2> interpolator = new RandomVectorInterpolator<>();
+
+    @Test
+    public void testEuclidean() {
+        RandomVector<N2> a = new RandomVector<>(VecBuilder.fill(0, 1), Variance.from2StdDev(1, 1));
+        RandomVector<N2> b = new RandomVector<>(VecBuilder.fill(4, 3), Variance.from2StdDev(2, 2));
+        RandomVector<N2> c = interpolator.interpolate(a, b, 0.25);
+        assertArrayEquals(new double[] { 1, 1.5 }, c.x.getData(), kDelta);
+        // 0.75 * 1 + 0.25 * 4
+        assertArrayEquals(new double[] { 1.75, 0, 0, 1.75 }, c.Kxx.getData(), kDelta);
+    }
+
+    @Test
+    public void testEnds() {
+        RandomVector<N2> a = new RandomVector<>(VecBuilder.fill(0, 1), Variance.from2StdDev(1, 1));
+        RandomVector<N2> b = new RandomVector<>(VecBuilder.fill(4, 3), Variance.from2StdDev(2, 2));
+        assertArrayEquals(a.x.getData(), interpolator.interpolate(a, b, 0).x.getData(), kDelta);
+        assertArrayEquals(b.x.getData(), interpolator.interpolate(a, b, 1).x.getData(), kDelta);
+        assertArrayEquals(b.Kxx.getData(), interpolator.interpolate(a, b, 1).Kxx.getData(), kDelta);
+    }
+
+    @Test
+    public void testAngularGoesTheShortWay() {
+        // 3 to -3 is 0.283 through pi, not 6 through zero.
+        RandomVector<N2> a = new AngularRandomVector<>(VecBuilder.fill(3, 0), Variance.from2StdDev(1, 1));
+        RandomVector<N2> b = new AngularRandomVector<>(VecBuilder.fill(-3, 2), Variance.from2StdDev(1, 1));
+        RandomVector<N2> c = interpolator.interpolate(a, b, 0.25);
+        assertTrue(c instanceof AngularRandomVector);
+        assertArrayEquals(new double[] { 3.071, 0.5 }, c.x.getData(), kDelta);
+        // past pi, it wraps
+        RandomVector<N2> d = interpolator.interpolate(a, b, 0.75);
+        assertArrayEquals(new double[] { -3.071, 1.5 }, d.x.getData(), kDelta);
+    }
+}
@@ -0,0 +1,104 @@
+package org.team100.lib.math;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+import edu.wpi.first.math.numbers.N3;
+import edu.wpi.first.math.numbers.N4;
+
+public class VarianceTest {
+    private static final double kDelta = 1e-12;
+
+    private static final Matrix<N3, N3> kP = Matrix.mat(Nat.N3(), Nat.N3()).fill(
+            4, 2, 0.4,
+            2, 2, 0.5,
+            0.4, 0.5, 3);
+
+    @Test
+    public void testRoundTrip() {
+        Variance<N3> v = new Variance<>(kP);
+        assertTrue(v.isSymmetric());
+        assertArrayEquals(kP.getData(), v.getData(), kDelta);
+        assertArrayEquals(kP.getData(), v.getValue().getData(), kDelta);
+        // getValue is a copy
+        v.getValue().set(0, 0, 100);
+        assertArrayEquals(kP.getData(), v.getData(), kDelta);
+    }
+
+    @Test
+    public void testArithmetic() {
+        Variance<N3> v = new Variance<>(kP);
+        Variance<N3> w = Variance.fromStdDev(Nat.N3(), Matrix.mat(Nat.N3(), Nat.N1()).fill(1, 2, 3));
+        assertArrayEquals(kP.plus(w.getValue()).getData(), v.plus(w).getData(), kDelta);
+        assertArrayEquals(kP.minus(w.getValue()).getData(), v.minus(w).getData(), kDelta);
+        assertArrayEquals(kP.times(3).getData(), v.times(3).getData(), kDelta);
+        assertArrayEquals(kP.plus(w.getValue().times(0.02)).getData(), v.plus(w, 0.02).getData(), kDelta);
+        assertArrayEquals(kP.times(w.getValue()).getData(), v.times(w).getData(), kDelta);
+    }
+
+    @Test
+    public void testCongruence() {
+        Variance<N3> v = new Variance<>(kP);
+        Matrix<N3, N3> F = Matrix.mat(Nat.N3(), Nat.N3()).fill(
+                1, 0.02, 0,
+                0, 1, 0.02,
+                0.1, 0, 0.9);
+        assertArrayEquals(F.times(kP).times(F.transpose()).getData(), v.congruence(F).getData(), kDelta);
+        // not square
+        Matrix<N1, N3> H = Matrix.mat(Nat.N1(), Nat.N3()).fill(1, -1, 2);
+        Variance<N1> h = v.congruence(H);
+        assertArrayEquals(H.times(kP).times(H.transpose()).getData(), h.getData(), kDelta);
+    }
+
+    @Test
+    public void testAsymmetric() {
+        Variance<N2> v = new Variance<>(Matrix.mat(Nat.N2(), Nat.N2()).fill(1, 0, 0.5, 1));
+        assertFalse(v.isSymmetric());
+        // stored as the symmetric part
+        assertArrayEquals(new double[] { 1, 0.25, 0.25, 1 }, v.getData(), kDelta);
+        assertFalse(v.plus(Variance.zero2()).isSymmetric());
+        assertTrue(Variance.zero2().isSymmetric());
+    }
+
+    @Test
+    public void testDontKnow() {
+        Variance<N2> v = Variance.from2StdDev(1, 2);
+        assertFalse(v.isDontKnow(1));
+        v.dontknow(1);
+        assertTrue(v.isDontKnow(1));
+        assertArrayEquals(new double[] { 1, 0, 0, 1e9 }, v.getData(), kDelta);
+    }
+
+    @Test
+    public void testClosedForm() {
+        Variance<N3> v = new Variance<>(kP);
+        assertEquals(kP.det(), v.det(), kDelta);
+        assertArrayEquals(kP.inv().getData(), v.inverse().getData(), kDelta);
+        Matrix<N2, N2> P2 = Matrix.mat(Nat.N2(), Nat.N2()).fill(2, 0.5, 0.5, 1);
+        Variance<N2> v2 = new Variance<>(P2);
+        assertEquals(P2.det(), v2.det(), kDelta);
+        assertArrayEquals(P2.inv().getData(), v2.inverse().getData(), kDelta);
+        Variance<N1> v1 = new Variance<>(Matrix.mat(Nat.N1(), Nat.N1()).fill(4));
+        assertEquals(4, v1.det(), kDelta);
+        assertArrayEquals(new double[] { 0.25 }, v1.inverse().getData(), kDelta);
+        // bigger ones use Cholesky
+        Matrix<N4, N4> P4 = Matrix.mat(Nat.N4(), Nat.N4()).fill(
+                4, 2, 0.4, 0,
+                2, 2, 0.5, 0,
+                0.4, 0.5, 3, 0.1,
+                0, 0, 0.1, 1);
+        Variance<N4> v4 = new Variance<>(P4);
+        assertEquals(P4.det(), v4.det(), 1e-9);
+        assertArrayEquals(P4.inv().getData(), v4.inverse().getData(), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> Variance.zero2().inverse());
+    }
+}
@@ -0,0 +1,107 @@
+package org.team100.lib.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the columnar buffer with the original skip-list buffer. This just
+ * prints timings, it doesn't assert anything about them; it does check that
+ * both implementations agree. Run it with "gradlew benchmark".
+ */
+@Tag("benchmark")
+public class BitemporalBufferBenchmarkTest {
+    private static final int kQueries = 1000;
+
+    /**
+     * Like the robot: record time goes up by one millisecond per measurement,
+     * and valid time lags record time by up to 150 ms.
+     */
+    private static void fill(
+            BitemporalBuffer<String> a,
+            SkipListBitemporalBuffer<String> b,
+            Random random,
+            long fromRecordTime,
+            int n) {
+        for (int i = 0; i < n; ++i) {
+            long recordTime = fromRecordTime + 1000l * i;
+            double validTime = recordTime / 1e6 - random.nextDouble() * 0.15;
+            a.put(recordTime, validTime, "x");
+            b.put(recordTime, validTime, "x");
+        }
+    }
+
+    private static void benchmark(int n) {
+        Random random = new Random(0);
+        BitemporalBuffer<String> columnar = new BitemporalBuffer<>(n);
+        SkipListBitemporalBuffer<String> skipList = new SkipListBitemporalBuffer<>(n);
+        fill(columnar, skipList, random, 1000000l, n);
+        long firstRecord = 1000000l;
+        long lastRecord = 1000000l + 1000l * (n - 1);
+
+        // worst case: every record is unseen
+        long t0 = System.nanoTime();
+        double columnarEarliest = 0;
+        for (int i = 0; i < kQueries; ++i) {
+            columnarEarliest += columnar.earliestValidTimeForRecordsAfter(firstRecord);
+        }
+        long t1 = System.nanoTime();
+        double skipListEarliest = 0;
+        for (int i = 0; i < kQueries; ++i) {
+            skipListEarliest += skipList.earliestValidTimeForRecordsAfter(firstRecord);
+        }
+        long t2 = System.nanoTime();
+        assertEquals(skipListEarliest, columnarEarliest, 1e-9);
+        System.out.printf("n %6d earliest (all unseen)  columnar %8d ns/op skiplist %8d ns/op%n",
+                n, (t1 - t0) / kQueries, (t2 - t1) / kQueries);
+
+        // typical case: only the latest few are unseen
+        long recent = lastRecord - 5000;
+        t0 = System.nanoTime();
+        for (int i = 0; i < kQueries; ++i) {
+            columnarEarliest = columnar.earliestValidTimeForRecordsAfter(recent);
+        }
+        t1 = System.nanoTime();
+        for (int i = 0; i < kQueries; ++i) {
+            skipListEarliest = skipList.earliestValidTimeForRecordsAfter(recent);
+        }
+        t2 = System.nanoTime();
+        assertEquals(skipListEarliest, columnarEarliest, 1e-9);
+        System.out.printf("n %6d earliest (5 unseen)    columnar %8d ns/op skiplist %8d ns/op%n",
+                n, (t1 - t0) / kQueries, (t2 - t1) / kQueries);
+
+        // put at capacity, so every put also evicts
+        long from = lastRecord + 1000;
+        Random r1 = new Random(1);
+        t0 = System.nanoTime();
+        for (int i = 0; i < n; ++i) {
+            long recordTime = from + 1000l * i;
+            columnar.put(recordTime, recordTime / 1e6 - r1.nextDouble() * 0.15, "x");
+        }
+        t1 = System.nanoTime();
+        Random r2 = new Random(1);
+        for (int i = 0; i < n; ++i) {
+            long recordTime = from + 1000l * i;
+            skipList.put(recordTime, recordTime / 1e6 - r2.nextDouble() * 0.15, "x");
+        }
+        t2 = System.nanoTime();
+        assertEquals(skipList.size(), columnar.size());
+        assertEquals(skipList.earliestValidTimeForRecordsAfter(from),
+                columnar.earliestValidTimeForRecordsAfter(from), 1e-9);
+        System.out.printf("n %6d put (with eviction)    columnar %8d ns/op skiplist %8d ns/op%n",
+                n, (t1 - t0) / n, (t2 - t1) / n);
+    }
+
+    @Test
+    public void test1000() {
+        benchmark(1000);
+    }
+
+    @Test
+    public void test10000() {
+        benchmark(10000);
+    }
+}
@@ -2,9 +2,15 @@ package org.team100.lib.storage;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.SortedMap;
@@ -229,4 +235,110 @@ public class BitemporalBufferTest {
         }
     }
 
+    @Test
+    public void testEarliestValidTime() {
+        BitemporalBuffer<String> buf = new BitemporalBuffer<>(10);
+        assertEquals(Double.MAX_VALUE, buf.earliestValidTimeForRecordsAfter(0l));
+        buf.put(0l, 1.0, "r0 v1");
+        buf.put(1l, 0.5, "r1 v0.5");
+        buf.put(2l, 2.0, "r2 v2");
+        assertAll(
+                () -> assertEquals(0.5, buf.earliestValidTimeForRecordsAfter(0l)),
+                () -> assertEquals(0.5, buf.earliestValidTimeForRecordsAfter(1l)),
+                () -> assertEquals(2.0, buf.earliestValidTimeForRecordsAfter(2l)),
+                () -> assertEquals(Double.MAX_VALUE, buf.earliestValidTimeForRecordsAfter(3l)));
+    }
+
+    @Test
+    public void testEarliestValidTimeAfterEviction() {
+        BitemporalBuffer<String> buf = new BitemporalBuffer<>(3);
+        // many more than the capacity, so the log is compacted a few times.
+        for (int i = 0; i < 20; ++i) {
+            // every other one is late
+            double validTime = i % 2 == 0 ? i : i - 1.5;
+            buf.put(i, validTime, "r" + i);
+        }
+        assertEquals(3, buf.size());
+        // retained valid times are 16, 17.5, 18
+        NavigableMap<Double, Entry<Long, String>> validTailMap = buf.validTailMap(-Double.MAX_VALUE);
+        NavigableMap<Long, Entry<Double, String>> recordTailMap = buf.recordTailMap(Long.MIN_VALUE);
+        assertAll(
+                () -> assertEquals(3, validTailMap.size()),
+                () -> assertEquals(16.0, validTailMap.firstKey()),
+                () -> assertEquals(18.0, validTailMap.lastKey()),
+                () -> assertEquals(3, recordTailMap.size()),
+                () -> assertEquals(16l, recordTailMap.firstKey()),
+                () -> assertEquals(19l, recordTailMap.lastKey()),
+                () -> assertEquals(16.0, buf.earliestValidTimeForRecordsAfter(0l)),
+                () -> assertEquals(17.5, buf.earliestValidTimeForRecordsAfter(17l)),
+                () -> assertEquals(17.5, buf.earliestValidTimeForRecordsAfter(19l)),
+                () -> assertEquals("r19", buf.floorValue(17.9)));
+    }
+
+
+    @Test
+    public void testSnapshot() {
+        BitemporalBuffer<String> buf = new BitemporalBuffer<>(2);
+        buf.put(10l, 1.0, "one");
+        buf.put(11l, 0.5, "half");
+        HistorySnapshot<Entry<Long, String>> s = buf.snapshot();
+        assertSame(s, buf.snapshot());
+        // evicts "half"
+        buf.put(12l, 2.0, "two");
+        assertAll(
+                () -> assertEquals(2, s.size()),
+                () -> assertEquals(0.5, s.validTime(0)),
+                () -> assertEquals(11l, s.value(0).getKey()),
+                () -> assertEquals("half", s.value(0).getValue()));
+        HistorySnapshot<Entry<Long, String>> s2 = buf.snapshot();
+        assertAll(
+                () -> assertEquals(2, s2.size()),
+                () -> assertEquals("one", s2.floorValue(1.5).getValue()),
+                () -> assertEquals(12l, s2.value(1).getKey()));
+    }
+
+    @Test
+    public void testViewsFollowWrites() {
+        BitemporalBuffer<String> buf = new BitemporalBuffer<>(3);
+        NavigableMap<Double, Entry<Long, String>> valid = buf.validTailMap(1.0);
+        NavigableMap<Long, Entry<Double, String>> record = buf.recordTailMap(11l);
+        assertTrue(valid.isEmpty());
+        assertTrue(record.isEmpty());
+        buf.put(10l, 2.0, "two");
+        buf.put(11l, 0.5, "half");
+        buf.put(12l, 1.5, "one and a half");
+        assertAll(
+                () -> assertEquals(List.of(1.5, 2.0), new ArrayList<>(valid.keySet())),
+                () -> assertEquals(List.of(11l, 12l), new ArrayList<>(record.keySet())),
+                () -> assertEquals("half", record.get(11l).getValue()),
+                () -> assertEquals(0.5, record.firstEntry().getValue().getKey()),
+                () -> assertEquals("two", valid.floorEntry(10.0).getValue().getValue()),
+                () -> assertEquals(1.5, valid.ceilingKey(0.0)),
+                () -> assertNull(valid.lowerEntry(1.5)),
+                () -> assertNull(valid.get(0.5)));
+        // many more, so "half" is evicted and the log is compacted.
+        for (int i = 0; i < 10; ++i) {
+            buf.put(20l + i, 3.0 + i, "r" + i);
+        }
+        assertAll(
+                () -> assertEquals(3, valid.size()),
+                () -> assertEquals(10.0, valid.firstKey()),
+                () -> assertEquals(3, record.size()),
+                () -> assertEquals(27l, record.firstKey()),
+                () -> assertEquals(List.of(29l, 28l, 27l), new ArrayList<>(record.descendingKeySet())),
+                () -> assertEquals(2, record.tailMap(28l).size()),
+                () -> assertEquals(1, record.tailMap(28l, false).size()));
+    }
+
+    @Test
+    public void testViewIteratorFailsFast() {
+        BitemporalBuffer<String> buf = new BitemporalBuffer<>(10);
+        buf.put(0l, 0.0, "zero");
+        buf.put(1l, 1.0, "one");
+        Iterator<Entry<Double, Entry<Long, String>>> it = buf.validTailMap(0.0).entrySet().iterator();
+        assertEquals(0.0, it.next().getKey());
+        buf.put(2l, 2.0, "two");
+        assertThrows(ConcurrentModificationException.class, it::next);
+        assertThrows(UnsupportedOperationException.class, () -> buf.validTailMap(0.0).put(3.0, null));
+    }
 }
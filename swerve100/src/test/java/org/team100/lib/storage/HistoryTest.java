@@ -1,8 +1,18 @@
 package org.team100.lib.storage;
 
+import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.jupiter.api.Test;
 
@@ -16,4 +26,285 @@ public class HistoryTest {
         assertEquals(1.0, e.getKey());
         assertEquals("hi 1", e.getValue());
     }
+
+    @Test
+    public void testFloor() {
+        History<String> h = new History<>(10);
+        h.put(1.0, "one");
+        h.put(2.0, "two");
+        assertAll(
+                () -> assertNull(h.floor(0.5)),
+                () -> assertEquals("one", h.floorValue(1.0)),
+                () -> assertEquals("one", h.floorValue(1.5)),
+                () -> assertEquals("two", h.floorValue(2.0)),
+                () -> assertEquals("two", h.floorValue(100)),
+                () -> assertEquals("one", h.get(1.0)),
+                () -> assertNull(h.get(1.5)));
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        History<String> h = new History<>(10);
+        h.put(0.0, "hello");
+        h.put(0.0, "duplicate");
+        assertEquals(2, h.size());
+        assertEquals("hello", h.get(0.0));
+        assertEquals("duplicate", h.get(4.9E-324));
+    }
+
+    @Test
+    public void testCapacityWraps() {
+        History<String> h = new History<>(3);
+        for (int i = 0; i < 7; ++i) {
+            h.put(i, "v" + i);
+        }
+        assertEquals(3, h.size());
+        var values = new ArrayList<>(h.validTailMap(0).values());
+        assertAll(
+                () -> assertEquals(3, values.size()),
+                () -> assertEquals("v4", values.get(0)),
+                () -> assertEquals("v5", values.get(1)),
+                () -> assertEquals("v6", values.get(2)),
+                () -> assertNull(h.floor(3.5)),
+                () -> assertEquals("v4", h.floorValue(4.5)));
+    }
+
+    @Test
+    public void testOutOfOrderAcrossWrap() {
+        History<String> h = new History<>(4);
+        h.put(1.0, "v1");
+        h.put(2.0, "v2");
+        h.put(4.0, "v4");
+        h.put(5.0, "v5");
+        // full, so this bumps v1
+        h.put(3.0, "v3");
+        // older than everything retained, so it's dropped
+        h.put(0.5, "v0.5");
+        var values = new ArrayList<>(h.validTailMap(0).values());
+        assertAll(
+                () -> assertEquals(4, h.size()),
+                () -> assertEquals("v2", values.get(0)),
+                () -> assertEquals("v3", values.get(1)),
+                () -> assertEquals("v4", values.get(2)),
+                () -> assertEquals("v5", values.get(3)));
+    }
+
+    @Test
+    public void testSubMap() {
+        History<String> h = new History<>(10);
+        for (int i = 0; i < 5; ++i) {
+            h.put(i, "v" + i);
+        }
+        NavigableMap<Double, String> sub = h.validSubMap(1, 3);
+        assertAll(
+                () -> assertEquals(3, sub.size()),
+                () -> assertEquals(1.0, sub.firstKey()),
+                () -> assertEquals(3.0, sub.lastKey()),
+                () -> assertEquals("v2", sub.get(2.0)),
+                () -> assertNull(sub.get(4.0)),
+                () -> assertEquals("v1", sub.floorEntry(1.5).getValue()),
+                () -> assertNull(sub.floorEntry(0.5)),
+                () -> assertEquals(2, sub.tailMap(2.0, true).size()));
+    }
+
+    @Test
+    public void testSubMapOutOfBounds() {
+        History<String> h = new History<>(10);
+        for (int i = 0; i < 5; ++i) {
+            h.put(i, "v" + i);
+        }
+        NavigableMap<Double, String> sub = h.validSubMap(1, 3);
+        assertAll(
+                // above the view: the last entry in it, not null
+                () -> assertEquals(3.0, sub.floorKey(10.0)),
+                () -> assertEquals(3.0, sub.lowerKey(10.0)),
+                () -> assertEquals(3.0, sub.floorKey(3.5)),
+                () -> assertNull(sub.ceilingKey(3.5)),
+                () -> assertNull(sub.higherKey(3.0)),
+                // below the view: the first entry in it, not null
+                () -> assertEquals(1.0, sub.ceilingKey(-10.0)),
+                () -> assertEquals(1.0, sub.higherKey(-10.0)),
+                () -> assertEquals(1.0, sub.ceilingKey(0.5)),
+                () -> assertNull(sub.floorKey(0.5)),
+                () -> assertNull(sub.lowerKey(1.0)));
+        // a view narrower than the entries around it
+        History<String> g = new History<>(10);
+        g.put(0.0, "zero");
+        g.put(1.5, "one and a half");
+        g.put(3.0, "three");
+        NavigableMap<Double, String> narrow = g.validSubMap(1, 2);
+        assertAll(
+                () -> assertEquals("one and a half", narrow.floorEntry(5.0).getValue()),
+                () -> assertEquals("one and a half", narrow.lowerEntry(5.0).getValue()),
+                () -> assertEquals("one and a half", narrow.ceilingEntry(-5.0).getValue()),
+                () -> assertEquals("one and a half", narrow.higherEntry(-5.0).getValue()));
+    }
+
+    @Test
+    public void testSubMapDescending() {
+        History<String> h = new History<>(10);
+        for (int i = 0; i < 5; ++i) {
+            h.put(i, "v" + i);
+        }
+        NavigableMap<Double, String> sub = h.validSubMap(1, 3);
+        assertEquals(List.of(3.0, 2.0, 1.0), new ArrayList<>(sub.descendingKeySet()));
+        assertEquals(List.of(1.0, 2.0, 3.0), new ArrayList<>(sub.navigableKeySet()));
+        assertEquals("v3", sub.descendingMap().firstEntry().getValue());
+        assertThrows(UnsupportedOperationException.class, () -> sub.descendingMap().put(5.0, "v5"));
+    }
+
+    @Test
+    public void testTrim() {
+        EditableHistory<String> h = new EditableHistory<>(3);
+        for (int i = 0; i < 5; ++i) {
+            h.put(i, "v" + i);
+        }
+        h.trim(3.0);
+        assertEquals(1, h.size());
+        assertEquals("v2", h.floorValue(10));
+        // refill after trimming
+        h.put(3.5, "v3.5");
+        h.put(4.5, "v4.5");
+        h.put(5.5, "v5.5");
+        var values = new ArrayList<>(h.validTailMap(0).values());
+        assertAll(
+                () -> assertEquals(3, values.size()),
+                () -> assertEquals("v3.5", values.get(0)),
+                () -> assertEquals("v4.5", values.get(1)),
+                () -> assertEquals("v5.5", values.get(2)));
+    }
+
+    @Test
+    public void testRetention() {
+        // lots of room, but only one second of retention
+        History<Integer> h = new History<>(10000, 1.0);
+        for (int i = 0; i <= 5000; ++i) {
+            h.put(i * 0.001, i);
+        }
+        // the time horizon doesn't depend on the rate
+        assertEquals(1001, h.size());
+        assertEquals(4.0, h.validTailMap(0).firstKey(), 1e-9);
+        assertEquals(5.0, h.validTailMap(0).lastKey(), 1e-9);
+    }
+
+    @Test
+    public void testTiers() {
+        // 1 kHz for the last second, 10 Hz for the last 5, 1 Hz for the last 30.
+        History<Integer> h = new History<>(10000, 30,
+                new History.Tier(1, 0.1),
+                new History.Tier(5, 1));
+        for (int i = 0; i <= 40000; ++i) {
+            h.put(i * 0.001, i);
+        }
+        NavigableMap<Double, Integer> all = h.validTailMap(0);
+        assertEquals(10.0, all.firstKey(), 0.1);
+        assertEquals(40.0, all.lastKey(), 1e-9);
+        assertEquals(1001, all.subMap(39.0, true, 40.0, true).size());
+        double prev = Double.NEGATIVE_INFINITY;
+        for (double k : all.keySet()) {
+            if (k < 35)
+                assertTrue(k - prev >= 1.0 || prev == Double.NEGATIVE_INFINITY, "gap " + (k - prev));
+            else if (k < 39 && prev >= 35)
+                assertTrue(k - prev >= 0.1 - 1e-9, "gap " + (k - prev));
+            prev = k;
+        }
+        // memory is bounded by the tiers, not the rate
+        assertTrue(h.size() < 1100, "size " + h.size());
+    }
+
+    @Test
+    public void testFloorAcrossTiers() {
+        History<Integer> h = new History<>(10000, 30,
+                new History.Tier(1, 0.1),
+                new History.Tier(5, 1));
+        for (int i = 0; i <= 40000; ++i) {
+            h.put(i * 0.001, i);
+        }
+        // the floor is the nearest surviving older sample
+        Entry<Double, Integer> old = h.floor(20.5);
+        assertTrue(old.getKey() <= 20.5 && old.getKey() > 19.0, "old " + old.getKey());
+        Entry<Double, Integer> mid = h.floor(37.05);
+        assertTrue(mid.getKey() <= 37.05 && mid.getKey() > 36.9, "mid " + mid.getKey());
+        assertEquals(39500, h.floorValue(39.5));
+        // before the retention window
+        assertNull(h.floor(5.0));
+    }
+
+    @Test
+    public void testInterpolate() {
+        History<Double> h = new History<>(10);
+        h.put(1.0, 10.0);
+        h.put(2.0, 20.0);
+        h.put(4.0, 40.0);
+        Interpolator<Double> lerp = (a, b, s) -> a + (b - a) * s;
+        assertAll(
+                () -> assertEquals(15.0, h.interpolate(1.5, lerp), 1e-9),
+                () -> assertEquals(30.0, h.interpolate(3.0, lerp), 1e-9),
+                // exact key doesn't need a neighbor
+                () -> assertEquals(10.0, h.interpolate(1.0, lerp)),
+                () -> assertEquals(40.0, h.interpolate(4.0, lerp)),
+                // outside the history
+                () -> assertNull(h.interpolate(0.5, lerp)),
+                () -> assertNull(h.interpolate(4.5, lerp)),
+                // gap too big
+                () -> assertEquals(15.0, h.interpolate(1.5, 1.0, lerp), 1e-9),
+                () -> assertNull(h.interpolate(3.0, 1.0, lerp)),
+                () -> assertEquals(2.0, h.validCeilingEntry(1.5).getKey()),
+                () -> assertNull(h.validCeilingEntry(4.5)));
+    }
+
+    @Test
+    public void testSnapshot() {
+        EditableHistory<String> h = new EditableHistory<>(10);
+        h.put(1.0, "one");
+        h.put(2.0, "two");
+        HistorySnapshot<String> s = h.snapshot();
+        // no writes, same snapshot
+        assertSame(s, h.snapshot());
+        h.trim(1.5);
+        h.put(3.0, "three");
+        // the old snapshot doesn't change
+        assertEquals(2, s.size());
+        assertEquals("two", s.floorValue(2.5));
+        HistorySnapshot<String> s2 = h.snapshot();
+        assertNotSame(s, s2);
+        assertTrue(s2.getEpoch() > s.getEpoch());
+        assertAll(
+                () -> assertEquals(2, s2.size()),
+                () -> assertEquals("one", s2.floorValue(2.5)),
+                () -> assertEquals("three", s2.get(3.0)),
+                () -> assertNull(s2.floorValue(0.5)),
+                () -> assertEquals(3.0, s2.validCeilingEntry(1.5).getKey()),
+                () -> assertEquals(1, s2.floorIndex(3.0)),
+                () -> assertEquals(2, s2.ceilingIndex(3.5)));
+    }
+
+    @Test
+    public void testSnapshotWhileWriting() throws InterruptedException {
+        EditableHistory<Integer> h = new EditableHistory<>(100);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            // lots of puts and trims, so the ring wraps and the tail is cleared.
+            for (int i = 0; i < 100000; ++i) {
+                h.put(i, i);
+                if (i % 10 == 0)
+                    h.trim(i - 5);
+            }
+            done.set(true);
+        });
+        writer.start();
+        int reads = 0;
+        while (!done.get() || reads == 0) {
+            HistorySnapshot<Integer> s = h.snapshot();
+            // every snapshot is internally consistent.
+            for (int i = 0; i < s.size(); ++i) {
+                assertEquals(s.validTime(i), s.value(i).doubleValue());
+                if (i > 0)
+                    assertTrue(s.validTime(i) > s.validTime(i - 1));
+            }
+            ++reads;
+        }
+        writer.join();
+        assertEquals(h.size(), h.snapshot().size());
+    }
 }
@@ -0,0 +1,98 @@
+package org.team100.lib.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+
+import edu.wpi.first.math.VecBuilder;
+
+public class JournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path path = dir.resolve("journal.bin");
+        try (Journal journal = new Journal(path, 2, 10)) {
+            RandomVector<?> y = new RandomVector<>(VecBuilder.fill(1, 2), Variance.from2StdDev(3, 4));
+            assertTrue(journal.writeMeasurement(100, 0.5, y));
+            assertTrue(journal.writeControl(0.6, VecBuilder.fill(7)));
+            assertTrue(journal.writeReplay(200));
+            assertEquals(3, journal.size());
+        }
+        List<String> records = new ArrayList<>();
+        int count = Journal.read(path, (kind, recordTime, validTime, rows, mean, covariance) -> {
+            switch (kind) {
+                case Journal.kMeasurement:
+                    assertEquals(100, recordTime);
+                    assertEquals(0.5, validTime);
+                    assertEquals(2, rows);
+                    assertArrayEquals(new double[] { 1, 2 }, new double[] { mean[0], mean[1] });
+                    assertArrayEquals(new double[] { 9, 0, 0, 16 },
+                            new double[] { covariance[0], covariance[1], covariance[2], covariance[3] });
+                    records.add("measurement");
+                    break;
+                case Journal.kControl:
+                    assertEquals(0.6, validTime);
+                    assertEquals(1, rows);
+                    assertEquals(7, mean[0]);
+                    records.add("control");
+                    break;
+                case Journal.kReplay:
+                    assertEquals(200, recordTime);
+                    records.add("replay");
+                    break;
+                default:
+                    records.add("unknown");
+            }
+        });
+        assertEquals(3, count);
+        assertEquals(List.of("measurement", "control", "replay"), records);
+    }
+
+    @Test
+    public void testFull() throws IOException {
+        Path path = dir.resolve("journal.bin");
+        try (Journal journal = new Journal(path, 1, 2)) {
+            assertTrue(journal.writeReplay(1));
+            assertTrue(journal.writeReplay(2));
+            assertFalse(journal.writeReplay(3));
+            assertEquals(2, journal.size());
+            assertEquals(1, journal.getDropped());
+        }
+        assertEquals(2, Journal.read(path, (kind, recordTime, validTime, rows, mean, covariance) -> {
+        }));
+    }
+
+    @Test
+    public void testTooBig() throws IOException {
+        Path path = dir.resolve("journal.bin");
+        try (Journal journal = new Journal(path, 1, 2)) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> journal.writeControl(0, VecBuilder.fill(1, 2)));
+            // nothing was reserved
+            assertEquals(0, journal.size());
+        }
+    }
+
+    @Test
+    public void testNotAJournal() throws IOException {
+        Path path = dir.resolve("junk.bin");
+        Files.write(path, new byte[64]);
+        assertThrows(IOException.class, () -> Journal.read(path, (kind, recordTime, validTime, rows, mean, covariance) -> {
+        }));
+    }
+}
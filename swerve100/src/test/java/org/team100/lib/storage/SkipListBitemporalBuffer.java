@@ -0,0 +1,109 @@
+package org.team100.lib.storage;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The original skip-list implementation of BitemporalBuffer, kept for
+ * comparison in the benchmark.
+ */
+class SkipListBitemporalBuffer<Value> {
+    private static final boolean debug = false;
+    private final int capacity;
+    private final NavigableMap<Long, Entry<Double, Value>> record;
+    private final NavigableMap<Double, Entry<Long, Value>> valid;
+    private int size;
+
+    public SkipListBitemporalBuffer(int capacity) {
+        this.capacity = capacity;
+        size = 0;
+        record = new ConcurrentSkipListMap<Long, Entry<Double, Value>>();
+        valid = new ConcurrentSkipListMap<Double, Entry<Long, Value>>();
+    }
+
+    /**
+     * Store a measurement. Threadsafe.
+     * 
+     * @param recordTime represents the system time the value was written, expected
+     *                   to be FPGATime.
+     * @param validTime  represents the real-world time the value describes, in
+     *                   seconds. the most-recent entries are retained, up to the
+     *                   capacity.
+     * @param value      value to store
+     */
+    public synchronized void put(long recordTime, double validTime, Value value) {
+        // fix the keys to avoid overwriting anything.
+        // these are tiny increments, won't affect the consumer.
+        // synchronized so these increments are applied consistently.
+        while (record.containsKey(recordTime)) {
+            recordTime++; // add one microsecond
+        }
+        while (valid.containsKey(validTime)) {
+            validTime = Math.nextUp(validTime); // add smallest possible double
+        }
+        if (debug)
+            System.out.println("put measurement " + validTime + " " + value);
+        record.put(recordTime, new AbstractMap.SimpleImmutableEntry<>(validTime, value));
+        valid.put(validTime, new AbstractMap.SimpleImmutableEntry<>(recordTime, value));
+        if (++size > capacity) {
+            Entry<Double, Entry<Long, Value>> validEntry = valid.pollFirstEntry();
+            Long key = validEntry.getValue().getKey();
+            if (record.remove(key) == null) {
+                throw new IllegalStateException("This should never happen: missing record: " + key);
+            }
+            --size;
+        }
+    }
+
+    /**
+     * Find the most-recent value earlier than the specified valid time.
+     */
+    public Entry<Double, Entry<Long, Value>> floor(double validTimeSec) {
+        if (validTimeSec < 0)
+            throw new IllegalArgumentException("Negative time is not allowed: " + validTimeSec);
+        Entry<Double, Entry<Long, Value>> floor = validFloorEntry(validTimeSec);
+        if (floor == null)
+            throw new IllegalStateException("No floor key (not initialized?): " + validTimeSec);
+        return floor;
+    }
+
+    public Value floorValue(double validTimeSec) {
+        return floor(validTimeSec).getValue().getValue();
+    }
+
+    /**
+     * To consume out-of-sequence measurements, we just need to know the valid time
+     * of the earliest unseen record.
+     */
+    public double earliestValidTimeForRecordsAfter(long recordTime) {
+        // find the earliest measurement
+        NavigableMap<Long, Entry<Double, Value>> unseen = recordTailMap(recordTime);
+        double earliestMeasurementSec = Double.MAX_VALUE;
+        for (Entry<Double, Value> u : unseen.values()) {
+            double measurementTimeSec = u.getKey();
+            if (measurementTimeSec < earliestMeasurementSec)
+                earliestMeasurementSec = measurementTimeSec;
+        }
+        return earliestMeasurementSec;
+    }
+
+    public NavigableMap<Long, Entry<Double, Value>> recordTailMap(long tt) {
+        return Collections.unmodifiableNavigableMap(record.tailMap(tt, true));
+    }
+
+    public NavigableMap<Double, Entry<Long, Value>> validTailMap(double vt) {
+        return Collections.unmodifiableNavigableMap(valid.tailMap(vt, true));
+    }
+
+    /** Find the entry for the greatest key less than vt. */
+    public Entry<Double, Entry<Long, Value>> validFloorEntry(double vt) {
+        return valid.floorEntry(vt);
+    }
+
+    public int size() {
+        return size;
+    }
+}
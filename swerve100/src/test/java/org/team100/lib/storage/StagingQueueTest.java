@@ -0,0 +1,116 @@
+package org.team100.lib.storage;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.team100.lib.storage.StagingQueue.OverflowPolicy;
+
+public class StagingQueueTest {
+    @Test
+    public void testDrain() {
+        StagingQueue<String> q = new StagingQueue<>(4, OverflowPolicy.DROP_NEWEST);
+        BitemporalBuffer<String> buf = new BitemporalBuffer<>(10);
+        assertEquals(Double.MAX_VALUE, q.drainTo(buf));
+        q.offer(0l, 1.0, "r0 v1");
+        q.offer(1l, 0.5, "r1 v0.5");
+        assertEquals(2, q.size());
+        // the earliest valid time drained
+        assertEquals(0.5, q.drainTo(buf));
+        assertAll(
+                () -> assertEquals(0, q.size()),
+                () -> assertEquals(2, buf.size()),
+                () -> assertEquals("r1 v0.5", buf.floorValue(0.7)),
+                () -> assertEquals("r0 v1", buf.floorValue(1.0)),
+                () -> assertEquals(2, q.getEnqueued()),
+                () -> assertEquals(2, q.getDrained()),
+                () -> assertEquals(0, q.getDropped()));
+    }
+
+    @Test
+    public void testDropNewest() {
+        StagingQueue<String> q = new StagingQueue<>(2, OverflowPolicy.DROP_NEWEST);
+        BitemporalBuffer<String> buf = new BitemporalBuffer<>(10);
+        assertTrue(q.offer(0l, 0.0, "a"));
+        assertTrue(q.offer(1l, 1.0, "b"));
+        assertFalse(q.offer(2l, 2.0, "c"));
+        q.drainTo(buf);
+        assertAll(
+                () -> assertEquals(2, buf.size()),
+                () -> assertEquals("b", buf.floorValue(10)),
+                () -> assertEquals(2, q.getEnqueued()),
+                () -> assertEquals(2, q.getDrained()),
+                () -> assertEquals(1, q.getDropped()));
+    }
+
+    @Test
+    public void testDropOldest() {
+        StagingQueue<String> q = new StagingQueue<>(2, OverflowPolicy.DROP_OLDEST);
+        BitemporalBuffer<String> buf = new BitemporalBuffer<>(10);
+        assertTrue(q.offer(0l, 0.0, "a"));
+        assertTrue(q.offer(1l, 1.0, "b"));
+        assertTrue(q.offer(2l, 2.0, "c"));
+        assertEquals(1.0, q.drainTo(buf));
+        assertAll(
+                () -> assertEquals(2, buf.size()),
+                () -> assertEquals("b", buf.floorValue(1.0)),
+                () -> assertEquals("c", buf.floorValue(10)),
+                () -> assertEquals(3, q.getEnqueued()),
+                () -> assertEquals(2, q.getDrained()),
+                () -> assertEquals(1, q.getDropped()));
+    }
+
+    @Test
+    public void testWrap() {
+        StagingQueue<String> q = new StagingQueue<>(4, OverflowPolicy.DROP_NEWEST);
+        BitemporalBuffer<String> buf = new BitemporalBuffer<>(100);
+        for (int i = 0; i < 50; ++i) {
+            q.offer(i, i, "v" + i);
+            if (i % 3 == 0)
+                q.drainTo(buf);
+        }
+        q.drainTo(buf);
+        assertEquals(50, buf.size());
+        assertEquals(50, q.getDrained());
+    }
+
+    @Test
+    public void testManyProducers() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 10000;
+        StagingQueue<String> q = new StagingQueue<>(64, OverflowPolicy.DROP_OLDEST);
+        BitemporalBuffer<String> buf = new BitemporalBuffer<>(producers * perProducer);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; ++p) {
+            final int id = p;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perProducer; ++i) {
+                    q.offer(id * perProducer + i, i, "x");
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        boolean running = true;
+        while (running) {
+            q.drainTo(buf);
+            running = false;
+            for (Thread t : threads)
+                running |= t.isAlive();
+        }
+        for (Thread t : threads)
+            t.join();
+        q.drainTo(buf);
+        // every offer is either drained or dropped.
+        assertAll(
+                () -> assertEquals(producers * perProducer, q.getEnqueued()),
+                () -> assertEquals(q.getEnqueued(), q.getDrained() + q.getDropped()),
+                () -> assertEquals(q.getDrained(), buf.size()),
+                () -> assertEquals(0, q.size()));
+    }
+}
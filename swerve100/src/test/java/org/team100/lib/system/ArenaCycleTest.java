@@ -0,0 +1,147 @@
+package org.team100.lib.system;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.team100.lib.controller.FeedbackControl;
+import org.team100.lib.estimator.ExtrapolatingEstimator;
+import org.team100.lib.fusion.VarianceWeightedLinearPooling;
+import org.team100.lib.math.AngularRandomVector;
+import org.team100.lib.math.Arena;
+import org.team100.lib.math.MeasurementUncertainty;
+import org.team100.lib.math.RandomVector;
+import org.team100.lib.math.Variance;
+import org.team100.lib.math.WhiteNoiseVector;
+import org.team100.lib.system.examples.DoubleIntegratorRotary1D;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.Nat;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N2;
+
+/**
+ * A predict/fuse/control cycle using the array estimator and the arena
+ * overloads should allocate nothing once the arena has warmed up.
+ *
+ * The unit test checks the arena's own count; the heap check is tagged
+ * "benchmark", since it depends on the JIT.
+ */
+public class ArenaCycleTest {
+    private static final double kDelta = 1e-9;
+    private static final double kDt = 0.02;
+    // allowance for the measurement itself, e.g. a TLAB refill
+    private static final long kByteTolerance = 1024;
+
+    WhiteNoiseVector<N2> w = WhiteNoiseVector.noise2(0.01, 0.01);
+    MeasurementUncertainty<N2> v = MeasurementUncertainty.for2(0.01, 0.1);
+    final DoubleIntegratorRotary1D system = new DoubleIntegratorRotary1D(w, v);
+    final ExtrapolatingEstimator<N2, N1, N2> predictor = new ExtrapolatingEstimator<>(system);
+    final VarianceWeightedLinearPooling<N2> pooling = new VarianceWeightedLinearPooling<>();
+    final FeedbackControl<N2, N1, N2> controller = new FeedbackControl<>(system,
+            Matrix.mat(Nat.N1(), Nat.N2()).fill(10, 5));
+    final Arena arena = new Arena();
+
+    // the state lives in arrays between cycles
+    final double[] x = { 0, 0 };
+    final double[] P = { 0.1, 0, 0, 0.1 };
+    final double[] u = { 0 };
+    final Matrix<N2, N1> xmat = new Matrix<>(Nat.N2(), Nat.N1());
+    final Matrix<N2, N2> Pmat = new Matrix<>(Nat.N2(), Nat.N2());
+    final AngularRandomVector<N2> measurement = new AngularRandomVector<>(
+            VecBuilder.fill(1, 0), Variance.from2StdDev(0.1, 0.1));
+    final Matrix<N2, N1> setpoint = VecBuilder.fill(1, 0);
+
+    RandomVector<N2> prior;
+    RandomVector<N2> posterior;
+
+    void cycle() {
+        arena.reset();
+        predictor.predictWithNoise(x, P, u, kDt, x, P);
+        for (int i = 0; i < 2; ++i) {
+            xmat.set(i, 0, x[i]);
+            for (int j = 0; j < 2; ++j) {
+                Pmat.set(i, j, P[i * 2 + j]);
+            }
+        }
+        prior = arena.randomVector(measurement, xmat, arena.variance(Pmat));
+        posterior = pooling.fuse(prior, measurement, arena);
+        Matrix<N1, N1> uOut = controller.calculate(posterior, setpoint, arena);
+        for (int i = 0; i < 2; ++i) {
+            x[i] = posterior.x.get(i, 0);
+            for (int j = 0; j < 2; ++j) {
+                P[i * 2 + j] = posterior.Kxx.get(i, j);
+            }
+        }
+        u[0] = Math.max(-1, Math.min(1, uOut.get(0, 0)));
+    }
+
+    @Test
+    public void testMatchesAllocating() {
+        for (int i = 0; i < 10; ++i) {
+            cycle();
+        }
+        RandomVector<N2> expected = pooling.fuse(prior, measurement);
+        assertArrayEquals(expected.x.getData(), posterior.x.getData(), kDelta);
+        assertArrayEquals(expected.Kxx.getData(), posterior.Kxx.getData(), kDelta);
+        assertEquals(controller.calculate(expected, setpoint).get(0, 0),
+                controller.calculate(posterior, setpoint, arena).get(0, 0), kDelta);
+    }
+
+    @Test
+    public void testZeroAllocation() {
+        // only a sample is checked, and checks allocate.
+        pooling.setCompetitionMode(Integer.MAX_VALUE);
+        // warm up the arena
+        for (int i = 0; i < 100; ++i) {
+            cycle();
+        }
+        int allocations = arena.getAllocations();
+        assertTrue(allocations > 0);
+        for (int i = 0; i < 1000; ++i) {
+            cycle();
+        }
+        // every temporary came from the pool
+        assertEquals(allocations, arena.getAllocations());
+    }
+
+    /**
+     * Heap bytes, as the JVM counts them, which depends on the JIT having
+     * removed the boxing and the lambdas, so it's only a benchmark.
+     */
+    @Test
+    @Tag("benchmark")
+    public void testZeroAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long id = Thread.currentThread().getId();
+
+        pooling.setCompetitionMode(Integer.MAX_VALUE);
+        // warm up the arena, and the JIT
+        for (int i = 0; i < 10000; ++i) {
+            cycle();
+        }
+        int allocations = arena.getAllocations();
+
+        // asking allocates a little, so measure that first.
+        long b0 = threads.getThreadAllocatedBytes(id);
+        long b1 = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 1000; ++i) {
+            cycle();
+        }
+        long b2 = threads.getThreadAllocatedBytes(id);
+        long bytes = (b2 - b1) - (b1 - b0);
+        // anything allocated per cycle would be at least 16 KB here.
+        assertTrue(bytes < kByteTolerance, bytes + " bytes in 1000 cycles");
+        assertEquals(allocations, arena.getAllocations());
+    }
+}